@@ -0,0 +1,243 @@
+package org.rdr.radarbox.DSP;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/** Набор амплитудно-фазовых калибровочных коэффициентов для всех каналов. <p>
+ * Коэффициенты хранятся таблицей: сетка частот (МГц) и комплексный коэффициент каждого канала
+ * на каждой частоте. Каналы обозначаются так же, как сигналы {@link FreqSignals}: "t0r0",
+ * "t0r1" и т.д. Таблица получается
+ * <ul>
+ *     <li>по опорному измерению ({@link #fromReference(RawChannelView[], int, float[])}):
+ *     коэффициент выравнивает амплитуду и фазу опорного сигнала;</li>
+ *     <li>из текстового файла ({@link #read(File)}), например, из папки дополнений
+ *     AoRD-файла ({@link #FILE_NAME}).</li>
+ * </ul>
+ * Для обработки таблица пересчитывается на текущую ось частот
+ * ({@link #getCoefficients(float[], int, int)}) линейной интерполяцией в массивы типа float.
+ * Пересчёт выполняется только при смене оси, т.е. при изменении F0, dF или FN: ось в
+ * {@link FreqSignals} при этом создаётся заново.
+ * <p>
+ * Формат файла: строки, разделённые табуляцией; первая строка - заголовок
+ * "F_MHz t0r0_re t0r0_im t0r1_re t0r1_im ...", далее по строке на частоту.
+ */
+public class Calibration {
+    /** Имя файла коэффициентов в папке дополнений AoRD-файла */
+    public static final String FILE_NAME = "calibration.tsv";
+
+    private final float[] frequencies;
+    private final String[] channelNames;
+    /** Коэффициенты [канал][2*частота] в формате (re, im, re, im...) */
+    private final float[][] table;
+
+    /** Ось, для которой в последний раз пересчитаны коэффициенты, и результат пересчёта */
+    private float[] preparedAxis;
+    private int preparedRxN, preparedTxN;
+    private float[][] prepared;
+
+    /** Набор коэффициентов.
+     * @param frequenciesMHz сетка частот таблицы по возрастанию
+     * @param channelNames имена каналов ("t"+tx+"r"+rx)
+     * @param coefficients коэффициенты [канал][2*частота] (re, im), массивы не копируются
+     * @throws IllegalArgumentException если размеры не согласованы
+     */
+    public Calibration(@NonNull float[] frequenciesMHz, @NonNull String[] channelNames,
+                       @NonNull float[][] coefficients) {
+        if (frequenciesMHz.length < 1 || channelNames.length != coefficients.length)
+            throw new IllegalArgumentException("Wrong calibration table size");
+        for (float[] c : coefficients)
+            if (c.length != 2*frequenciesMHz.length)
+                throw new IllegalArgumentException("Wrong calibration table size");
+        this.frequencies = frequenciesMHz;
+        this.channelNames = channelNames;
+        this.table = coefficients;
+    }
+
+    /** Коэффициенты по опорному измерению m[f]: c[f] = A*conj(m[f])/|m[f]|^2, где A - средний
+     * модуль опорного сигнала канала. После калибровки опорный сигнал имеет постоянную амплитуду
+     * A и нулевую фазу на всех частотах. Отключённые каналы и нулевые отсчёты получают нулевые
+     * коэффициенты.
+     * @param views представления каналов текущего кадра ({@link FreqSignals#getChannelViews()})
+     * @param rxN количество приёмников (индекс канала tx*rxN+rx)
+     * @param frequenciesMHz ось частот кадра
+     * @return набор коэффициентов
+     */
+    @NonNull
+    public static Calibration fromReference(@NonNull RawChannelView[] views, int rxN,
+                                            @NonNull float[] frequenciesMHz) {
+        int n = frequenciesMHz.length;
+        String[] names = new String[views.length];
+        float[][] coefficients = new float[views.length][2*n];
+        float[] reference = new float[2*n];
+        for (int ch = 0; ch < views.length; ch++) {
+            names[ch] = "t" + ch/rxN + "r" + ch%rxN;
+            if (!views[ch].isEnabled() || views[ch].getLength() != n)
+                continue;
+            views[ch].copyTo(reference);
+            double amplitude = 0;
+            for (int f = 0; f < n; f++)
+                amplitude += Math.hypot(reference[2*f], reference[2*f+1]);
+            amplitude /= n;
+            float[] c = coefficients[ch];
+            for (int f = 0; f < n; f++) {
+                double re = reference[2*f], im = reference[2*f+1];
+                double power = re*re + im*im;
+                if (power == 0)
+                    continue;
+                c[2*f] = (float) (amplitude*re/power);
+                c[2*f+1] = (float) (-amplitude*im/power);
+            }
+        }
+        return new Calibration(frequenciesMHz.clone(), names, coefficients);
+    }
+
+    /** Чтение коэффициентов из файла (формат описан в {@link Calibration}).
+     * @throws IOException при ошибке чтения или неверном формате
+     */
+    @NonNull
+    public static Calibration read(@NonNull File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return read(in);
+        }
+    }
+
+    /** Чтение коэффициентов из потока (формат описан в {@link Calibration}).
+     * @throws IOException при ошибке чтения или неверном формате
+     */
+    @NonNull
+    public static Calibration read(@NonNull InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+        String header = reader.readLine();
+        if (header == null)
+            throw new IOException("Empty calibration file");
+        String[] columns = header.trim().split("\t");
+        if (columns.length < 3 || columns.length % 2 != 1)
+            throw new IOException("Wrong calibration header: " + header);
+        int channels = (columns.length - 1)/2;
+        String[] names = new String[channels];
+        for (int ch = 0; ch < channels; ch++) {
+            String name = columns[1 + 2*ch];
+            names[ch] = name.endsWith("_re") ? name.substring(0, name.length() - 3) : name;
+        }
+        ArrayList<float[]> rows = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty())
+                continue;
+            String[] values = line.trim().split("\t");
+            if (values.length != columns.length)
+                throw new IOException("Wrong calibration line: " + line);
+            float[] row = new float[values.length];
+            try {
+                for (int i = 0; i < values.length; i++)
+                    row[i] = Float.parseFloat(values[i]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Wrong calibration line: " + line);
+            }
+            rows.add(row);
+        }
+        if (rows.isEmpty())
+            throw new IOException("No calibration data");
+        rows.sort((a, b) -> Float.compare(a[0], b[0]));
+        float[] frequencies = new float[rows.size()];
+        float[][] coefficients = new float[channels][2*rows.size()];
+        for (int f = 0; f < rows.size(); f++) {
+            float[] row = rows.get(f);
+            frequencies[f] = row[0];
+            for (int ch = 0; ch < channels; ch++) {
+                coefficients[ch][2*f] = row[1 + 2*ch];
+                coefficients[ch][2*f+1] = row[2 + 2*ch];
+            }
+        }
+        return new Calibration(frequencies, names, coefficients);
+    }
+
+    /** Запись коэффициентов в файл (формат описан в {@link Calibration}).
+     * @throws IOException при ошибке записи
+     */
+    public void write(@NonNull File file) throws IOException {
+        try (Writer writer = new BufferedWriter(new FileWriter(file, false))) {
+            StringBuilder line = new StringBuilder("F_MHz");
+            for (String name : channelNames)
+                line.append('\t').append(name).append("_re\t").append(name).append("_im");
+            writer.write(line.append('\n').toString());
+            for (int f = 0; f < frequencies.length; f++) {
+                line.setLength(0);
+                line.append(frequencies[f]);
+                for (float[] c : table)
+                    line.append('\t').append(c[2*f]).append('\t').append(c[2*f+1]);
+                writer.write(line.append('\n').toString());
+            }
+        }
+    }
+
+    /** @return сетка частот таблицы (МГц), не должна изменяться */
+    public float[] getFrequencies() {return frequencies;}
+
+    /** @return имена каналов таблицы */
+    public String[] getChannelNames() {return channelNames.clone();}
+
+    /** Коэффициенты для текущей оси частот (пересчитываются только при смене оси или матрицы
+     * каналов). Значения между узлами таблицы интерполируются линейно, за пределами таблицы
+     * берутся крайние значения.
+     * @param axisMHz ось частот сигналов
+     * @param rxN количество приёмников
+     * @param txN количество передатчиков
+     * @return массив [tx*rxN+rx][2*axisMHz.length] (re, im); элемент null - для канала нет
+     * коэффициентов, он не корректируется. Массивы не должны изменяться
+     */
+    @NonNull
+    public synchronized float[][] getCoefficients(@NonNull float[] axisMHz, int rxN, int txN) {
+        if (prepared != null && preparedAxis == axisMHz && preparedRxN == rxN && preparedTxN == txN)
+            return prepared;
+        float[][] result = new float[rxN*txN][];
+        for (int tx = 0; tx < txN; tx++) {
+            for (int rx = 0; rx < rxN; rx++) {
+                int ch = Arrays.asList(channelNames).indexOf("t" + tx + "r" + rx);
+                if (ch >= 0)
+                    result[tx*rxN + rx] = interpolate(table[ch], axisMHz);
+            }
+        }
+        prepared = result;
+        preparedAxis = axisMHz;
+        preparedRxN = rxN;
+        preparedTxN = txN;
+        return result;
+    }
+
+    private float[] interpolate(float[] c, float[] axis) {
+        float[] result = new float[2*axis.length];
+        int last = frequencies.length - 1;
+        for (int f = 0; f < axis.length; f++) {
+            float x = axis[f];
+            int k = Arrays.binarySearch(frequencies, x);
+            if (k >= 0) {
+                result[2*f] = c[2*k];
+                result[2*f+1] = c[2*k+1];
+                continue;
+            }
+            k = -k - 1;
+            if (k == 0 || k > last) {
+                int edge = k == 0 ? 0 : last;
+                result[2*f] = c[2*edge];
+                result[2*f+1] = c[2*edge+1];
+                continue;
+            }
+            float t = (x - frequencies[k-1])/(frequencies[k] - frequencies[k-1]);
+            result[2*f] = c[2*(k-1)] + t*(c[2*k] - c[2*(k-1)]);
+            result[2*f+1] = c[2*(k-1)+1] + t*(c[2*k+1] - c[2*(k-1)+1]);
+        }
+        return result;
+    }
+}
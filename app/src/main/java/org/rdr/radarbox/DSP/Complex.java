@@ -50,7 +50,8 @@ public class Complex implements Serializable {
      * @return модуль текущего комплексного числа
      */
     public float abs() {
-        return (float) Math.hypot(re, im);
+        // в double произведения не переполняются, Math.hypot для float избыточен и медленнее
+        return (float) Math.sqrt((double) re*re + (double) im*im);
     }
 
     /** Возвращает аргумент текущего комплексного числа в диапазоне -pi...+pi
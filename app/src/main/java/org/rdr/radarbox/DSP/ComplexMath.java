@@ -0,0 +1,177 @@
+package org.rdr.radarbox.DSP;
+
+/** Модуль, аргумент и мощность в дБ комплексных отсчётов с выбираемой точностью. <p>
+ * Пакетные функции обрабатывают массивы отсчётов в формате (re, im, re, im...) и записывают
+ * результат в переданный массив, не выделяя память. Точность {@link Accuracy#EXACT} - вычисление
+ * через {@link Math#sqrt(double)}, {@link Math#atan2(double, double)} и
+ * {@link Math#log10(double)}; {@link Accuracy#FAST} - приближения без этих функций, достаточные
+ * для отображения на графиках (несколько сотен точек по высоте экрана):
+ * <ul>
+ *     <li>модуль - alpha max + beta min по двум прямым, погрешность не больше 1,1%
+ *     (наибольшая, около 1,01%, - при угле около 34 градусов; быстрее точного вычисления
+ *     только там, где корень не выполняется аппаратно);</li>
+ *     <li>аргумент - полином для арктангенса в первом октанте, погрешность не больше
+ *     1,2e-5 рад;</li>
+ *     <li>мощность в дБ - двоичный логарифм по экспоненте числа float и таблице для мантиссы
+ *     с линейной интерполяцией, погрешность не больше 1e-4 дБ.</li>
+ * </ul>
+ */
+public final class ComplexMath {
+    /** Точность вычислений */
+    public enum Accuracy {
+        /** Вычисление стандартными функциями {@link Math} */
+        EXACT,
+        /** Приближённое вычисление для отображения */
+        FAST
+    }
+
+    /** Наименьшая мощность при вычислении в дБ (меньшие значения, в том числе 0, дают -200 дБ) */
+    public static final float MIN_POWER = 1e-20f;
+
+    private static final float HALF_PI = (float) (Math.PI / 2);
+    private static final float PI = (float) Math.PI;
+    /** 10*log10(2): перевод двоичного логарифма мощности в дБ */
+    private static final float DB_PER_OCTAVE = (float) (10 * Math.log10(2));
+    /** Количество старших бит мантиссы, по которым выбирается интервал таблицы логарифмов */
+    private static final int LOG_TABLE_BITS = 8;
+    private static final int LOG_FRACTION_BITS = 23 - LOG_TABLE_BITS;
+    /** log2(1 + i/2^LOG_TABLE_BITS), i = 0..2^LOG_TABLE_BITS */
+    private static final float[] LOG2_TABLE = new float[(1 << LOG_TABLE_BITS) + 1];
+
+    static {
+        for (int i = 0; i < LOG2_TABLE.length; i++)
+            LOG2_TABLE[i] = (float) (Math.log1p((double) i / (1 << LOG_TABLE_BITS))
+                    / Math.log(2));
+    }
+
+    private ComplexMath() {}
+
+    /** Модуль комплексного числа
+     * @param re действительная часть
+     * @param im мнимая часть
+     * @param accuracy точность
+     * @return sqrt(re^2+im^2)
+     */
+    public static float abs(float re, float im, Accuracy accuracy) {
+        return accuracy == Accuracy.FAST ? fastAbs(re, im) : (float) Math.sqrt(re * re + im * im);
+    }
+
+    /** Аргумент комплексного числа
+     * @param re действительная часть
+     * @param im мнимая часть
+     * @param accuracy точность
+     * @return аргумент в диапазоне -pi...+pi
+     */
+    public static float arg(float re, float im, Accuracy accuracy) {
+        return accuracy == Accuracy.FAST ? fastAtan2(im, re) : (float) Math.atan2(im, re);
+    }
+
+    /** Мощность комплексного числа в дБ
+     * @param re действительная часть
+     * @param im мнимая часть
+     * @param accuracy точность
+     * @return 10*log10(re^2+im^2), не меньше 10*log10({@link #MIN_POWER})
+     */
+    public static float powerDb(float re, float im, Accuracy accuracy) {
+        float power = Math.max(re * re + im * im, MIN_POWER);
+        return accuracy == Accuracy.FAST ? fastPowerDb(power) : (float) (10 * Math.log10(power));
+    }
+
+    /** Модули отсчётов
+     * @param data отсчёты в формате (re, im, re, im...)
+     * @param offset индекс в data первого отсчёта
+     * @param dest массив модулей, не меньше count
+     * @param count количество отсчётов
+     * @param accuracy точность
+     */
+    public static void abs(float[] data, int offset, float[] dest, int count, Accuracy accuracy) {
+        if (accuracy == Accuracy.FAST)
+            for (int i = 0, j = offset; i < count; i++, j += 2)
+                dest[i] = fastAbs(data[j], data[j + 1]);
+        else
+            for (int i = 0, j = offset; i < count; i++, j += 2) {
+                float re = data[j], im = data[j + 1];
+                dest[i] = (float) Math.sqrt(re * re + im * im);
+            }
+    }
+
+    /** Аргументы отсчётов в диапазоне -pi...+pi
+     * @param data отсчёты в формате (re, im, re, im...)
+     * @param offset индекс в data первого отсчёта
+     * @param dest массив аргументов, не меньше count
+     * @param count количество отсчётов
+     * @param accuracy точность
+     */
+    public static void arg(float[] data, int offset, float[] dest, int count, Accuracy accuracy) {
+        if (accuracy == Accuracy.FAST)
+            for (int i = 0, j = offset; i < count; i++, j += 2)
+                dest[i] = fastAtan2(data[j + 1], data[j]);
+        else
+            for (int i = 0, j = offset; i < count; i++, j += 2)
+                dest[i] = (float) Math.atan2(data[j + 1], data[j]);
+    }
+
+    /** Мощности отсчётов в дБ, см. {@link #powerDb(float, float, Accuracy)}
+     * @param data отсчёты в формате (re, im, re, im...)
+     * @param offset индекс в data первого отсчёта
+     * @param dest массив мощностей в дБ, не меньше count
+     * @param count количество отсчётов
+     * @param accuracy точность
+     */
+    public static void powerDb(float[] data, int offset, float[] dest, int count,
+                               Accuracy accuracy) {
+        if (accuracy == Accuracy.FAST)
+            for (int i = 0, j = offset; i < count; i++, j += 2) {
+                float re = data[j], im = data[j + 1];
+                dest[i] = fastPowerDb(Math.max(re * re + im * im, MIN_POWER));
+            }
+        else
+            for (int i = 0, j = offset; i < count; i++, j += 2) {
+                float re = data[j], im = data[j + 1];
+                dest[i] = (float) (10 * Math.log10(Math.max(re * re + im * im, MIN_POWER)));
+            }
+    }
+
+    /** max(0.99*M + 0.197*m, 0.84*M + 0.561*m), M и m - больший и меньший из модулей
+     * компонент */
+    private static float fastAbs(float re, float im) {
+        float a = Math.abs(re), b = Math.abs(im);
+        float big = a > b ? a : b, small = a > b ? b : a;
+        float z0 = 0.99f * big + 0.197f * small, z1 = 0.84f * big + 0.561f * small;
+        return z0 > z1 ? z0 : z1;
+    }
+
+    /** Арктангенс отношения меньшего модуля компоненты к большему - полином 9-й степени
+     * (Абрамовиц, Стиган, 4.4.49), затем перенос в нужный октант */
+    private static float fastAtan2(float y, float x) {
+        float ax = Math.abs(x), ay = Math.abs(y);
+        // ноль (с учётом знаков нулей) - как в Math.atan2
+        if (ax == 0 && ay == 0)
+            return (float) Math.atan2(y, x);
+        boolean steep = ay > ax;
+        float r = steep ? ax / ay : ay / ax;
+        float r2 = r * r;
+        float a = r * (0.9998660f + r2 * (-0.3302995f + r2 * (0.1801410f
+                + r2 * (-0.0851330f + r2 * 0.0208351f))));
+        if (steep)
+            a = HALF_PI - a;
+        if (x < 0)
+            a = PI - a;
+        return Math.copySign(a, y);
+    }
+
+    /** 10*log10(power) для положительного нормализованного числа: экспонента даёт целую часть
+     * двоичного логарифма, старшие биты мантиссы - интервал таблицы, младшие - интерполяцию */
+    private static float fastPowerDb(float power) {
+        if (power == Float.POSITIVE_INFINITY)
+            return power;
+        int bits = Float.floatToRawIntBits(power);
+        int exponent = (bits >>> 23) - 127;
+        int mantissa = bits & 0x7FFFFF;
+        int index = mantissa >>> LOG_FRACTION_BITS;
+        float fraction = (mantissa & ((1 << LOG_FRACTION_BITS) - 1))
+                * (1f / (1 << LOG_FRACTION_BITS));
+        float log2 = LOG2_TABLE[index] + (LOG2_TABLE[index + 1] - LOG2_TABLE[index]) * fraction;
+        return (exponent + log2) * DB_PER_OCTAVE;
+    }
+}
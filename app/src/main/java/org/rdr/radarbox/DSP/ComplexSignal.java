@@ -6,7 +6,9 @@ import java.io.Serializable;
 
 /** Класс для работы с сигналами. <p>
  * Сигнал представялется, как функция y(x). <p>
- *  y - всегда комплексные ({@link Complex} отсчёты типа float <p>
+ *  y - всегда комплексные отсчёты типа float. Для экономии памяти и времени отсчёты хранятся
+ *  не объектами {@link Complex}, а в одном массиве float в формате (re, im, re, im...)
+ *  {@link #getData()}. Такой массив можно напрямую передавать в {@link FftPlan}. <p>
  *  x - всегда действительный аргумент типа float <p>
  * Для удобства использования в графиках и других средствах отображения, для переменных x и y
  * указываются единицы измерений unitsX, unitsY. <p>
@@ -16,7 +18,7 @@ public class ComplexSignal implements Serializable {
     /** Порядок следования отсчётов сигнала при передачи массива сигнала в конструктор класса.
      * По названиям понятно, какой порядок, что означает.
      */
-    enum SamplesOrder {
+    public enum SamplesOrder {
         ONLY_RE,
         ONLY_IM,
         RE_IM_RE_IM,
@@ -24,16 +26,55 @@ public class ComplexSignal implements Serializable {
     };
 
     private float[] x;
-    private Complex[] y;
+    /** Признак действительного сигнала: {@link SamplesOrder#ONLY_RE} или
+     * {@link SamplesOrder#ONLY_IM}, если ненулевые только действительные (мнимые) части,
+     * иначе {@link SamplesOrder#RE_IM_RE_IM} */
+    private SamplesOrder samplesOrder = SamplesOrder.RE_IM_RE_IM;
+    /** Отсчёты сигнала в формате (re, im, re, im...) */
+    private final float[] data;
+    private final int length;
     private String unitsX="";
     private String unitsY="";
     private String name="";
 
     public float[] getX() { return x; }
-    public Complex[] getY() { return y; }
+    /** Массив отсчётов сигнала в формате (re, im, re, im...) размера 2*{@link #getLength()}.
+     * Возвращается сам массив, а не копия, поэтому его можно изменять на месте.
+     * @return массив отсчётов сигнала
+     */
+    public float[] getData() { return data; }
+    public float getRe(int i) { return data[2*i]; }
+    public float getIm(int i) { return data[2*i+1]; }
+    public void set(int i, float re, float im) { data[2*i] = re; data[2*i+1] = im; }
     public String getUnitsX() { return unitsX; }
     public String getUnitsY() { return unitsY; }
-    public int getLength() {return y.length;}
+    public int getLength() {return length;}
+    /** Признак того, что сигнал действительный. Задаётся конструктором с порядком отсчётов
+     * {@link SamplesOrder#ONLY_RE} / {@link SamplesOrder#ONLY_IM} либо
+     * {@link #setSamplesOrder(SamplesOrder)}. По нему операции (например, БПФ) выбирают
+     * более быстрый алгоритм для действительных данных.
+     * @return {@link SamplesOrder#ONLY_RE}, {@link SamplesOrder#ONLY_IM} или
+     * {@link SamplesOrder#RE_IM_RE_IM} для комплексного сигнала
+     */
+    public SamplesOrder getSamplesOrder() {return samplesOrder;}
+    /** @return true, если сигнал действительный ({@link #getSamplesOrder()}) */
+    public boolean isReal() {
+        return samplesOrder == SamplesOrder.ONLY_RE || samplesOrder == SamplesOrder.ONLY_IM;
+    }
+
+    /** Копия отсчётов сигнала в виде массива объектов {@link Complex}. <p>
+     * Оставлено для совместимости: при каждом вызове создаётся {@link #getLength()} новых
+     * объектов, а изменения в них не попадают в сигнал. Вместо этого метода следует
+     * использовать {@link #getData()}, {@link #getRe(float[])}, {@link #getIm(float[])}.
+     * @return новый массив комплексных отсчётов
+     */
+    @Deprecated
+    public Complex[] getY() {
+        Complex[] y = new Complex[length];
+        for (int i=0; i<length; i++)
+            y[i] = new Complex(data[2*i],data[2*i+1]);
+        return y;
+    }
 
     /** Задать название единиц измерения по оси X <p>
      * (нужно для графиков)
@@ -60,6 +101,34 @@ public class ComplexSignal implements Serializable {
      */
     public ComplexSignal setName(String name) { this.name = name; return this;}
 
+    /** Задать признак действительного сигнала. Отсчёты не изменяются: вызывающий отвечает за то,
+     * что при {@link SamplesOrder#ONLY_RE} мнимые части (при {@link SamplesOrder#ONLY_IM} -
+     * действительные) равны нулю.
+     * @param samplesOrder {@link SamplesOrder#ONLY_RE}, {@link SamplesOrder#ONLY_IM}, либо
+     *                     {@link SamplesOrder#RE_IM_RE_IM} / {@link SamplesOrder#IM_RE_IM_RE}
+     *                     для комплексного сигнала
+     * @return текущий объект сигнала
+     */
+    public ComplexSignal setSamplesOrder(@NonNull SamplesOrder samplesOrder) {
+        this.samplesOrder = samplesOrder == SamplesOrder.IM_RE_IM_RE ?
+                SamplesOrder.RE_IM_RE_IM : samplesOrder;
+        return this;
+    }
+
+    /** Задать название, ось X (без копирования), единицы измерения и признак действительного
+     * сигнала такими же, как у другого сигнала той же длины (например, выходу операции - как
+     * у её входа; следующие операции готовятся по ним до первого кадра)
+     * @param source сигнал, описание которого копируется
+     * @return этот же объект для реализации присваивания по цепочке
+     */
+    public ComplexSignal setDescription(@NonNull ComplexSignal source) {
+        return setName(source.getName())
+                .setSharedX(source.getX())
+                .setUnitsX(source.getUnitsX())
+                .setUnitsY(source.getUnitsY())
+                .setSamplesOrder(source.getSamplesOrder());
+    }
+
     /** название сигнала <p>
      * Нужно для графиков. Особенно, когда сигналов несколько. Например, сигналы с разных
      * передатчиков / приёмников.
@@ -68,7 +137,7 @@ public class ComplexSignal implements Serializable {
     public String getName() {return name;}
 
     public ComplexSignal setX(short[] x) {
-        if (x.length != this.y.length) {
+        if (x.length != length) {
             throw new IllegalArgumentException("x.length != y.length");
         }
         this.x = new float[x.length];
@@ -78,7 +147,7 @@ public class ComplexSignal implements Serializable {
     }
 
     public ComplexSignal setX(int[] x) {
-        if (x.length != this.y.length) {
+        if (x.length != length) {
             throw new IllegalArgumentException("x.length != y.length");
         }
         this.x = new float[x.length];
@@ -88,7 +157,7 @@ public class ComplexSignal implements Serializable {
     }
 
     public ComplexSignal setX(float[] x) {
-        if (x.length != this.y.length) {
+        if (x.length != length) {
             throw new IllegalArgumentException("x.length != y.length");
         }
         this.x = new float[x.length];
@@ -97,24 +166,50 @@ public class ComplexSignal implements Serializable {
         return this;
     }
 
+    /** Задать вектор x без копирования. <p>
+     * Используется, когда несколько сигналов имеют общую ось x (например, общий вектор частот
+     * всех каналов), чтобы не копировать её для каждого сигнала на каждом кадре.
+     * Массив не должен изменяться после передачи.
+     *
+     * @param x вектор аргументов сигнала размера {@link #getLength()}
+     * @return этот же объект для реализации присваивания по цепочке
+     */
+    public ComplexSignal setSharedX(float[] x) {
+        if (x.length != length) {
+            throw new IllegalArgumentException("x.length != y.length");
+        }
+        this.x = x;
+        return this;
+    }
+
     /** Простейший конструктор сигнала. По сути выделяет память для хранения.
      *
      * @param length - количество отсчётов сигнала
      */
     public ComplexSignal(int length) {
+        this.length = length;
         this.x = new float[length];
-        this.y = new Complex[length];
-        for (int i = 0; i < x.length; i++) {
+        this.data = new float[2*length];
+        for (int i = 0; i < x.length; i++)
             this.x[i] = i;
-            this.y[i]=new Complex(0,0);
-        }
     }
 
+    /** Конструктор сигнала по массиву объектов {@link Complex}. Отсчёты копируются.
+     *
+     * @param x - массив аргументов сигнала (не копируется)
+     * @param y - массив комплексных отсчётов сигнала
+     */
     public ComplexSignal(float[] x, Complex[] y) {
         if (x.length != y.length) {
             throw new IllegalArgumentException("x.length != y.length");
         }
-        this.x = x; this.y=y;
+        this.length = y.length;
+        this.x = x;
+        this.data = new float[2*length];
+        for (int i = 0; i < length; i++) {
+            data[2*i] = y[i].re;
+            data[2*i+1] = y[i].im;
+        }
     }
 
     public ComplexSignal(float[] x, Complex[] y, String name) {
@@ -136,134 +231,101 @@ public class ComplexSignal implements Serializable {
 
     /** Упрощённый конструктор сигнала. В x в таком случае записываются номера отсчётов (индексы).
      * В зависимости от порядка следования отсчётов <em>y</em>, определяемом переменной samplesOrder,
-     * данные из аргумента <em>y</em> будут по-разному записываться в this.y.
+     * данные из аргумента <em>y</em> будут по-разному записываться в массив отсчётов {@link #getData()}.
      *
      * @param y - массив отсчётов сигнала <em>y(x)</em>
      * @param samplesOrder - порядок следования отсчётов
      */
     public ComplexSignal(float[] y, @NonNull SamplesOrder samplesOrder) {
+        this(samplesOrder == SamplesOrder.ONLY_RE || samplesOrder == SamplesOrder.ONLY_IM ?
+                y.length : y.length/2);
         switch (samplesOrder) {
             case ONLY_RE:
-                this.x = new float[y.length];
-                this.y = new Complex[y.length];
-                for (int i = 0; i < x.length; i++) {
-                    this.x[i] = i;
-                    this.y[i]=new Complex(y[i],0);
-                }
+                for (int i = 0; i < length; i++)
+                    data[2*i] = y[i];
                 break;
             case ONLY_IM:
-                this.x = new float[y.length];
-                this.y = new Complex[y.length];
-                for (int i = 0; i < x.length; i++) {
-                    this.x[i] = i;
-                    this.y[i]=new Complex(0,y[i]);
-                }
+                for (int i = 0; i < length; i++)
+                    data[2*i+1] = y[i];
                 break;
             case RE_IM_RE_IM:
-                this.x = new float[y.length/2];
-                this.y = new Complex[y.length/2];
-                for (int i = 0; i < x.length; i++) {
-                    this.x[i] = i;
-                    this.y[i]=new Complex(y[2*i],y[2*i+1]);
-                }
+                for (int i = 0; i < 2*length; i++)
+                    data[i] = y[i];
                 break;
             case IM_RE_IM_RE:
-                this.x = new float[y.length/2];
-                this.y = new Complex[y.length/2];
-                for (int i = 0; i < x.length; i++) {
-                    this.x[i] = i;
-                    this.y[i]=new Complex(y[2*i+1],y[2*i]);
+                for (int i = 0; i < length; i++) {
+                    data[2*i] = y[2*i+1];
+                    data[2*i+1] = y[2*i];
                 }
                 break;
         }
+        setSamplesOrder(samplesOrder);
     }
 
     /** Упрощённый конструктор сигнала. В x в таком случае записываются номера отсчётов (индексы).
      * В зависимости от порядка следования отсчётов <em>y</em>, определяемом переменной samplesOrder,
-     * данные из аргумента <em>y</em> будут по-разному записываться в this.y.
+     * данные из аргумента <em>y</em> будут по-разному записываться в массив отсчётов {@link #getData()}.
      *
      * @param y - массив отсчётов сигнала <em>y(x)</em>
      * @param samplesOrder - порядок следования отсчётов
      */
     public ComplexSignal(int[] y, @NonNull SamplesOrder samplesOrder) {
+        this(samplesOrder == SamplesOrder.ONLY_RE || samplesOrder == SamplesOrder.ONLY_IM ?
+                y.length : y.length/2);
         switch (samplesOrder) {
             case ONLY_RE:
-                this.x = new float[y.length];
-                this.y = new Complex[y.length];
-                for (int i = 0; i < x.length; i++) {
-                    this.x[i] = i;
-                    this.y[i]=new Complex(y[i],0);
-                }
+                for (int i = 0; i < length; i++)
+                    data[2*i] = y[i];
                 break;
             case ONLY_IM:
-                this.x = new float[y.length];
-                this.y = new Complex[y.length];
-                for (int i = 0; i < x.length; i++) {
-                    this.x[i] = i;
-                    this.y[i]=new Complex(0,y[i]);
-                }
+                for (int i = 0; i < length; i++)
+                    data[2*i+1] = y[i];
                 break;
             case RE_IM_RE_IM:
-                this.x = new float[y.length/2];
-                this.y = new Complex[y.length/2];
-                for (int i = 0; i < x.length; i++) {
-                    this.x[i] = i;
-                    this.y[i]=new Complex(y[2*i],y[2*i+1]);
-                }
+                for (int i = 0; i < 2*length; i++)
+                    data[i] = y[i];
                 break;
             case IM_RE_IM_RE:
-                this.x = new float[y.length/2];
-                this.y = new Complex[y.length/2];
-                for (int i = 0; i < x.length; i++) {
-                    this.x[i] = i;
-                    this.y[i]=new Complex(y[2*i+1],y[2*i]);
+                for (int i = 0; i < length; i++) {
+                    data[2*i] = y[2*i+1];
+                    data[2*i+1] = y[2*i];
                 }
                 break;
         }
+        setSamplesOrder(samplesOrder);
     }
 
     /** Упрощённый конструктор сигнала. В x в таком случае записываются номера отсчётов (индексы).
      * В зависимости от порядка следования отсчётов <em>y</em>, определяемом переменной samplesOrder,
-     * данные из аргумента <em>y</em> будут по-разному записываться в this.y.
+     * данные из аргумента <em>y</em> будут по-разному записываться в массив отсчётов {@link #getData()}.
      *
      * @param y - массив отсчётов сигнала <em>y(x)</em>
      * @param samplesOrder - порядок следования отсчётов
      */
     public ComplexSignal(short[] y, @NonNull SamplesOrder samplesOrder) {
+        this(samplesOrder == SamplesOrder.ONLY_RE || samplesOrder == SamplesOrder.ONLY_IM ?
+                y.length : y.length/2);
         switch (samplesOrder) {
             case ONLY_RE:
-                this.x = new float[y.length];
-                this.y = new Complex[y.length];
-                for (int i = 0; i < x.length; i++) {
-                    this.x[i] = i;
-                    this.y[i]=new Complex(y[i],0);
-                }
+                for (int i = 0; i < length; i++)
+                    data[2*i] = y[i];
                 break;
             case ONLY_IM:
-                this.x = new float[y.length];
-                this.y = new Complex[y.length];
-                for (int i = 0; i < x.length; i++) {
-                    this.x[i] = i;
-                    this.y[i]=new Complex(0,y[i]);
-                }
+                for (int i = 0; i < length; i++)
+                    data[2*i+1] = y[i];
                 break;
             case RE_IM_RE_IM:
-                this.x = new float[y.length/2];
-                this.y = new Complex[y.length/2];
-                for (int i = 0; i < x.length; i++) {
-                    this.x[i] = i;
-                    this.y[i]=new Complex(y[2*i],y[2*i+1]);
-                }
+                for (int i = 0; i < 2*length; i++)
+                    data[i] = y[i];
                 break;
             case IM_RE_IM_RE:
-                this.x = new float[y.length/2];
-                this.y = new Complex[y.length/2];
-                for (int i = 0; i < x.length; i++) {
-                    this.x[i] = i;
-                    this.y[i]=new Complex(y[2*i+1],y[2*i]);
+                for (int i = 0; i < length; i++) {
+                    data[2*i] = y[2*i+1];
+                    data[2*i+1] = y[2*i];
                 }
                 break;
         }
+        setSamplesOrder(samplesOrder);
     }
 
     /** Возвращает массив модулей комплексного сигнала
@@ -271,15 +333,31 @@ public class ComplexSignal implements Serializable {
      *     Пример применения:
      *     short[] y = new short[100];
      *     ComplexSignal sig1 = new ComplexSignal(y, SamplesOrder.ONLY_RE);
-     *     float[] absSig1 = sig1.abs();
+     *     float[] absSig1 = sig1.getAbs();
      * </p>
      * @return указатель на массив модулей комплексного сигнала
      */
     public float[] getAbs() {
-        float[] absY = new float[this.y.length];
-        for (int i=0; i<y.length; i++)
-            absY[i] = y[i].abs();
-        return absY;
+        return getAbs(new float[length]);
+    }
+
+    /** Записывает модули отсчётов сигнала в переданный массив (без выделения памяти)
+     * @param dest массив размера не меньше {@link #getLength()}
+     * @return массив {@code dest}
+     */
+    public float[] getAbs(float[] dest) {
+        return getAbs(dest, ComplexMath.Accuracy.EXACT);
+    }
+
+    /** Записывает модули отсчётов сигнала в переданный массив с заданной точностью
+     * ({@link ComplexMath})
+     * @param dest массив размера не меньше {@link #getLength()}
+     * @param accuracy точность; {@link ComplexMath.Accuracy#FAST} - для графиков
+     * @return массив {@code dest}
+     */
+    public float[] getAbs(float[] dest, ComplexMath.Accuracy accuracy) {
+        ComplexMath.abs(data, 0, dest, length, accuracy);
+        return dest;
     }
 
     /** Возвращает массив аргументов комплексного сигнала
@@ -287,50 +365,127 @@ public class ComplexSignal implements Serializable {
      *     Пример применения:
      *     short[] y = new short[100];
      *     ComplexSignal sig1 = new ComplexSignal(y, SamplesOrder.ONLY_RE);
-     *     float[] argSig1 = sig1.abs();
+     *     float[] argSig1 = sig1.getArg();
      * </p>
-     * @return указатель на массив модулей комплексного сигнала
+     * @return указатель на массив аргументов комплексного сигнала
      */
     public float[] getArg() {
-        float[] argY = new float[this.y.length];
-        for (int i=0; i<y.length; i++)
-            argY[i] = y[i].arg();
-        return argY;
+        return getArg(new float[length]);
+    }
+
+    /** Записывает аргументы отсчётов сигнала (-pi...+pi) в переданный массив
+     * @param dest массив размера не меньше {@link #getLength()}
+     * @return массив {@code dest}
+     */
+    public float[] getArg(float[] dest) {
+        return getArg(dest, ComplexMath.Accuracy.EXACT);
+    }
+
+    /** Записывает аргументы отсчётов сигнала (-pi...+pi) в переданный массив с заданной
+     * точностью ({@link ComplexMath})
+     * @param dest массив размера не меньше {@link #getLength()}
+     * @param accuracy точность
+     * @return массив {@code dest}
+     */
+    public float[] getArg(float[] dest, ComplexMath.Accuracy accuracy) {
+        ComplexMath.arg(data, 0, dest, length, accuracy);
+        return dest;
+    }
+
+    /** Записывает мощности отсчётов сигнала в дБ (10*log10(re^2+im^2), не меньше
+     * 10*log10({@link ComplexMath#MIN_POWER})) в переданный массив
+     * @param dest массив размера не меньше {@link #getLength()}
+     * @param accuracy точность
+     * @return массив {@code dest}
+     */
+    public float[] getPowerDb(float[] dest, ComplexMath.Accuracy accuracy) {
+        ComplexMath.powerDb(data, 0, dest, length, accuracy);
+        return dest;
+    }
+
+    /** Записывает действительные части отсчётов сигнала в переданный массив
+     * @param dest массив размера не меньше {@link #getLength()}
+     * @return массив {@code dest}
+     */
+    public float[] getRe(float[] dest) {
+        for (int i=0; i<length; i++)
+            dest[i] = data[2*i];
+        return dest;
+    }
+
+    /** Записывает мнимые части отсчётов сигнала в переданный массив
+     * @param dest массив размера не меньше {@link #getLength()}
+     * @return массив {@code dest}
+     */
+    public float[] getIm(float[] dest) {
+        for (int i=0; i<length; i++)
+            dest[i] = data[2*i+1];
+        return dest;
     }
 
     /** Произведение комплексных сигналов <p>
      * Результат возвращается в объект, вызывающий данный метод.
      * Предполагается, что длины векторов, содержащих отсчёты сигналов совпадают.
-     * Т.е. a.y.length == b.y.length == this.y.length
+     * Т.е. a.getLength() == b.getLength() == this.getLength().
+     * Допускается, что this совпадает с a или b.
      *
      * @param a один комплексный синал
      * @param b другой комплексный сигнал
      */
     public void mult(ComplexSignal a, ComplexSignal b) {
-        if(a.y.length != b.y.length)
+        if(a.length != b.length)
             throw new IllegalArgumentException("arg1.length != arg2.length");
-        if(this.y.length != a.y.length)
+        if(this.length != a.length)
             throw new IllegalArgumentException("this.length != arg.length");
-        for(int i =0; i<this.y.length; i++) {
-            this.y[i].times(a.y[i],b.y[i]);
+        float[] ad = a.data, bd = b.data;
+        for(int i =0; i<2*length; i+=2) {
+            float re = ad[i]*bd[i] - ad[i+1]*bd[i+1];
+            float im = ad[i]*bd[i+1] + ad[i+1]*bd[i];
+            data[i] = re;
+            data[i+1] = im;
         }
+        samplesOrder = SamplesOrder.RE_IM_RE_IM;
     }
 
     /** Деление комплексных сигналов <p>
      * Результат возвращается в объект, вызывающий данный метод.
      * Предполагается, что длины векторов, содержащих отсчёты сигналов совпадают.
-     * Т.е. a.y.length == b.y.length == this.y.length
+     * Т.е. a.getLength() == b.getLength() == this.getLength().
+     * Допускается, что this совпадает с a или b.
      *
      * @param a один комплексный синал (делимое)
      * @param b другой комплексный сигнал (делитель)
      */
     public void div(ComplexSignal a, ComplexSignal b) {
-        if(a.y.length != b.y.length)
+        if(a.length != b.length)
             throw new IllegalArgumentException("arg1.length != arg2.length");
-        if(this.y.length != a.y.length)
+        if(this.length != a.length)
             throw new IllegalArgumentException("this.length != arg.length");
-        for(int i =0; i<this.y.length; i++) {
-            this.y[i].div(a.y[i],b.y[i]);
+        float[] ad = a.data, bd = b.data;
+        for(int i =0; i<2*length; i+=2) {
+            float norm = bd[i]*bd[i] + bd[i+1]*bd[i+1];
+            float re = (ad[i]*bd[i] + ad[i+1]*bd[i+1])/norm;
+            float im = (bd[i]*ad[i+1] - ad[i]*bd[i+1])/norm;
+            data[i] = re;
+            data[i+1] = im;
         }
+        samplesOrder = SamplesOrder.RE_IM_RE_IM;
+    }
+
+    /** Умножение всех отсчётов сигнала на скаляр <p>
+     * Результат возвращается в объект, вызывающий данный метод.
+     * @param alpha скаляр
+     */
+    public void scale(float alpha) {
+        for(int i =0; i<2*length; i++)
+            data[i] *= alpha;
+    }
+
+    /** Комплексное сопряжение всех отсчётов сигнала <p>
+     * Результат возвращается в объект, вызывающий данный метод.
+     */
+    public void conj() {
+        for(int i =1; i<2*length; i+=2)
+            data[i] = -data[i];
     }
 }
@@ -0,0 +1,147 @@
+package org.rdr.radarbox.DSP;
+
+/** Быстрая свёртка с фиксированным фильтром (импульсной характеристикой) через БПФ. <p>
+ * Спектр фильтра вычисляется один раз при создании объекта, дальше каждый вызов выполняет
+ * только БПФ блоков входного сигнала, поэлементное умножение на спектр фильтра и обратное БПФ.
+ * Длинные сигналы обрабатываются блоками:
+ * <ul>
+ *     <li>{@link #convolve(float[], int, float[])} - полная линейная свёртка длины
+ *     xLength+filterLength-1 методом перекрытия со сложением (overlap-add);</li>
+ *     <li>{@link #filter(float[], int, float[])} - фильтрация с выходом той же длины, что и вход
+ *     (y[n] = sum h[k]*x[n-k]), методом перекрытия с накоплением (overlap-save);</li>
+ * </ul>
+ * Согласованный фильтр (взаимная корреляция с опорным сигналом) создаётся
+ * через {@link #forCorrelation(float[], int, int)}.
+ * <p>
+ * Длина БПФ выбирается среди чисел, раскладывающихся на 2, 3 и 5
+ * ({@link FftPlan#nextFastLength(int)}): если весь сигнал помещается в один блок - по длине
+ * результата, иначе - около четырёх длин фильтра. Все буферы выделяются в конструкторе, вызовы
+ * не выделяют память. Объект хранит свой рабочий буфер, поэтому одновременно используется
+ * одним потоком (как и операции {@link org.rdr.radarbox.DSP.Operations.OperationDSP}).
+ * <p>
+ * Отсчёты хранятся в массивах типа float в формате (re, im, re, im...).
+ */
+public class Convolver {
+    private final int filterLength;
+    private final int fftLength;
+    /** Количество новых отсчётов, обрабатываемых за один блок */
+    private final int blockLength;
+    private final FftPlan forward, inverse;
+    /** Спектр фильтра, уже поделённый на длину БПФ (нормировка обратного БПФ) */
+    private final float[] filterSpectrum;
+    private final float[] block;
+
+    /** Свёртка с фильтром длины filterLength для входных сигналов длины около inputLength.
+     * @param filter отсчёты фильтра в формате (re, im, re, im...), копируются
+     * @param filterLength количество комплексных отсчётов фильтра
+     * @param inputLength ожидаемая длина входного сигнала, по ней выбирается длина БПФ
+     *                    (сигналы другой длины тоже обрабатываются)
+     * @throws IllegalArgumentException если длина фильтра меньше единицы
+     */
+    public Convolver(float[] filter, int filterLength, int inputLength) {
+        this(filter, filterLength, inputLength, false);
+    }
+
+    private Convolver(float[] filter, int filterLength, int inputLength, boolean correlation) {
+        if (filterLength < 1 || filter.length < 2*filterLength)
+            throw new IllegalArgumentException("Wrong filter length");
+        this.filterLength = filterLength;
+        int singleBlock = Math.max(inputLength, 1) + filterLength - 1;
+        int blocked = Math.max(4*filterLength, 64);
+        fftLength = FftPlan.nextFastLength(Math.min(singleBlock, blocked));
+        blockLength = fftLength - filterLength + 1;
+        forward = FftPlan.get(fftLength, false);
+        inverse = FftPlan.get(fftLength, true);
+
+        filterSpectrum = new float[2*fftLength];
+        if (correlation) {
+            // h[k] = conj(ref[m-1-k])
+            for (int k = 0; k < filterLength; k++) {
+                filterSpectrum[2*k] = filter[2*(filterLength-1-k)];
+                filterSpectrum[2*k+1] = -filter[2*(filterLength-1-k)+1];
+            }
+        }
+        else
+            System.arraycopy(filter, 0, filterSpectrum, 0, 2*filterLength);
+        forward.execute(filterSpectrum, 0);
+        float scale = 1f/fftLength;
+        for (int i = 0; i < filterSpectrum.length; i++)
+            filterSpectrum[i] *= scale;
+        block = new float[2*fftLength];
+    }
+
+    /** Согласованный фильтр: {@link #filter(float[], int, float[])} вычисляет взаимную корреляцию
+     * r[n] = sum_k x[n+k]*conj(ref[k]), причём отсчёт r[n] оказывается в выходе по индексу
+     * n+refLength-1 (фильтр причинный).
+     * @param reference опорный сигнал в формате (re, im, re, im...)
+     * @param refLength количество комплексных отсчётов опорного сигнала
+     * @param inputLength ожидаемая длина входного сигнала
+     * @return объект свёртки
+     */
+    public static Convolver forCorrelation(float[] reference, int refLength, int inputLength) {
+        return new Convolver(reference, refLength, inputLength, true);
+    }
+
+    /** @return количество комплексных отсчётов фильтра */
+    public int getFilterLength() {return filterLength;}
+
+    /** @return длина БПФ одного блока */
+    public int getFftLength() {return fftLength;}
+
+    /** @return количество отсчётов входного сигнала, обрабатываемых за один блок */
+    public int getBlockLength() {return blockLength;}
+
+    /** Полная линейная свёртка (overlap-add).
+     * @param x входной сигнал
+     * @param xLength количество комплексных отсчётов входного сигнала
+     * @param y массив результата размера не меньше 2*(xLength+{@link #getFilterLength()}-1),
+     *          не должен совпадать с x
+     */
+    public void convolve(float[] x, int xLength, float[] y) {
+        int yLength = xLength + filterLength - 1;
+        for (int i = 0; i < 2*yLength; i++)
+            y[i] = 0;
+        for (int start = 0; start < xLength; start += blockLength) {
+            int count = Math.min(blockLength, xLength - start);
+            System.arraycopy(x, 2*start, block, 0, 2*count);
+            for (int i = 2*count; i < 2*fftLength; i++)
+                block[i] = 0;
+            convolveBlock();
+            // хвост блока складывается с началом следующего
+            int outCount = Math.min(fftLength, yLength - start);
+            for (int i = 0; i < 2*outCount; i++)
+                y[2*start + i] += block[i];
+        }
+    }
+
+    /** Фильтрация с выходом той же длины, что и вход (overlap-save):
+     * y[n] = sum_k h[k]*x[n-k], n = 0..xLength-1, отсчёты x до начала сигнала считаются нулями.
+     * @param x входной сигнал
+     * @param xLength количество комплексных отсчётов входного сигнала
+     * @param y массив результата размера не меньше 2*xLength, не должен совпадать с x
+     */
+    public void filter(float[] x, int xLength, float[] y) {
+        int history = filterLength - 1;
+        for (int start = 0; start < xLength; start += blockLength) {
+            // блок содержит filterLength-1 предыдущих отсчётов и blockLength новых
+            int from = start - history;
+            int to = Math.min(start + blockLength, xLength);
+            int lead = Math.max(0, -from);
+            for (int i = 0; i < 2*lead; i++)
+                block[i] = 0;
+            System.arraycopy(x, 2*(from + lead), block, 2*lead, 2*(to - from - lead));
+            for (int i = 2*(to - from); i < 2*fftLength; i++)
+                block[i] = 0;
+            convolveBlock();
+            // первые filterLength-1 отсчётов блока искажены кольцевой свёрткой и отбрасываются
+            System.arraycopy(block, 2*history, y, 2*start, 2*(to - start));
+        }
+    }
+
+    /** Кольцевая свёртка содержимого {@link #block} с фильтром */
+    private void convolveBlock() {
+        forward.execute(block, 0);
+        FFT.multiplySpectra(block, 0, filterSpectrum, 0, block, 0, fftLength);
+        inverse.execute(block, 0);
+    }
+}
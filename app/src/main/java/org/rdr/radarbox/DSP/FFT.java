@@ -2,14 +2,20 @@ package org.rdr.radarbox.DSP;
 
 /**
  *  Класс {@code FFT} предоставляет методы для вычисления БПФ, обратного БПФ, линейной и
- *  кольцевой свёртки двух комплексных массивов. Основа взята с сайта Принстонского университета.
- *  It is a bare-bones implementation that runs in <em>n</em> log <em>n</em> time,
- *  where <em>n</em> is the length of the complex array. For simplicity,
- *  <em>n</em> must be a power of 2.
- *  Our goal is to optimize the clarity of the code, rather than performance.
- *  It is not the most memory efficient implementation because it uses
- *  objects to represents complex numbers and it it re-allocates memory
- *  for the subarray, instead of doing in-place or reusing a single temporary array.
+ *  кольцевой свёртки двух комплексных массивов, поэлементного умножения спектров.
+ *  Основа взята с сайта Принстонского университета.
+ *  <p>
+ *  Основной вычислительный метод - {@link #transform(float[], int, int, boolean)}: БПФ
+ *  произвольной длины, выполняемое на месте (in-place) над массивом типа float, в котором
+ *  комплексные отсчёты чередуются (re, im, re, im...). Для длин - степеней двойки используется
+ *  итеративное БПФ по основанию 2, для остальных - БПФ со смешанным основанием или
+ *  алгоритм Блюстейна (см. {@link FftPlan}). Таблицы перестановки бит и поворачивающих
+ *  множителей хранятся в планах {@link FftPlan}, которые вычисляются один раз для заданной длины
+ *  и направления, поэтому при вызове БПФ не выделяется память и не вызываются
+ *  тригонометрические функции.
+ *  Методы, работающие с массивами {@link Complex}, оставлены для совместимости и являются
+ *  обёртками над {@link #transform(float[], int, int, boolean)}.
+ *  Для свёртки с одним и тем же фильтром на каждом кадре следует использовать {@link Convolver}.
  *  <p>
  *  This computes correct results if all arithmetic performed is
  *  without floating-point rounding error or arithmetic overflow.
@@ -25,8 +31,6 @@ package org.rdr.radarbox.DSP;
  */
 public class FFT {
 
-    private static final Complex ZERO = new Complex(0, 0);
-
     /**
      * Do not instantiate.
      */
@@ -48,87 +52,137 @@ public class FFT {
         return b;
     }
 
+    /**
+     * БПФ произвольной длины, выполняемое на месте.
+     * Комплексные отсчёты хранятся в массиве {@code data} в формате (re, im, re, im...),
+     * начиная с индекса {@code offset}. Результат записывается в тот же массив.
+     * Обратное преобразование не нормируется (не делится на {@code n}).
+     * Таблицы преобразования берутся из кэша планов {@link FftPlan#get(int, boolean)}.
+     * Если БПФ одной длины выполняется многократно, лучше один раз получить
+     * {@link FftPlan} и вызывать {@link FftPlan#execute(float[], int)} напрямую.
+     *
+     * @param data массив чередующихся действительных и мнимых частей
+     * @param offset индекс в {@code data}, с которого начинается первый отсчёт
+     * @param n количество комплексных отсчётов (любое положительное число)
+     * @param inverse true - обратное преобразование, false - прямое
+     * @throws IllegalArgumentException если {@code n} меньше единицы или
+     * массив {@code data} слишком мал
+     */
+    public static void transform(float[] data, int offset, int n, boolean inverse) {
+        FftPlan.get(n, inverse).execute(data, offset);
+    }
+
+    /**
+     * Прямое БПФ на месте над массивом чередующихся (re, im) отсчётов.
+     *
+     * @param data массив размера 2*n
+     */
+    public static void fft(float[] data) {
+        transform(data, 0, data.length / 2, false);
+    }
+
     /**
      * Returns the FFT of the specified complex array.
+     * Обёртка над {@link #transform(float[], int, int, boolean)}, оставленная для совместимости.
      *
      * @param x the complex array
      * @return the FFT of the complex array {@code x}
-     * @throws IllegalArgumentException if the length of {@code x} is not a power of 2
      */
     public static Complex[] fft(Complex[] x) {
-        int n = x.length;
-
-        // base case
-        if (n == 1) {
-            return new Complex[]{x[0]};
-        }
+        float[] data = toFloatArray(x);
+        transform(data, 0, x.length, false);
+        return toComplexArray(data);
+    }
 
-        // radix 2 Cooley-Tukey FFT
-        if (!isPowerOfTwo(n)) {
-            throw new IllegalArgumentException("n is not a power of 2");
-        }
 
-        // fft of even terms
-        Complex[] even = new Complex[n / 2];
-        for (int k = 0; k < n / 2; k++) {
-            even[k] = x[2 * k];
-        }
-        Complex[] q = fft(even);
+    /**
+     * Обратное БПФ на месте над массивом чередующихся (re, im) отсчётов
+     * с нормировкой на длину преобразования.
+     *
+     * @param data массив размера 2*n
+     */
+    public static void ifft(float[] data) {
+        int n = data.length / 2;
+        transform(data, 0, n, true);
+        float scale = 1f / n;
+        for (int i = 0; i < 2 * n; i++)
+            data[i] *= scale;
+    }
 
-        // fft of odd terms
-        Complex[] odd = even;  // reuse the array
-        for (int k = 0; k < n / 2; k++) {
-            odd[k] = x[2 * k + 1];
+    /**
+     * Поэлементное умножение спектров: dest[k] = a[k]*b[k], k = 0..n-1.
+     * Массивы в формате (re, im, re, im...), dest может совпадать с a или b.
+     *
+     * @param a первый спектр
+     * @param aOffset индекс первого отсчёта в {@code a}
+     * @param b второй спектр
+     * @param bOffset индекс первого отсчёта в {@code b}
+     * @param dest массив результата
+     * @param destOffset индекс первого отсчёта в {@code dest}
+     * @param n количество комплексных отсчётов
+     */
+    public static void multiplySpectra(float[] a, int aOffset, float[] b, int bOffset,
+                                       float[] dest, int destOffset, int n) {
+        for (int k = 0; k < 2 * n; k += 2) {
+            float ar = a[aOffset + k], ai = a[aOffset + k + 1];
+            float br = b[bOffset + k], bi = b[bOffset + k + 1];
+            dest[destOffset + k] = ar * br - ai * bi;
+            dest[destOffset + k + 1] = ar * bi + ai * br;
         }
-        Complex[] r = fft(odd);
+    }
 
-        // combine
-        Complex[] y = new Complex[n];
-        for (int i=0; i<n; i++) { // к сожалению, приходится ещё выделять память под каждый объект
-            y[i]=new Complex();
-        }
-        for (int k = 0; k < n / 2; k++) {
-            double kth = -2 * k * Math.PI / n;
-            Complex wk = new Complex((float)Math.cos(kth), (float)Math.sin(kth));
-            wk.times(r[k]);
-            y[k].plus(q[k], wk);
-            y[k + n / 2].minus(q[k], wk);
+    /**
+     * Поэлементное умножение спектра на сопряжённый спектр: dest[k] = a[k]*conj(b[k]).
+     * Используется для вычисления взаимной корреляции (согласованной фильтрации).
+     * Параметры совпадают с {@link #multiplySpectra(float[], int, float[], int, float[], int, int)}.
+     */
+    public static void multiplySpectraConj(float[] a, int aOffset, float[] b, int bOffset,
+                                           float[] dest, int destOffset, int n) {
+        for (int k = 0; k < 2 * n; k += 2) {
+            float ar = a[aOffset + k], ai = a[aOffset + k + 1];
+            float br = b[bOffset + k], bi = b[bOffset + k + 1];
+            dest[destOffset + k] = ar * br + ai * bi;
+            dest[destOffset + k + 1] = ai * br - ar * bi;
         }
-        return y;
     }
 
+    /**
+     * Кольцевая свёртка двух сигналов одинаковой (любой) длины n.
+     * Массивы в формате (re, im, re, im...), dest может совпадать с x или y.
+     * Рабочие буферы берутся из планов {@link FftPlan}, память не выделяется.
+     *
+     * @param x один сигнал, 2*n элементов
+     * @param y другой сигнал, 2*n элементов
+     * @param dest массив результата, 2*n элементов
+     * @param n количество комплексных отсчётов
+     */
+    public static void cconvolve(float[] x, float[] y, float[] dest, int n) {
+        FftPlan forward = FftPlan.get(n, false);
+        FftPlan inverse = FftPlan.get(n, true);
+        float[] spectrum = forward.getWorkBuffer();
+        System.arraycopy(y, 0, spectrum, 0, 2 * n);
+        forward.execute(spectrum, 0);
+        if (dest != x)
+            System.arraycopy(x, 0, dest, 0, 2 * n);
+        forward.execute(dest, 0);
+        multiplySpectra(dest, 0, spectrum, 0, dest, 0, n);
+        inverse.execute(dest, 0);
+        float scale = 1f / n;
+        for (int i = 0; i < 2 * n; i++)
+            dest[i] *= scale;
+    }
 
     /**
      * Returns the inverse FFT of the specified complex array.
+     * Обёртка над {@link #transform(float[], int, int, boolean)} с нормировкой на длину.
      *
      * @param x the complex array
      * @return the inverse FFT of the complex array {@code x}
-     * @throws IllegalArgumentException if the length of {@code x} is not a power of 2
      */
     public static Complex[] ifft(Complex[] x) {
-        int n = x.length;
-        Complex[] y = new Complex[n];
-
-        // take conjugate of input array
-        for (int i = 0; i < n; i++) {
-            y[i].re = x[i].re;
-            y[i].im = -x[i].im;
-        }
-
-        // compute forward FFT
-        y = fft(y);
-
-        // take conjugate again
-        for (int i = 0; i < n; i++) {
-            y[i].im = -y[i].im;
-        }
-
-        // divide by n
-        for (int i = 0; i < n; i++) {
-            y[i].scale((float) (1.0 / n));
-        }
-
-        return y;
+        float[] data = toFloatArray(x);
+        ifft(data);
+        return toComplexArray(data);
     }
 
     /**
@@ -138,54 +192,47 @@ public class FFT {
      * @param y the other complex array
      * @return the circular convolution of {@code x} and {@code y}
      * @throws IllegalArgumentException if the length of {@code x} does not equal
-     *                                  the length of {@code y} or if the length is not a power of 2
+     *                                  the length of {@code y}
      */
     public static Complex[] cconvolve(Complex[] x, Complex[] y) {
-
-        // should probably pad x and y with 0s so that they have same length
-        // and are powers of 2
         if (x.length != y.length) {
             throw new IllegalArgumentException("Dimensions don't agree");
         }
-
-        int n = x.length;
-
-        // compute FFT of each sequence
-        Complex[] a = fft(x);
-        Complex[] b = fft(y);
-
-        // point-wise multiply
-        Complex[] c = new Complex[n];
-        for (int i = 0; i < n; i++) {
-            c[i].times(a[i], b[i]);
-        }
-
-        // compute inverse FFT
-        return ifft(c);
+        float[] a = toFloatArray(x);
+        cconvolve(a, toFloatArray(y), a, x.length);
+        return toComplexArray(a);
     }
 
     /**
      * Returns the linear convolution of the two specified complex arrays.
+     * Длина результата x.length+y.length-1, свёртка вычисляется через {@link Convolver}.
      *
      * @param x one complex array
      * @param y the other complex array
      * @return the linear convolution of {@code x} and {@code y}
-     * @throws IllegalArgumentException if the length of {@code x} does not equal
-     *                                  the length of {@code y} or if the length is not a power of 2
      */
     public static Complex[] convolve(Complex[] x, Complex[] y) {
-        Complex[] a = new Complex[2 * x.length];
-        for (int i = 0; i < x.length; i++)
-            a[i] = x[i];
-        for (int i = x.length; i < 2 * x.length; i++)
-            a[i] = ZERO;
+        if (x.length == 0 || y.length == 0)
+            return new Complex[0];
+        float[] result = new float[2 * (x.length + y.length - 1)];
+        new Convolver(toFloatArray(y), y.length, x.length)
+                .convolve(toFloatArray(x), x.length, result);
+        return toComplexArray(result);
+    }
 
-        Complex[] b = new Complex[2 * y.length];
-        for (int i = 0; i < y.length; i++)
-            b[i] = y[i];
-        for (int i = y.length; i < 2 * y.length; i++)
-            b[i] = ZERO;
+    private static float[] toFloatArray(Complex[] x) {
+        float[] data = new float[2 * x.length];
+        for (int i = 0; i < x.length; i++) {
+            data[2 * i] = x[i].re;
+            data[2 * i + 1] = x[i].im;
+        }
+        return data;
+    }
 
-        return cconvolve(a, b);
+    private static Complex[] toComplexArray(float[] data) {
+        Complex[] y = new Complex[data.length / 2];
+        for (int i = 0; i < y.length; i++)
+            y[i] = new Complex(data[2 * i], data[2 * i + 1]);
+        return y;
     }
 }
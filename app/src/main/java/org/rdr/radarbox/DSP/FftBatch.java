@@ -0,0 +1,151 @@
+package org.rdr.radarbox.DSP;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+
+/** Пакетное БПФ для нескольких каналов одной длины. <p>
+ * Каналы распределяются между потоками ограниченного {@link ForkJoinPool}, каждый канал
+ * преобразуется целиком в одном потоке планом {@link FftPlan} (рабочие буферы плана у каждого
+ * потока свои). Если объём пакета мал и накладные расходы на распределение задач больше
+ * выигрыша, либо задан один поток, каналы преобразуются последовательно в вызывающем потоке.
+ * <p>
+ * Количество потоков задаётся в {@link Processing#setThreadCount(int)}.
+ */
+public class FftBatch {
+    /** Минимальный суммарный объём пакета (количество каналов * n*log2(n)), начиная с которого
+     * каналы распределяются между потоками */
+    public static final long PARALLEL_THRESHOLD = 1 << 15;
+
+    private volatile ForkJoinPool pool = null;
+    private volatile int threadCount = 1;
+
+    /** @param threadCount количество потоков, не меньше единицы */
+    public FftBatch(int threadCount) {
+        setThreadCount(threadCount);
+    }
+
+    /** Задать количество потоков. Прежний пул завершается после выполнения начатых задач.
+     * @param threadCount количество потоков, не меньше единицы. 1 - только последовательное
+     *                    выполнение в вызывающем потоке
+     * @throws IllegalArgumentException если количество потоков меньше единицы
+     */
+    public synchronized void setThreadCount(int threadCount) {
+        if (threadCount < 1)
+            throw new IllegalArgumentException("Thread count must be positive");
+        if (threadCount == this.threadCount && (threadCount == 1 || pool != null))
+            return;
+        ForkJoinPool oldPool = pool;
+        pool = threadCount > 1 ? new ForkJoinPool(threadCount) : null;
+        this.threadCount = threadCount;
+        if (oldPool != null)
+            oldPool.shutdown();
+    }
+
+    /** @return количество потоков */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /** @return пул потоков либо null, если задан один поток. Пул может быть заменён при
+     * изменении количества потоков ({@link #setThreadCount(int)}) */
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /** @return true, если пакет из count каналов будет распределён между потоками */
+    public boolean isParallel(FftPlan plan, int count) {
+        if (pool == null || count < 2)
+            return false;
+        int n = plan.getLength();
+        long work = (long) count * n * (32 - Integer.numberOfLeadingZeros(n));
+        return work >= PARALLEL_THRESHOLD;
+    }
+
+    /** БПФ пакета каналов, лежащих в одном массиве друг за другом ([каналы x длина]).
+     * @param plan план БПФ, определяющий длину и направление преобразования
+     * @param data массив в формате (re, im, re, im...)
+     * @param offset индекс действительной части первого отсчёта первого канала
+     * @param count количество каналов. Канал k начинается с индекса
+     *              offset+2*k*{@link FftPlan#getLength()}
+     */
+    public void execute(FftPlan plan, float[] data, int offset, int count) {
+        int channelSize = 2*plan.getLength();
+        ForkJoinPool pool = this.pool;
+        if (pool != null && isParallel(plan, count)) {
+            try {
+                pool.invoke(new ContiguousTask(plan, data, offset, 0, count));
+                return;
+            } catch (RejectedExecutionException e) {
+                // пул заменён во время вызова, выполняем последовательно
+            }
+        }
+        for (int k = 0; k < count; k++)
+            plan.execute(data, offset + k*channelSize);
+    }
+
+    /** БПФ пакета каналов, каждый из которых лежит в своём массиве
+     * (например, в массивах {@link ComplexSignal#getData()} выходных сигналов).
+     * @param plan план БПФ, определяющий длину и направление преобразования
+     * @param buffers массивы каналов в формате (re, im, re, im...)
+     * @param count количество каналов (первые count массивов из buffers)
+     */
+    public void execute(FftPlan plan, float[][] buffers, int count) {
+        ForkJoinPool pool = this.pool;
+        if (pool != null && isParallel(plan, count)) {
+            try {
+                pool.invoke(new SeparateTask(plan, buffers, 0, count));
+                return;
+            } catch (RejectedExecutionException e) {
+                // пул заменён во время вызова, выполняем последовательно
+            }
+        }
+        for (int k = 0; k < count; k++)
+            plan.execute(buffers[k], 0);
+    }
+
+    /** Задача, делящая диапазон каналов пополам, пока в нём не останется один канал */
+    private static class ContiguousTask extends RecursiveAction {
+        private final FftPlan plan;
+        private final float[] data;
+        private final int offset, from, to;
+
+        ContiguousTask(FftPlan plan, float[] data, int offset, int from, int to) {
+            this.plan = plan; this.data = data; this.offset = offset;
+            this.from = from; this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                plan.execute(data, offset + 2*from*plan.getLength());
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ContiguousTask(plan, data, offset, from, middle),
+                    new ContiguousTask(plan, data, offset, middle, to));
+        }
+    }
+
+    private static class SeparateTask extends RecursiveAction {
+        private final FftPlan plan;
+        private final float[][] buffers;
+        private final int from, to;
+
+        SeparateTask(FftPlan plan, float[][] buffers, int from, int to) {
+            this.plan = plan; this.buffers = buffers;
+            this.from = from; this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                plan.execute(buffers[from], 0);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new SeparateTask(plan, buffers, from, middle),
+                    new SeparateTask(plan, buffers, middle, to));
+        }
+    }
+}
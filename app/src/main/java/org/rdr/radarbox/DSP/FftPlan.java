@@ -0,0 +1,563 @@
+package org.rdr.radarbox.DSP;
+
+import androidx.annotation.NonNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** План БПФ для заданной пары (длина, направление преобразования). <p>
+ * При создании плана один раз вычисляются все таблицы (перестановка бит, поворачивающие
+ * множители, ЛЧМ-множители алгоритма Блюстейна), после чего вызов
+ * {@link #execute(float[], int)} не выделяет память и не вызывает тригонометрических функций.
+ * Кроме того, план хранит рабочий буфер нужного размера ({@link #getWorkBuffer()}),
+ * отдельный для каждого потока.
+ * <p>
+ * Длина преобразования может быть любой. Алгоритм выбирается при создании плана
+ * ({@link Algorithm}):
+ * <ul>
+ *     <li>длина - степень двойки: БПФ по основанию 2 на месте;</li>
+ *     <li>длина раскладывается на множители 2, 3, 4, 5, 7, 11, 13: БПФ со смешанным основанием
+ *     (алгоритм Стокхэма с самосортировкой);</li>
+ *     <li>в разложении длины есть другие простые множители: алгоритм Блюстейна
+ *     (chirp-z преобразование через свёртку, длина которой раскладывается на 2, 3 и 5).</li>
+ * </ul>
+ * <p>
+ * Планы создаются только через {@link #get(int, boolean)} и хранятся в ограниченном
+ * потокобезопасном кэше, поэтому операции ЦОС, выполняющие БПФ одной длины на каждом кадре,
+ * получают один и тот же план. Объект плана неизменяемый и может одновременно использоваться
+ * несколькими потоками.
+ * <p>
+ * Отсчёты хранятся в массиве типа float в формате (re, im, re, im...).
+ * Обратное преобразование не нормируется (не делится на {@link #getLength()}).
+ */
+public final class FftPlan {
+    /** Максимальное количество планов, хранящихся в кэше */
+    public static final int CACHE_CAPACITY = 16;
+
+    private static final Map<Long, FftPlan> cache =
+            new LinkedHashMap<Long, FftPlan>(CACHE_CAPACITY, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, FftPlan> eldest) {
+                    return size() > CACHE_CAPACITY;
+                }
+            };
+    private static long cacheHits = 0;
+    private static long cacheMisses = 0;
+
+    /** Алгоритм, которым план вычисляет преобразование */
+    public enum Algorithm {
+        RADIX_2,
+        MIXED_RADIX,
+        BLUESTEIN
+    }
+
+    /** Основания, для которых есть ядра смешанного БПФ. 4 идёт первым, чтобы степени двойки
+     * раскладывались преимущественно на более выгодные бабочки по основанию 4.
+     * Для 7, 11 и 13 используется ядро прямого ДПФ малой длины. */
+    private static final int[] RADICES = {4, 2, 3, 5, 7, 11, 13};
+    private static final int MAX_RADIX = 13;
+    private static final float SIN_2PI_3 = (float) Math.sin(2 * Math.PI / 3);
+    private static final float COS_2PI_5 = (float) Math.cos(2 * Math.PI / 5);
+    private static final float COS_4PI_5 = (float) Math.cos(4 * Math.PI / 5);
+    private static final float SIN_2PI_5 = (float) Math.sin(2 * Math.PI / 5);
+    private static final float SIN_4PI_5 = (float) Math.sin(4 * Math.PI / 5);
+
+    private final int n;
+    private final boolean inverse;
+    private final Algorithm algorithm;
+    private final ThreadLocal<float[]> workBuffer;
+    /** Внутренний буфер алгоритма (не совпадает с {@link #workBuffer}) */
+    private final ThreadLocal<float[]> scratch;
+
+    // RADIX_2
+    /** Таблица перестановки бит: bitReverse[i] - индекс, с которым меняется i-й отсчёт */
+    private int[] bitReverse;
+    /** Поворачивающие множители exp(-+2*pi*i*k/n), k=0..n/2-1, в формате (re, im) */
+    private float[] twiddle;
+
+    // MIXED_RADIX
+    /** Основания этапов смешанного БПФ в порядке выполнения */
+    private int[] factors;
+    /** Поворачивающие множители каждого этапа, см. {@link #mixedRadixStage} */
+    private float[][] stageTwiddles;
+    /** Корни exp(-+2*pi*i*q/p), q=0..p-1, для этапов с ядром прямого ДПФ */
+    private float[][] stageRoots;
+
+    // BLUESTEIN
+    /** ЛЧМ-множители exp(-+i*pi*k^2/n), k=0..n-1 */
+    private float[] chirp;
+    /** Спектр сопряжённой ЛЧМ-последовательности длины {@link #convolutionPlan} */
+    private float[] chirpSpectrum;
+    private FftPlan convolutionPlan, convolutionInversePlan;
+
+    private FftPlan(int n, boolean inverse) {
+        if (n < 1)
+            throw new IllegalArgumentException("n must be positive");
+        this.n = n;
+        this.inverse = inverse;
+        workBuffer = ThreadLocal.withInitial(() -> new float[2 * n]);
+        if ((n & (n - 1)) == 0) {
+            algorithm = Algorithm.RADIX_2;
+            initRadix2();
+            scratch = null;
+        }
+        else if (initMixedRadix()) {
+            algorithm = Algorithm.MIXED_RADIX;
+            scratch = ThreadLocal.withInitial(() -> new float[2 * n + 2 * MAX_RADIX]);
+        }
+        else {
+            algorithm = Algorithm.BLUESTEIN;
+            initBluestein();
+            int m = convolutionPlan.getLength();
+            scratch = ThreadLocal.withInitial(() -> new float[2 * m]);
+        }
+    }
+
+    private void initRadix2() {
+        bitReverse = new int[n];
+        int bits = Integer.numberOfTrailingZeros(n);
+        for (int i = 0; i < n; i++)
+            bitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        // знак мнимой части поворачивающих множителей сразу учитывает направление преобразования
+        twiddle = new float[n];
+        double sign = inverse ? 1 : -1;
+        for (int k = 0; k < n / 2; k++) {
+            double kth = sign * 2 * k * Math.PI / n;
+            twiddle[2 * k] = (float) Math.cos(kth);
+            twiddle[2 * k + 1] = (float) Math.sin(kth);
+        }
+    }
+
+    /** Разложение длины на основания из {@link #RADICES} и расчёт таблиц этапов.
+     * @return false, если длина не раскладывается на поддерживаемые основания
+     */
+    private boolean initMixedRadix() {
+        int[] tempFactors = new int[32];
+        int count = 0;
+        int rest = n;
+        for (int radix : RADICES) {
+            while (rest % radix == 0) {
+                tempFactors[count++] = radix;
+                rest /= radix;
+            }
+        }
+        if (rest != 1)
+            return false;
+        factors = new int[count];
+        System.arraycopy(tempFactors, 0, factors, 0, count);
+
+        double sign = inverse ? 1 : -1;
+        stageTwiddles = new float[count][];
+        stageRoots = new float[count][];
+        int l = 1;
+        for (int stage = 0; stage < count; stage++) {
+            int p = factors[stage];
+            int lp = l * p;
+            float[] tw = new float[2 * l * (p - 1)];
+            for (int j = 0; j < l; j++) {
+                for (int s = 1; s < p; s++) {
+                    double phi = sign * 2 * Math.PI * j * s / lp;
+                    tw[2 * (j * (p - 1) + s - 1)] = (float) Math.cos(phi);
+                    tw[2 * (j * (p - 1) + s - 1) + 1] = (float) Math.sin(phi);
+                }
+            }
+            stageTwiddles[stage] = tw;
+            if (p > 5) {
+                float[] roots = new float[2 * p];
+                for (int q = 0; q < p; q++) {
+                    double phi = sign * 2 * Math.PI * q / p;
+                    roots[2 * q] = (float) Math.cos(phi);
+                    roots[2 * q + 1] = (float) Math.sin(phi);
+                }
+                stageRoots[stage] = roots;
+            }
+            l = lp;
+        }
+        return true;
+    }
+
+    private void initBluestein() {
+        // длина свёртки - наименьшее число не меньше 2n-1, раскладывающееся на 2, 3 и 5,
+        // чтобы свёртка вычислялась БПФ со смешанным основанием без дополнительного дополнения
+        int m = nextFastLength(2 * n - 1);
+        convolutionPlan = get(m, false);
+        convolutionInversePlan = get(m, true);
+        double sign = inverse ? 1 : -1;
+        chirp = new float[2 * n];
+        for (int k = 0; k < n; k++) {
+            // k^2 берётся по модулю 2n, чтобы не терять точность фазы при больших k
+            long k2 = ((long) k * k) % (2L * n);
+            double phi = sign * Math.PI * k2 / n;
+            chirp[2 * k] = (float) Math.cos(phi);
+            chirp[2 * k + 1] = (float) Math.sin(phi);
+        }
+        // сопряжённая ЛЧМ-последовательность, симметрично продолженная в отрицательные индексы
+        chirpSpectrum = new float[2 * m];
+        chirpSpectrum[0] = chirp[0];
+        chirpSpectrum[1] = -chirp[1];
+        for (int k = 1; k < n; k++) {
+            chirpSpectrum[2 * k] = chirpSpectrum[2 * (m - k)] = chirp[2 * k];
+            chirpSpectrum[2 * k + 1] = chirpSpectrum[2 * (m - k) + 1] = -chirp[2 * k + 1];
+        }
+        convolutionPlan.execute(chirpSpectrum, 0);
+        // нормировка обратного БПФ свёртки сразу учитывается в спектре
+        for (int i = 0; i < 2 * m; i++)
+            chirpSpectrum[i] /= m;
+    }
+
+    /** Возвращает план БПФ из кэша. Если плана с такими параметрами в кэше нет, он создаётся
+     * и помещается в кэш (при переполнении вытесняется план, который дольше всех не запрашивался).
+     *
+     * @param n количество комплексных отсчётов (любое положительное число)
+     * @param inverse true - обратное преобразование, false - прямое
+     * @return план БПФ
+     * @throws IllegalArgumentException если {@code n} меньше единицы
+     */
+    public static FftPlan get(int n, boolean inverse) {
+        long key = ((long) n << 1) | (inverse ? 1 : 0);
+        synchronized (cache) {
+            FftPlan plan = cache.get(key);
+            if (plan != null) {
+                cacheHits++;
+                return plan;
+            }
+            cacheMisses++;
+            plan = new FftPlan(n, inverse);
+            cache.put(key, plan);
+            return plan;
+        }
+    }
+
+    /** @return количество запросов {@link #get(int, boolean)}, для которых план нашёлся в кэше */
+    public static long getCacheHits() {
+        synchronized (cache) {
+            return cacheHits;
+        }
+    }
+
+    /** @return количество запросов {@link #get(int, boolean)}, для которых план был создан */
+    public static long getCacheMisses() {
+        synchronized (cache) {
+            return cacheMisses;
+        }
+    }
+
+    /** @return текущее количество планов в кэше */
+    public static int getCacheSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /** Очистка кэша планов и счётчиков попаданий/промахов */
+    public static void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+            cacheHits = 0;
+            cacheMisses = 0;
+        }
+    }
+
+    /** @return строка со статистикой кэша для вывода в лог */
+    @NonNull
+    public static String getCacheStatistics() {
+        synchronized (cache) {
+            return "FftPlan cache: size " + cache.size() + "/" + CACHE_CAPACITY +
+                    ", hits " + cacheHits + ", misses " + cacheMisses;
+        }
+    }
+
+    /** @return количество комплексных отсчётов преобразования */
+    public int getLength() {return n;}
+
+    /** @return true, если план выполняет обратное преобразование */
+    public boolean isInverse() {return inverse;}
+
+    /** @return алгоритм, выбранный для длины преобразования */
+    public Algorithm getAlgorithm() {return algorithm;}
+
+    /** Рабочий буфер размером 2*{@link #getLength()} для текущего потока.
+     * Выделяется один раз при первом обращении из потока и затем переиспользуется.
+     * @return буфер в формате (re, im, re, im...)
+     */
+    public float[] getWorkBuffer() {return workBuffer.get();}
+
+    /**
+     * БПФ, выполняемое на месте.
+     * Комплексные отсчёты хранятся в массиве {@code data} в формате (re, im, re, im...),
+     * начиная с индекса {@code offset}. Результат записывается в тот же массив.
+     *
+     * @param data массив чередующихся действительных и мнимых частей
+     * @param offset индекс в {@code data}, с которого начинается первый отсчёт
+     * @throws IllegalArgumentException если массив {@code data} слишком мал
+     */
+    public void execute(float[] data, int offset) {
+        if (offset < 0 || data.length < offset + 2 * n)
+            throw new IllegalArgumentException("data array is too small");
+        if (n == 1)
+            return;
+        switch (algorithm) {
+            case RADIX_2:
+                executeRadix2(data, offset);
+                break;
+            case MIXED_RADIX:
+                executeMixedRadix(data, offset);
+                break;
+            case BLUESTEIN:
+                executeBluestein(data, offset);
+                break;
+        }
+    }
+
+    /** Итеративное БПФ по основанию 2 на месте */
+    private void executeRadix2(float[] data, int offset) {
+        // перестановка отсчётов в бит-реверсном порядке
+        for (int i = 0; i < n; i++) {
+            int j = bitReverse[i];
+            if (i < j) {
+                int a = offset + 2 * i, b = offset + 2 * j;
+                float tmp = data[a]; data[a] = data[b]; data[b] = tmp;
+                tmp = data[a + 1]; data[a + 1] = data[b + 1]; data[b + 1] = tmp;
+            }
+        }
+
+        // бабочки Кули-Тьюки
+        for (int len = 2; len <= n; len <<= 1) {
+            int half = len >> 1;
+            int step = n / len;
+            for (int i = 0; i < n; i += len) {
+                for (int k = 0; k < half; k++) {
+                    float wr = twiddle[2 * k * step];
+                    float wi = twiddle[2 * k * step + 1];
+                    int a = offset + 2 * (i + k);
+                    int b = a + 2 * half;
+                    float tr = wr * data[b] - wi * data[b + 1];
+                    float ti = wr * data[b + 1] + wi * data[b];
+                    data[b] = data[a] - tr;
+                    data[b + 1] = data[a + 1] - ti;
+                    data[a] += tr;
+                    data[a + 1] += ti;
+                }
+            }
+        }
+    }
+
+    /** БПФ со смешанным основанием. Этапы выполняются поочерёдно из {@code data} во внутренний
+     * буфер и обратно, результат при необходимости копируется в {@code data}. */
+    private void executeMixedRadix(float[] data, int offset) {
+        float[] buffer = scratch.get();
+        float[] src = data, dst = buffer;
+        int srcOffset = offset, dstOffset = 0;
+        int l = 1;
+        for (int stage = 0; stage < factors.length; stage++) {
+            mixedRadixStage(stage, l, src, srcOffset, dst, dstOffset, buffer);
+            l *= factors[stage];
+            float[] tmp = src; src = dst; dst = tmp;
+            int tmpOffset = srcOffset; srcOffset = dstOffset; dstOffset = tmpOffset;
+        }
+        if (src != data)
+            System.arraycopy(src, srcOffset, data, offset, 2 * n);
+    }
+
+    /** Один этап алгоритма Стокхэма с основанием p = factors[stage]. <p>
+     * На входе этапа хранятся n/l ДПФ длины l: ДПФ подпоследовательности x[k + r*m]
+     * (r = n/l, m = 0..l-1) лежит по индексам k*l + j. Из p таких ДПФ с номерами k + r'*s
+     * (r' = r/p, s = 0..p-1) собирается ДПФ длины l*p:
+     * Y[k][j + q*l] = sum_s w_p^(q*s) * w_(l*p)^(j*s) * X[k + r'*s][j].
+     */
+    private void mixedRadixStage(int stage, int l, float[] src, int srcOffset,
+                                 float[] dst, int dstOffset, float[] buffer) {
+        int p = factors[stage];
+        int lp = l * p;
+        int rOut = n / lp;
+        float[] tw = stageTwiddles[stage];
+        float fs = inverse ? -1 : 1;
+        // шаг по входу между элементами одной бабочки (в float)
+        int inStride = 2 * rOut * l;
+        for (int k = 0; k < rOut; k++) {
+            for (int j = 0; j < l; j++) {
+                int in = srcOffset + 2 * (k * l + j);
+                int out = dstOffset + 2 * (k * lp + j);
+                int t = 2 * j * (p - 1);
+                switch (p) {
+                    case 2: {
+                        float ar = src[in], ai = src[in + 1];
+                        float xr = src[in + inStride], xi = src[in + inStride + 1];
+                        float br = xr * tw[t] - xi * tw[t + 1];
+                        float bi = xr * tw[t + 1] + xi * tw[t];
+                        dst[out] = ar + br;
+                        dst[out + 1] = ai + bi;
+                        dst[out + 2 * l] = ar - br;
+                        dst[out + 2 * l + 1] = ai - bi;
+                        break;
+                    }
+                    case 3: {
+                        float ar = src[in], ai = src[in + 1];
+                        float xr = src[in + inStride], xi = src[in + inStride + 1];
+                        float b1r = xr * tw[t] - xi * tw[t + 1];
+                        float b1i = xr * tw[t + 1] + xi * tw[t];
+                        xr = src[in + 2 * inStride]; xi = src[in + 2 * inStride + 1];
+                        float b2r = xr * tw[t + 2] - xi * tw[t + 3];
+                        float b2i = xr * tw[t + 3] + xi * tw[t + 2];
+                        float t1r = b1r + b2r, t1i = b1i + b2i;
+                        float t2r = b1r - b2r, t2i = b1i - b2i;
+                        float mr = ar - 0.5f * t1r, mi = ai - 0.5f * t1i;
+                        // (-+i*sin(2*pi/3)) * t2
+                        float c = fs * SIN_2PI_3;
+                        float rr = c * t2i, ri = -c * t2r;
+                        dst[out] = ar + t1r;
+                        dst[out + 1] = ai + t1i;
+                        dst[out + 2 * l] = mr + rr;
+                        dst[out + 2 * l + 1] = mi + ri;
+                        dst[out + 4 * l] = mr - rr;
+                        dst[out + 4 * l + 1] = mi - ri;
+                        break;
+                    }
+                    case 4: {
+                        float a0r = src[in], a0i = src[in + 1];
+                        float xr = src[in + inStride], xi = src[in + inStride + 1];
+                        float b1r = xr * tw[t] - xi * tw[t + 1];
+                        float b1i = xr * tw[t + 1] + xi * tw[t];
+                        xr = src[in + 2 * inStride]; xi = src[in + 2 * inStride + 1];
+                        float b2r = xr * tw[t + 2] - xi * tw[t + 3];
+                        float b2i = xr * tw[t + 3] + xi * tw[t + 2];
+                        xr = src[in + 3 * inStride]; xi = src[in + 3 * inStride + 1];
+                        float b3r = xr * tw[t + 4] - xi * tw[t + 5];
+                        float b3i = xr * tw[t + 5] + xi * tw[t + 4];
+                        float t0r = a0r + b2r, t0i = a0i + b2i;
+                        float t1r = a0r - b2r, t1i = a0i - b2i;
+                        float t2r = b1r + b3r, t2i = b1i + b3i;
+                        // (-+i) * (b1 - b3)
+                        float t3r = fs * (b1i - b3i), t3i = -fs * (b1r - b3r);
+                        dst[out] = t0r + t2r;
+                        dst[out + 1] = t0i + t2i;
+                        dst[out + 2 * l] = t1r + t3r;
+                        dst[out + 2 * l + 1] = t1i + t3i;
+                        dst[out + 4 * l] = t0r - t2r;
+                        dst[out + 4 * l + 1] = t0i - t2i;
+                        dst[out + 6 * l] = t1r - t3r;
+                        dst[out + 6 * l + 1] = t1i - t3i;
+                        break;
+                    }
+                    case 5: {
+                        float ar = src[in], ai = src[in + 1];
+                        float xr = src[in + inStride], xi = src[in + inStride + 1];
+                        float b1r = xr * tw[t] - xi * tw[t + 1];
+                        float b1i = xr * tw[t + 1] + xi * tw[t];
+                        xr = src[in + 2 * inStride]; xi = src[in + 2 * inStride + 1];
+                        float b2r = xr * tw[t + 2] - xi * tw[t + 3];
+                        float b2i = xr * tw[t + 3] + xi * tw[t + 2];
+                        xr = src[in + 3 * inStride]; xi = src[in + 3 * inStride + 1];
+                        float b3r = xr * tw[t + 4] - xi * tw[t + 5];
+                        float b3i = xr * tw[t + 5] + xi * tw[t + 4];
+                        xr = src[in + 4 * inStride]; xi = src[in + 4 * inStride + 1];
+                        float b4r = xr * tw[t + 6] - xi * tw[t + 7];
+                        float b4i = xr * tw[t + 7] + xi * tw[t + 6];
+                        float t1r = b1r + b4r, t1i = b1i + b4i;
+                        float t2r = b2r + b3r, t2i = b2i + b3i;
+                        float t3r = b1r - b4r, t3i = b1i - b4i;
+                        float t4r = b2r - b3r, t4i = b2i - b3i;
+                        float m1r = ar + COS_2PI_5 * t1r + COS_4PI_5 * t2r;
+                        float m1i = ai + COS_2PI_5 * t1i + COS_4PI_5 * t2i;
+                        float m2r = ar + COS_4PI_5 * t1r + COS_2PI_5 * t2r;
+                        float m2i = ai + COS_4PI_5 * t1i + COS_2PI_5 * t2i;
+                        // (-+i) * (s1*t3 + s2*t4) и (-+i) * (s2*t3 - s1*t4)
+                        float s1 = fs * SIN_2PI_5, s2 = fs * SIN_4PI_5;
+                        float n1r = s1 * t3i + s2 * t4i, n1i = -(s1 * t3r + s2 * t4r);
+                        float n2r = s2 * t3i - s1 * t4i, n2i = -(s2 * t3r - s1 * t4r);
+                        dst[out] = ar + t1r + t2r;
+                        dst[out + 1] = ai + t1i + t2i;
+                        dst[out + 2 * l] = m1r + n1r;
+                        dst[out + 2 * l + 1] = m1i + n1i;
+                        dst[out + 4 * l] = m2r + n2r;
+                        dst[out + 4 * l + 1] = m2i + n2i;
+                        dst[out + 6 * l] = m2r - n2r;
+                        dst[out + 6 * l + 1] = m2i - n2i;
+                        dst[out + 8 * l] = m1r - n1r;
+                        dst[out + 8 * l + 1] = m1i - n1i;
+                        break;
+                    }
+                    default: {
+                        // прямое ДПФ длины p; умноженные на поворачивающие множители входы
+                        // складываются в конец внутреннего буфера, который не пересекается с dst
+                        float[] roots = stageRoots[stage];
+                        int b = 2 * n;
+                        buffer[b] = src[in];
+                        buffer[b + 1] = src[in + 1];
+                        for (int s = 1; s < p; s++) {
+                            float xr = src[in + s * inStride], xi = src[in + s * inStride + 1];
+                            int ts = t + 2 * (s - 1);
+                            buffer[b + 2 * s] = xr * tw[ts] - xi * tw[ts + 1];
+                            buffer[b + 2 * s + 1] = xr * tw[ts + 1] + xi * tw[ts];
+                        }
+                        for (int q = 0; q < p; q++) {
+                            float yr = 0, yi = 0;
+                            int root = 0;
+                            for (int s = 0; s < p; s++) {
+                                float wr = roots[2 * root], wi = roots[2 * root + 1];
+                                float vr = buffer[b + 2 * s], vi = buffer[b + 2 * s + 1];
+                                yr += vr * wr - vi * wi;
+                                yi += vr * wi + vi * wr;
+                                root += q;
+                                if (root >= p) root -= p;
+                            }
+                            dst[out + 2 * q * l] = yr;
+                            dst[out + 2 * q * l + 1] = yi;
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /** Наименьшая длина не меньше n, раскладывающаяся на множители 2, 3 и 5. БПФ такой длины
+     * выполняется смешанным алгоритмом без перехода к алгоритму Блюстейна, поэтому её удобно
+     * использовать при выборе длины дополнения нулями (например, для быстрой свёртки).
+     * @param n минимально допустимая длина
+     * @return длина БПФ
+     */
+    public static int nextFastLength(int n) {
+        int m = Math.max(n, 1);
+        while (!isSmooth(m))
+            m++;
+        return m;
+    }
+
+    /** @return true, если число раскладывается только на множители 2, 3 и 5 */
+    private static boolean isSmooth(int m) {
+        for (int radix = 2; radix <= 5; radix++)
+            while (m % radix == 0)
+                m /= radix;
+        return m == 1;
+    }
+
+    /** Алгоритм Блюстейна: X[k] = c[k] * sum_m (x[m]*c[m]) * conj(c[k-m]),
+     * где c[k] = exp(-+i*pi*k^2/n). Свёртка вычисляется через БПФ длины {@link #convolutionPlan}. */
+    private void executeBluestein(float[] data, int offset) {
+        float[] buffer = scratch.get();
+        int m = convolutionPlan.getLength();
+        for (int k = 0; k < n; k++) {
+            float xr = data[offset + 2 * k], xi = data[offset + 2 * k + 1];
+            float cr = chirp[2 * k], ci = chirp[2 * k + 1];
+            buffer[2 * k] = xr * cr - xi * ci;
+            buffer[2 * k + 1] = xr * ci + xi * cr;
+        }
+        for (int i = 2 * n; i < 2 * m; i++)
+            buffer[i] = 0;
+        convolutionPlan.execute(buffer, 0);
+        for (int k = 0; k < m; k++) {
+            float xr = buffer[2 * k], xi = buffer[2 * k + 1];
+            float hr = chirpSpectrum[2 * k], hi = chirpSpectrum[2 * k + 1];
+            buffer[2 * k] = xr * hr - xi * hi;
+            buffer[2 * k + 1] = xr * hi + xi * hr;
+        }
+        convolutionInversePlan.execute(buffer, 0);
+        for (int k = 0; k < n; k++) {
+            float xr = buffer[2 * k], xi = buffer[2 * k + 1];
+            float cr = chirp[2 * k], ci = chirp[2 * k + 1];
+            data[offset + 2 * k] = xr * cr - xi * ci;
+            data[offset + 2 * k + 1] = xr * ci + xi * cr;
+        }
+    }
+}
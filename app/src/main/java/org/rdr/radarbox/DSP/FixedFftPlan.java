@@ -0,0 +1,158 @@
+package org.rdr.radarbox.DSP;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** План БПФ в фиксированной точке (Q15) с блочной плавающей точкой. <p>
+ * Отсчёты хранятся в массиве типа short в формате (re, im, re, im...), вдвое меньшем, чем
+ * float-массив {@link FftPlan}, вычисления выполняются в целых числах. Поворачивающие множители
+ * хранятся в формате Q15, произведения округляются.
+ * <p>
+ * Блочная плавающая точка: перед каждым этапом бабочек по наибольшему модулю отсчётов блока
+ * выбирается сдвиг вправо (0, 1 или 2 бита), при котором этап не может переполниться
+ * (бабочка увеличивает компоненту не более чем в 1+sqrt(2) раз). Сумма сдвигов возвращается
+ * как общая экспонента блока: спектр равен data*2^exponent. Наибольший модуль выходов этапа
+ * вычисляется в том же проходе, отдельного прохода для выбора сдвига нет. Слабый входной блок
+ * перед первым этапом сдвигается влево (экспонента отрицательная), чтобы младшие разряды
+ * не терялись при округлении.
+ * <p>
+ * Поддерживаются только длины - степени двойки ({@link #isSupported(int)}), алгоритм - БПФ по
+ * основанию 2 на месте. Планы создаются через {@link #get(int)} и хранятся в ограниченном
+ * потокобезопасном кэше, объект плана неизменяемый.
+ */
+public final class FixedFftPlan {
+    /** Максимальное количество планов, хранящихся в кэше */
+    public static final int CACHE_CAPACITY = 8;
+    /** Наибольший модуль компоненты, при котором этап выполняется без сдвига:
+     * 32767/(1+sqrt(2)) */
+    private static final int UNSCALED_LIMIT = 13572;
+
+    private static final Map<Integer, FixedFftPlan> cache =
+            new LinkedHashMap<Integer, FixedFftPlan>(CACHE_CAPACITY, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, FixedFftPlan> eldest) {
+                    return size() > CACHE_CAPACITY;
+                }
+            };
+
+    private final int n;
+    /** Таблица перестановки бит: bitReverse[i] - индекс, с которым меняется i-й отсчёт */
+    private final int[] bitReverse;
+    /** Поворачивающие множители exp(-2*pi*i*k/n), k=0..n/2-1, в формате Q15 (re, im) */
+    private final short[] twiddle;
+
+    private FixedFftPlan(int n) {
+        this.n = n;
+        bitReverse = new int[n];
+        int bits = Integer.numberOfTrailingZeros(n);
+        for (int i = 0; i < n; i++)
+            bitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        twiddle = new short[n];
+        for (int k = 0; k < n / 2; k++) {
+            double angle = -2 * Math.PI * k / n;
+            twiddle[2 * k] = toQ15(Math.cos(angle));
+            twiddle[2 * k + 1] = toQ15(Math.sin(angle));
+        }
+    }
+
+    private static short toQ15(double value) {
+        return (short) Math.max(-32768, Math.min(32767, Math.round(value * 32768)));
+    }
+
+    /** Получение плана из кэша (план создаётся при первом запросе).
+     * @param n количество комплексных отсчётов, степень двойки
+     * @return план БПФ в фиксированной точке
+     * @throws IllegalArgumentException если длина не степень двойки
+     */
+    public static FixedFftPlan get(int n) {
+        if (!isSupported(n))
+            throw new IllegalArgumentException("Fixed-point FFT length must be a power of two");
+        synchronized (cache) {
+            FixedFftPlan plan = cache.get(n);
+            if (plan == null) {
+                plan = new FixedFftPlan(n);
+                cache.put(n, plan);
+            }
+            return plan;
+        }
+    }
+
+    /** @return true, если для длины n есть план БПФ в фиксированной точке */
+    public static boolean isSupported(int n) {
+        return n >= 1 && (n & (n - 1)) == 0;
+    }
+
+    /** Приближённый модуль комплексного числа в целых числах без умножений и корня:
+     * max(M, 7/8*M + 1/2*m), где M и m - больший и меньший из модулей компонент.
+     * Относительная погрешность не больше 3%.
+     * @param re действительная часть
+     * @param im мнимая часть
+     * @return приближённое значение sqrt(re^2+im^2)
+     */
+    public static int magnitude(int re, int im) {
+        int a = Math.abs(re), b = Math.abs(im);
+        int big = Math.max(a, b), small = Math.min(a, b);
+        return Math.max(big, big - (big >> 3) + (small >> 1));
+    }
+
+    /** @return количество комплексных отсчётов преобразования */
+    public int getLength() {return n;}
+
+    /** Прямое БПФ на месте.
+     * @param data отсчёты в формате (re, im, re, im...), не меньше 2*{@link #getLength()}
+     * @return экспонента блока: спектр равен data*2^exponent
+     */
+    public int execute(short[] data) {
+        int max = 0;
+        for (int i = 0; i < n; i++) {
+            int j = bitReverse[i];
+            if (j > i) {
+                short re = data[2 * i], im = data[2 * i + 1];
+                data[2 * i] = data[2 * j];
+                data[2 * i + 1] = data[2 * j + 1];
+                data[2 * j] = re;
+                data[2 * j + 1] = im;
+            }
+        }
+        for (int i = 0; i < 2 * n; i++)
+            max = Math.max(max, Math.abs(data[i]));
+        // нормировка: слабый сигнал сдвигается влево, чтобы использовать все разряды
+        int exponent = 0;
+        if (max > 0 && max <= UNSCALED_LIMIT / 2) {
+            int up = Integer.numberOfLeadingZeros(max)
+                    - Integer.numberOfLeadingZeros(UNSCALED_LIMIT);
+            if ((max << up) > UNSCALED_LIMIT)
+                up--;
+            for (int i = 0; i < 2 * n; i++)
+                data[i] = (short) (data[i] << up);
+            max <<= up;
+            exponent = -up;
+        }
+        for (int size = 2; size <= n; size <<= 1) {
+            int shift = max <= UNSCALED_LIMIT ? 0 : max <= 2 * UNSCALED_LIMIT ? 1 : 2;
+            int round = shift > 0 ? 1 << (shift - 1) : 0;
+            exponent += shift;
+            max = 0;
+            int half = size >> 1, step = 2 * (n / size);
+            for (int start = 0; start < n; start += size) {
+                for (int k = 0, w = 0; k < half; k++, w += step) {
+                    int i = 2 * (start + k), j = i + 2 * half;
+                    int wr = twiddle[w], wi = twiddle[w + 1];
+                    int br = data[j], bi = data[j + 1];
+                    int tr = (br * wr - bi * wi + 0x4000) >> 15;
+                    int ti = (br * wi + bi * wr + 0x4000) >> 15;
+                    int ar = data[i], ai = data[i + 1];
+                    int r0 = (ar + tr + round) >> shift, i0 = (ai + ti + round) >> shift;
+                    int r1 = (ar - tr + round) >> shift, i1 = (ai - ti + round) >> shift;
+                    data[i] = (short) r0;
+                    data[i + 1] = (short) i0;
+                    data[j] = (short) r1;
+                    data[j + 1] = (short) i1;
+                    max = Math.max(max, Math.max(Math.max(Math.abs(r0), Math.abs(i0)),
+                            Math.max(Math.abs(r1), Math.abs(i1))));
+                }
+            }
+        }
+        return exponent;
+    }
+}
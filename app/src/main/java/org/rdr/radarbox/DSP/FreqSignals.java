@@ -2,6 +2,7 @@ package org.rdr.radarbox.DSP;
 
 import org.rdr.radarbox.DSP.Operations.OperationDSP;
 import org.rdr.radarbox.Device.DeviceConfiguration;
+import org.rdr.radarbox.Device.DeviceRawDataAdapter;
 import org.rdr.radarbox.R;
 
 import java.util.ArrayList;
@@ -27,6 +28,22 @@ public class FreqSignals extends PreferenceFragmentCompat implements OperationDS
     private short[] rawFreqFrame;
     private int[] frequenciesMHz;
     private int[][] rxtxOrder;
+    /** Порядок измерений в {@link #rawFreqFrame}. Устройства приводят данные к этому порядку
+     * в {@link DeviceRawDataAdapter#reshuffleRawData}, в файл данные пишутся в нём же */
+    private final DeviceRawDataAdapter.DimensionOrder frameOrder =
+            DeviceRawDataAdapter.DimensionOrder.TF_RX_TX;
+    /** Представления каналов внутри {@link #rawFreqFrame}, пересоздаются при смене конфигурации */
+    private volatile RawChannelView[] channelViews = new RawChannelView[0];
+    /** Представления каналов для кадра в порядке {@link DeviceRawDataAdapter.DimensionOrder#RX_TF_TX}
+     * (отсчёты на одной частоте перемешаны между приёмниками),
+     * используются в {@link #reshuffleOneChannelSignal(int, int, short[])} */
+    private volatile RawChannelView[] interleavedChannelViews = new RawChannelView[0];
+    /** Общий для всех каналов вектор частот (ось X), пересоздаётся при смене конфигурации */
+    private volatile float[] frequencyAxis = new float[0];
+    /** Калибровочные коэффициенты, применяемые при переводе отсчётов в float, либо null */
+    private volatile Calibration calibration = null;
+    /** Измеренные частоты точек (неравномерная сетка), если заданы; иначе null */
+    private volatile float[] measuredFrequencies = null;
     private ArrayList<ComplexSignal> outputSignals = new ArrayList<>();
     public FreqSignals() {
 
@@ -109,6 +126,7 @@ public class FreqSignals extends PreferenceFragmentCompat implements OperationDS
             }
             frameSize=2*FN*chN;
             rawFreqFrame= new short[2*FN*chN];
+            updateChannelViews();
         });
         DeviceConfiguration.Parameter param = deviceConfig.getParameters().stream().filter(
                 parameter -> parameter.getID().equals("FN")
@@ -119,7 +137,8 @@ public class FreqSignals extends PreferenceFragmentCompat implements OperationDS
                     frameSize=2*FN*chN;
                     rawFreqFrame= new short[2*FN*chN];
                     frequenciesMHz = new int[FN];
-                    for(int i=0; i<FN; i++) frequenciesMHz[i] = freqInitMHz+i*freqStepMHz;
+                    updateFrequencies();
+                    updateChannelViews();
                 });
         else {
             FN=0;
@@ -132,7 +151,7 @@ public class FreqSignals extends PreferenceFragmentCompat implements OperationDS
         if(param!=null) ((DeviceConfiguration.IntegerParameter) param)
                 .getLiveValue().observeForever(value->{
                     freqInitMHz=value;
-                    for(int i=0; i<FN; i++) frequenciesMHz[i] = freqInitMHz+i*freqStepMHz;
+                    updateFrequencies();
                 });
         else {
             freqInitMHz=0;
@@ -146,7 +165,7 @@ public class FreqSignals extends PreferenceFragmentCompat implements OperationDS
         if(param!=null)((DeviceConfiguration.IntegerParameter) param)
                 .getLiveValue().observeForever(value->{
                     freqStepMHz=value;
-                    for(int i=0; i<FN; i++) frequenciesMHz[i] = freqInitMHz+i*freqStepMHz;
+                    updateFrequencies();
                 });
         else {
             freqStepMHz=0;
@@ -156,6 +175,77 @@ public class FreqSignals extends PreferenceFragmentCompat implements OperationDS
         return true;
     }
 
+    /** Пересчёт вектора частот при изменении FN, F0 или dF.
+     * Общая ось X создаётся заново, чтобы сигналы, которые на неё ссылаются, увидели изменение.
+     * Если заданы измеренные частоты ({@link #setMeasuredFrequencies(float[])}) той же длины,
+     * ось берётся из них.
+     */
+    private void updateFrequencies() {
+        float[] measured = measuredFrequencies;
+        boolean useMeasured = measured!=null && measured.length==FN;
+        float[] axis = new float[FN];
+        for(int i=0; i<FN; i++) {
+            axis[i] = useMeasured ? measured[i] : freqInitMHz+i*freqStepMHz;
+            frequenciesMHz[i] = Math.round(axis[i]);
+        }
+        frequencyAxis = axis;
+    }
+
+    /** <p>Задать фактические частоты точек в МГц вместо равномерной сетки F0+i*dF
+     * (нелинейность перестройки по результатам калибровки, пропущенные полосы).</p>
+     * <p>Такую ось обрабатывает {@link org.rdr.radarbox.DSP.Operations.OperationNUFFT};
+     * {@link org.rdr.radarbox.DSP.Operations.OperationFFT} по-прежнему считает сетку
+     * равномерной.</p>
+     * @param axisMHz массив размера {@link #getFN()} (копируется) либо null, чтобы вернуться
+     *                к равномерной сетке. Если размер не совпадает с количеством точек,
+     *                используется равномерная сетка
+     */
+    public void setMeasuredFrequencies(float[] axisMHz) {
+        measuredFrequencies = axisMHz==null ? null : axisMHz.clone();
+        if(axisMHz!=null && axisMHz.length!=FN)
+            logger.add(this,"Measured frequencies count "+axisMHz.length+" differs from FN "+FN);
+        if(frequenciesMHz!=null)
+            updateFrequencies();
+    }
+
+    /** Пересоздание таблицы представлений каналов при изменении кадра или матрицы каналов */
+    private void updateChannelViews() {
+        if(rxtxOrder==null || rawFreqFrame==null)
+            return;
+        channelViews = RawChannelView.buildLayout(rawFreqFrame, rxtxOrder, FN, frameOrder);
+        interleavedChannelViews = RawChannelView.buildLayout(rawFreqFrame, rxtxOrder, FN,
+                DeviceRawDataAdapter.DimensionOrder.RX_TF_TX);
+    }
+
+    /** <p>Представление канала внутри текущего кадра {@link #getRawFreqFrame()}.</p>
+     * @param rx номер приёмника, начиная с нуля
+     * @param tx номер передатчика, начиная с нуля
+     * @return представление канала либо null, если номер канала задан неверно
+     */
+    public RawChannelView getChannelView(int rx, int tx) {
+        RawChannelView[] views = channelViews;
+        if (rx<0 || rx> rxN-1 || tx<0 || tx> txN-1 || views.length!=rxN*txN)
+            return null;
+        return views[tx*rxN+rx];
+    }
+
+    /** <p>Представления всех каналов внутри текущего кадра {@link #getRawFreqFrame()}.</p>
+     * <p>Позволяют читать отсчёты канала прямо из кадра, без копирования.
+     * Индекс канала: tx*{@link #getRxN()}+rx.</p>
+     * @return массив размера {@link #getRxN()}*{@link #getTxN()}
+     */
+    public RawChannelView[] getChannelViews() {
+        return channelViews;
+    }
+
+    /** <p>Общий для всех каналов вектор частот в МГц типа float (ось X сырых сигналов).</p>
+     * <p>Массив не копируется и не должен изменяться.</p>
+     * @return массив размера {@link #getFN()}
+     */
+    public float[] getFrequencyAxis() {
+        return frequencyAxis;
+    }
+
     /** <p>Массив сырых частотных данных (кадр)</p>
      *  <p>Размер массива определяется количеством работающих каналов и количеством частотных точек</p>
      *  <p>2*{@link #getChN()}*{@link #getFN()}</p>
@@ -166,30 +256,16 @@ public class FreqSignals extends PreferenceFragmentCompat implements OperationDS
     }
 
     public boolean reshuffleOneChannelSignal(int rx, int tx, short[] oneChannelArray) {
-        if (rx<0 || rx> rxN-1 || tx<0 || tx> txN-1 || oneChannelArray.length!=2*FN)
-            return false;
         /* так как данные в сыром сигнале перемешаны (на одной частоте данные с нескольких
-        приёмников), то, чтобы правильно вычленить частотные данные для одного канала,
-        используется метод вычисляющий индексы отсчётов и происходит правильное перемешивание
+        приёмников), то отсчёты канала выбираются с шагом, равным количеству ненулевых
+        приёмных каналов текущего передатчика. Смещение и шаг заранее вычислены в
+        interleavedChannelViews при изменении конфигурации
         */
-        // Вычисляется сумма всех ненулевых приёмопередающих каналов, предшествующих текущему
-        int SumRt = 0;
-        for(int t=0; t<tx; t++) {
-            for (int r = 0; r < rxN; r++)
-                if (rxtxOrder[r][t] != 0)
-                    SumRt++;
-        }
-        // Вычисляется количество ненулевых приёмных каналов для данного передатчика
-        int Rt = 0;
-        for(int r=0; r<rxN; r++) if(rxtxOrder[r][tx]!=0) Rt++;
-        // Вычислеяется каким по счёту ненулевым приёмным каналом является текущий канал для текущего передатчика
-        int rt = 0;
-        for(int r=0; r<rx; r++) if(rxtxOrder[r][tx]!=0) rt++;
-        // С учётом полученных данных выбираются отсчёты соотвутствующие искомому каналу
-        for(int f=0; f<FN; f++) {
-            oneChannelArray[2*f] = rawFreqFrame[2*FN*SumRt+2*f*Rt+2*rt];
-            oneChannelArray[2*f+1] = rawFreqFrame[2*FN*SumRt+2*f*Rt+2*rt+1];
-        }
+        RawChannelView[] views = interleavedChannelViews;
+        if (rx<0 || rx> rxN-1 || tx<0 || tx> txN-1 || oneChannelArray.length!=2*FN
+                || views.length!=rxN*txN)
+            return false;
+        views[tx*rxN+rx].copyTo(oneChannelArray);
         return true;
     }
 
@@ -275,26 +351,12 @@ public class FreqSignals extends PreferenceFragmentCompat implements OperationDS
      * 1, если массив сырых частотных данных успешно сформирован
      */
     public int getRawFreqOneChannelSignal(int rx, int tx, short[] oneChannelArray) {
-        if (rx<0 || rx> rxN-1 || tx<0 || tx> txN-1 || oneChannelArray.length!=2*FN)
+        RawChannelView view = getChannelView(rx, tx);
+        if (view==null || oneChannelArray.length!=2*view.getLength())
             return -1;
-
-        if (txN==1 && rxN==1) {
-            System.arraycopy(rawFreqFrame,0,
-                    oneChannelArray,0,2*FN);
-            return 1;
-        }
-
-        if(rxtxOrder[rx][tx]==0) {
-            for(int i=0; i<2*FN; i++) oneChannelArray[i]=0;
-            return 0;
-        }
-
-        int notNullRxTxChannels = 0;
-        for(int t=0; t<tx; t++) for(int r=0; r<rxN; r++) if(rxtxOrder[r][t]!=0) notNullRxTxChannels++;
-        for(int r=0; r<rx; r++) if(rxtxOrder[r][tx]!=0) notNullRxTxChannels++;
-        System.arraycopy(rawFreqFrame,notNullRxTxChannels*2*FN,
-                oneChannelArray,0,2*FN);
-        return 1;
+        // смещение канала в кадре заранее вычислено в channelViews, отключённый канал даёт нули
+        view.copyTo(oneChannelArray);
+        return view.isEnabled() ? 1 : 0;
     }
 
     @Override
@@ -314,25 +376,63 @@ public class FreqSignals extends PreferenceFragmentCompat implements OperationDS
 
     @Override
     public void doOperation() {
-        outputSignals.clear();
-
-        float[] xVector = new float[frequenciesMHz.length];
-        for(int i = 0; i<xVector.length;i++)
-            xVector[i]=frequenciesMHz[i];
-
-        short[] oneChannelSignal = new short[FN*2];
+        RawChannelView[] views = channelViews;
+        float[] xVector = frequencyAxis;
+        if(views.length!=rxN*txN)
+            return;
+        // выходные сигналы пересоздаются только при изменении конфигурации
+        if(outputSignals.size()!=views.length ||
+                (!outputSignals.isEmpty() && (outputSignals.get(0).getLength()!=xVector.length
+                        || outputSignals.get(0).getX()!=xVector))) {
+            ArrayList<ComplexSignal> signals = new ArrayList<>();
+            for(int rx = 0; rx<rxN; rx++) {
+                for(int tx=0; tx<txN; tx++) {
+                    if(views[tx*rxN+rx].getLength()!=xVector.length)
+                        return;
+                    signals.add(new ComplexSignal(xVector.length)
+                            .setSharedX(xVector)
+                            .setUnitsX("MHz")
+                            .setName("t"+tx+"r"+rx));
+                }
+            }
+            outputSignals = signals;
+        }
+        // отсчёты каждого канала за один проход читаются из кадра, переводятся в float
+        // и умножаются на калибровочные коэффициенты (если они заданы)
+        float[][] coefficients = getCalibrationCoefficients(xVector);
+        int line = 0;
         for(int rx = 0; rx<rxN; rx++) {
             for(int tx=0; tx<txN; tx++) {
-                getRawFreqOneChannelSignal(rx,tx,oneChannelSignal);
-                outputSignals.add(
-                        new ComplexSignal(oneChannelSignal,ComplexSignal.SamplesOrder.RE_IM_RE_IM)
-                        .setX(frequenciesMHz)
-                        .setUnitsX("MHz")
-                        .setName("t"+tx+"r"+rx));
+                views[tx*rxN+rx].copyTo(outputSignals.get(line++).getData(),
+                        coefficients!=null ? coefficients[tx*rxN+rx] : null);
             }
         }
     }
 
+    /** <p>Задать калибровочные коэффициенты, которые применяются к отсчётам каналов при их
+     * переводе из кадра в float (в том же проходе по памяти).</p>
+     * <p>Коэффициенты пересчитываются на ось частот только при её изменении (F0, dF, FN).</p>
+     * @param calibration набор коэффициентов либо null, чтобы отключить калибровку
+     */
+    public void setCalibration(Calibration calibration) {
+        this.calibration = calibration;
+    }
+
+    /** Калибровочные коэффициенты каналов, пересчитываются только при изменении оси частот.
+     * @param xVector ось частот, на которой применяются коэффициенты
+     *                (снимок {@link #getFrequencyAxis()})
+     * @return коэффициенты в порядке {@link #getChannelViews()} (индекс tx*rxN+rx) либо null,
+     * если калибровка не задана */
+    public float[][] getCalibrationCoefficients(float[] xVector) {
+        Calibration calibration = this.calibration;
+        return calibration!=null ? calibration.getCoefficients(xVector, rxN, txN) : null;
+    }
+
+    /** @return текущий набор калибровочных коэффициентов либо null */
+    public Calibration getCalibration() {
+        return calibration;
+    }
+
     @Override
     public boolean setParameters(Object parameters) throws IllegalArgumentException {
         if(!(parameters instanceof DeviceConfiguration))
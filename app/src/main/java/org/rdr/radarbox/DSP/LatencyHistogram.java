@@ -0,0 +1,103 @@
+package org.rdr.radarbox.DSP;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Гистограмма длительностей в наносекундах с логарифмическими интервалами. <p>
+ * Каждая степень двойки делится на {@link #SUB_BUCKETS} равных интервалов, процентиль
+ * оценивается серединой интервала, поэтому относительная погрешность не больше
+ * 1/(2*{@value #SUB_BUCKETS}) при фиксированном размере гистограммы для любых длительностей.
+ * Запись - несколько атомарных операций без выделения памяти, читать гистограмму можно из
+ * любого потока одновременно с записью.
+ */
+public class LatencyHistogram {
+    /** Количество интервалов на каждую степень двойки */
+    public static final int SUB_BUCKETS = 8;
+    private static final int SUB_BITS = 3;
+    private static final int BUCKET_COUNT = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /** Номер интервала длительности: значения меньше {@link #SUB_BUCKETS} - точно,
+     * далее по {@link #SUB_BUCKETS} интервалов на степень двойки */
+    static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS)
+            return (int) Math.max(nanos, 0);
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /** @return середина интервала */
+    static long middleOf(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + ((1L << shift) >> 1);
+    }
+
+    /** Добавить длительность
+     * @param nanos длительность в наносекундах */
+    public void record(long nanos) {
+        counts.incrementAndGet(bucketOf(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+        long previous = max.get();
+        while (nanos > previous && !max.compareAndSet(previous, nanos))
+            previous = max.get();
+    }
+
+    /** @return количество записанных длительностей */
+    public long getCount() {
+        return count.get();
+    }
+
+    /** @return средняя длительность, нс (0, если записей нет) */
+    public long getMean() {
+        long n = count.get();
+        return n > 0 ? total.get() / n : 0;
+    }
+
+    /** @return наибольшая длительность, нс */
+    public long getMax() {
+        return max.get();
+    }
+
+    /** Процентиль длительности (середина интервала, но не больше максимума).
+     * @param percentile процентиль от 0 до 100
+     * @return длительность, нс (0, если записей нет)
+     * @throws IllegalArgumentException если процентиль вне диапазона 0..100
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("Percentile must be in range 0..100");
+        long n = 0;
+        long[] snapshot = new long[BUCKET_COUNT];
+        for (int b = 0; b < BUCKET_COUNT; b++) {
+            snapshot[b] = counts.get(b);
+            n += snapshot[b];
+        }
+        if (n == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int b = 0; b < BUCKET_COUNT; b++) {
+            seen += snapshot[b];
+            if (seen >= rank)
+                return Math.min(middleOf(b), max.get());
+        }
+        return max.get();
+    }
+
+    /** Удалить все записи */
+    public void reset() {
+        for (int b = 0; b < BUCKET_COUNT; b++)
+            counts.set(b, 0);
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+}
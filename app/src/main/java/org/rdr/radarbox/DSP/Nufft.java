@@ -0,0 +1,219 @@
+package org.rdr.radarbox.DSP;
+
+/** Быстрое преобразование Фурье для неравномерно расположенных точек (NUFFT). <p>
+ * Для набора фаз theta[k] (k = 0..L-1, например theta[k] = 2*pi*(f[k]-f[0])*dt при
+ * неравномерной сетке частот f[k] и шаге dt по задержке) вычисляются
+ * <ul>
+ *     <li>{@link #type1(float[], float[])} - из неравномерных точек в равномерную сетку:
+ *     y[j] = sum_k c[k]*exp(-i*j*theta[k]), j = 0..N-1 (дальностный профиль);</li>
+ *     <li>{@link #type2(float[], float[])} - сопряжённое преобразование из равномерной сетки
+ *     в неравномерные точки: c[k] = sum_j y[j]*exp(i*j*theta[k]).</li>
+ * </ul>
+ * Вместо прямого ДФТ (L*N операций) каждая точка распределяется по {@link #KERNEL_WIDTH}
+ * соседним узлам сетки с передискретизацией {@link #OVERSAMPLING} ядром Кайзера-Бесселя,
+ * над сеткой выполняется БПФ, и результат делится на спектр ядра. Итого
+ * L*{@link #KERNEL_WIDTH} операций плюс БПФ длины не меньше {@link #OVERSAMPLING}*N,
+ * относительная погрешность порядка 1e-6 (на уровне точности float).
+ * <p>
+ * Веса ядра для всех точек, их положение на сетке и деление на спектр ядра вычисляются
+ * в конструкторе один раз для набора фаз, вызовы не выделяют память. Объект хранит свою
+ * сетку, поэтому одновременно используется одним потоком.
+ * <p>
+ * Отсчёты хранятся в массивах типа float в формате (re, im, re, im...).
+ */
+public class Nufft {
+    /** Ширина ядра (количество узлов сетки на одну точку) */
+    public static final int KERNEL_WIDTH = 8;
+    /** Минимальная передискретизация сетки относительно количества точек результата */
+    public static final int OVERSAMPLING = 2;
+
+    private final int pointCount;
+    private final int modeCount;
+    /** Номер отсчёта результата, соответствующий нулевой частоте сетки: отсчёты
+     * j = 0..N-1 сдвигаются в симметричный интервал -N/2..N/2-1, в котором спектр ядра
+     * наибольший */
+    private final int centerMode;
+    private final int gridLength;
+    private final FftPlan forward, inverse;
+    /** Первый узел сетки для каждой точки */
+    private final int[] gridStart;
+    /** Веса ядра, {@link #KERNEL_WIDTH} на каждую точку */
+    private final float[] kernel;
+    /** Множители exp(-i*centerMode*theta[k]) (re, im) */
+    private final float[] shift;
+    /** 1/(спектр ядра) для отсчётов результата j = 0..N-1 */
+    private final float[] deconvolution;
+    private final float[] grid;
+
+    /** Преобразование для заданного набора фаз.
+     * @param theta фазы точек theta[k] в радианах (произвольные, берутся по модулю 2*pi)
+     * @param pointCount количество точек L
+     * @param modeCount количество отсчётов равномерной сетки N
+     * @throws IllegalArgumentException если количество точек или отсчётов меньше единицы
+     */
+    public Nufft(double[] theta, int pointCount, int modeCount) {
+        if (pointCount < 1 || theta.length < pointCount)
+            throw new IllegalArgumentException("Wrong point count");
+        if (modeCount < 1)
+            throw new IllegalArgumentException("Mode count must be positive");
+        this.pointCount = pointCount;
+        this.modeCount = modeCount;
+        centerMode = modeCount/2;
+        gridLength = FftPlan.nextFastLength(Math.max(OVERSAMPLING*modeCount, 2*KERNEL_WIDTH));
+        forward = FftPlan.get(gridLength, false);
+        inverse = FftPlan.get(gridLength, true);
+
+        double half = KERNEL_WIDTH/2.0;
+        double sigma = (double) gridLength/modeCount;
+        double beta = Math.PI*Math.sqrt(half*half*4/(sigma*sigma)*(sigma - 0.5)*(sigma - 0.5) - 0.8);
+        double norm = Window.besselI0(beta);
+
+        gridStart = new int[pointCount];
+        kernel = new float[pointCount*KERNEL_WIDTH];
+        shift = new float[2*pointCount];
+        for (int k = 0; k < pointCount; k++) {
+            double phase = theta[k] % (2*Math.PI);
+            if (phase < 0)
+                phase += 2*Math.PI;
+            double position = phase*gridLength/(2*Math.PI);
+            int first = (int) Math.ceil(position - half);
+            for (int w = 0; w < KERNEL_WIDTH; w++)
+                kernel[k*KERNEL_WIDTH + w] =
+                        (float) (kaiserBessel(first + w - position, half, beta)/norm);
+            gridStart[k] = (first%gridLength + gridLength)%gridLength;
+            double angle = -centerMode*phase;
+            shift[2*k] = (float) Math.cos(angle);
+            shift[2*k+1] = (float) Math.sin(angle);
+        }
+
+        // спектр ядра в аналитическом виде
+        deconvolution = new float[modeCount];
+        for (int j = 0; j < modeCount; j++) {
+            double omega = 2*Math.PI*(j - centerMode)/gridLength;
+            deconvolution[j] = (float) (norm/kaiserBesselSpectrum(omega, half, beta));
+        }
+        grid = new float[2*gridLength];
+    }
+
+    /** Преобразование для неравномерной сетки частот и равномерной сетки задержек:
+     * theta[k] = 2*pi*(f[k]-f[0])*dt.
+     * @param frequencies частоты точек (например, МГц)
+     * @param pointCount количество точек
+     * @param step шаг сетки результата в единицах, обратных единицам частоты (например, мкс)
+     * @param modeCount количество отсчётов результата
+     * @return объект преобразования
+     */
+    public static Nufft forFrequencies(float[] frequencies, int pointCount, double step,
+                                       int modeCount) {
+        double[] theta = new double[pointCount];
+        for (int k = 0; k < pointCount; k++)
+            theta[k] = 2*Math.PI*((double) frequencies[k] - frequencies[0])*step;
+        return new Nufft(theta, pointCount, modeCount);
+    }
+
+    /** @return количество неравномерных точек */
+    public int getPointCount() {return pointCount;}
+
+    /** @return количество отсчётов равномерной сетки */
+    public int getModeCount() {return modeCount;}
+
+    /** @return длина БПФ передискретизированной сетки */
+    public int getGridLength() {return gridLength;}
+
+    /** Из неравномерных точек в равномерную сетку: y[j] = sum_k c[k]*exp(-i*j*theta[k]).
+     * @param c значения в точках, не меньше 2*{@link #getPointCount()} элементов
+     * @param y массив результата размера не меньше 2*{@link #getModeCount()}
+     */
+    public void type1(float[] c, float[] y) {
+        float[] g = grid;
+        for (int i = 0; i < g.length; i++)
+            g[i] = 0;
+        // распределение точек по сетке
+        for (int k = 0; k < pointCount; k++) {
+            float cr = c[2*k], ci = c[2*k+1];
+            float sr = shift[2*k], si = shift[2*k+1];
+            float vr = cr*sr - ci*si, vi = cr*si + ci*sr;
+            int base = k*KERNEL_WIDTH;
+            int start = gridStart[k];
+            if (start + KERNEL_WIDTH <= gridLength) {
+                for (int w = 0; w < KERNEL_WIDTH; w++) {
+                    float weight = kernel[base + w];
+                    g[2*(start + w)] += weight*vr;
+                    g[2*(start + w)+1] += weight*vi;
+                }
+            }
+            else {
+                for (int w = 0; w < KERNEL_WIDTH; w++) {
+                    int l = start + w;
+                    if (l >= gridLength) l -= gridLength;
+                    float weight = kernel[base + w];
+                    g[2*l] += weight*vr;
+                    g[2*l+1] += weight*vi;
+                }
+            }
+        }
+        forward.execute(g, 0);
+        // отсчёт j соответствует частоте сетки j-centerMode
+        for (int j = 0; j < modeCount; j++) {
+            int m = j - centerMode;
+            if (m < 0) m += gridLength;
+            float d = deconvolution[j];
+            y[2*j] = g[2*m]*d;
+            y[2*j+1] = g[2*m+1]*d;
+        }
+    }
+
+    /** Из равномерной сетки в неравномерные точки: c[k] = sum_j y[j]*exp(i*j*theta[k]).
+     * @param y отсчёты равномерной сетки, не меньше 2*{@link #getModeCount()} элементов
+     * @param c массив результата размера не меньше 2*{@link #getPointCount()}
+     */
+    public void type2(float[] y, float[] c) {
+        float[] g = grid;
+        for (int i = 0; i < g.length; i++)
+            g[i] = 0;
+        for (int j = 0; j < modeCount; j++) {
+            int m = j - centerMode;
+            if (m < 0) m += gridLength;
+            float d = deconvolution[j];
+            g[2*m] = y[2*j]*d;
+            g[2*m+1] = y[2*j+1]*d;
+        }
+        inverse.execute(g, 0);
+        // интерполяция сетки в точки
+        for (int k = 0; k < pointCount; k++) {
+            float vr = 0, vi = 0;
+            int base = k*KERNEL_WIDTH;
+            int start = gridStart[k];
+            for (int w = 0; w < KERNEL_WIDTH; w++) {
+                int l = start + w;
+                if (l >= gridLength) l -= gridLength;
+                float weight = kernel[base + w];
+                vr += weight*g[2*l];
+                vi += weight*g[2*l+1];
+            }
+            // умножение на exp(i*centerMode*theta[k])
+            float sr = shift[2*k], si = -shift[2*k+1];
+            c[2*k] = vr*sr - vi*si;
+            c[2*k+1] = vr*si + vi*sr;
+        }
+    }
+
+    /** Преобразование Фурье ядра {@link #kaiserBessel(double, double, double)}:
+     * 2*half*sinh(sqrt(beta^2 - (half*omega)^2))/sqrt(beta^2 - (half*omega)^2) */
+    private static double kaiserBesselSpectrum(double omega, double half, double beta) {
+        double q = beta*beta - half*half*omega*omega;
+        if (q > 1e-12)
+            return 2*half*Math.sinh(Math.sqrt(q))/Math.sqrt(q);
+        if (q < -1e-12)
+            return 2*half*Math.sin(Math.sqrt(-q))/Math.sqrt(-q);
+        return 2*half;
+    }
+
+    /** Ядро Кайзера-Бесселя (без нормировки) на интервале [-half, half] */
+    private static double kaiserBessel(double x, double half, double beta) {
+        double r = x/half;
+        if (r <= -1 || r >= 1)
+            return 0;
+        return Window.besselI0(beta*Math.sqrt(1 - r*r));
+    }
+}
@@ -0,0 +1,168 @@
+package org.rdr.radarbox.DSP;
+
+import android.os.Debug;
+
+import org.rdr.radarbox.DSP.Operations.OperationDSP;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Измерение длительности выполнения операций обработки. <p>
+ * Для каждой операции хранится гистограмма длительностей {@link LatencyHistogram}
+ * (p50/p90/p99/max) и, если включён подсчёт ({@link #setAllocationCounting(boolean)}),
+ * объём памяти, выделенной операцией. Граф обработки и конвейер получают запись
+ * {@link Entry} операции один раз и на каждом кадре вызывают только
+ * {@link Entry#begin()} и {@link Entry#end(long)}: два вызова {@link System#nanoTime()} и
+ * запись в гистограмму без выделения памяти.
+ * <p>
+ * Операция в каждый момент выполняется не более чем в одном потоке, поэтому запись одной
+ * операции не используется одновременно несколькими потоками.
+ */
+public class OperationProfiler {
+    /** Запись измерений одной операции */
+    public static class Entry {
+        private final OperationProfiler profiler;
+        private final String name;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong allocatedBytes = new AtomicLong();
+        private final AtomicLong allocationFrames = new AtomicLong();
+        /** Счётчик выделенной памяти потока в начале операции, -1 - не измеряется */
+        private long allocationStart = -1;
+
+        Entry(OperationProfiler profiler, String name) {
+            this.profiler = profiler;
+            this.name = name;
+        }
+
+        /** Начало выполнения операции
+         * @return время начала для {@link #end(long)} */
+        public long begin() {
+            allocationStart = profiler.allocationCounting ? threadAllocatedBytes() : -1;
+            return System.nanoTime();
+        }
+
+        /** Конец выполнения операции
+         * @param start значение, возвращённое {@link #begin()} */
+        public void end(long start) {
+            latency.record(System.nanoTime() - start);
+            if (allocationStart >= 0 && profiler.allocationCounting) {
+                long allocated = threadAllocatedBytes();
+                if (allocated >= allocationStart) {
+                    allocatedBytes.addAndGet(allocated - allocationStart);
+                    allocationFrames.incrementAndGet();
+                }
+            }
+        }
+
+        /** @return название операции */
+        public String getName() {
+            return name;
+        }
+
+        /** @return гистограмма длительностей выполнения */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /** @return средний объём памяти, выделенной за одно выполнение, байт; -1 - не
+         * измерялся */
+        public long getAllocatedBytesPerRun() {
+            long frames = allocationFrames.get();
+            return frames > 0 ? allocatedBytes.get() / frames : -1;
+        }
+
+        void reset() {
+            latency.reset();
+            allocatedBytes.set(0);
+            allocationFrames.set(0);
+        }
+    }
+
+    private final IdentityHashMap<OperationDSP, Entry> entries = new IdentityHashMap<>();
+    private final ArrayList<Entry> order = new ArrayList<>();
+    private volatile boolean allocationCounting = false;
+    private volatile long statisticsStart = System.nanoTime();
+
+    /** Запись операции, создаётся при первом обращении.
+     * @param operation операция обработки
+     * @return запись измерений операции
+     */
+    public synchronized Entry getEntry(OperationDSP operation) {
+        Entry entry = entries.get(operation);
+        if (entry == null) {
+            entry = new Entry(this, operation.getName());
+            entries.put(operation, entry);
+            order.add(entry);
+        }
+        return entry;
+    }
+
+    /** @return записи всех операций в порядке их появления */
+    public synchronized ArrayList<Entry> getEntries() {
+        return new ArrayList<>(order);
+    }
+
+    /** Включить подсчёт памяти, выделенной операциями. Подсчёт выполняется средствами
+     * среды выполнения ({@link Debug#startAllocCounting()}) и сам замедляет выделение памяти
+     * во всём приложении, поэтому по умолчанию выключен.
+     * @param enabled true - включить
+     * @return true, если подсчёт поддерживается средой выполнения
+     */
+    @SuppressWarnings("deprecation")
+    public boolean setAllocationCounting(boolean enabled) {
+        try {
+            if (enabled) {
+                Debug.resetThreadAllocSize();
+                Debug.startAllocCounting();
+            }
+            else
+                Debug.stopAllocCounting();
+        } catch (RuntimeException | LinkageError e) {
+            allocationCounting = false;
+            return false;
+        }
+        allocationCounting = enabled;
+        return true;
+    }
+
+    /** @return true, если включён подсчёт выделенной памяти */
+    public boolean isAllocationCounting() {
+        return allocationCounting;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static long threadAllocatedBytes() {
+        try {
+            return Debug.getThreadAllocSize();
+        } catch (RuntimeException | LinkageError e) {
+            return -1;
+        }
+    }
+
+    /** Удалить все измерения */
+    public synchronized void reset() {
+        for (Entry entry : order)
+            entry.reset();
+        statisticsStart = System.nanoTime();
+    }
+
+    /** @return сводка по операциям: количество выполнений, p50/p90/p99/max в микросекундах
+     * и средний объём выделенной памяти */
+    public synchronized String getStatistics() {
+        StringBuilder statistics = new StringBuilder(String.format(Locale.US,
+                "%.1f s, us: p50 p90 p99 max", (System.nanoTime() - statisticsStart) / 1e9));
+        for (Entry entry : order) {
+            LatencyHistogram latency = entry.getLatency();
+            statistics.append(String.format(Locale.US, "\n%s: n=%d %.0f %.0f %.0f %.0f",
+                    entry.getName(), latency.getCount(),
+                    latency.getPercentile(50) / 1e3, latency.getPercentile(90) / 1e3,
+                    latency.getPercentile(99) / 1e3, latency.getMax() / 1e3));
+            long allocated = entry.getAllocatedBytesPerRun();
+            if (allocated >= 0)
+                statistics.append(String.format(Locale.US, ", %d B/run", allocated));
+        }
+        return statistics.toString();
+    }
+}
@@ -0,0 +1,291 @@
+package org.rdr.radarbox.DSP.Operations;
+
+import org.rdr.radarbox.DSP.ComplexSignal;
+
+import java.util.ArrayList;
+
+/** Вычитание фона (связь антенн, неподвижные местные предметы) из частотных сигналов. <p>
+ * Для каждого канала хранится фон - оценка неизменной составляющей сигнала по предыдущим
+ * кадрам, которая вычитается из каждого нового кадра до БПФ:
+ * <ul>
+ *     <li>{@link Mode#EMA} - экспоненциальное скользящее среднее
+ *     b = (1-alpha)*b + alpha*x;</li>
+ *     <li>{@link Mode#MEAN} - среднее по последним frameCount кадрам (кольцевой буфер
+ *     и текущая сумма, O(L) на кадр).</li>
+ * </ul>
+ * Из кадра вычитается фон, накопленный по предыдущим кадрам, после чего фон обновляется.
+ * Первый кадр после сброса ({@link #reset()}) целиком становится фоном.
+ * <p>
+ * {@link #setFrozen(boolean)} останавливает обновление фона: захваченный фон вычитается
+ * из всех следующих кадров без изменения. Если операция выключена ({@link #setEnabled(boolean)}),
+ * входные сигналы передаются дальше без копирования.
+ * <p>
+ * Все буферы выделяются заранее и пересоздаются (со сбросом фона) только при изменении
+ * количества каналов, длины сигналов, режима или количества кадров. Режим и параметры могут
+ * задаваться из любого потока: как и сброс, они применяются в начале следующего кадра.
+ */
+public class OperationBackground implements OperationDSP {
+    /** Способ оценки фона */
+    public enum Mode {
+        /** экспоненциальное скользящее среднее, параметр - alpha от 0 до 1 */
+        EMA,
+        /** среднее в скользящем окне, параметр - количество кадров */
+        MEAN
+    }
+
+    ArrayList<ComplexSignal> inputSignals = new ArrayList<>();
+    ArrayList<ComplexSignal> outputSignals = new ArrayList<>();
+    Mode mode = Mode.EMA;
+    float alpha = 0.05f;
+    int frameCount = 16;
+    volatile boolean enabled = true;
+    volatile boolean frozen = false;
+    /** Значение {@link #enabled}, действующее на текущем кадре */
+    transient boolean active = true;
+    /** Запрос сброса фона из другого потока, выполняется в начале следующего кадра */
+    transient volatile boolean resetRequested = false;
+    /** Фон каждого канала в формате (re, im, re, im...) */
+    transient float[][] background = new float[0][];
+    /** Кольцевой буфер кадров и их сумма для режима {@link Mode#MEAN} */
+    transient float[][][] history;
+    transient double[][] sum;
+    /** Режим и параметры, заданные после начала текущего кадра */
+    final PendingSettings<Settings> pendingSettings = new PendingSettings<>();
+    /** Количество кадров, накопленных в фоне после сброса, и позиция в кольцевом буфере */
+    transient int accumulated = 0;
+    transient int position = 0;
+
+    /** Способ оценки фона и его параметры */
+    private static final class Settings {
+        final Mode mode;
+        final float alpha;
+        final int frameCount;
+
+        Settings(Mode mode, float alpha, int frameCount) {
+            this.mode = mode;
+            this.alpha = alpha;
+            this.frameCount = frameCount;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "Background";
+    }
+
+    /** @return способ оценки фона (с учётом ещё не применённых настроек) */
+    public Mode getMode() {
+        Settings settings = pendingSettings.get();
+        return settings!=null ? settings.mode : mode;
+    }
+
+    /** @return коэффициент экспоненциального среднего (с учётом ещё не применённых настроек) */
+    public float getAlpha() {
+        Settings settings = pendingSettings.get();
+        return settings!=null ? settings.alpha : alpha;
+    }
+
+    /** @return количество кадров скользящего среднего (с учётом ещё не применённых настроек) */
+    public int getFrameCount() {
+        Settings settings = pendingSettings.get();
+        return settings!=null ? settings.frameCount : frameCount;
+    }
+
+    /** @return true, если фон вычитается */
+    public boolean isEnabled() {return enabled;}
+
+    /** Включить или выключить вычитание фона. Выключенная операция передаёт входные сигналы
+     * дальше без изменения, накопленный фон сохраняется. Применяется в начале следующего кадра */
+    public void setEnabled(boolean enabled) {this.enabled = enabled;}
+
+    /** @return true, если фон не обновляется */
+    public boolean isFrozen() {return frozen;}
+
+    /** Зафиксировать текущий фон (true) либо продолжить его обновление (false) */
+    public void setFrozen(boolean frozen) {this.frozen = frozen;}
+
+    /** Сбросить фон: он будет заново накоплен, начиная со следующего кадра.
+     * Может вызываться из любого потока */
+    public void reset() {resetRequested = true;}
+
+    /** @return количество кадров, по которым накоплен текущий фон */
+    public int getAccumulatedCount() {return accumulated;}
+
+    @Override
+    public void setInputSignals(ArrayList<ComplexSignal> inputSignals) {
+        if(inputSignals==null)
+            throw new IllegalArgumentException("inputSignals is null");
+        this.inputSignals=inputSignals;
+    }
+
+    @Override
+    public ArrayList<ComplexSignal> getOutputSignals() {
+        return active ? outputSignals : inputSignals;
+    }
+
+    /** Пересоздание буферов при изменении количества каналов, длины или режима */
+    private void allocate(int channels, int length) {
+        boolean resize = background.length!=channels ||
+                (channels>0 && background[0].length!=2*length) ||
+                (mode==Mode.MEAN && (history==null || history.length!=channels ||
+                        (channels>0 && history[0].length!=frameCount)));
+        if(!resize)
+            return;
+        outputSignals.clear();
+        background = new float[channels][2*length];
+        for (int i=0; i<channels; i++)
+            outputSignals.add(new ComplexSignal(length));
+        if(mode==Mode.MEAN) {
+            history = new float[channels][frameCount][2*length];
+            sum = new double[channels][2*length];
+        }
+        else {
+            history = null;
+            sum = null;
+        }
+        accumulated = 0;
+        position = 0;
+    }
+
+    /** Применение включения, режима и параметров, заданных из другого потока, до обращения
+     * к буферам. Смена режима или количества кадров сбрасывает фон */
+    private void applyPendingSettings() {
+        active = enabled;
+        Settings settings = pendingSettings.take();
+        if(settings==null)
+            return;
+        if(settings.mode!=mode || (settings.mode==Mode.MEAN && settings.frameCount!=frameCount))
+            background = new float[0][];
+        mode = settings.mode;
+        alpha = settings.alpha;
+        frameCount = settings.frameCount;
+    }
+
+    @Override
+    public void prepare(ArrayList<ComplexSignal> inputSignals) {
+        if(inputSignals==null || inputSignals.isEmpty())
+            return;
+        this.inputSignals = inputSignals;
+        applyPendingSettings();
+        allocate(inputSignals.size(),inputSignals.get(0).getLength());
+        for (int i=0; i<inputSignals.size(); i++)
+            outputSignals.get(i).setDescription(inputSignals.get(i));
+    }
+
+    @Override
+    public void doOperation() {
+        // включение применяется в начале кадра, как и остальные настройки: выходы кадра
+        // не должны смениться между doOperation() и чтением getOutputSignals()
+        applyPendingSettings();
+        if(!active || inputSignals==null || inputSignals.isEmpty())
+            return;
+        allocate(inputSignals.size(),inputSignals.get(0).getLength());
+        if(resetRequested) {
+            resetRequested = false;
+            clear();
+        }
+        boolean update = !frozen || accumulated==0;
+        for (int i=0; i<inputSignals.size(); i++) {
+            ComplexSignal inputSignal = inputSignals.get(i);
+            ComplexSignal outputSignal = outputSignals.get(i).setDescription(inputSignal);
+            float[] x = inputSignal.getData();
+            float[] y = outputSignal.getData();
+            float[] b = background[i];
+            int n = Math.min(Math.min(x.length,y.length),b.length);
+            if(accumulated==0) {
+                // первый кадр - начальный фон
+                System.arraycopy(x,0,b,0,n);
+                for (int j=0; j<n; j++)
+                    y[j] = 0;
+                if(mode==Mode.MEAN) {
+                    double[] s = sum[i];
+                    System.arraycopy(x,0,history[i][0],0,n);
+                    for (int j=0; j<n; j++)
+                        s[j] = x[j];
+                }
+                continue;
+            }
+            for (int j=0; j<n; j++)
+                y[j] = x[j]-b[j];
+            if(!update)
+                continue;
+            if(mode==Mode.EMA) {
+                float a = alpha;
+                for (int j=0; j<n; j++)
+                    b[j] += a*(x[j]-b[j]);
+            }
+            else {
+                // новый кадр заменяет самый старый в кольцевом буфере
+                float[] slot = history[i][position];
+                double[] s = sum[i];
+                boolean full = accumulated>=frameCount;
+                double scale = 1.0/(full ? frameCount : accumulated+1);
+                for (int j=0; j<n; j++) {
+                    s[j] += full ? x[j]-slot[j] : x[j];
+                    slot[j] = x[j];
+                    b[j] = (float) (s[j]*scale);
+                }
+            }
+        }
+        if(update) {
+            if(accumulated<Integer.MAX_VALUE)
+                accumulated++;
+            if(mode==Mode.MEAN)
+                position = (position+1)%frameCount;
+        }
+    }
+
+    /** Обнуление накопленного фона без пересоздания буферов */
+    private void clear() {
+        accumulated = 0;
+        position = 0;
+    }
+
+    /** Задать способ оценки фона.
+     *
+     * @param parameters {@link Float} - коэффициент alpha экспоненциального среднего,
+     *                   {@link Integer} - количество кадров скользящего среднего, либо строка
+     *                   вида "EMA,0.05" или "MEAN,16"
+     * @return true, если параметры заданы
+     * @throws IllegalArgumentException если передан аргумент другого типа или неверный параметр
+     */
+    @Override
+    public boolean setParameters(Object parameters) throws IllegalArgumentException {
+        if(parameters instanceof Float) {
+            setEma((Float) parameters);
+            return true;
+        }
+        if(parameters instanceof Integer) {
+            setMean((Integer) parameters);
+            return true;
+        }
+        if(!(parameters instanceof String))
+            throw new IllegalArgumentException(
+                    "Input argument is not instance of Float, Integer or String");
+        String[] parts = ((String) parameters).split(",");
+        Mode newMode = Mode.valueOf(parts[0].trim().toUpperCase());
+        if(newMode==Mode.EMA)
+            setEma(parts.length>1 ? Float.parseFloat(parts[1].trim()) : getAlpha());
+        else
+            setMean(parts.length>1 ? Integer.parseInt(parts[1].trim()) : getFrameCount());
+        return true;
+    }
+
+    /** Экспоненциальное скользящее среднее. Применяется в начале следующего кадра.
+     * @param alpha вес нового кадра, от 0 (не включая) до 1
+     */
+    public synchronized void setEma(float alpha) {
+        if(!(alpha>0 && alpha<=1))
+            throw new IllegalArgumentException("EMA alpha must be in (0, 1]");
+        pendingSettings.set(new Settings(Mode.EMA,alpha,getFrameCount()));
+    }
+
+    /** Среднее по последним кадрам. Применяется в начале следующего кадра.
+     * @param frameCount количество кадров, не меньше единицы
+     */
+    public synchronized void setMean(int frameCount) {
+        if(frameCount<1)
+            throw new IllegalArgumentException("Frame count must be positive");
+        pendingSettings.set(new Settings(Mode.MEAN,getAlpha(),frameCount));
+    }
+}
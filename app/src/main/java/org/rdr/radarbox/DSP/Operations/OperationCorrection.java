@@ -1,17 +1,31 @@
 package org.rdr.radarbox.DSP.Operations;
 
 
+import org.rdr.radarbox.DSP.Calibration;
 import org.rdr.radarbox.DSP.ComplexSignal;
 
 import java.util.ArrayList;
 
 /** Класс, применяющий некоторую амплитудно-фазовую коррекцию к сигналам.
  * В простейшем случае, применяющий "калибровочные коеффициенты" к частотным данным сигнала.
+ * <p>
+ * Для сырых данных устройства калибровка выполняется в
+ * {@link org.rdr.radarbox.DSP.FreqSignals#setCalibration(Calibration)} вместе с переводом
+ * отсчётов в float; эта операция нужна для сигналов, уже представленных в float (например,
+ * после другой обработки). Коэффициенты {@link Calibration} пересчитываются на ось входных
+ * сигналов только при её изменении. Выходные сигналы создаются один раз; если коэффициенты
+ * не заданы, входные сигналы передаются дальше без копирования.
  */
 public class OperationCorrection implements OperationDSP {
-    ArrayList<ComplexSignal> correctionCoefficients = new ArrayList<>();
+    /** Коэффициенты по номеру сигнала, заданные напрямую, либо null */
+    ArrayList<ComplexSignal> correctionCoefficients = null;
+    /** Набор коэффициентов по каналам, либо null */
+    transient Calibration calibration = null;
     ArrayList<ComplexSignal> inputSignals = new ArrayList<>();
     ArrayList<ComplexSignal> outputSignals = new ArrayList<>();
+    /** Количество приёмников для перевода номера сигнала в номер канала tx*rxN+rx */
+    int rxN = 1;
+
     @Override
     public String getName() {
         return "Amplitude and phase correction";
@@ -19,42 +33,105 @@ public class OperationCorrection implements OperationDSP {
 
     @Override
     public void setInputSignals(ArrayList<ComplexSignal> inputSignals) {
+        if(inputSignals==null)
+            throw new IllegalArgumentException("inputSignals is null");
         this.inputSignals = inputSignals;
     }
 
+    private boolean hasCoefficients() {
+        return calibration!=null ||
+                (correctionCoefficients!=null && !correctionCoefficients.isEmpty());
+    }
+
     @Override
     public ArrayList<ComplexSignal> getOutputSignals() {
-        return outputSignals;
+        return hasCoefficients() ? outputSignals : inputSignals;
     }
 
     @Override
     public void doOperation() {
-        if(inputSignals==null || inputSignals.isEmpty()) return;
+        if(inputSignals==null || inputSignals.isEmpty() || !hasCoefficients()) return;
+        // выходные сигналы пересоздаются только при изменении количества каналов или длины
+        if(outputSignals.size()!=inputSignals.size() ||
+                outputSignals.get(0).getLength()!=inputSignals.get(0).getLength()) {
+            outputSignals.clear();
+            for (int i=0; i<inputSignals.size(); i++)
+                outputSignals.add(new ComplexSignal(inputSignals.get(i).getLength()));
+        }
+        float[][] coefficients = null;
+        if(calibration!=null) {
+            int txN = (inputSignals.size()+rxN-1)/rxN;
+            coefficients = calibration.getCoefficients(inputSignals.get(0).getX(),rxN,txN);
+        }
         for (int i=0; i<inputSignals.size(); i++) {
             ComplexSignal inputSignal = inputSignals.get(i);
-            // создание выходного сигнала
-            outputSignals.add(new ComplexSignal(inputSignal.getLength())
-                    .setName("Signal after correction")
-                    .setX(inputSignal.getX())
+            ComplexSignal outputSignal = outputSignals.get(i)
+                    .setName(inputSignal.getName())
+                    .setSharedX(inputSignal.getX())
                     .setUnitsX(inputSignal.getUnitsX())
-                    .setUnitsY(inputSignal.getUnitsY())
-            );
-            if(correctionCoefficients == null || correctionCoefficients.isEmpty())
-                return;
+                    .setUnitsY(inputSignal.getUnitsY());
+            float[] c = null;
+            if(coefficients!=null)
+                c = i<coefficients.length ? coefficients[i] : null;
+            else if(i<correctionCoefficients.size())
+                c = correctionCoefficients.get(i).getData();
             // выполнение операции произведения входного сигнала на калибровочные коэффициенты
-            outputSignals.get(i).mult(inputSignal,correctionCoefficients.get(i));
+            float[] x = inputSignal.getData(), y = outputSignal.getData();
+            if(c==null) {
+                System.arraycopy(x,0,y,0,Math.min(x.length,y.length));
+                outputSignal.setSamplesOrder(inputSignal.getSamplesOrder());
+                continue;
+            }
+            int n = Math.min(Math.min(x.length,y.length),c.length);
+            for (int j=0; j<n; j+=2) {
+                float re = x[j]*c[j] - x[j+1]*c[j+1];
+                float im = x[j]*c[j+1] + x[j+1]*c[j];
+                y[j] = re;
+                y[j+1] = im;
+            }
+            outputSignal.setSamplesOrder(ComplexSignal.SamplesOrder.RE_IM_RE_IM);
         }
     }
 
+    /** Количество приёмников, по которому номер входного сигнала переводится в номер канала
+     * набора {@link Calibration} (сигналы упорядочены как каналы tx*rxN+rx) */
+    public void setRxN(int rxN) {
+        if(rxN<1)
+            throw new IllegalArgumentException("rxN must be positive");
+        this.rxN = rxN;
+    }
+
+    /** Задать коэффициенты.
+     *
+     * @param parameters {@link Calibration} - набор коэффициентов по каналам, либо
+     *                   ArrayList&lt;ComplexSignal&gt; - коэффициенты для каждого входного сигнала
+     *                   по порядку, либо null, чтобы отключить коррекцию
+     * @return true, если коэффициенты заданы
+     * @throws IllegalArgumentException если передан аргумент другого типа
+     */
     @Override
     public boolean setParameters(Object parameters) throws IllegalArgumentException {
+        if(parameters==null) {
+            calibration = null;
+            correctionCoefficients = null;
+            return true;
+        }
+        if(parameters instanceof Calibration) {
+            calibration = (Calibration) parameters;
+            correctionCoefficients = null;
+            return true;
+        }
         if(!(parameters instanceof ArrayList<?>))
             throw new IllegalArgumentException(
-                    "Input argument is not instance of ArrayList<?>");
-        else if(!(((ArrayList) parameters).get(0) instanceof ComplexSignal))
-            throw new IllegalArgumentException(
-                    "Input argument is ArrayList<?> but not instance of ArrayList<ComplexSignal>");
-        correctionCoefficients = (ArrayList<ComplexSignal>) parameters;
+                    "Input argument is not instance of Calibration or ArrayList<?>");
+        for (Object coefficient : (ArrayList<?>) parameters)
+            if(!(coefficient instanceof ComplexSignal))
+                throw new IllegalArgumentException(
+                        "Input argument is ArrayList<?> but not instance of ArrayList<ComplexSignal>");
+        @SuppressWarnings("unchecked")
+        ArrayList<ComplexSignal> coefficients = (ArrayList<ComplexSignal>) parameters;
+        correctionCoefficients = coefficients;
+        calibration = null;
         return true;
     }
 }
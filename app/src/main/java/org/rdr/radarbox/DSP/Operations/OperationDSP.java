@@ -17,6 +17,27 @@ public interface OperationDSP extends Serializable {
     ArrayList<ComplexSignal> getOutputSignals();
     void doOperation();
 
+    /**
+     * Есть ли после последнего вызова {@link #doOperation()} новые выходные сигналы.
+     * Операции, выдающие результат не на каждом кадре (например, прореживающее накопление),
+     * возвращают false, и следующие операции последовательности на этом кадре не выполняются.
+     * @return true, если выходные сигналы обновлены
+     */
+    default boolean hasNewOutput() {
+        return true;
+    }
+
+    /**
+     * Заранее выделить буферы для входных сигналов такого же количества и длины, как заданные,
+     * не выполняя обработку и не изменяя накопленное состояние. После вызова
+     * {@link #getOutputSignals()} возвращает сигналы нужного размера, по которым готовится
+     * следующая операция (см. {@link org.rdr.radarbox.DSP.ProcessingGraph#prepare}).
+     * По умолчанию ничего не делает: буферы выделяются при первом вызове {@link #doOperation()}.
+     * @param inputSignals образец входных сигналов (отсчёты не используются)
+     */
+    default void prepare(ArrayList<ComplexSignal> inputSignals) {
+    }
+
     /**
      * Абстрактный метод, который подразумевает, что в реализации конкретной операции цифровой
      * обработки сигналов в нём будут задаваться параметры этой операции
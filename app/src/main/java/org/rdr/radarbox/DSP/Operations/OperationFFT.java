@@ -1,8 +1,9 @@
 package org.rdr.radarbox.DSP.Operations;
 
-import org.rdr.radarbox.DSP.Complex;
 import org.rdr.radarbox.DSP.ComplexSignal;
-import org.rdr.radarbox.DSP.FFT;
+import org.rdr.radarbox.DSP.FftBatch;
+import org.rdr.radarbox.DSP.FftPlan;
+import org.rdr.radarbox.DSP.RealFftPlan;
 
 import java.util.ArrayList;
 
@@ -12,6 +13,20 @@ public class OperationFFT implements OperationDSP {
     Integer fftLength;
     String outputUnitsX = "";
     float[] x;
+    /** Ось X входного сигнала, по которой в последний раз была вычислена ось {@link #x} */
+    transient float[] inputX;
+    /** План БПФ, запрашивается из кэша один раз при задании длины БПФ */
+    transient FftPlan plan;
+    /** План БПФ действительного сигнала, используется, если входные сигналы действительные */
+    transient RealFftPlan realPlan;
+    /** Пакетное БПФ, распределяющее каналы между потоками. Если не задано,
+     * каналы преобразуются последовательно */
+    transient FftBatch fftBatch;
+    /** Массивы выходных сигналов, передаваемые в пакетное БПФ */
+    transient float[][] buffers = new float[0][];
+    /** Окно, применяемое при копировании входных отсчётов в буфер БПФ. Если не задано,
+     * взвешивание не выполняется */
+    transient OperationWindow window;
 
     @Override
     public String getName() {
@@ -20,6 +35,18 @@ public class OperationFFT implements OperationDSP {
 
     public int getLength() {return fftLength;}
 
+    /** Задать пакетное БПФ, через которое выполняется преобразование всех каналов
+     * @param fftBatch пакетное БПФ либо null для последовательного выполнения
+     */
+    public void setFftBatch(FftBatch fftBatch) {this.fftBatch = fftBatch;}
+
+    /** Задать окно, на которое умножаются входные отсчёты при копировании в буфер БПФ
+     * (взвешивание совмещено с копированием и не требует отдельного прохода по памяти).
+     * Окно строится по длине входного сигнала, а не по длине БПФ.
+     * @param window операция взвешивания либо null, чтобы отключить взвешивание
+     */
+    public void setWindow(OperationWindow window) {this.window = window;}
+
     @Override
     public void setInputSignals(ArrayList<ComplexSignal> inputSignals) {
         if(inputSignals==null)
@@ -32,21 +59,69 @@ public class OperationFFT implements OperationDSP {
         return this.outputSignals;
     }
 
-    /** Чтобы в результате преобразования Фурье были правильные единицы измерения по оси X
+    /** Чтобы в результате преобразования Фурье были правильные единицы измерения по оси X.
+     * Ось пересчитывается только при изменении оси входного сигнала или длины БПФ.
      * @param input входной сигнал (до БПФ)
      */
     private void setOutputUnitsXbasedOnInput(ComplexSignal input) {
-        x = new float[fftLength];
+        if(x!=null && x.length==fftLength && inputX==input.getX())
+            return;
+        inputX = input.getX();
+        float[] x = new float[fftLength];
         if(input.getUnitsX().equals("MHz")) {
             outputUnitsX = "ns";
+            // шаг бина БПФ по задержке 1/(N*dF), где dF - шаг по частоте
             float fullSpectrumWidth = (input.getX()[(input.getX().length-1)]-input.getX()[0]);
+            float step = input.getX().length>1 ? fullSpectrumWidth/(input.getX().length-1) : 1;
             for(int i=0; i<fftLength; i++)
-                x[i] = i/fullSpectrumWidth*1000;
+                x[i] = i/(fftLength*step)*1000;
         }
         else {
+            outputUnitsX = "";
             for(int i=0; i<fftLength; i++)
                 x[i] = i;
         }
+        this.x = x;
+    }
+
+    /** Ось X, планы БПФ и выходные сигналы для заданных входных сигналов. Выходные сигналы
+     * пересоздаются только при изменении количества каналов или длины БПФ
+     * @return true, если входные сигналы действительные и используется {@link #realPlan}
+     */
+    boolean allocate(ArrayList<ComplexSignal> inputSignals) {
+        setOutputUnitsXbasedOnInput(inputSignals.get(0));
+        if(plan==null || plan.getLength()!=fftLength)
+            plan = FftPlan.get(fftLength,false);
+        if(outputSignals.size()!=inputSignals.size() ||
+                outputSignals.get(0).getLength()!=fftLength) {
+            outputSignals.clear();
+            for (int i=0; i<inputSignals.size(); i++)
+                outputSignals.add(new ComplexSignal(fftLength));
+        }
+        if(buffers.length!=outputSignals.size())
+            buffers = new float[outputSignals.size()][];
+        // для действительных входных сигналов (устройства без квадратурного канала)
+        // БПФ выполняется над упакованными отсчётами вдвое меньшей длины
+        boolean realInput = RealFftPlan.isSupported(fftLength);
+        for (ComplexSignal inputSignal : inputSignals)
+            realInput &= inputSignal.isReal();
+        if(realInput && (realPlan==null || realPlan.getLength()!=fftLength))
+            realPlan = RealFftPlan.get(fftLength);
+        return realInput;
+    }
+
+    @Override
+    public void prepare(ArrayList<ComplexSignal> inputSignals) {
+        if(inputSignals==null || inputSignals.isEmpty())
+            return;
+        allocate(inputSignals);
+        for (int i=0; i<inputSignals.size(); i++)
+            outputSignals.get(i)
+                    .setName(inputSignals.get(i).getName())
+                    .setSharedX(x)
+                    .setUnitsX(outputUnitsX);
+        if(window!=null)
+            window.getCoefficients(Math.min(inputSignals.get(0).getLength(),fftLength));
     }
 
     @Override
@@ -54,47 +129,84 @@ public class OperationFFT implements OperationDSP {
         if(inputSignals==null || inputSignals.isEmpty())
             return;
 
-        setOutputUnitsXbasedOnInput(inputSignals.get(0));
-        outputSignals.clear();
+        boolean realInput = allocate(inputSignals);
+
         for (int i=0; i<inputSignals.size(); i++) {
             ComplexSignal inputSignal = inputSignals.get(i);
-            // создание выходного сигнала
-            outputSignals.add(new ComplexSignal(fftLength)
+            ComplexSignal outputSignal = outputSignals.get(i)
                     .setName(inputSignal.getName())
-                    .setX(x)
+                    .setSharedX(x)
                     .setUnitsX(outputUnitsX)
-            );
+                    .setSamplesOrder(ComplexSignal.SamplesOrder.RE_IM_RE_IM);
 
-            // выполнение операции преобразования Фурье
-            for (int j=0; j<Math.min(inputSignal.getLength(),fftLength); j++) {
-                // 1) копирование из входного сигнала в массив выходного сигнала
-                outputSignals.get(i).getY()[j] = inputSignal.getY()[j];
+            // выполнение операции преобразования Фурье прямо в массиве выходного сигнала
+            // 1) копирование из входного сигнала с дополнением нулями
+            float[] fftBuffer = outputSignal.getData();
+            int count = Math.min(inputSignal.getLength(),fftLength);
+            // (с умножением на окно, если оно задано)
+            float[] w = window!=null && count>0 ? window.getCoefficients(count) : null;
+            if(realInput) {
+                // в первую половину буфера упаковываются действительные (мнимые) части
+                int offset = inputSignal.getSamplesOrder()==ComplexSignal.SamplesOrder.ONLY_IM ? 1 : 0;
+                realPlan.pack(inputSignal.getData(),offset,2,count,fftBuffer);
+                if(w!=null)
+                    for (int j=0; j<count; j++)
+                        fftBuffer[j] *= w[j];
             }
-            // 2) вызов функции БПФ
-            Complex[] tempArray=FFT.fft(outputSignals.get(i).getY());
-            // 3) копирование результата в массив выходных сигналов
-            System.arraycopy(
-                    tempArray,0,
-                    outputSignals.get(i).getY(),0,fftLength);
-
+            else {
+                if(w!=null)
+                    window.copyWindowed(inputSignal.getData(),fftBuffer,count);
+                else
+                    System.arraycopy(inputSignal.getData(),0,fftBuffer,0,2*count);
+                for (int j=2*count; j<fftBuffer.length; j++)
+                    fftBuffer[j] = 0;
+            }
+            buffers[i] = fftBuffer;
+        }
+        // 2) БПФ всех каналов на месте, при необходимости в нескольких потоках
+        FftPlan batchPlan = realInput ? realPlan.getHalfPlan() : plan;
+        if(fftBatch!=null)
+            fftBatch.execute(batchPlan,buffers,buffers.length);
+        else
+            for (float[] buffer : buffers)
+                batchPlan.execute(buffer,0);
+        // 3) распаковка полного спектра действительных сигналов
+        if(realInput) {
+            for (int i=0; i<buffers.length; i++) {
+                realPlan.unpack(buffers[i]);
+                // спектр сигнала i*x(t) равен i*X(f)
+                if(inputSignals.get(i).getSamplesOrder()==ComplexSignal.SamplesOrder.ONLY_IM)
+                    multiplyByI(buffers[i]);
+            }
+        }
+    }
 
+    private static void multiplyByI(float[] data) {
+        for (int j=0; j<data.length; j+=2) {
+            float re = data[j];
+            data[j] = -data[j+1];
+            data[j+1] = re;
         }
     }
 
-    /** Задать количество точек БПФ
+    /** Задать количество точек БПФ. Длина используется как есть, без дополнения до степени
+     * двойки: {@link FftPlan} сам выбирает алгоритм для произвольной длины.
      *
      * @param parameters Integer параметр, задающий количество точек для преобразования Фурье
      * @return true, если всё хорошо
-     * @throws IllegalArgumentException если передан аргумент, не являющийся типом Integer
+     * @throws IllegalArgumentException если передан аргумент, не являющийся типом Integer,
+     * либо количество точек меньше единицы
      */
     @Override
     public boolean setParameters(Object parameters) throws IllegalArgumentException {
         if(!(parameters instanceof Integer))
             throw new IllegalArgumentException(
                     "Input argument is not instance of Integer");
+        if((Integer)parameters<1)
+            throw new IllegalArgumentException(
+                    "FFT length must be positive");
         fftLength = (Integer)parameters;
-        if(!FFT.isPowerOfTwo(fftLength))
-            fftLength=FFT.nextPowerOf2(fftLength);
+        plan = FftPlan.get(fftLength,false);
         return true;
     }
 }
@@ -0,0 +1,198 @@
+package org.rdr.radarbox.DSP.Operations;
+
+import org.rdr.radarbox.DSP.ComplexSignal;
+import org.rdr.radarbox.DSP.FixedFftPlan;
+import org.rdr.radarbox.DSP.FreqSignals;
+import org.rdr.radarbox.DSP.RawChannelView;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+/** Слитное БПФ сырых отсчётов в фиксированной точке. <p>
+ * То же, что {@link OperationRawFFT}, но без перевода отсчётов в float: int16 отсчёты кадра
+ * умножаются на весовые коэффициенты в формате Q15 (произведение калибровки и окна, заранее
+ * нормированное по каналу) и записываются в short-буфер
+ * ({@link RawChannelView#copyWeightedTo(short[], short[], int)}), после чего выполняется БПФ
+ * {@link FixedFftPlan} с блочной плавающей точкой. Рабочие буферы вдвое меньше, чем во float.
+ * Выходные сигналы - спектры во float (для остальных операций и отображения): отсчёт
+ * умножается на масштаб канала, вычисленный по экспоненте блока, сдвигу после умножения на
+ * веса и нормировке весов.
+ * <p>
+ * Работает для длин БПФ - степеней двойки; для остальных длин выполняется {@link
+ * OperationRawFFT}. Откалиброванные float-сигналы каналов для других операций
+ * ({@link #getRawSignalsOperation()}) записываются отдельным проходом.
+ * <p>
+ * Точность относительно float-пути можно измерить на текущем кадре
+ * ({@link #requestAccuracyCheck()}, {@link #getAccuracy()}).
+ */
+public class OperationFixedFFT extends OperationRawFFT {
+    private transient FixedFftPlan fixedPlan;
+    /** Буферы БПФ в фиксированной точке по каналам */
+    private transient short[][] fixedBuffers = new short[0][];
+    /** Весовые коэффициенты по каналам в формате Q15 (null - без умножения) и их масштаб:
+     * весовой коэффициент во float равен q*weightScale */
+    private transient short[][] weights = new short[0][];
+    private transient float[] weightScales = new float[0];
+    /** Калибровочные коэффициенты и окно, по которым вычислены веса */
+    private transient float[][] weightsCoefficients;
+    private transient float[] weightsWindow;
+    private transient int weightsCount = -1;
+    private volatile boolean accuracyRequested = false;
+    private volatile String accuracy = "";
+
+    /** БПФ в фиксированной точке с настройками заданной операции БПФ (длина, окно).
+     * @param source сырые сигналы (кадр, представления каналов и калибровка)
+     * @param fft операция БПФ, которую заменяет слитное БПФ
+     * @throws IllegalArgumentException если source или fft равны null
+     */
+    public OperationFixedFFT(FreqSignals source, OperationFFT fft) {
+        super(source, fft);
+    }
+
+    @Override
+    public String getName() {
+        return "Fixed FFT";
+    }
+
+    /** Сравнить с float-путём на следующем кадре: кадр обрабатывается обоими путями, результат
+     * доступен через {@link #getAccuracy()} */
+    public void requestAccuracyCheck() {
+        accuracyRequested = true;
+    }
+
+    /** @return результат последнего сравнения с float-путём: отношение сигнал/шум
+     * квантования по всем каналам и наибольшая ошибка отсчёта относительно пика спектра;
+     * пустая строка, если сравнение не выполнялось */
+    public String getAccuracy() {
+        return accuracy;
+    }
+
+    /** Пересчёт весов при изменении калибровки, окна или количества отсчётов */
+    private void updateWeights(float[][] coefficients, float[] w, int count, int channels) {
+        if(weights.length==channels && coefficients==weightsCoefficients && w==weightsWindow
+                && count==weightsCount)
+            return;
+        short[][] newWeights = new short[channels][];
+        float[] newScales = new float[channels];
+        for (int ch=0; ch<channels; ch++) {
+            float[] c = coefficients!=null ? coefficients[ch] : null;
+            if(c==null && w==null)
+                continue;
+            float[] g = new float[2*count];
+            double max = 0;
+            for (int f=0; f<count; f++) {
+                float gr = c!=null ? c[2*f] : 1, gi = c!=null ? c[2*f+1] : 0;
+                float wf = w!=null ? w[f] : 1;
+                g[2*f] = gr*wf;
+                g[2*f+1] = gi*wf;
+                max = Math.max(max, Math.hypot(g[2*f], g[2*f+1]));
+            }
+            if(max==0)
+                max = 1;
+            // модуль веса не больше 2^14, произведение с int16 отсчётом помещается в short
+            double scale = 16384/max;
+            short[] q = new short[2*count];
+            for (int j=0; j<2*count; j++)
+                q[j] = (short) Math.round(g[j]*scale);
+            newWeights[ch] = q;
+            newScales[ch] = (float) (1/scale);
+        }
+        weights = newWeights;
+        weightScales = newScales;
+        weightsCoefficients = coefficients;
+        weightsWindow = w;
+        weightsCount = count;
+    }
+
+    /** Буферы фиксированной точки по количеству каналов и длине БПФ */
+    private void allocateFixed(int channels) {
+        if(fixedPlan==null || fixedPlan.getLength()!=fftLength)
+            fixedPlan = FixedFftPlan.get(fftLength);
+        if(fixedBuffers.length!=channels ||
+                (channels>0 && fixedBuffers[0].length!=2*fftLength))
+            fixedBuffers = new short[channels][2*fftLength];
+    }
+
+    @Override
+    public void prepare(ArrayList<ComplexSignal> inputSignals) {
+        super.prepare(inputSignals);
+        if(FixedFftPlan.isSupported(fftLength) && rawAxis!=null)
+            allocateFixed(rawSignals.size());
+    }
+
+    @Override
+    public void doOperation() {
+        if(!FixedFftPlan.isSupported(fftLength)) {
+            super.doOperation();
+            return;
+        }
+        boolean check = accuracyRequested;
+        float[][] reference = null;
+        if(check) {
+            accuracyRequested = false;
+            super.doOperation();
+            reference = new float[outputSignals.size()][];
+            for (int i=0; i<reference.length; i++)
+                reference[i] = outputSignals.get(i).getData().clone();
+        }
+        RawChannelView[] views = allocateRaw();
+        if(views==null)
+            return;
+        allocate(rawSignals);
+        int channels = views.length;
+        allocateFixed(channels);
+        float[][] coefficients = source.getCalibrationCoefficients(rawAxis);
+        int count = Math.min(rawAxis.length,fftLength);
+        updateWeights(coefficients,
+                window!=null && count>0 ? window.getCoefficients(count) : null, count, channels);
+        boolean keepSignals = rawSignalsNeeded;
+        int rxN = source.getRxN(), txN = source.getTxN();
+        int line = 0;
+        for(int rx = 0; rx<rxN; rx++) {
+            for(int tx=0; tx<txN; tx++) {
+                int ch = tx*rxN+rx;
+                short[] buffer = fixedBuffers[line];
+                int shift = views[ch].copyWeightedTo(buffer, weights[ch], count);
+                int exponent = shift + fixedPlan.execute(buffer);
+                float scale = Math.scalb(weights[ch]!=null ? weightScales[ch] : 1, exponent);
+                ComplexSignal outputSignal = outputSignals.get(line)
+                        .setName(rawSignals.get(line).getName())
+                        .setSharedX(x)
+                        .setUnitsX(outputUnitsX)
+                        .setSamplesOrder(ComplexSignal.SamplesOrder.RE_IM_RE_IM);
+                float[] y = outputSignal.getData();
+                for (int j=0; j<2*fftLength; j++)
+                    y[j] = buffer[j]*scale;
+                if(keepSignals)
+                    views[ch].copyTo(rawSignals.get(line).getData(),
+                            coefficients!=null ? coefficients[ch] : null);
+                line++;
+            }
+        }
+        if(reference!=null)
+            accuracy = compare(reference);
+    }
+
+    /** Сравнение выходных спектров с float-спектрами того же кадра */
+    private String compare(float[][] reference) {
+        double signal = 0, noise = 0, peak = 0, maxError = 0;
+        for (int i=0; i<reference.length && i<outputSignals.size(); i++) {
+            float[] y = outputSignals.get(i).getData();
+            float[] r = reference[i];
+            for (int j=0; j+1<r.length && j+1<y.length; j+=2) {
+                double er = y[j]-r[j], ei = y[j+1]-r[j+1];
+                double s = r[j]*(double) r[j] + r[j+1]*(double) r[j+1];
+                double e = er*er + ei*ei;
+                signal += s;
+                noise += e;
+                peak = Math.max(peak, s);
+                maxError = Math.max(maxError, e);
+            }
+        }
+        if(signal==0)
+            return "No signal";
+        return String.format(Locale.US, "SQNR %.1f dB, max error %.1f dB below peak",
+                noise>0 ? 10*Math.log10(signal/noise) : Double.POSITIVE_INFINITY,
+                maxError>0 ? 10*Math.log10(peak/maxError) : Double.POSITIVE_INFINITY);
+    }
+}
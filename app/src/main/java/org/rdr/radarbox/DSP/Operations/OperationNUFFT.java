@@ -0,0 +1,151 @@
+package org.rdr.radarbox.DSP.Operations;
+
+import org.rdr.radarbox.DSP.ComplexSignal;
+import org.rdr.radarbox.DSP.Nufft;
+
+import java.util.ArrayList;
+
+/** Дальностный профиль для неравномерной сетки частот (NUFFT). <p>
+ * В отличие от {@link OperationFFT}, частоты входных отсчётов берутся из оси X входного
+ * сигнала как есть (нелинейность перестройки, пропущенные полосы,
+ * {@link org.rdr.radarbox.DSP.FreqSignals#setMeasuredFrequencies(float[])}):
+ * <p>
+ * y[j] = sum_k x[k]*exp(-2*pi*i*(f[k]-f[0])*t[j]), t[j] = j*dt,
+ * <p>
+ * где dt = 1/(N*dF), dF - средний шаг по частоте. Для равномерной сетки результат совпадает
+ * с {@link OperationFFT} той же длины N. Вычисление выполняется через {@link Nufft}
+ * за L*{@link Nufft#KERNEL_WIDTH} операций плюс БПФ длины около 2N вместо L*N операций
+ * прямого ДФТ. Веса ядра пересчитываются только при изменении оси X входного сигнала
+ * или количества точек.
+ * <p>
+ * Если единицы оси X входного сигнала не "MHz", ось результата - номера отсчётов.
+ */
+public class OperationNUFFT implements OperationDSP {
+    ArrayList<ComplexSignal> inputSignals = new ArrayList<>();
+    ArrayList<ComplexSignal> outputSignals = new ArrayList<>();
+    int length = 512;
+    String outputUnitsX = "";
+    float[] x;
+    /** Окно, применяемое к входным отсчётам. Если не задано, взвешивание не выполняется */
+    transient OperationWindow window;
+    /** Ось X и длина входного сигнала, для которых построено преобразование */
+    transient float[] inputX;
+    transient int inputLength;
+    transient Nufft nufft;
+    /** Буфер для входных отсчётов, умноженных на окно */
+    transient float[] weighted = new float[0];
+
+    @Override
+    public String getName() {
+        return "NUFFT";
+    }
+
+    /** @return количество точек результата */
+    public int getLength() {return length;}
+
+    /** Задать окно, на которое умножаются входные отсчёты
+     * @param window операция взвешивания либо null, чтобы отключить взвешивание
+     */
+    public void setWindow(OperationWindow window) {this.window = window;}
+
+    @Override
+    public void setInputSignals(ArrayList<ComplexSignal> inputSignals) {
+        if(inputSignals==null)
+            throw new IllegalArgumentException("inputSignals is null");
+        this.inputSignals=inputSignals;
+    }
+
+    @Override
+    public ArrayList<ComplexSignal> getOutputSignals() {
+        return outputSignals;
+    }
+
+    /** Пересчёт оси X и весов ядра при изменении оси входного сигнала или количества точек */
+    private void prepare(ComplexSignal input) {
+        int count = Math.min(input.getLength(), input.getX().length);
+        if(nufft!=null && inputX==input.getX() && inputLength==count && x.length==length)
+            return;
+        inputX = input.getX();
+        inputLength = count;
+        float[] f = input.getX();
+        // средний шаг по частоте; для не "MHz" оси - шаг 1, результат в отсчётах ДПФ
+        boolean mhz = input.getUnitsX().equals("MHz") && count>1 && f[count-1]!=f[0];
+        double step = mhz ? (f[count-1]-f[0])/(count-1) : 1;
+        double dt = 1/(length*step);
+        float[] x = new float[length];
+        for(int j=0; j<length; j++)
+            x[j] = mhz ? (float) (j*dt*1000) : j;
+        outputUnitsX = mhz ? "ns" : "";
+        if(mhz)
+            nufft = Nufft.forFrequencies(f,count,dt,length);
+        else {
+            double[] theta = new double[count];
+            for(int k=0; k<count; k++)
+                theta[k] = 2*Math.PI*k/length;
+            nufft = new Nufft(theta,count,length);
+        }
+        this.x = x;
+    }
+
+    /** Выходные сигналы пересоздаются только при изменении количества каналов или точек */
+    private void allocateOutputs(int channels) {
+        if(outputSignals.size()!=channels ||
+                (channels>0 && outputSignals.get(0).getLength()!=length)) {
+            outputSignals.clear();
+            for (int i=0; i<channels; i++)
+                outputSignals.add(new ComplexSignal(length));
+        }
+        if(window!=null && weighted.length<2*inputLength)
+            weighted = new float[2*inputLength];
+    }
+
+    @Override
+    public void prepare(ArrayList<ComplexSignal> inputSignals) {
+        if(inputSignals==null || inputSignals.isEmpty())
+            return;
+        prepare(inputSignals.get(0));
+        allocateOutputs(inputSignals.size());
+    }
+
+    @Override
+    public void doOperation() {
+        if(inputSignals==null || inputSignals.isEmpty())
+            return;
+        prepare(inputSignals.get(0));
+        allocateOutputs(inputSignals.size());
+        for (int i=0; i<inputSignals.size(); i++) {
+            ComplexSignal inputSignal = inputSignals.get(i);
+            ComplexSignal outputSignal = outputSignals.get(i)
+                    .setName(inputSignal.getName())
+                    .setSharedX(x)
+                    .setUnitsX(outputUnitsX)
+                    .setSamplesOrder(ComplexSignal.SamplesOrder.RE_IM_RE_IM);
+            float[] in = inputSignal.getData();
+            if(window!=null) {
+                window.copyWindowed(in,weighted,inputLength);
+                in = weighted;
+            }
+            nufft.type1(in,outputSignal.getData());
+        }
+    }
+
+    /** Задать количество точек результата.
+     *
+     * @param parameters Integer параметр, задающий количество точек
+     * @return true, если всё хорошо
+     * @throws IllegalArgumentException если передан аргумент, не являющийся типом Integer,
+     * либо количество точек меньше единицы
+     */
+    @Override
+    public boolean setParameters(Object parameters) throws IllegalArgumentException {
+        if(!(parameters instanceof Integer))
+            throw new IllegalArgumentException(
+                    "Input argument is not instance of Integer");
+        if((Integer)parameters<1)
+            throw new IllegalArgumentException(
+                    "NUFFT length must be positive");
+        length = (Integer)parameters;
+        nufft = null;
+        return true;
+    }
+}
@@ -0,0 +1,236 @@
+package org.rdr.radarbox.DSP.Operations;
+
+import org.rdr.radarbox.DSP.ComplexSignal;
+import org.rdr.radarbox.DSP.FftPlan;
+
+import java.util.ArrayList;
+
+/** Карта дальность-доплер: ДПФ по медленному времени (по последним M кадрам) для каждого
+ * отсчёта дальности каждого канала. <p>
+ * Входные сигналы - профили дальности (выходы БПФ), выходные - M сигналов на канал: профиль
+ * дальности для каждого доплеровского канала, от -M/2 до M/2-1 (нулевая скорость посередине),
+ * с той же осью, что и вход. Доплеровская частота канала d равна d/(M*T), T - период кадров.
+ * <p>
+ * Для каждого канала хранится кольцевая матрица последних M профилей [M x L] и спектр по
+ * медленному времени [M x L]; они выделяются один раз и пересоздаются (с обнулением) только
+ * при изменении количества каналов, длины сигналов или M. Спектр обновляется на каждом кадре
+ * скользящим ДПФ: S_k = (S_k - x_old + x_new)*exp(2*pi*i*k/M), затраты на кадр O(M*L) вместо
+ * O(M*log(M)*L) для полного БПФ. Чтобы ошибки округления рекурсии не накапливались, один раз
+ * за M кадров (когда кольцевая матрица заполнена по порядку) спектр вычисляется заново
+ * полным БПФ {@link FftPlan}. Пока матрица заполняется, недостающие кадры считаются нулевыми.
+ * <p>
+ * Окно Ханна по медленному времени применяется в частотной области (свёртка спектра с
+ * (-1/4, 1/2, -1/4)), поэтому не мешает скользящему обновлению.
+ */
+public class OperationRangeDoppler implements OperationDSP {
+    /** Количество кадров по умолчанию */
+    public static final int DEFAULT_FRAME_COUNT = 32;
+
+    ArrayList<ComplexSignal> inputSignals = new ArrayList<>();
+    ArrayList<ComplexSignal> outputSignals = new ArrayList<>();
+    int frameCount = DEFAULT_FRAME_COUNT;
+    boolean hann = true;
+    /** Кольцевые матрицы профилей каналов: [канал][кадр][(re, im) отсчёта дальности] */
+    transient float[][][] history = new float[0][][];
+    /** Спектры по медленному времени: [канал][доплеровский канал k][(re, im)] */
+    transient float[][][] spectrum = new float[0][][];
+    /** Поворачивающие множители скользящего ДПФ exp(2*pi*i*k/M) */
+    transient float[] rotation;
+    /** Разность нового и самого старого профиля канала */
+    transient float[] difference;
+    /** Отсчёты одного отсчёта дальности по медленному времени для полного БПФ */
+    transient float[] column;
+    transient FftPlan plan;
+    /** Позиция следующего кадра в кольцевой матрице */
+    transient int position = 0;
+
+    @Override
+    public String getName() {
+        return "Range-Doppler";
+    }
+
+    /** @return количество кадров M (доплеровских каналов) */
+    public int getFrameCount() {return frameCount;}
+
+    /** @return true, если по медленному времени применяется окно Ханна */
+    public boolean isHann() {return hann;}
+
+    /** @return номер доплеровского канала выходного сигнала с индексом row в пределах канала
+     * приёма-передачи (от -M/2 до M/2-1) */
+    public int getDopplerIndex(int row) {
+        return row - frameCount/2;
+    }
+
+    @Override
+    public void setInputSignals(ArrayList<ComplexSignal> inputSignals) {
+        if(inputSignals==null)
+            throw new IllegalArgumentException("inputSignals is null");
+        this.inputSignals=inputSignals;
+    }
+
+    @Override
+    public ArrayList<ComplexSignal> getOutputSignals() {
+        return outputSignals;
+    }
+
+    /** Пересоздание буферов при изменении количества каналов, длины или M */
+    private void allocate(int channels, int length) {
+        int m = frameCount;
+        if(history.length==channels && (channels==0 || (history[0].length==m &&
+                history[0][0].length==2*length)))
+            return;
+        history = new float[channels][m][2*length];
+        spectrum = new float[channels][m][2*length];
+        difference = new float[2*length];
+        column = new float[2*m];
+        rotation = new float[2*m];
+        for (int k=0; k<m; k++) {
+            double angle = 2*Math.PI*k/m;
+            rotation[2*k] = (float) Math.cos(angle);
+            rotation[2*k+1] = (float) Math.sin(angle);
+        }
+        plan = FftPlan.get(m,false);
+        outputSignals.clear();
+        for (int i=0; i<channels*m; i++)
+            outputSignals.add(new ComplexSignal(length));
+        position = 0;
+    }
+
+    /** Название, ось и единицы выходных сигналов по входным */
+    private void describeOutputs() {
+        int m = frameCount;
+        for (int i=0; i<inputSignals.size() && (i+1)*m<=outputSignals.size(); i++) {
+            ComplexSignal inputSignal = inputSignals.get(i);
+            for (int row=0; row<m; row++)
+                outputSignals.get(i*m+row)
+                        .setName(inputSignal.getName()+" D"+getDopplerIndex(row))
+                        .setSharedX(inputSignal.getX())
+                        .setUnitsX(inputSignal.getUnitsX())
+                        .setUnitsY(inputSignal.getUnitsY())
+                        .setSamplesOrder(ComplexSignal.SamplesOrder.RE_IM_RE_IM);
+        }
+    }
+
+    @Override
+    public void prepare(ArrayList<ComplexSignal> inputSignals) {
+        if(inputSignals==null || inputSignals.isEmpty())
+            return;
+        this.inputSignals = inputSignals;
+        allocate(inputSignals.size(),inputSignals.get(0).getLength());
+        describeOutputs();
+    }
+
+    @Override
+    public void doOperation() {
+        if(inputSignals==null || inputSignals.isEmpty())
+            return;
+        allocate(inputSignals.size(),inputSignals.get(0).getLength());
+        describeOutputs();
+        int m = frameCount;
+        // матрица будет заполнена по порядку (самый старый кадр - в строке 0)
+        boolean recompute = position==m-1;
+        for (int i=0; i<inputSignals.size(); i++) {
+            float[] x = inputSignals.get(i).getData();
+            float[][] s = spectrum[i];
+            float[] slot = history[i][position];
+            int n = Math.min(x.length,slot.length);
+            if(recompute) {
+                System.arraycopy(x,0,slot,0,n);
+                transform(history[i],s);
+            }
+            else {
+                for (int j=0; j<n; j++) {
+                    difference[j] = x[j]-slot[j];
+                    slot[j] = x[j];
+                }
+                for (int k=0; k<m; k++) {
+                    float[] sk = s[k];
+                    float wr = rotation[2*k], wi = rotation[2*k+1];
+                    for (int j=0; j+1<n; j+=2) {
+                        float re = sk[j]+difference[j], im = sk[j+1]+difference[j+1];
+                        sk[j] = re*wr-im*wi;
+                        sk[j+1] = re*wi+im*wr;
+                    }
+                }
+            }
+            writeOutputs(i,s,n);
+        }
+        position = (position+1)%m;
+    }
+
+    /** Полное БПФ по медленному времени каждого отсчёта дальности канала */
+    private void transform(float[][] frames, float[][] s) {
+        int m = frameCount;
+        for (int j=0; j+1<frames[0].length; j+=2) {
+            for (int k=0; k<m; k++) {
+                column[2*k] = frames[k][j];
+                column[2*k+1] = frames[k][j+1];
+            }
+            plan.execute(column,0);
+            for (int k=0; k<m; k++) {
+                s[k][j] = column[2*k];
+                s[k][j+1] = column[2*k+1];
+            }
+        }
+    }
+
+    /** Выходные сигналы канала: строки спектра с нулевой скоростью посередине, при
+     * необходимости с окном Ханна */
+    private void writeOutputs(int channel, float[][] s, int n) {
+        int m = frameCount;
+        for (int row=0; row<m; row++) {
+            int k = (getDopplerIndex(row)+m)%m;
+            float[] y = outputSignals.get(channel*m+row).getData();
+            float[] sk = s[k];
+            if(!hann) {
+                System.arraycopy(sk,0,y,0,Math.min(n,y.length));
+                continue;
+            }
+            float[] previous = s[(k+m-1)%m], next = s[(k+1)%m];
+            for (int j=0; j<n && j<y.length; j++)
+                y[j] = 0.5f*sk[j]-0.25f*(previous[j]+next[j]);
+        }
+    }
+
+    /** Задать параметры карты.
+     *
+     * @param parameters {@link Integer} - количество кадров M, либо строка вида "32" или
+     *                   "32,hann" / "32,none" (окно по медленному времени)
+     * @return true, если параметры заданы
+     * @throws IllegalArgumentException если передан аргумент другого типа или неверный параметр
+     */
+    @Override
+    public boolean setParameters(Object parameters) throws IllegalArgumentException {
+        if(parameters instanceof Integer) {
+            setRangeDoppler((Integer) parameters,hann);
+            return true;
+        }
+        if(!(parameters instanceof String))
+            throw new IllegalArgumentException(
+                    "Input argument is not instance of Integer or String");
+        String[] parts = ((String) parameters).split(",");
+        boolean newHann = hann;
+        if(parts.length>1) {
+            String window = parts[1].trim().toLowerCase();
+            if(!window.equals("hann") && !window.equals("none"))
+                throw new IllegalArgumentException("Unknown slow-time window " + parts[1].trim());
+            newHann = window.equals("hann");
+        }
+        setRangeDoppler(Integer.parseInt(parts[0].trim()),newHann);
+        return true;
+    }
+
+    /** Задать параметры карты. Изменение M сбрасывает накопленные кадры.
+     * @param frameCount количество кадров M, не меньше 2
+     * @param hann true - окно Ханна по медленному времени
+     */
+    public void setRangeDoppler(int frameCount, boolean hann) {
+        if(frameCount<2)
+            throw new IllegalArgumentException("Frame count must be at least 2");
+        this.hann = hann;
+        if(this.frameCount!=frameCount) {
+            this.frameCount = frameCount;
+            history = new float[0][][];
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package org.rdr.radarbox.DSP.Operations;
+
+import org.rdr.radarbox.DSP.ComplexSignal;
+import org.rdr.radarbox.DSP.FftPlan;
+import org.rdr.radarbox.DSP.FreqSignals;
+import org.rdr.radarbox.DSP.RawChannelView;
+
+import java.util.ArrayList;
+
+/** Слитное БПФ сырых отсчётов: замена цепочки {@link FreqSignals} -> {@link OperationFFT}. <p>
+ * Отсчёты каждого канала читаются прямо из кадра {@link FreqSignals#getRawFreqFrame()}
+ * (int16 I/Q) и за один проход переводятся в float, умножаются на калибровочные
+ * коэффициенты и окно и записываются в буфер БПФ с дополнением нулями
+ * ({@link RawChannelView#copyWindowedTo(float[], float[], float[], int, float[])}), после чего
+ * БПФ выполняется на месте, как в {@link OperationFFT}. Промежуточные сигналы каналов в float
+ * не создаются.
+ * <p>
+ * Операция - источник графа (без входов). Если откалиброванные сигналы каналов нужны другим
+ * операциям (например, оценке ОСШ), они подключаются к {@link #getRawSignalsOperation()} и
+ * сигналы записываются в том же проходе ({@link #setRawSignalsNeeded(boolean)}).
+ * Результат совпадает с цепочкой {@link FreqSignals} -> {@link OperationFFT} с теми же
+ * длиной БПФ, окном и калибровкой.
+ */
+public class OperationRawFFT extends OperationFFT {
+    final FreqSignals source;
+    /** Откалиброванные сигналы каналов (ось, единицы и названия как у {@link FreqSignals}) */
+    ArrayList<ComplexSignal> rawSignals = new ArrayList<>();
+    transient float[] rawAxis;
+    volatile boolean rawSignalsNeeded = false;
+    /** Операция-представление откалиброванных сигналов каналов для других операций графа */
+    private final OperationDSP rawSignalsOperation = new OperationDSP() {
+        @Override
+        public String getName() {
+            return "Raw signals";
+        }
+
+        @Override
+        public void setInputSignals(ArrayList<ComplexSignal> inputSignals) {
+            if(inputSignals==null)
+                throw new IllegalArgumentException("inputSignals is null");
+        }
+
+        @Override
+        public ArrayList<ComplexSignal> getOutputSignals() {
+            return rawSignals;
+        }
+
+        /** Сигналы уже записаны в {@link OperationRawFFT#doOperation()} */
+        @Override
+        public void doOperation() {
+        }
+
+        @Override
+        public boolean setParameters(Object parameters) {
+            return false;
+        }
+    };
+
+    /** Слитное БПФ с настройками заданной операции БПФ (длина, окно, пакетное БПФ).
+     * @param source сырые сигналы (кадр, представления каналов и калибровка)
+     * @param fft операция БПФ, которую заменяет слитное БПФ
+     * @throws IllegalArgumentException если source или fft равны null
+     */
+    public OperationRawFFT(FreqSignals source, OperationFFT fft) {
+        if(source==null || fft==null)
+            throw new IllegalArgumentException("Source or FFT operation is null");
+        this.source = source;
+        setParameters(fft.getLength());
+        setWindow(fft.window);
+        setFftBatch(fft.fftBatch);
+    }
+
+    @Override
+    public String getName() {
+        return "Raw FFT";
+    }
+
+    /** Входов нет: отсчёты читаются из кадра {@link FreqSignals} */
+    @Override
+    public void setInputSignals(ArrayList<ComplexSignal> inputSignals) {
+        if(inputSignals==null)
+            throw new IllegalArgumentException("inputSignals is null");
+    }
+
+    /** @return операция, выходы которой - откалиброванные сигналы каналов текущего кадра */
+    public OperationDSP getRawSignalsOperation() {
+        return rawSignalsOperation;
+    }
+
+    /** Записывать ли откалиброванные сигналы каналов ({@link #getRawSignalsOperation()})
+     * @param rawSignalsNeeded true, если сигналы используются другими операциями */
+    public void setRawSignalsNeeded(boolean rawSignalsNeeded) {
+        this.rawSignalsNeeded = rawSignalsNeeded;
+    }
+
+    /** Сигналы каналов по текущей конфигурации {@link FreqSignals}; пересоздаются только при
+     * изменении количества каналов или оси частот
+     * @return представления каналов либо null, если конфигурация ещё не задана */
+    RawChannelView[] allocateRaw() {
+        RawChannelView[] views = source.getChannelViews();
+        float[] axis = source.getFrequencyAxis();
+        int rxN = source.getRxN(), txN = source.getTxN();
+        if(views.length==0 || views.length!=rxN*txN)
+            return null;
+        for (RawChannelView view : views)
+            if(view.getLength()!=axis.length)
+                return null;
+        if(rawSignals.size()!=views.length || rawAxis!=axis) {
+            ArrayList<ComplexSignal> signals = new ArrayList<>();
+            for(int rx = 0; rx<rxN; rx++)
+                for(int tx=0; tx<txN; tx++)
+                    signals.add(new ComplexSignal(axis.length)
+                            .setSharedX(axis)
+                            .setUnitsX("MHz")
+                            .setName("t"+tx+"r"+rx));
+            rawSignals = signals;
+            rawAxis = axis;
+        }
+        // сигналы каналов - образец для оси и названий выходных сигналов БПФ
+        inputSignals = rawSignals;
+        return views;
+    }
+
+    /** Выделение буферов по текущей конфигурации {@link FreqSignals}; входные сигналы
+     * не используются */
+    @Override
+    public void prepare(ArrayList<ComplexSignal> inputSignals) {
+        if(allocateRaw()!=null)
+            super.prepare(rawSignals);
+    }
+
+    @Override
+    public void doOperation() {
+        RawChannelView[] views = allocateRaw();
+        if(views==null)
+            return;
+        allocate(rawSignals);
+        float[][] coefficients = source.getCalibrationCoefficients(rawAxis);
+        int count = Math.min(rawAxis.length,fftLength);
+        float[] w = window!=null && count>0 ? window.getCoefficients(count) : null;
+        boolean keepSignals = rawSignalsNeeded;
+        int rxN = source.getRxN(), txN = source.getTxN();
+        int line = 0;
+        for(int rx = 0; rx<rxN; rx++) {
+            for(int tx=0; tx<txN; tx++) {
+                ComplexSignal outputSignal = outputSignals.get(line)
+                        .setName(rawSignals.get(line).getName())
+                        .setSharedX(x)
+                        .setUnitsX(outputUnitsX)
+                        .setSamplesOrder(ComplexSignal.SamplesOrder.RE_IM_RE_IM);
+                // 1) кадр -> калибровка -> окно -> буфер БПФ за один проход
+                views[tx*rxN+rx].copyWindowedTo(outputSignal.getData(),
+                        coefficients!=null ? coefficients[tx*rxN+rx] : null, w, count,
+                        keepSignals ? rawSignals.get(line).getData() : null);
+                buffers[line] = outputSignal.getData();
+                line++;
+            }
+        }
+        // 2) БПФ всех каналов на месте, при необходимости в нескольких потоках
+        FftPlan batchPlan = plan;
+        if(fftBatch!=null)
+            fftBatch.execute(batchPlan,buffers,buffers.length);
+        else
+            for (float[] buffer : buffers)
+                batchPlan.execute(buffer,0);
+    }
+}
@@ -0,0 +1,102 @@
+package org.rdr.radarbox.DSP.Operations;
+
+import org.rdr.radarbox.DSP.ComplexSignal;
+import org.rdr.radarbox.DSP.SnrEstimator;
+
+import java.util.ArrayList;
+
+/** Оценка отношения сигнал-шум по каждой частоте для каждого входного сигнала. <p>
+ * Для каждого канала хранится своя оценка {@link SnrEstimator} по модулям отсчётов последних
+ * кадров.
+ * Выходной сигнал канала - ОСШ в дБ в действительных частях
+ * ({@link ComplexSignal.SamplesOrder#ONLY_RE}) на той же оси, что и входной сигнал.
+ * <p>
+ * Операция не изменяет входные сигналы, поэтому в графе обработки {@link
+ * org.rdr.radarbox.DSP.ProcessingGraph} она подключается к сырым сигналам параллельно
+ * с основной цепочкой (вычитание фона, накопление, БПФ). Буферы модулей и выходные сигналы
+ * создаются заново только при изменении количества каналов или длины сигналов.
+ */
+public class OperationSNR implements OperationDSP {
+    ArrayList<ComplexSignal> inputSignals = new ArrayList<>();
+    ArrayList<ComplexSignal> outputSignals = new ArrayList<>();
+    /** Оценки ОСШ по каналам */
+    transient ArrayList<SnrEstimator> estimators = new ArrayList<>();
+    /** Модули отсчётов текущего кадра */
+    transient float[] abs = new float[0];
+
+    @Override
+    public String getName() {
+        return "SNR";
+    }
+
+    @Override
+    public void setInputSignals(ArrayList<ComplexSignal> inputSignals) {
+        if(inputSignals==null)
+            throw new IllegalArgumentException("inputSignals is null");
+        this.inputSignals=inputSignals;
+    }
+
+    @Override
+    public ArrayList<ComplexSignal> getOutputSignals() {
+        return outputSignals;
+    }
+
+    /** @return оценки ОСШ по каналам в порядке входных сигналов (средние и максимальные
+     * значения) */
+    public ArrayList<SnrEstimator> getEstimators() {
+        return estimators;
+    }
+
+    /** Пересоздание оценок и выходных сигналов при изменении количества каналов или длины */
+    private void allocate(int channels, int length) {
+        if(estimators.size()==channels && abs.length==length)
+            return;
+        estimators = new ArrayList<>();
+        ArrayList<ComplexSignal> signals = new ArrayList<>();
+        for (int i=0; i<channels; i++) {
+            estimators.add(new SnrEstimator(length));
+            signals.add(new ComplexSignal(length)
+                    .setSamplesOrder(ComplexSignal.SamplesOrder.ONLY_RE)
+                    .setUnitsY("dB"));
+        }
+        abs = new float[length];
+        outputSignals = signals;
+    }
+
+    @Override
+    public void prepare(ArrayList<ComplexSignal> inputSignals) {
+        if(inputSignals==null || inputSignals.isEmpty())
+            return;
+        allocate(inputSignals.size(),inputSignals.get(0).getLength());
+    }
+
+    @Override
+    public void doOperation() {
+        if(inputSignals==null || inputSignals.isEmpty())
+            return;
+        allocate(inputSignals.size(),inputSignals.get(0).getLength());
+        for (int i=0; i<inputSignals.size(); i++) {
+            ComplexSignal inputSignal = inputSignals.get(i);
+            if(inputSignal.getLength()!=abs.length)
+                continue;
+            SnrEstimator snr = estimators.get(i);
+            snr.calculateSNR(inputSignal.getAbs(abs));
+            ComplexSignal outputSignal = outputSignals.get(i)
+                    .setName(inputSignal.getName())
+                    .setSharedX(inputSignal.getX())
+                    .setUnitsX(inputSignal.getUnitsX());
+            float[] snrDb = snr.getArrayAvgSNR();
+            float[] y = outputSignal.getData();
+            for (int f=0; f<snrDb.length; f++)
+                y[2*f] = snrDb[f];
+        }
+    }
+
+    /** Параметров нет, окно оценки - {@link SnrEstimator#DEFAULT_FRAME_COUNT} кадров.
+     * @return false
+     */
+    @Override
+    public boolean setParameters(Object parameters) throws IllegalArgumentException {
+        return false;
+    }
+}
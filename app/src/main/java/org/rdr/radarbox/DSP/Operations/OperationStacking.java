@@ -0,0 +1,242 @@
+package org.rdr.radarbox.DSP.Operations;
+
+import org.rdr.radarbox.DSP.ComplexSignal;
+
+import java.util.ArrayList;
+
+/** Когерентное накопление K последовательных кадров каждого канала. <p>
+ * Комплексные отсчёты кадров складываются без детектирования, поэтому отношение сигнал-шум
+ * для неподвижных целей растёт в K раз ценой разрешения по времени. В отличие от накопления
+ * в самом устройстве (acc_coef), период зондирования не увеличивается:
+ * <ul>
+ *     <li>{@link Mode#MOVING} - скользящее среднее по последним K кадрам, результат на каждом
+ *     кадре. Хранится кольцевой буфер из K кадров и текущая сумма, поэтому затраты на кадр
+ *     O(L) и не зависят от K;</li>
+ *     <li>{@link Mode#DECIMATED} - среднее K кадров выдаётся один раз в K кадров
+ *     ({@link #hasNewOutput()}), кадры только суммируются, кольцевой буфер не нужен.</li>
+ * </ul>
+ * Пока скользящее окно заполняется, результат - среднее уже накопленных кадров.
+ * При K = 1 или выключенной операции ({@link #setEnabled(boolean)}) входные сигналы
+ * передаются дальше без копирования.
+ * <p>
+ * Все буферы выделяются заранее и пересоздаются (с обнулением суммы) только при изменении
+ * количества каналов, длины сигналов, режима или K. Режим и K могут задаваться из любого
+ * потока и применяются в начале следующего кадра.
+ */
+public class OperationStacking implements OperationDSP {
+    /** Способ выдачи результата */
+    public enum Mode {
+        /** скользящее среднее, результат на каждом кадре */
+        MOVING,
+        /** среднее K кадров раз в K кадров */
+        DECIMATED
+    }
+
+    ArrayList<ComplexSignal> inputSignals = new ArrayList<>();
+    ArrayList<ComplexSignal> outputSignals = new ArrayList<>();
+    Mode mode = Mode.MOVING;
+    int frameCount = 4;
+    volatile boolean enabled = true;
+    /** Сумма кадров каждого канала в формате (re, im, re, im...) */
+    transient double[][] sum = new double[0][];
+    /** Кольцевой буфер кадров для режима {@link Mode#MOVING} */
+    transient float[][][] history;
+    /** Количество кадров в сумме и позиция в кольцевом буфере */
+    transient int accumulated = 0;
+    transient int position = 0;
+    transient boolean newOutput = false;
+    /** Значение {@link #enabled}, действующее на текущем кадре */
+    transient boolean active = true;
+    /** Режим и K, заданные после начала текущего кадра */
+    final PendingSettings<Settings> pendingSettings = new PendingSettings<>();
+
+    /** Способ выдачи результата и количество кадров */
+    private static final class Settings {
+        final Mode mode;
+        final int frameCount;
+
+        Settings(Mode mode, int frameCount) {
+            this.mode = mode;
+            this.frameCount = frameCount;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "Stacking";
+    }
+
+    /** @return способ выдачи результата (с учётом ещё не применённых настроек) */
+    public Mode getMode() {
+        Settings settings = pendingSettings.get();
+        return settings!=null ? settings.mode : mode;
+    }
+
+    /** @return количество накапливаемых кадров K (с учётом ещё не применённых настроек) */
+    public int getFrameCount() {
+        Settings settings = pendingSettings.get();
+        return settings!=null ? settings.frameCount : frameCount;
+    }
+
+    /** @return true, если накопление выполняется */
+    public boolean isEnabled() {return enabled;}
+
+    /** Включить или выключить накопление. Выключенная операция передаёт входные сигналы
+     * дальше без изменения. Применяется в начале следующего кадра */
+    public void setEnabled(boolean enabled) {this.enabled = enabled;}
+
+    /** @return true, если операция передаёт входные сигналы без изменения (выключена или K<2,
+     * с учётом ещё не применённых настроек) */
+    public boolean isPassThrough() {
+        return !enabled || getFrameCount()<2;
+    }
+
+    /** Передача входных сигналов без изменения при настройках, действующих на текущем кадре */
+    private boolean passThrough() {
+        return !active || frameCount<2;
+    }
+
+    @Override
+    public void setInputSignals(ArrayList<ComplexSignal> inputSignals) {
+        if(inputSignals==null)
+            throw new IllegalArgumentException("inputSignals is null");
+        this.inputSignals=inputSignals;
+    }
+
+    @Override
+    public ArrayList<ComplexSignal> getOutputSignals() {
+        return passThrough() ? inputSignals : outputSignals;
+    }
+
+    @Override
+    public boolean hasNewOutput() {
+        return passThrough() || newOutput;
+    }
+
+    /** Пересоздание буферов при изменении количества каналов, длины, режима или K */
+    private void allocate(int channels, int length) {
+        boolean resize = sum.length!=channels ||
+                (channels>0 && sum[0].length!=2*length) ||
+                (mode==Mode.MOVING && (history==null || history.length!=channels ||
+                        (channels>0 && history[0].length!=frameCount)));
+        if(!resize)
+            return;
+        outputSignals.clear();
+        sum = new double[channels][2*length];
+        for (int i=0; i<channels; i++)
+            outputSignals.add(new ComplexSignal(length));
+        history = mode==Mode.MOVING ? new float[channels][frameCount][2*length] : null;
+        accumulated = 0;
+        position = 0;
+    }
+
+    /** Применение включения, режима и K, заданных из другого потока, до обращения к буферам.
+     * При изменении режима или K буферы пересоздаются, сумма и позиция в кольцевом буфере
+     * сбрасываются */
+    private void applyPendingSettings() {
+        active = enabled;
+        Settings settings = pendingSettings.take();
+        if(settings==null)
+            return;
+        if(settings.mode!=mode || settings.frameCount!=frameCount)
+            sum = new double[0][];
+        mode = settings.mode;
+        frameCount = settings.frameCount;
+    }
+
+    @Override
+    public void prepare(ArrayList<ComplexSignal> inputSignals) {
+        if(inputSignals==null || inputSignals.isEmpty())
+            return;
+        this.inputSignals = inputSignals;
+        applyPendingSettings();
+        allocate(inputSignals.size(),inputSignals.get(0).getLength());
+        for (int i=0; i<inputSignals.size(); i++)
+            outputSignals.get(i).setDescription(inputSignals.get(i));
+    }
+
+    @Override
+    public void doOperation() {
+        newOutput = false;
+        applyPendingSettings();
+        if(passThrough() || inputSignals==null || inputSignals.isEmpty())
+            return;
+        allocate(inputSignals.size(),inputSignals.get(0).getLength());
+        boolean full = accumulated>=frameCount;
+        int count = full ? frameCount : accumulated+1;
+        // в режиме прореживания результат выдаётся на каждом K-м кадре
+        boolean output = mode==Mode.MOVING || count==frameCount;
+        double scale = 1.0/count;
+        for (int i=0; i<inputSignals.size(); i++) {
+            ComplexSignal inputSignal = inputSignals.get(i);
+            float[] x = inputSignal.getData();
+            double[] s = sum[i];
+            int n = Math.min(x.length,s.length);
+            if(mode==Mode.MOVING) {
+                // новый кадр заменяет самый старый в кольцевом буфере
+                float[] slot = history[i][position];
+                for (int j=0; j<n; j++) {
+                    s[j] += full ? x[j]-slot[j] : x[j];
+                    slot[j] = x[j];
+                }
+            }
+            else {
+                for (int j=0; j<n; j++)
+                    s[j] += x[j];
+            }
+            if(!output)
+                continue;
+            ComplexSignal outputSignal = outputSignals.get(i).setDescription(inputSignal);
+            float[] y = outputSignal.getData();
+            int m = Math.min(n,y.length);
+            for (int j=0; j<m; j++)
+                y[j] = (float) (s[j]*scale);
+            if(mode==Mode.DECIMATED)
+                for (int j=0; j<n; j++)
+                    s[j] = 0;
+        }
+        if(mode==Mode.MOVING) {
+            if(!full)
+                accumulated++;
+            position = (position+1)%frameCount;
+        }
+        else
+            accumulated = output ? 0 : accumulated+1;
+        newOutput = output;
+    }
+
+    /** Задать накопление.
+     *
+     * @param parameters {@link Integer} - количество кадров K (режим не меняется), либо строка
+     *                   вида "MOVING,8" или "DECIMATED,8"
+     * @return true, если параметры заданы
+     * @throws IllegalArgumentException если передан аргумент другого типа или неверный параметр
+     */
+    @Override
+    public boolean setParameters(Object parameters) throws IllegalArgumentException {
+        if(parameters instanceof Integer) {
+            setStacking(getMode(),(Integer) parameters);
+            return true;
+        }
+        if(!(parameters instanceof String))
+            throw new IllegalArgumentException(
+                    "Input argument is not instance of Integer or String");
+        String[] parts = ((String) parameters).split(",");
+        Mode newMode = Mode.valueOf(parts[0].trim().toUpperCase());
+        setStacking(newMode,parts.length>1 ? Integer.parseInt(parts[1].trim()) : getFrameCount());
+        return true;
+    }
+
+    /** Задать накопление. Применяется в начале следующего кадра.
+     * @param mode способ выдачи результата
+     * @param frameCount количество накапливаемых кадров K, не меньше единицы
+     *                   (1 - без накопления)
+     */
+    public synchronized void setStacking(Mode mode, int frameCount) {
+        if(mode==null)
+            throw new IllegalArgumentException("Stacking mode is null");
+        if(frameCount<1)
+            throw new IllegalArgumentException("Frame count must be positive");
+        pendingSettings.set(new Settings(mode,frameCount));
+    }
+}
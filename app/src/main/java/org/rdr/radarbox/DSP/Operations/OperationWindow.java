@@ -0,0 +1,138 @@
+package org.rdr.radarbox.DSP.Operations;
+
+import org.rdr.radarbox.DSP.ComplexSignal;
+import org.rdr.radarbox.DSP.Window;
+
+import java.util.ArrayList;
+
+/** Взвешивание сигналов оконной функцией {@link Window}. <p>
+ * Коэффициенты окна берутся из кэша {@link Window#getCoefficients(Window.Type, int, float)}
+ * при изменении типа, параметра или длины сигнала. Выходные сигналы создаются один раз и
+ * заполняются за один проход: копирование входных отсчётов совмещено с умножением на окно.
+ * <p>
+ * Если взвешивание выполняется перед БПФ, операцию можно не включать в последовательность
+ * обработки, а передать в {@link OperationFFT#setWindow(OperationWindow)}: тогда окно
+ * применяется прямо при копировании отсчётов в буфер БПФ, без отдельного прохода по памяти.
+ */
+public class OperationWindow implements OperationDSP {
+    ArrayList<ComplexSignal> inputSignals = new ArrayList<>();
+    ArrayList<ComplexSignal> outputSignals = new ArrayList<>();
+    Window.Type type = Window.Type.HANN;
+    float parameter = 0;
+    /** Коэффициенты окна последней запрошенной длины */
+    transient volatile float[] coefficients;
+
+    @Override
+    public String getName() {
+        return "Window";
+    }
+
+    /** @return тип окна */
+    public Window.Type getType() {return type;}
+
+    /** @return параметр окна (0 - значение по умолчанию) */
+    public float getParameter() {return parameter;}
+
+    @Override
+    public void setInputSignals(ArrayList<ComplexSignal> inputSignals) {
+        if(inputSignals==null)
+            throw new IllegalArgumentException("inputSignals is null");
+        this.inputSignals=inputSignals;
+    }
+
+    @Override
+    public ArrayList<ComplexSignal> getOutputSignals() {
+        return outputSignals;
+    }
+
+    /** Коэффициенты текущего окна заданной длины (запрашиваются из кэша только при изменении
+     * длины, типа или параметра окна).
+     * @param length количество отсчётов окна
+     * @return массив коэффициентов, не должен изменяться
+     */
+    public float[] getCoefficients(int length) {
+        float[] w = coefficients;
+        if(w==null || w.length!=length) {
+            w = Window.getCoefficients(type,length,parameter);
+            coefficients = w;
+        }
+        return w;
+    }
+
+    /** Копирование комплексных отсчётов с умножением на окно длины count.
+     * @param src отсчёты в формате (re, im, re, im...)
+     * @param dest массив результата размера не меньше 2*count, может совпадать с src
+     * @param count количество комплексных отсчётов
+     */
+    public void copyWindowed(float[] src, float[] dest, int count) {
+        if(count<1)
+            return;
+        float[] w = getCoefficients(count);
+        for (int i=0; i<count; i++) {
+            dest[2*i] = src[2*i]*w[i];
+            dest[2*i+1] = src[2*i+1]*w[i];
+        }
+    }
+
+    @Override
+    public void doOperation() {
+        if(inputSignals==null || inputSignals.isEmpty())
+            return;
+        // выходные сигналы пересоздаются только при изменении количества каналов или длины
+        if(outputSignals.size()!=inputSignals.size() ||
+                outputSignals.get(0).getLength()!=inputSignals.get(0).getLength()) {
+            outputSignals.clear();
+            for (int i=0; i<inputSignals.size(); i++)
+                outputSignals.add(new ComplexSignal(inputSignals.get(i).getLength()));
+        }
+        for (int i=0; i<inputSignals.size(); i++) {
+            ComplexSignal inputSignal = inputSignals.get(i);
+            ComplexSignal outputSignal = outputSignals.get(i)
+                    .setName(inputSignal.getName())
+                    .setSharedX(inputSignal.getX())
+                    .setUnitsX(inputSignal.getUnitsX())
+                    .setUnitsY(inputSignal.getUnitsY())
+                    .setSamplesOrder(inputSignal.getSamplesOrder());
+            copyWindowed(inputSignal.getData(),outputSignal.getData(),
+                    Math.min(inputSignal.getLength(),outputSignal.getLength()));
+        }
+    }
+
+    /** Задать окно.
+     *
+     * @param parameters {@link Window.Type} - тип окна с параметром по умолчанию, либо строка
+     *                   вида "KAISER" или "KAISER,8.6" (тип окна и, через запятую, параметр)
+     * @return true, если окно задано
+     * @throws IllegalArgumentException если передан аргумент другого типа, неизвестное окно
+     * или неверный параметр
+     */
+    @Override
+    public boolean setParameters(Object parameters) throws IllegalArgumentException {
+        if(parameters instanceof Window.Type) {
+            setWindow((Window.Type) parameters,0);
+            return true;
+        }
+        if(!(parameters instanceof String))
+            throw new IllegalArgumentException(
+                    "Input argument is not instance of Window.Type or String");
+        String[] parts = ((String) parameters).split(",");
+        Window.Type newType = Window.parseType(parts[0]);
+        float newParameter = parts.length>1 ? Float.parseFloat(parts[1].trim()) : 0;
+        setWindow(newType,newParameter);
+        return true;
+    }
+
+    /** Задать окно.
+     * @param type тип окна
+     * @param parameter параметр окна (0 - значение по умолчанию для типа окна)
+     */
+    public void setWindow(Window.Type type, float parameter) {
+        if(type==null)
+            throw new IllegalArgumentException("Window type is null");
+        if(Float.isNaN(parameter) || parameter<0)
+            throw new IllegalArgumentException("Window parameter must be non-negative");
+        this.type = type;
+        this.parameter = parameter;
+        coefficients = null;
+    }
+}
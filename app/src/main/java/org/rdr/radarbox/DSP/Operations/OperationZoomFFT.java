@@ -0,0 +1,443 @@
+package org.rdr.radarbox.DSP.Operations;
+
+import org.rdr.radarbox.DSP.ComplexSignal;
+import org.rdr.radarbox.DSP.FFT;
+import org.rdr.radarbox.DSP.FftPlan;
+
+import java.util.ArrayList;
+
+/** Спектр (дальностный профиль) только в заданном интервале задержек: "zoom FFT". <p>
+ * Вычисляются {@link #getPointCount()} отсчётов в интервале от {@link #getTMin()}
+ * до {@link #getTMax()} с произвольным шагом:
+ * <p>
+ * y(t) = sum_f x[f]*exp(-2*pi*i*f*dF*t),
+ * <p>
+ * где dF - шаг по частоте входного сигнала (МГц), t - задержка (мкс, на оси X - нс).
+ * Знак и начало отсчёта фазы совпадают с {@link OperationFFT}, поэтому отсчёты совпадают
+ * с соответствующими бинами полного БПФ.
+ * <p>
+ * Способ вычисления ({@link Method}) выбирается по наименьшему объёму вычислений при
+ * изменении параметров:
+ * <ul>
+ *     <li>набор фильтров Гёрцеля - L*M операций (L - длина входного сигнала, M - количество
+ *     точек результата), выгоден при небольшом количестве точек;</li>
+ *     <li>chirp-z преобразование (алгоритм Блюстейна) - два БПФ длины P не меньше L+M-1 плюс
+ *     поэлементные умножения;</li>
+ *     <li>полное БПФ длины N с выбором нужных бинов - только если все точки результата
+ *     совпадают с бинами N-точечного ДПФ (N не меньше L и раскладывается на 2, 3 и 5),
+ *     например, при шаге и начале интервала, кратных шагу дальности БПФ. Одно БПФ длины N
+ *     обычно дешевле двух БПФ длины P, даже если N больше P.</li>
+ * </ul>
+ * Все фазовые множители вычисляются один раз при изменении параметров или входной оси.
+ * <p>
+ * Если единицы оси X входного сигнала не "MHz", шагом по частоте считается 1/L,
+ * а tMin и tMax задаются в бинах L-точечного ДПФ.
+ */
+public class OperationZoomFFT implements OperationDSP {
+    /** Способ вычисления отсчётов */
+    public enum Method {
+        /** набор фильтров Гёрцеля */
+        GOERTZEL,
+        /** chirp-z преобразование */
+        CHIRP_Z,
+        /** полное БПФ и выбор бинов */
+        FULL_FFT
+    }
+
+    /** Допустимое отклонение частот точек от бинов БПФ, периодов на длину БПФ */
+    private static final double BIN_TOLERANCE = 1e-5;
+
+    ArrayList<ComplexSignal> inputSignals = new ArrayList<>();
+    ArrayList<ComplexSignal> outputSignals = new ArrayList<>();
+    float tMin = 0, tMax = 60;
+    int pointCount = 256;
+    String outputUnitsX = "ns";
+    float[] x;
+    /** Окно, применяемое к входным отсчётам. Если не задано, взвешивание не выполняется */
+    transient OperationWindow window;
+
+    /** Параметры, по которым в последний раз вычислены множители */
+    transient float[] inputX;
+    transient int inputLength;
+    transient Method method = Method.GOERTZEL;
+    // набор фильтров Гёрцеля
+    /** 2*cos(w_j) и exp(-i*w_j*(L-1)), exp(-i*w_j) для каждой точки результата */
+    transient double[] goertzelCoefficient;
+    transient float[] goertzelPost;
+    // chirp-z преобразование
+    transient FftPlan forward, inverse;
+    /** Множители входных отсчётов a[f] (re, im) */
+    transient float[] chirpPre;
+    /** Спектр ЛЧМ-последовательности b[n], уже поделённый на длину БПФ */
+    transient float[] chirpSpectrum;
+    /** Множители результата c[j] (re, im) */
+    transient float[] chirpPost;
+    transient float[] buffer;
+    // полное БПФ
+    /** Номера бинов БПФ, совпадающих с точками результата */
+    transient int[] fftBins;
+
+    @Override
+    public String getName() {
+        return "Zoom FFT";
+    }
+
+    /** @return начало интервала задержек (нс) */
+    public float getTMin() {return tMin;}
+
+    /** @return конец интервала задержек (нс) */
+    public float getTMax() {return tMax;}
+
+    /** @return количество точек результата */
+    public int getPointCount() {return pointCount;}
+
+    /** @return способ вычисления, выбранный для текущих параметров и входной оси */
+    public Method getMethod() {return method;}
+
+    /** @return true, если используется chirp-z преобразование */
+    public boolean isChirpZ() {return method==Method.CHIRP_Z;}
+
+    /** Задать окно, на которое умножаются входные отсчёты
+     * @param window операция взвешивания либо null, чтобы отключить взвешивание
+     */
+    public void setWindow(OperationWindow window) {this.window = window;}
+
+    @Override
+    public void setInputSignals(ArrayList<ComplexSignal> inputSignals) {
+        if(inputSignals==null)
+            throw new IllegalArgumentException("inputSignals is null");
+        this.inputSignals=inputSignals;
+    }
+
+    @Override
+    public ArrayList<ComplexSignal> getOutputSignals() {
+        return outputSignals;
+    }
+
+    /** Пересчёт оси X и фазовых множителей при изменении параметров или оси входного сигнала */
+    private void prepare(ComplexSignal input) {
+        int length = input.getLength();
+        if(x!=null && inputX==input.getX() && inputLength==length && x.length==pointCount)
+            return;
+        inputX = input.getX();
+        inputLength = length;
+        // шаг по частоте (МГц) и перевод задержки в фазу: w = 2*pi*dF*t
+        double phasePerNs;
+        if(input.getUnitsX().equals("MHz") && length>1) {
+            outputUnitsX = "ns";
+            double step = (input.getX()[length-1]-input.getX()[0])/(length-1);
+            phasePerNs = 2*Math.PI*step/1000;
+        }
+        else {
+            outputUnitsX = "";
+            phasePerNs = 2*Math.PI/length;
+        }
+        float[] x = new float[pointCount];
+        double dt = pointCount>1 ? (tMax-tMin)/(pointCount-1) : 0;
+        for(int j=0; j<pointCount; j++)
+            x[j] = (float)(tMin + j*dt);
+        double w0 = phasePerNs*tMin, dw = phasePerNs*dt;
+
+        // объём вычислений: фильтры Гёрцеля ~ L*M, chirp-z ~ два БПФ длины P,
+        // полное БПФ ~ одно БПФ длины N
+        int p = FftPlan.nextFastLength(length+pointCount-1);
+        long goertzelCost = (long) length*pointCount;
+        long chirpCost = 2*fftCost(p) + 4L*p;
+        int n = binLength(length, w0, dw, Math.min(goertzelCost, chirpCost));
+        if(n>0)
+            method = Method.FULL_FFT;
+        else
+            method = chirpCost<goertzelCost ? Method.CHIRP_Z : Method.GOERTZEL;
+        if(method==Method.FULL_FFT)
+            prepareFFT(n, w0, dw);
+        else if(method==Method.CHIRP_Z)
+            prepareChirpZ(length, p, w0, dw);
+        else
+            prepareGoertzel(length, w0, dw);
+        this.x = x;
+    }
+
+    /** @return приблизительное количество операций БПФ длины n */
+    private static long fftCost(int n) {
+        return (long) n*(32-Integer.numberOfLeadingZeros(n));
+    }
+
+    /** Поиск наименьшей длины БПФ N >= L, бины которого exp(-2*pi*i*k/N) совпадают с
+     * частотами всех точек результата w0 + j*dw: N*dw/(2*pi) и N*w0/(2*pi) - целые.
+     * @param maxCost объём вычислений другого способа; более длинные БПФ не рассматриваются
+     * @return длина БПФ либо 0, если такой выгодной длины нет
+     */
+    private static int binLength(int length, double w0, double dw, long maxCost) {
+        double start = w0/(2*Math.PI), step = dw/(2*Math.PI);
+        if(!(step>0))
+            return 0;
+        // шаг в бинах s = N*step, длина N перебирается в порядке возрастания
+        for(long s = Math.max(1, (long) Math.ceil(length*step - BIN_TOLERANCE)); ; s++) {
+            long n = Math.round(s/step);
+            if(n>Integer.MAX_VALUE/2 || fftCost((int) n) + 2*n >= maxCost)
+                return 0;
+            if(n<length || Math.abs(n*step - s)>BIN_TOLERANCE ||
+                    Math.abs(n*start - Math.rint(n*start))>BIN_TOLERANCE)
+                continue;
+            if(FftPlan.nextFastLength((int) n)==n)
+                return (int) n;
+        }
+    }
+
+    /** Бины N-точечного БПФ, совпадающие с точками результата: k0 + j*s по модулю N */
+    private void prepareFFT(int n, double w0, double dw) {
+        forward = FftPlan.get(n,false);
+        long k0 = Math.round(n*w0/(2*Math.PI)), s = Math.round(n*dw/(2*Math.PI));
+        fftBins = new int[pointCount];
+        for(int j=0; j<pointCount; j++)
+            fftBins[j] = (int) Math.floorMod(k0 + j*s, (long) n);
+        buffer = new float[2*n];
+        inverse = null;
+        chirpPre = chirpSpectrum = chirpPost = null;
+        goertzelCoefficient = null;
+        goertzelPost = null;
+    }
+
+    private void prepareGoertzel(int length, double w0, double dw) {
+        goertzelCoefficient = new double[pointCount];
+        goertzelPost = new float[4*pointCount];
+        for(int j=0; j<pointCount; j++) {
+            double w = w0 + j*dw;
+            goertzelCoefficient[j] = 2*Math.cos(w);
+            // y = exp(-i*w*(L-1))*(s[L-1] - exp(-i*w)*s[L-2])
+            goertzelPost[4*j] = (float) Math.cos(w*(length-1));
+            goertzelPost[4*j+1] = (float) -Math.sin(w*(length-1));
+            goertzelPost[4*j+2] = (float) Math.cos(w);
+            goertzelPost[4*j+3] = (float) -Math.sin(w);
+        }
+        chirpPre = chirpSpectrum = chirpPost = buffer = null;
+        forward = inverse = null;
+        fftBins = null;
+    }
+
+    /** f*j = (f^2 + j^2 - (j-f)^2)/2, поэтому
+     * y[j] = c[j] * sum_f (x[f]*a[f]) * b[j-f], где
+     * a[f] = exp(-i*(w0*f + dw*f^2/2)), b[n] = exp(i*dw*n^2/2), c[j] = exp(-i*dw*j^2/2) */
+    private void prepareChirpZ(int length, int p, double w0, double dw) {
+        forward = FftPlan.get(p,false);
+        inverse = FftPlan.get(p,true);
+        chirpPre = new float[2*length];
+        for(int f=0; f<length; f++) {
+            double phi = -(w0*f + dw*((double) f*f)/2);
+            chirpPre[2*f] = (float) Math.cos(phi);
+            chirpPre[2*f+1] = (float) Math.sin(phi);
+        }
+        chirpPost = new float[2*pointCount];
+        for(int j=0; j<pointCount; j++) {
+            double phi = -dw*((double) j*j)/2;
+            chirpPost[2*j] = (float) Math.cos(phi);
+            chirpPost[2*j+1] = (float) Math.sin(phi);
+        }
+        // b[n] для n от -(L-1) до M-1, отрицательные индексы - в конце буфера
+        chirpSpectrum = new float[2*p];
+        for(int n=-(length-1); n<pointCount; n++) {
+            double phi = dw*((double) n*n)/2;
+            int k = n<0 ? n+p : n;
+            chirpSpectrum[2*k] = (float) Math.cos(phi);
+            chirpSpectrum[2*k+1] = (float) Math.sin(phi);
+        }
+        forward.execute(chirpSpectrum,0);
+        for(int i=0; i<chirpSpectrum.length; i++)
+            chirpSpectrum[i] /= p;
+        buffer = new float[2*p];
+        goertzelCoefficient = null;
+        goertzelPost = null;
+        fftBins = null;
+    }
+
+    /** Выходные сигналы пересоздаются только при изменении количества каналов или точек */
+    private void allocateOutputs(int channels) {
+        if(outputSignals.size()!=channels ||
+                (channels>0 && outputSignals.get(0).getLength()!=pointCount)) {
+            outputSignals.clear();
+            for (int i=0; i<channels; i++)
+                outputSignals.add(new ComplexSignal(pointCount));
+        }
+    }
+
+    @Override
+    public void prepare(ArrayList<ComplexSignal> inputSignals) {
+        if(inputSignals==null || inputSignals.isEmpty())
+            return;
+        prepare(inputSignals.get(0));
+        allocateOutputs(inputSignals.size());
+    }
+
+    @Override
+    public void doOperation() {
+        if(inputSignals==null || inputSignals.isEmpty())
+            return;
+        prepare(inputSignals.get(0));
+        allocateOutputs(inputSignals.size());
+        for (int i=0; i<inputSignals.size(); i++) {
+            ComplexSignal inputSignal = inputSignals.get(i);
+            ComplexSignal outputSignal = outputSignals.get(i)
+                    .setName(inputSignal.getName())
+                    .setSharedX(x)
+                    .setUnitsX(outputUnitsX);
+            if(inputSignal.getLength()!=inputLength)
+                continue;
+            float[] w = window!=null ? window.getCoefficients(inputLength) : null;
+            if(method==Method.FULL_FFT)
+                fft(inputSignal.getData(),w,outputSignal.getData());
+            else if(method==Method.CHIRP_Z)
+                chirpZ(inputSignal.getData(),w,outputSignal.getData());
+            else
+                goertzel(inputSignal.getData(),w,outputSignal.getData());
+        }
+    }
+
+    /** Фильтры Гёрцеля обрабатываются по четыре за один проход по входному сигналу,
+     * чтобы цепочки зависимостей соседних фильтров выполнялись параллельно */
+    private void goertzel(float[] in, float[] w, float[] out) {
+        int length = inputLength;
+        int j = 0;
+        for(; j+4<=pointCount; j+=4) {
+            double c0 = goertzelCoefficient[j], c1 = goertzelCoefficient[j+1];
+            double c2 = goertzelCoefficient[j+2], c3 = goertzelCoefficient[j+3];
+            double a0r = 0, a0i = 0, b0r = 0, b0i = 0;
+            double a1r = 0, a1i = 0, b1r = 0, b1i = 0;
+            double a2r = 0, a2i = 0, b2r = 0, b2i = 0;
+            double a3r = 0, a3i = 0, b3r = 0, b3i = 0;
+            for(int f=0; f<length; f++) {
+                double xr = in[2*f], xi = in[2*f+1];
+                if(w!=null) {
+                    xr *= w[f];
+                    xi *= w[f];
+                }
+                double sr, si;
+                sr = xr + c0*a0r - b0r; si = xi + c0*a0i - b0i;
+                b0r = a0r; b0i = a0i; a0r = sr; a0i = si;
+                sr = xr + c1*a1r - b1r; si = xi + c1*a1i - b1i;
+                b1r = a1r; b1i = a1i; a1r = sr; a1i = si;
+                sr = xr + c2*a2r - b2r; si = xi + c2*a2i - b2i;
+                b2r = a2r; b2i = a2i; a2r = sr; a2i = si;
+                sr = xr + c3*a3r - b3r; si = xi + c3*a3i - b3i;
+                b3r = a3r; b3i = a3i; a3r = sr; a3i = si;
+            }
+            goertzelOutput(j, a0r, a0i, b0r, b0i, out);
+            goertzelOutput(j+1, a1r, a1i, b1r, b1i, out);
+            goertzelOutput(j+2, a2r, a2i, b2r, b2i, out);
+            goertzelOutput(j+3, a3r, a3i, b3r, b3i, out);
+        }
+        for(; j<pointCount; j++) {
+            double coefficient = goertzelCoefficient[j];
+            double s1r = 0, s1i = 0, s2r = 0, s2i = 0;
+            for(int f=0; f<length; f++) {
+                double xr = in[2*f], xi = in[2*f+1];
+                if(w!=null) {
+                    xr *= w[f];
+                    xi *= w[f];
+                }
+                double sr = xr + coefficient*s1r - s2r;
+                double si = xi + coefficient*s1i - s2i;
+                s2r = s1r; s2i = s1i;
+                s1r = sr; s1i = si;
+            }
+            goertzelOutput(j, s1r, s1i, s2r, s2i, out);
+        }
+    }
+
+    /** y = exp(-i*w*(L-1))*(s[L-1] - exp(-i*w)*s[L-2]) */
+    private void goertzelOutput(int j, double s1r, double s1i, double s2r, double s2i,
+                                float[] out) {
+        float er = goertzelPost[4*j+2], ei = goertzelPost[4*j+3];
+        double yr = s1r - (er*s2r - ei*s2i);
+        double yi = s1i - (er*s2i + ei*s2r);
+        float pr = goertzelPost[4*j], pi = goertzelPost[4*j+1];
+        out[2*j] = (float)(pr*yr - pi*yi);
+        out[2*j+1] = (float)(pr*yi + pi*yr);
+    }
+
+    private void chirpZ(float[] in, float[] w, float[] out) {
+        int length = inputLength;
+        float[] buffer = this.buffer;
+        for(int f=0; f<length; f++) {
+            float xr = in[2*f], xi = in[2*f+1];
+            if(w!=null) {
+                xr *= w[f];
+                xi *= w[f];
+            }
+            float ar = chirpPre[2*f], ai = chirpPre[2*f+1];
+            buffer[2*f] = xr*ar - xi*ai;
+            buffer[2*f+1] = xr*ai + xi*ar;
+        }
+        for(int i=2*length; i<buffer.length; i++)
+            buffer[i] = 0;
+        forward.execute(buffer,0);
+        FFT.multiplySpectra(buffer,0,chirpSpectrum,0,buffer,0,forward.getLength());
+        inverse.execute(buffer,0);
+        FFT.multiplySpectra(buffer,0,chirpPost,0,out,0,pointCount);
+    }
+
+    private void fft(float[] in, float[] w, float[] out) {
+        int length = inputLength;
+        float[] buffer = this.buffer;
+        for(int f=0; f<length; f++) {
+            float xr = in[2*f], xi = in[2*f+1];
+            if(w!=null) {
+                xr *= w[f];
+                xi *= w[f];
+            }
+            buffer[2*f] = xr;
+            buffer[2*f+1] = xi;
+        }
+        for(int i=2*length; i<buffer.length; i++)
+            buffer[i] = 0;
+        forward.execute(buffer,0);
+        for(int j=0; j<pointCount; j++) {
+            int k = fftBins[j];
+            out[2*j] = buffer[2*k];
+            out[2*j+1] = buffer[2*k+1];
+        }
+    }
+
+    /** Задать интервал задержек и количество точек.
+     *
+     * @param parameters массив float[]{tMin, tMax, pointCount}, либо строка "tMin,tMax,pointCount"
+     *                   (задержки в нс)
+     * @return true, если параметры установлены
+     * @throws IllegalArgumentException если передан аргумент другого типа или параметры неверны
+     */
+    @Override
+    public boolean setParameters(Object parameters) throws IllegalArgumentException {
+        float[] values;
+        if(parameters instanceof float[])
+            values = (float[]) parameters;
+        else if(parameters instanceof String) {
+            String[] parts = ((String) parameters).split(",");
+            values = new float[parts.length];
+            for(int i=0; i<parts.length; i++)
+                values[i] = Float.parseFloat(parts[i].trim());
+        }
+        else
+            throw new IllegalArgumentException(
+                    "Input argument is not instance of float[] or String");
+        if(values.length!=3)
+            throw new IllegalArgumentException("Expected tMin, tMax and pointCount");
+        setRange(values[0],values[1],(int) values[2]);
+        return true;
+    }
+
+    /** Задать интервал задержек и количество точек
+     * @param tMin начало интервала (нс)
+     * @param tMax конец интервала (нс), больше tMin
+     * @param pointCount количество точек результата, не меньше 2
+     * @throws IllegalArgumentException если параметры неверны
+     */
+    public void setRange(float tMin, float tMax, int pointCount) {
+        if(!(tMax>tMin))
+            throw new IllegalArgumentException("tMax must be greater than tMin");
+        if(pointCount<2)
+            throw new IllegalArgumentException("pointCount must be at least 2");
+        this.tMin = tMin;
+        this.tMax = tMax;
+        this.pointCount = pointCount;
+        x = null;
+    }
+}
@@ -0,0 +1,39 @@
+package org.rdr.radarbox.DSP.Operations;
+
+import java.io.Serializable;
+
+/** Настройки операции, заданные из любого потока и ещё не применённые в потоке обработки. <p>
+ * Операция хранит действующие настройки в своих полях и читает их только в потоке обработки.
+ * Методы задания настроек создают неизменяемый объект S и передают его в {@link #set(Object)},
+ * а операция в начале кадра забирает его ({@link #take()}) и применяет, поэтому настройки
+ * не меняются посреди кадра, а буферы пересоздаются только в потоке обработки.
+ * <p>
+ * При сериализации операции не забранные операцией настройки не сохраняются.
+ * @param <S> неизменяемый объект со всеми настройками операции
+ */
+final class PendingSettings<S> implements Serializable {
+    private transient volatile S pending = null;
+
+    /** @return последние заданные и ещё не применённые настройки либо null */
+    S get() {
+        return pending;
+    }
+
+    /** Задать настройки, которые применятся в начале следующего кадра. Заменяет ранее заданные
+     * и ещё не применённые */
+    synchronized void set(S settings) {
+        pending = settings;
+    }
+
+    /** Забрать заданные настройки. Вызывается в потоке обработки в начале кадра.
+     * @return настройки, заданные после предыдущего вызова, либо null */
+    S take() {
+        if (pending == null)
+            return null;
+        synchronized (this) {
+            S settings = pending;
+            pending = null;
+            return settings;
+        }
+    }
+}
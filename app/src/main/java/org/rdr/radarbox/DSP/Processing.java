@@ -1,60 +1,730 @@
 package org.rdr.radarbox.DSP;
 
-import org.rdr.radarbox.DSP.Operations.OperationCorrection;
+import org.rdr.radarbox.DSP.Operations.OperationBackground;
 import org.rdr.radarbox.DSP.Operations.OperationDSP;
 import org.rdr.radarbox.DSP.Operations.OperationFFT;
+import org.rdr.radarbox.DSP.Operations.OperationFixedFFT;
+import org.rdr.radarbox.DSP.Operations.OperationRawFFT;
+import org.rdr.radarbox.DSP.Operations.OperationSNR;
+import org.rdr.radarbox.DSP.Operations.OperationStacking;
+import org.rdr.radarbox.DSP.Operations.OperationWindow;
 import org.rdr.radarbox.Device.DeviceConfiguration;
 import org.rdr.radarbox.RadarBox;
 
+import android.content.SharedPreferences;
+
+import androidx.preference.PreferenceManager;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
-import java.util.NoSuchElementException;
+import java.util.Map;
 
 /** Главный класс, содержащий всю последовательность обработки цифровых сигналов.
  */
 public class Processing {
-    /** Последовательность обработки сигналов. Создаётся в конструкторе класса */
-    protected LinkedList<OperationDSP> processingSequence = new LinkedList<>();
+    /** Граф обработки сигналов текущего плана {@link #setDevicePrefix(String)} */
+    protected volatile ProcessingGraph processingGraph = new ProcessingGraph();
+    /** Загруженные планы обработки по префиксу устройства и текущий план */
+    private final HashMap<String, ProcessingPlan> plans = new HashMap<>();
+    private ProcessingPlan plan = null;
+    /** Ключ настройки слитного БПФ сырых отсчётов */
+    public static final String FUSED_FFT_KEY = "dsp_fused_fft";
+    private volatile boolean fusedFFT = false;
+    /** Ключи настройки БПФ в фиксированной точке и сравнения его точности с float */
+    public static final String FIXED_POINT_KEY = "dsp_fixed_point";
+    public static final String FIXED_POINT_ACCURACY_KEY = "dsp_fixed_point_accuracy";
+    private volatile boolean fixedPoint = false;
+    /** Граф со слитным БПФ ({@link OperationRawFFT}) и снимок операций графа обработки,
+     * по которому он построен; null - граф не подходит для слитного БПФ */
+    private ProcessingGraph fusedGraph = null;
+    private LinkedList<OperationDSP> fusedFrom = null;
+    /** Граф со слитным БПФ передаёт откалиброванные сигналы каналов другим операциям */
+    private boolean fusedNeedsRawSignals = false;
+    /** Граф со слитным БПФ построен с БПФ в фиксированной точке */
+    private boolean fusedFixedPoint = false;
+    /** Граф, выполняемый на каждом кадре: граф обработки либо граф со слитным БПФ */
+    private volatile ProcessingGraph activeGraph = processingGraph;
+    /** Ключ настройки количества потоков обработки */
+    public static final String THREAD_COUNT_KEY = "dsp_thread_count";
+    /** Пакетное БПФ с пулом потоков, общее для всех операций последовательности */
+    private final FftBatch fftBatch = new FftBatch(getDefaultThreadCount());
+    /** Ключи настройки глубины конвейера и просмотра загрузки его ступеней */
+    public static final String PIPELINE_DEPTH_KEY = "dsp_pipeline_depth";
+    public static final String PIPELINE_STATISTICS_KEY = "dsp_pipeline_statistics";
+    /** Наибольшее количество кадров в конвейерной обработке; 1 - без конвейера */
+    private int pipelineDepth = 1;
+    /** Конвейер по текущему графу, создаётся при первой обработке кадра, иначе null */
+    private volatile ProcessingPipeline pipeline = null;
+    /** Обработчик обработанных кадров; передаётся каждому новому конвейеру */
+    private volatile ProcessingPipeline.FrameListener frameListener = null;
+    /** Количество кадров, обработанных без конвейера; изменяется только в потоке обработки */
+    private long sequentialFrameNumber = 0;
+    /** Снимки выходов операций, запрошенных для отображения ({@link #getPublishedSignals}),
+     * без конвейера: копируются в потоке обработки после каждого кадра */
+    private final IdentityHashMap<OperationDSP,ArrayList<ComplexSignal>> snapshots =
+            new IdentityHashMap<>();
+    /** Ключи просмотра длительностей операций и подсчёта выделяемой ими памяти */
+    public static final String PROFILER_STATISTICS_KEY = "dsp_profiler_statistics";
+    public static final String PROFILER_ALLOCATIONS_KEY = "dsp_profiler_allocations";
+    /** Длительности выполнения операций всех планов обработки */
+    private final OperationProfiler profiler = new OperationProfiler();
+    /** Ключи настроек окна, применяемого перед БПФ */
+    public static final String WINDOW_TYPE_KEY = "window_type";
+    public static final String WINDOW_PARAMETER_KEY = "window_parameter";
+    /** Окно, применяемое при копировании отсчётов в буфер БПФ */
+    private final OperationWindow fftWindow = new OperationWindow();
+    /** Ключи настроек вычитания фона */
+    public static final String BACKGROUND_MODE_KEY = "background_mode";
+    public static final String BACKGROUND_PARAMETER_KEY = "background_parameter";
+    public static final String BACKGROUND_FREEZE_KEY = "background_freeze";
+    public static final String BACKGROUND_RESET_KEY = "background_reset";
+    /** Вычитание фона перед БПФ, всегда есть в последовательности, по умолчанию выключено */
+    private final OperationBackground background = new OperationBackground();
+    /** Ключи команд захвата и сброса калибровки */
+    public static final String CALIBRATION_CAPTURE_KEY = "calibration_capture";
+    public static final String CALIBRATION_CLEAR_KEY = "calibration_clear";
+    /** Запрос калибровки по кадру из другого потока, выполняется в начале следующего кадра */
+    private volatile boolean calibrationRequested = false;
+    /** Ключи настроек когерентного накопления кадров */
+    public static final String STACKING_MODE_KEY = "stacking_mode";
+    public static final String STACKING_FRAMES_KEY = "stacking_frames";
+    /** Когерентное накопление кадров перед БПФ, всегда есть в последовательности,
+     * по умолчанию выключено */
+    private final OperationStacking stacking = new OperationStacking();
+    /** Оценка ОСШ по сырым сигналам, ветвь графа параллельно основной цепочке */
+    private final OperationSNR snr = new OperationSNR();
     public Processing() {
-        processingSequenceClear();
-        processingSequenceAdd(RadarBox.freqSignals);
-        //processingSequence.add(new OperationCorrection());
-        processingSequence.add(new OperationFFT());
+        restoreThreadCount();
+        restorePipelineDepth();
+        restoreProfiler();
+        restoreFusedFFT();
+        restoreBackground();
+        restoreStacking();
+        // калибровка выполняется в FreqSignals вместе с переводом отсчётов в float
+        if(RadarBox.fileRead!=null && RadarBox.fileRead.additional!=null)
+            loadCalibration(RadarBox.fileRead.additional.getFolder());
+        setDevicePrefix(RadarBox.device!=null ? RadarBox.device.getDevicePrefix() : "");
+    }
 
-        //TODO перенести задание количества точек для БПФ в отдельную функцию
-        try {
-            OperationFFT operationFFT = (OperationFFT) processingSequence.stream()
-                    .filter(operationDSP -> operationDSP.getName().equals("FFT"))
-                    .findFirst().get();
-            operationFFT.setParameters(Integer.valueOf(512));
-        } catch (NoSuchElementException e) {
-            RadarBox.logger.add(this,"No FFT operation in processingSequence");
+    /** Выбрать план обработки устройства ({@link ProcessingPlan}). План загружается из файла
+     * {@link ProcessingPlan#FILE_NAME} в папке assets устройства при первом выборе и хранится,
+     * поэтому переключение между устройством и файлом (с конфигурацией того же или другого
+     * устройства) не создаёт операций заново. Если файла нет или он неверный, используется план
+     * по умолчанию. Буферы операций выделяются заранее по текущей конфигурации сигналов
+     * {@link FreqSignals}.
+     * @param devicePrefix префикс устройства источника данных
+     */
+    public synchronized void setDevicePrefix(String devicePrefix) {
+        ProcessingPlan selected = plans.get(devicePrefix);
+        if(selected==null) {
+            selected = loadPlan(devicePrefix);
+            selected.getGraph().setProfiler(profiler);
+            plans.put(devicePrefix,selected);
+        }
+        if(selected!=plan) {
+            plan = selected;
+            processingGraph = selected.getGraph();
+            activeGraph = processingGraph;
+            restoreWindow();
         }
+        FreqSignals signals = RadarBox.freqSignals;
+        if(signals!=null)
+            selected.prepare(signals.getRxN()*signals.getTxN(),signals.getFrequencyAxis());
+    }
+
+    /** @return текущий план обработки */
+    public ProcessingPlan getPlan() {
+        return plan;
     }
 
+    private ProcessingPlan loadPlan(String devicePrefix) {
+        if(RadarBox.getAppContext()!=null && !devicePrefix.isEmpty()) {
+            try (InputStream in = RadarBox.getAppContext().getAssets()
+                    .open(devicePrefix+"/"+ProcessingPlan.FILE_NAME)) {
+                return ProcessingPlan.load(devicePrefix,in,RadarBox.freqSignals,this);
+            } catch (FileNotFoundException e) {
+                // у устройства нет своего плана
+            } catch (IOException | XmlPullParserException | IllegalArgumentException e) {
+                RadarBox.logger.add(this,"Wrong "+devicePrefix+"/"+ProcessingPlan.FILE_NAME
+                        +": "+e.getLocalizedMessage());
+            }
+        }
+        return ProcessingPlan.createDefault(devicePrefix,RadarBox.freqSignals,this);
+    }
+
+    /** Удалить все операции из графа обработки */
     public void processingSequenceClear() {
-        processingSequence.clear();
+        processingGraph.clear();
     }
 
+    /** Добавить операцию в конец основной цепочки: её вход - выход последней добавленной
+     * операции. Ветви с другими входами добавляются через {@link #getProcessingGraph()} */
     public void processingSequenceAdd(OperationDSP operation) {
-        if(!processingSequence.contains(operation))
-            processingSequence.add(operation);
+        if(processingGraph.contains(operation))
+            return;
+        OperationDSP last = processingGraph.getLast();
+        if(last==null)
+            processingGraph.addOperation(operation);
+        else
+            processingGraph.addOperation(operation,last);
+    }
+
+    /** Количество потоков по умолчанию: по числу ядер, но не больше 4, чтобы оставить ядра
+     * потокам чтения данных и отрисовки */
+    public static int getDefaultThreadCount() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /** Чтение количества потоков из настроек приложения */
+    private void restoreThreadCount() {
+        if(RadarBox.getAppContext()==null)
+            return;
+        String value = PreferenceManager.getDefaultSharedPreferences(RadarBox.getAppContext())
+                .getString(THREAD_COUNT_KEY, Integer.toString(getDefaultThreadCount()));
+        try {
+            setThreadCount(Integer.parseInt(value));
+        } catch (IllegalArgumentException e) {
+            RadarBox.logger.add(this,"Wrong thread count in settings: "+value);
+        }
+    }
+
+    /** Задать количество потоков, между которыми распределяются каналы при выполнении
+     * операций (пакетное БПФ {@link FftBatch}).
+     * @param threadCount количество потоков, не меньше единицы. 1 - вся обработка в потоке
+     *                    обработки {@link org.rdr.radarbox.DataThreadService}
+     * @throws IllegalArgumentException если количество потоков меньше единицы
+     */
+    public void setThreadCount(int threadCount) {
+        fftBatch.setThreadCount(threadCount);
+    }
+
+    /** @return количество потоков обработки */
+    public int getThreadCount() {
+        return fftBatch.getThreadCount();
+    }
+
+    /** Чтение глубины конвейера из настроек приложения */
+    private void restorePipelineDepth() {
+        if(RadarBox.getAppContext()==null)
+            return;
+        String value = PreferenceManager.getDefaultSharedPreferences(RadarBox.getAppContext())
+                .getString(PIPELINE_DEPTH_KEY, "1");
+        try {
+            setPipelineDepth(Integer.parseInt(value));
+        } catch (IllegalArgumentException e) {
+            RadarBox.logger.add(this,"Wrong pipeline depth in settings: "+value);
+        }
+    }
+
+    /** Задать конвейерную обработку ({@link ProcessingPipeline}): каждая операция графа
+     * выполняется в своём потоке, и в обработке одновременно находятся несколько кадров.
+     * @param depth наибольшее количество кадров в обработке, не меньше единицы. 1 - без конвейера,
+     *              все операции кадра выполняются в {@link #doProcessing()}
+     * @throws IllegalArgumentException если глубина меньше единицы
+     */
+    public synchronized void setPipelineDepth(int depth) {
+        if(depth<1)
+            throw new IllegalArgumentException("Pipeline depth must be positive");
+        if(depth==pipelineDepth)
+            return;
+        pipelineDepth = depth;
+        if(pipeline!=null) {
+            pipeline.shutdown();
+            pipeline = null;
+        }
+    }
+
+    /** @return наибольшее количество кадров в обработке (1 - без конвейера) */
+    public int getPipelineDepth() {
+        return pipelineDepth;
+    }
+
+    /** @return текущий конвейер (глубина и загрузка ступеней) либо null, если конвейер выключен
+     * или ещё не создан */
+    public ProcessingPipeline getPipeline() {
+        return pipeline;
+    }
+
+    /** @return true, если включена конвейерная обработка: выходы операций готовы не по
+     * завершении {@link #doProcessing()}, а по вызову {@link #setFrameListener} */
+    public boolean isPipelined() {
+        return pipelineDepth>1;
+    }
+
+    /** Задать обработчик обработанных кадров. При конвейерной обработке вызывается в потоке
+     * последней ступени по прохождении кадром всех ступеней, без конвейера - в потоке обработки
+     * в конце {@link #doProcessing()}, после копирования снимков для отображения. Так счёт
+     * обработанных кадров ведётся в одном месте при любой глубине конвейера.
+     * @param listener обработчик или null
+     */
+    public synchronized void setFrameListener(ProcessingPipeline.FrameListener listener) {
+        frameListener = listener;
+        if(pipeline!=null)
+            pipeline.setFrameListener(listener);
+    }
+
+    /** Выходные сигналы операции для отображения. Операции перезаписывают свои выходы на месте
+     * следующим кадром, поэтому возвращается копия выходов последнего обработанного кадра:
+     * при конвейерной обработке - кадра, прошедшего все ступени
+     * ({@link ProcessingPipeline#copyPublishedSignals}), без конвейера - снимок, который
+     * копируется после каждого кадра для всех операций, уже запрошенных этим методом (при
+     * первом запросе операции возвращается пустой список). Выходы источников конвейера
+     * возвращаются без копирования.
+     * @param operation операция текущего плана обработки
+     * @param buffer буферы вызывающего для копии, используются повторно
+     * @return buffer с копией опубликованных выходов либо выходы операции
+     */
+    public ArrayList<ComplexSignal> getPublishedSignals(OperationDSP operation,
+                                                        ArrayList<ComplexSignal> buffer) {
+        ProcessingPipeline current = pipeline;
+        if(current!=null && !current.isShutdown()) {
+            if(current.copyPublishedSignals(operation,buffer))
+                return buffer;
+            return operation.getOutputSignals();
+        }
+        synchronized (snapshots) {
+            ArrayList<ComplexSignal> snapshot = snapshots.get(operation);
+            if(snapshot==null) {
+                snapshots.put(operation,new ArrayList<>());
+                buffer.clear();
+            }
+            else
+                ProcessingPipeline.copySignals(snapshot,buffer);
+        }
+        return buffer;
+    }
+
+    /** Копирование выходов запрошенных для отображения операций в снимки после кадра */
+    private void publishSnapshots() {
+        synchronized (snapshots) {
+            for(Map.Entry<OperationDSP,ArrayList<ComplexSignal>> entry : snapshots.entrySet())
+                ProcessingPipeline.copySignals(entry.getKey().getOutputSignals(),
+                        entry.getValue());
+        }
+    }
+
+    /** Чтение настройки слитного БПФ */
+    private void restoreFusedFFT() {
+        if(RadarBox.getAppContext()==null)
+            return;
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(
+                RadarBox.getAppContext());
+        fusedFFT = prefs.getBoolean(FUSED_FFT_KEY,false);
+        fixedPoint = prefs.getBoolean(FIXED_POINT_KEY,false);
+    }
+
+    /** Включить слитное БПФ сырых отсчётов ({@link OperationRawFFT}): если граф обработки
+     * содержит цепочку сырые сигналы -> (вычитание фона) -> (накопление) -> БПФ, а вычитание
+     * фона и накопление выключены, цепочка заменяется одной операцией, которая читает int16
+     * отсчёты из кадра и за один проход применяет калибровку, окно и дополнение нулями.
+     * Иначе обработка выполняется по графу как обычно. В конвейерной обработке слитное БПФ
+     * используется, только если сырые сигналы не нужны другим операциям: источник следующего
+     * кадра перезаписал бы их до обработки на ступенях конвейера.
+     * @param enabled true - использовать слитное БПФ, когда это возможно
+     */
+    public void setFusedFFT(boolean enabled) {
+        fusedFFT = enabled;
+    }
+
+    /** @return true, если включено слитное БПФ */
+    public boolean isFusedFFT() {
+        return fusedFFT;
+    }
+
+    /** Включить обработку в фиксированной точке ({@link OperationFixedFFT}): слитное БПФ,
+     * в котором int16 отсчёты не переводятся во float, а БПФ выполняется в формате Q15
+     * с блочной плавающей точкой ({@link FixedFftPlan}). Применяется при тех же условиях, что
+     * и слитное БПФ ({@link #setFusedFFT(boolean)}), и включает его. Модули сырых сигналов
+     * для отображения вычисляются приближённо в целых числах.
+     * @param enabled true - использовать фиксированную точку, когда это возможно
+     */
+    public void setFixedPoint(boolean enabled) {
+        fixedPoint = enabled;
+    }
+
+    /** @return true, если включена обработка в фиксированной точке */
+    public boolean isFixedPoint() {
+        return fixedPoint;
+    }
+
+    /** @return БПФ в фиксированной точке, выполняемое на текущих кадрах, либо null */
+    public OperationFixedFFT getFixedFFT() {
+        for(OperationDSP operation : activeGraph.getOperations())
+            if(operation instanceof OperationFixedFFT)
+                return (OperationFixedFFT) operation;
+        return null;
+    }
+
+    /** @return граф, по которому обрабатывается следующий кадр */
+    private ProcessingGraph selectGraph() {
+        ProcessingGraph graph = processingGraph;
+        boolean fixed = fixedPoint;
+        if(!(fusedFFT || fixed) || background.isEnabled() || !stacking.isPassThrough())
+            return graph;
+        LinkedList<OperationDSP> operations = graph.getOperations();
+        if(operations!=fusedFrom || fixed!=fusedFixedPoint) {
+            fusedNeedsRawSignals = false;
+            fusedFixedPoint = fixed;
+            fusedGraph = buildFusedGraph(graph,operations);
+            fusedFrom = operations;
+        }
+        if(fusedGraph==null || (pipelineDepth>1 && fusedNeedsRawSignals))
+            return graph;
+        return fusedGraph;
+    }
+
+    /** Граф, в котором цепочка сырые сигналы -> (фон) -> (накопление) -> БПФ заменена на
+     * {@link OperationRawFFT}. Операции, использующие сырые сигналы, подключаются к
+     * откалиброванным сигналам слитного БПФ, использующие спектр - к его выходу.
+     * @return граф либо null, если такой цепочки нет или промежуточные сигналы цепочки
+     * нужны другим операциям
+     */
+    private ProcessingGraph buildFusedGraph(ProcessingGraph graph,
+                                            LinkedList<OperationDSP> operations) {
+        FreqSignals source = RadarBox.freqSignals;
+        if(source==null || !operations.contains(source))
+            return null;
+        OperationFFT fft = null;
+        ArrayList<OperationDSP> chain = new ArrayList<>();
+        for(OperationDSP operation : operations) {
+            if(operation.getClass()!=OperationFFT.class)
+                continue;
+            chain.clear();
+            OperationDSP current = operation;
+            while(true) {
+                OperationDSP[] inputs = graph.getInputs(current);
+                if(inputs.length!=1)
+                    break;
+                current = inputs[0];
+                if(current!=background && current!=stacking)
+                    break;
+                chain.add(current);
+            }
+            if(current==source) {
+                fft = (OperationFFT) operation;
+                break;
+            }
+        }
+        if(fft==null)
+            return null;
+        OperationRawFFT rawFFT = fusedFixedPoint ? new OperationFixedFFT(source,fft)
+                : new OperationRawFFT(source,fft);
+        ProcessingGraph fused = new ProcessingGraph();
+        fused.setProfiler(profiler);
+        fused.addOperation(rawFFT);
+        for(OperationDSP operation : operations) {
+            if(operation==source || operation==fft || chain.contains(operation))
+                continue;
+            OperationDSP[] inputs = graph.getInputs(operation);
+            for(int i=0; i<inputs.length; i++) {
+                if(inputs[i]==source) {
+                    inputs[i] = rawFFT.getRawSignalsOperation();
+                    if(!fused.contains(inputs[i])) {
+                        fused.addOperation(inputs[i],rawFFT);
+                        rawFFT.setRawSignalsNeeded(true);
+                        fusedNeedsRawSignals = true;
+                    }
+                }
+                else if(inputs[i]==fft)
+                    inputs[i] = rawFFT;
+                else if(chain.contains(inputs[i]))
+                    return null;
+            }
+            fused.addOperation(operation,inputs);
+        }
+        // остальные операции подготовлены в графе обработки с теми же размерами сигналов
+        rawFFT.prepare(source.getOutputSignals());
+        return fused;
+    }
+
+    /** Подсчёт выделяемой операциями памяти по настройке приложения */
+    private void restoreProfiler() {
+        if(RadarBox.getAppContext()==null)
+            return;
+        if(PreferenceManager.getDefaultSharedPreferences(RadarBox.getAppContext())
+                .getBoolean(PROFILER_ALLOCATIONS_KEY,false)
+                && !profiler.setAllocationCounting(true))
+            RadarBox.logger.add(this,"Allocation counting is not supported");
+    }
+
+    /** @return длительности выполнения операций (гистограммы по операциям) */
+    public OperationProfiler getProfiler() {
+        return profiler;
+    }
+
+    /** Записать в журнал сводку длительностей операций {@link OperationProfiler#getStatistics()} */
+    public void logProfile() {
+        RadarBox.logger.add(this,"Operation latency, "+profiler.getStatistics());
+    }
+
+    /** Окно перед БПФ: по умолчанию прямоугольное, затем окно из плана текущего устройства
+     * (элемент {@code <window type="..." parameter="..."/>} файла processing.xml), затем окно
+     * из настроек приложения, если оно там задано */
+    private void restoreWindow() {
+        fftWindow.setWindow(Window.Type.RECTANGULAR,0);
+        if(plan!=null && plan.getWindowType()!=null)
+            fftWindow.setWindow(plan.getWindowType(),plan.getWindowParameter());
+        if(RadarBox.getAppContext()==null)
+            return;
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(
+                RadarBox.getAppContext());
+        String type = prefs.getString(WINDOW_TYPE_KEY,"");
+        if(!type.isEmpty()) {
+            try {
+                setWindow(Window.parseType(type),
+                        Float.parseFloat(prefs.getString(WINDOW_PARAMETER_KEY,"0")));
+            } catch (IllegalArgumentException e) {
+                RadarBox.logger.add(this,"Wrong window in settings: "+type);
+            }
+        }
+    }
+
+    /** Задать окно, на которое умножаются отсчёты перед БПФ.
+     * @param type тип окна
+     * @param parameter параметр окна (0 - значение по умолчанию)
+     * @throws IllegalArgumentException если параметр отрицательный
+     */
+    public void setWindow(Window.Type type, float parameter) {
+        fftWindow.setWindow(type,parameter);
+    }
+
+    /** @return окно, применяемое перед БПФ */
+    public OperationWindow getWindow() {
+        return fftWindow;
+    }
+
+    /** Вычитание фона из настроек приложения: режим "OFF", "EMA" или "MEAN" и параметр
+     * (alpha либо количество кадров) */
+    private void restoreBackground() {
+        background.setEnabled(false);
+        if(RadarBox.getAppContext()==null)
+            return;
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(
+                RadarBox.getAppContext());
+        String mode = prefs.getString(BACKGROUND_MODE_KEY,"OFF");
+        try {
+            setBackground(mode,prefs.getString(BACKGROUND_PARAMETER_KEY,""));
+        } catch (IllegalArgumentException e) {
+            RadarBox.logger.add(this,"Wrong background removal in settings: "+mode);
+        }
+    }
+
+    /** Задать вычитание фона.
+     * @param mode "OFF" - выключено, "EMA" - экспоненциальное среднее, "MEAN" - среднее
+     *             по последним кадрам
+     * @param parameter alpha для "EMA" либо количество кадров для "MEAN"; пустая строка -
+     *                  текущее значение
+     * @throws IllegalArgumentException если режим или параметр неверны
+     */
+    public void setBackground(String mode, String parameter) {
+        if(mode.trim().equalsIgnoreCase("OFF")) {
+            background.setEnabled(false);
+            return;
+        }
+        background.setParameters(parameter.trim().isEmpty() ? mode : mode+","+parameter);
+        background.setEnabled(true);
+    }
+
+    /** @return операция вычитания фона (заморозка и сброс фона) */
+    public OperationBackground getBackground() {
+        return background;
+    }
+
+    /** Накопление кадров из настроек приложения: режим "OFF", "MOVING" или "DECIMATED"
+     * и количество кадров */
+    private void restoreStacking() {
+        stacking.setEnabled(false);
+        if(RadarBox.getAppContext()==null)
+            return;
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(
+                RadarBox.getAppContext());
+        String mode = prefs.getString(STACKING_MODE_KEY,"OFF");
+        try {
+            setStacking(mode,prefs.getString(STACKING_FRAMES_KEY,""));
+        } catch (IllegalArgumentException e) {
+            RadarBox.logger.add(this,"Wrong stacking in settings: "+mode);
+        }
+    }
+
+    /** Задать когерентное накопление кадров.
+     * @param mode "OFF" - выключено, "MOVING" - скользящее среднее на каждом кадре,
+     *             "DECIMATED" - среднее раз в K кадров
+     * @param frames количество кадров K; пустая строка - текущее значение
+     * @throws IllegalArgumentException если режим или количество кадров неверны
+     */
+    public void setStacking(String mode, String frames) {
+        if(mode.trim().equalsIgnoreCase("OFF")) {
+            stacking.setEnabled(false);
+            return;
+        }
+        stacking.setParameters(frames.trim().isEmpty() ? mode : mode+","+frames);
+        stacking.setEnabled(true);
+    }
+
+    /** @return операция когерентного накопления кадров */
+    public OperationStacking getStacking() {
+        return stacking;
     }
 
-    /** Возвращает список операций, которые выполняются на каждом цикле сбора данных*/
+    /** Загрузка калибровочных коэффициентов из файла {@link Calibration#FILE_NAME} в заданной
+     * папке (например, в папке дополнений AoRD-файла). Калибровка относится к источнику данных:
+     * если файла нет или он неверный, коэффициенты предыдущего источника сбрасываются.
+     * @param folder папка с файлом коэффициентов
+     * @return true, если коэффициенты загружены
+     */
+    public boolean loadCalibration(File folder) {
+        File file = new File(folder, Calibration.FILE_NAME);
+        if(!file.exists()) {
+            setCalibration(null);
+            return false;
+        }
+        try {
+            setCalibration(Calibration.read(file));
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            RadarBox.logger.add(this,"Wrong calibration file "+file.getAbsolutePath()+": "
+                    +e.getLocalizedMessage());
+            setCalibration(null);
+            return false;
+        }
+    }
+
+    /** Запросить калибровку по кадру как по опорному измерению
+     * ({@link Calibration#fromReference(RawChannelView[], int, float[])}). Сырой кадр
+     * перезаписывается потоком сбора данных, поэтому коэффициенты вычисляются в потоке
+     * обработки в начале следующего кадра ({@link #doProcessing()}), по тому же кадру,
+     * что и обрабатываемые сигналы. Если открыт AoRD-файл для записи, коэффициенты
+     * сохраняются в его папку дополнений. Может вызываться из любого потока.
+     * @return true, если запрос принят (известно расположение каналов в кадре)
+     */
+    public boolean captureCalibration() {
+        FreqSignals signals = RadarBox.freqSignals;
+        if(signals==null || !hasReferenceLayout(signals))
+            return false;
+        calibrationRequested = true;
+        return true;
+    }
+
+    /** Каналы кадра соответствуют всем парам приёмник-передатчик */
+    private static boolean hasReferenceLayout(FreqSignals signals) {
+        RawChannelView[] views = signals.getChannelViews();
+        return views!=null && views.length>0 && views.length==signals.getRxN()*signals.getTxN();
+    }
+
+    /** Выполнение запроса {@link #captureCalibration()} в потоке обработки до обращения
+     * операций к кадру */
+    private void applyCalibrationRequest() {
+        if(!calibrationRequested)
+            return;
+        calibrationRequested = false;
+        FreqSignals signals = RadarBox.freqSignals;
+        if(signals==null || !hasReferenceLayout(signals))
+            return;
+        Calibration calibration = Calibration.fromReference(signals.getChannelViews(),
+                signals.getRxN(),signals.getFrequencyAxis());
+        setCalibration(calibration);
+        if(RadarBox.fileWrite!=null && RadarBox.fileWrite.additional!=null) {
+            try {
+                calibration.write(new File(RadarBox.fileWrite.additional.getFolder(),
+                        Calibration.FILE_NAME));
+            } catch (IOException e) {
+                RadarBox.logger.add(this,"Can`t save calibration: "+e.getLocalizedMessage());
+            }
+        }
+    }
+
+    /** Задать калибровочные коэффициенты для сырых частотных сигналов.
+     * @param calibration набор коэффициентов либо null, чтобы отключить калибровку
+     */
+    public void setCalibration(Calibration calibration) {
+        if(RadarBox.freqSignals!=null)
+            RadarBox.freqSignals.setCalibration(calibration);
+    }
+
+    /** @return текущий набор калибровочных коэффициентов либо null */
+    public Calibration getCalibration() {
+        return RadarBox.freqSignals!=null ? RadarBox.freqSignals.getCalibration() : null;
+    }
+
+    /** @return пакетное БПФ, общее для операций последовательности */
+    public FftBatch getFftBatch() {
+        return fftBatch;
+    }
+
+    /** @return оценка ОСШ по сырым сигналам */
+    public OperationSNR getSNR() {
+        return snr;
+    }
+
+    /** @return граф обработки, в который можно добавлять ветви с несколькими входами */
+    public ProcessingGraph getProcessingGraph() {
+        return processingGraph;
+    }
+
+    /** Возвращает список операций, которые выполняются на каждом цикле сбора данных,
+     * в порядке выполнения (при слитном БПФ - операции графа со слитным БПФ)*/
     public LinkedList<OperationDSP> getProcessingSequence() {
-        return processingSequence;
+        return activeGraph.getOperations();
     }
 
-    /** Главноая функция, которая вызывается для последовательного выполнения
-     *  всех необходимых операций в рамках цифровой обработки сигналов.
+    /** Главноая функция, которая вызывается для выполнения всех необходимых операций
+     *  в рамках цифровой обработки сигналов.
+     *  Операции выполняются по графу {@link ProcessingGraph}: входные сигналы каждой операции -
+     *  выходные сигналы операций, от которых она зависит, независимые ветви выполняются
+     *  одновременно в пуле потоков {@link FftBatch}. Если операция не выдала новых сигналов
+     *  ({@link OperationDSP#hasNewOutput()}), зависящие от неё операции на этом кадре
+     *  не выполняются.
+     *  <p>
+     *  Если задана глубина конвейера больше единицы ({@link #setPipelineDepth(int)}), здесь
+     *  выполняются только источники сигналов, а остальные операции кадра - в потоках
+     *  {@link ProcessingPipeline} одновременно с обработкой следующих кадров.
      */
     public void doProcessing() {
-        if(processingSequence.isEmpty()) return;
-        processingSequence.getFirst().doOperation();
-        for (int i = 1; i < processingSequence.size(); i++) {
-            processingSequence.get(i).setInputSignals(
-                    processingSequence.getFirst().getOutputSignals());
-            processingSequence.get(i).doOperation();
+        applyCalibrationRequest();
+        ProcessingPipeline current;
+        ProcessingGraph graph;
+        synchronized (this) {
+            graph = selectGraph();
+            activeGraph = graph;
+            if(pipelineDepth<2) {
+                current = null;
+            }
+            else {
+                // граф изменён - конвейер строится заново
+                if(pipeline!=null && !pipeline.isBuiltFrom(graph)) {
+                    pipeline.shutdown();
+                    pipeline = null;
+                }
+                if(pipeline==null) {
+                    pipeline = new ProcessingPipeline(graph,pipelineDepth);
+                    pipeline.setFrameListener(frameListener);
+                }
+                current = pipeline;
+            }
+        }
+        if(current==null) {
+            graph.execute(fftBatch.getPool());
+            publishSnapshots();
+            ProcessingPipeline.FrameListener listener = frameListener;
+            if(listener!=null)
+                listener.onFrameProcessed(sequentialFrameNumber);
+            sequentialFrameNumber++;
+            return;
+        }
+        try {
+            // конвейер остановлен при смене настроек - кадр пропускается, следующий кадр
+            // обрабатывается новым конвейером
+            current.submit();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 }
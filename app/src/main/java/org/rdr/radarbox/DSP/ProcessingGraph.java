@@ -0,0 +1,318 @@
+package org.rdr.radarbox.DSP;
+
+import org.rdr.radarbox.DSP.Operations.OperationDSP;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+
+/** Граф обработки: ориентированный ациклический граф операций {@link OperationDSP}. <p>
+ * Каждая операция при добавлении ({@link #addOperation(OperationDSP, OperationDSP...)})
+ * объявляет, выходы каких операций являются её входами (если входов несколько, их выходные
+ * сигналы объединяются в один список по порядку). Входы должны быть добавлены раньше,
+ * поэтому циклы невозможны.
+ * <p>
+ * При компиляции (при каждом изменении графа) граф разбивается на цепочки:
+ * последовательности операций, в которых у каждой операции один вход и этот вход больше
+ * никому не нужен. Цепочки упорядочиваются по уровням: цепочка выполняется после всех
+ * цепочек, от которых она зависит. Независимые цепочки одного уровня (например, оценка ОСШ и
+ * БПФ от одних и тех же сырых сигналов) выполняются одновременно в пуле потоков, операции
+ * внутри цепочки - последовательно в одном потоке. Списки объединённых входов и задачи пула
+ * создаются один раз при компиляции и используются на каждом кадре.
+ * <p>
+ * Если операция не выдала новых сигналов ({@link OperationDSP#hasNewOutput()}), зависящие
+ * от неё операции на этом кадре не выполняются.
+ * <p>
+ * Изменение графа и выполнение синхронизированы, граф можно перестраивать из любого потока.
+ * Список операций ({@link #getOperations()}) публикуется при компиляции и читается без
+ * блокировки, поэтому не ждёт завершения выполняемого кадра.
+ */
+public class ProcessingGraph {
+    private final ArrayList<Node> nodes = new ArrayList<>();
+    /** Цепочки по уровням */
+    private Chain[][] levels = new Chain[0][];
+    private LevelTask[] levelTasks = new LevelTask[0];
+    /** Операции в порядке выполнения (неизменяемый снимок, создаётся при компиляции) */
+    private volatile LinkedList<OperationDSP> order = new LinkedList<>();
+    /** Измерение длительности операций, null - не измеряется */
+    private OperationProfiler profiler = null;
+
+    private static class Node {
+        final OperationDSP operation;
+        final Node[] inputs;
+        /** Объединённые выходы входов, если входов больше одного */
+        ArrayList<ComplexSignal> mergedInput;
+        /** Запись измерений операции, null - не измеряется */
+        volatile OperationProfiler.Entry entry;
+        int consumers = 0;
+        /** Результат выполнения на текущем кадре: операция выполнена и выдала новые сигналы */
+        volatile boolean produced = false;
+
+        Node(OperationDSP operation, Node[] inputs) {
+            this.operation = operation;
+            this.inputs = inputs;
+        }
+
+        /** Выполнение операции, если все её входы выдали новые сигналы */
+        void run() {
+            produced = false;
+            for (Node input : inputs)
+                if (!input.produced)
+                    return;
+            if (inputs.length == 1)
+                operation.setInputSignals(inputs[0].operation.getOutputSignals());
+            else if (inputs.length > 1) {
+                mergedInput.clear();
+                for (Node input : inputs)
+                    mergedInput.addAll(input.operation.getOutputSignals());
+                operation.setInputSignals(mergedInput);
+            }
+            OperationProfiler.Entry entry = this.entry;
+            if (entry == null)
+                operation.doOperation();
+            else {
+                long start = entry.begin();
+                operation.doOperation();
+                entry.end(start);
+            }
+            produced = operation.hasNewOutput();
+        }
+    }
+
+    /** Цепочка операций, выполняемых последовательно в одном потоке */
+    private static class Chain extends RecursiveAction {
+        final Node[] nodes;
+
+        Chain(Node[] nodes) {
+            this.nodes = nodes;
+        }
+
+        @Override
+        protected void compute() {
+            for (Node node : nodes)
+                node.run();
+        }
+    }
+
+    /** Задача пула, выполняющая все цепочки одного уровня одновременно */
+    private static class LevelTask extends RecursiveAction {
+        final Chain[] chains;
+
+        LevelTask(Chain[] chains) {
+            this.chains = chains;
+        }
+
+        @Override
+        protected void compute() {
+            for (Chain chain : chains)
+                chain.reinitialize();
+            invokeAll(chains);
+        }
+    }
+
+    /** Добавить операцию в граф.
+     * @param operation операция, ещё не добавленная в граф
+     * @param inputs операции, выходы которых подаются на вход (уже добавленные в граф).
+     *               Без входов операция - источник сигналов (например, {@link FreqSignals})
+     * @throws IllegalArgumentException если операция уже есть в графе или вход не найден
+     */
+    public synchronized void addOperation(OperationDSP operation, OperationDSP... inputs) {
+        if (operation == null || find(operation) != null)
+            throw new IllegalArgumentException("Operation is null or already in graph");
+        Node[] inputNodes = new Node[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            inputNodes[i] = find(inputs[i]);
+            if (inputNodes[i] == null)
+                throw new IllegalArgumentException("Input operation is not in graph: "
+                        + (inputs[i] == null ? "null" : inputs[i].getName()));
+        }
+        Node node = new Node(operation, inputNodes);
+        node.entry = profiler != null ? profiler.getEntry(operation) : null;
+        nodes.add(node);
+        compile();
+    }
+
+    /** Измерять длительность выполнения операций графа (и конвейера, построенного по нему).
+     * @param profiler измерения по операциям; null - не измерять
+     */
+    public synchronized void setProfiler(OperationProfiler profiler) {
+        this.profiler = profiler;
+        for (Node node : nodes)
+            node.entry = profiler != null ? profiler.getEntry(node.operation) : null;
+    }
+
+    /** @return измерения по операциям либо null, если не измеряются */
+    public synchronized OperationProfiler getProfiler() {
+        return profiler;
+    }
+
+    /** @return true, если операция есть в графе */
+    public synchronized boolean contains(OperationDSP operation) {
+        return find(operation) != null;
+    }
+
+    /** @return операции, выходы которых подаются на вход заданной операции, в порядке
+     * объединения
+     * @throws IllegalArgumentException если операции нет в графе */
+    public synchronized OperationDSP[] getInputs(OperationDSP operation) {
+        Node node = find(operation);
+        if (node == null)
+            throw new IllegalArgumentException("Operation is not in graph");
+        OperationDSP[] inputs = new OperationDSP[node.inputs.length];
+        for (int i = 0; i < inputs.length; i++)
+            inputs[i] = node.inputs[i].operation;
+        return inputs;
+    }
+
+    /** @return последняя добавленная операция либо null, если граф пуст */
+    public synchronized OperationDSP getLast() {
+        return nodes.isEmpty() ? null : nodes.get(nodes.size() - 1).operation;
+    }
+
+    /** Удалить все операции */
+    public synchronized void clear() {
+        nodes.clear();
+        compile();
+    }
+
+    /** @return операции в порядке выполнения (список не должен изменяться). Каждое изменение
+     * графа создаёт новый список. Может вызываться из любого потока без ожидания кадра */
+    public LinkedList<OperationDSP> getOperations() {
+        return order;
+    }
+
+    private Node find(OperationDSP operation) {
+        for (Node node : nodes)
+            if (node.operation == operation)
+                return node;
+        return null;
+    }
+
+    /** Разбиение графа на цепочки и уровни, выделение списков объединённых входов и задач */
+    private void compile() {
+        for (Node node : nodes)
+            node.consumers = 0;
+        for (Node node : nodes) {
+            for (Node input : node.inputs)
+                input.consumers++;
+            node.mergedInput = node.inputs.length > 1 ? new ArrayList<>() : null;
+        }
+        // цепочка начинается с операции, которую нельзя присоединить к цепочке её входа
+        ArrayList<Chain> chains = new ArrayList<>();
+        ArrayList<Chain> chainOf = new ArrayList<>(Collections.nCopies(nodes.size(), null));
+        ArrayList<Integer> chainLevel = new ArrayList<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            if (chainOf.get(i) != null || continuesChain(node))
+                continue;
+            ArrayList<Node> members = new ArrayList<>();
+            Node current = node;
+            while (true) {
+                members.add(current);
+                Node next = null;
+                if (current.consumers == 1)
+                    for (Node candidate : nodes)
+                        if (candidate.inputs.length == 1 && candidate.inputs[0] == current)
+                            next = candidate;
+                if (next == null)
+                    break;
+                current = next;
+            }
+            Chain chain = new Chain(members.toArray(new Node[0]));
+            for (Node member : members)
+                chainOf.set(nodes.indexOf(member), chain);
+            chains.add(chain);
+        }
+        // уровень цепочки на единицу больше наибольшего уровня цепочек её входов;
+        // цепочки создаются в порядке добавления операций, входы всегда раньше
+        int levelCount = 0;
+        for (Chain chain : chains) {
+            int level = 0;
+            for (Node input : chain.nodes[0].inputs)
+                level = Math.max(level,
+                        chainLevel.get(chains.indexOf(chainOf.get(nodes.indexOf(input)))) + 1);
+            chainLevel.add(level);
+            levelCount = Math.max(levelCount, level + 1);
+        }
+        List<List<Chain>> byLevel = new ArrayList<>();
+        for (int l = 0; l < levelCount; l++)
+            byLevel.add(new ArrayList<>());
+        for (int c = 0; c < chains.size(); c++)
+            byLevel.get(chainLevel.get(c)).add(chains.get(c));
+        levels = new Chain[levelCount][];
+        levelTasks = new LevelTask[levelCount];
+        LinkedList<OperationDSP> newOrder = new LinkedList<>();
+        for (int l = 0; l < levelCount; l++) {
+            levels[l] = byLevel.get(l).toArray(new Chain[0]);
+            levelTasks[l] = new LevelTask(levels[l]);
+            for (Chain chain : levels[l])
+                for (Node node : chain.nodes)
+                    newOrder.add(node.operation);
+        }
+        order = newOrder;
+    }
+
+    /** @return true, если операция выполняется сразу после своего единственного входа
+     * в той же цепочке */
+    private static boolean continuesChain(Node node) {
+        return node.inputs.length == 1 && node.inputs[0].consumers == 1;
+    }
+
+    /** Заранее выделить буферы всех операций ({@link OperationDSP#prepare(ArrayList)}).
+     * Операции готовятся в порядке выполнения: входы операций-источников заменяются образцом
+     * сигналов, входы остальных - выходами уже подготовленных операций.
+     * @param sourceSignals образец сигналов источников (количество каналов, длина и ось X)
+     */
+    public synchronized void prepare(ArrayList<ComplexSignal> sourceSignals) {
+        for (Chain[] chains : levels) {
+            for (Chain chain : chains) {
+                for (Node node : chain.nodes) {
+                    if (node.inputs.length == 0)
+                        continue;
+                    ArrayList<ComplexSignal> input;
+                    if (node.inputs.length == 1)
+                        input = signalsOf(node.inputs[0], sourceSignals);
+                    else {
+                        input = new ArrayList<>();
+                        for (Node inputNode : node.inputs)
+                            input.addAll(signalsOf(inputNode, sourceSignals));
+                    }
+                    node.operation.prepare(input);
+                }
+            }
+        }
+    }
+
+    private static ArrayList<ComplexSignal> signalsOf(Node node,
+                                                      ArrayList<ComplexSignal> sourceSignals) {
+        return node.inputs.length == 0 ? sourceSignals : node.operation.getOutputSignals();
+    }
+
+    /** Выполнение всех операций графа для одного кадра.
+     * @param pool пул потоков для одновременного выполнения независимых цепочек; null -
+     *             все операции выполняются в вызывающем потоке
+     */
+    public synchronized void execute(ForkJoinPool pool) {
+        for (int l = 0; l < levels.length; l++) {
+            Chain[] chains = levels[l];
+            if (chains.length == 1 || pool == null) {
+                for (Chain chain : chains)
+                    chain.compute();
+                continue;
+            }
+            LevelTask task = levelTasks[l];
+            task.reinitialize();
+            try {
+                pool.invoke(task);
+            } catch (RejectedExecutionException e) {
+                // пул заменён во время вызова, выполняем последовательно
+                for (Chain chain : chains)
+                    chain.compute();
+            }
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package org.rdr.radarbox.DSP;
+
+import org.rdr.radarbox.DSP.Operations.OperationDSP;
+import org.rdr.radarbox.RadarBox;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Конвейерное выполнение графа обработки {@link ProcessingGraph} для нескольких кадров
+ * одновременно. <p>
+ * Каждая операция графа (кроме источников) выполняется в своём потоке - ступени конвейера,
+ * ступени упорядочены топологически и соединены ограниченными очередями. Пока ступень N
+ * обрабатывает кадр k, ступень N-1 уже обрабатывает кадр k+1, поэтому период кадра
+ * определяется самой медленной ступенью, а не суммой всех операций.
+ * <p>
+ * Операции графа хранят свои выходные сигналы в единственном экземпляре и перезаписывают их на
+ * следующем кадре, поэтому выходы операций ступеней копируются в буферы кадра. Буферы
+ * выделяются для {@link #getDepth()} кадров один раз (при изменении размеров сигналов - заново)
+ * и используются повторно. Выходы кадра, прошедшего все ступени, копируются в опубликованный
+ * снимок, который читается ({@link #copyPublishedSignals(OperationDSP, ArrayList)}) вместо
+ * выходов самих операций: отображение получает целые кадры в порядке поступления.
+ * Глубина - наибольшее количество кадров в обработке: если все кадры заняты,
+ * {@link #submit()} ждёт освобождения кадра, т.е. сбор данных притормаживается до скорости
+ * обработки.
+ * <p>
+ * Источники (операции без входов, например {@link FreqSignals}) читают кадр устройства, который
+ * перезаписывается при следующем чтении, поэтому выполняются в вызывающем потоке в
+ * {@link #submit()} (нулевая ступень). Кадры проходят ступени по порядку и публикуются
+ * ({@link FrameListener}) в том же порядке, в котором поступили.
+ * <p>
+ * Для поиска узкого места для каждой ступени считается загрузка - доля времени, занятая
+ * выполнением операции ({@link #getOccupancy(int)}), и количество кадров в её входной очереди
+ * ({@link #getQueueLength(int)}).
+ */
+public class ProcessingPipeline {
+    /** Обработчик кадров, прошедших все ступени */
+    public interface FrameListener {
+        /** Вызывается в потоке последней ступени в порядке поступления кадров
+         * @param frameNumber номер кадра (с нуля с момента создания конвейера) */
+        void onFrameProcessed(long frameNumber);
+    }
+
+    /** Кадр в обработке: копии выходов операций ступеней и признаки их выполнения */
+    private static class Frame {
+        long number;
+        final ArrayList<ComplexSignal>[] outputs;
+        final boolean[] produced;
+
+        @SuppressWarnings("unchecked")
+        Frame(int operationCount) {
+            outputs = new ArrayList[operationCount];
+            for (int i = 0; i < operationCount; i++)
+                outputs[i] = new ArrayList<>();
+            produced = new boolean[operationCount];
+        }
+    }
+
+    /** Снимок операций графа, по которому построен конвейер */
+    private final LinkedList<OperationDSP> graphOperations;
+    private final OperationDSP[] operations;
+    /** Номера операций-входов каждой операции */
+    private final int[][] inputs;
+    /** Выход операции копируется в буферы кадра: он нужен следующим ступеням или публикуется */
+    private final boolean[] copied;
+    /** Опубликованные выходы операций последнего прошедшего все ступени кадра */
+    private final ArrayList<ComplexSignal>[] published;
+    /** Объединённые входы операций с несколькими входами */
+    private final ArrayList<ComplexSignal>[] mergedInputs;
+    /** Операции-источники (нулевая ступень) и операции ступеней 1..N по порядку */
+    private final int[] sources;
+    private final int[] stageOperations;
+    private final int depth;
+    /** Период проверки остановки конвейера при ожидании свободного кадра, мс */
+    private static final long SUBMIT_POLL_MILLIS = 100;
+    private final ArrayBlockingQueue<Frame> freeFrames;
+    /** Входные очереди ступеней 1..N (элемент 0 не используется) */
+    private final ArrayBlockingQueue<Frame>[] queues;
+    private final Thread[] threads;
+    private final AtomicLong[] busyNanos;
+    /** Записи измерений операций ({@link ProcessingGraph#getProfiler()}), null - не измеряются */
+    private final OperationProfiler.Entry[] entries;
+    private volatile long statisticsStart = System.nanoTime();
+    private volatile FrameListener listener = null;
+    private volatile boolean stopped = false;
+    private long submitted = 0;
+    private volatile long publishedCount = 0;
+
+    /** Конвейер по текущему графу. Потоки ступеней запускаются сразу.
+     * @param graph граф обработки; при его изменении конвейер нужно создать заново
+     *              ({@link #isBuiltFrom(ProcessingGraph)})
+     * @param depth наибольшее количество кадров в обработке, не меньше единицы
+     * @throws IllegalArgumentException если глубина меньше единицы
+     */
+    @SuppressWarnings("unchecked")
+    public ProcessingPipeline(ProcessingGraph graph, int depth) {
+        if (depth < 1)
+            throw new IllegalArgumentException("Pipeline depth must be positive");
+        this.depth = depth;
+        graphOperations = graph.getOperations();
+        operations = graph.getOperations().toArray(new OperationDSP[0]);
+        int n = operations.length;
+        inputs = new int[n][];
+        copied = new boolean[n];
+        published = new ArrayList[n];
+        mergedInputs = new ArrayList[n];
+        int sourceCount = 0;
+        for (int i = 0; i < n; i++) {
+            OperationDSP[] inputOperations = graph.getInputs(operations[i]);
+            inputs[i] = new int[inputOperations.length];
+            for (int k = 0; k < inputOperations.length; k++) {
+                inputs[i][k] = indexOf(inputOperations[k]);
+                copied[inputs[i][k]] = true;
+            }
+            published[i] = new ArrayList<>();
+            if (inputOperations.length > 1)
+                mergedInputs[i] = new ArrayList<>();
+            if (inputOperations.length == 0)
+                sourceCount++;
+        }
+        sources = new int[sourceCount];
+        stageOperations = new int[n - sourceCount];
+        for (int i = 0, s = 0, t = 0; i < n; i++) {
+            if (inputs[i].length == 0)
+                sources[s++] = i;
+            else {
+                stageOperations[t++] = i;
+                copied[i] = true;
+            }
+        }
+        int stageCount = stageOperations.length + 1;
+        freeFrames = new ArrayBlockingQueue<>(depth);
+        for (int f = 0; f < depth; f++)
+            freeFrames.add(new Frame(n));
+        queues = new ArrayBlockingQueue[stageCount];
+        threads = new Thread[stageCount];
+        busyNanos = new AtomicLong[stageCount];
+        OperationProfiler profiler = graph.getProfiler();
+        entries = new OperationProfiler.Entry[n];
+        if (profiler != null)
+            for (int i = 0; i < n; i++)
+                entries[i] = profiler.getEntry(operations[i]);
+        busyNanos[0] = new AtomicLong();
+        for (int s = 1; s < stageCount; s++) {
+            queues[s] = new ArrayBlockingQueue<>(depth);
+            busyNanos[s] = new AtomicLong();
+            final int stage = s;
+            threads[s] = new Thread(() -> runStage(stage),
+                    "DSP pipeline " + s + ": " + operations[stageOperations[s - 1]].getName());
+            threads[s].setDaemon(true);
+            threads[s].start();
+        }
+    }
+
+    private int indexOf(OperationDSP operation) {
+        for (int i = 0; i < operations.length; i++)
+            if (operations[i] == operation)
+                return i;
+        throw new IllegalArgumentException("Input operation is not in graph");
+    }
+
+    /** @return true, если конвейер построен по текущему состоянию графа */
+    public boolean isBuiltFrom(ProcessingGraph graph) {
+        return graph.getOperations() == graphOperations;
+    }
+
+    /** Задать обработчик обработанных кадров (null - без обработчика) */
+    public void setFrameListener(FrameListener listener) {
+        this.listener = listener;
+    }
+
+    /** Передать в конвейер очередной кадр: выполнение источников в вызывающем потоке и
+     * постановка кадра в очередь первой ступени. Если в обработке уже {@link #getDepth()} кадров,
+     * метод ждёт освобождения кадра. Вызывается из одного потока.
+     * @return false, если конвейер остановлен ({@link #shutdown()}) и кадр не принят
+     * @throws InterruptedException если ожидание прервано
+     */
+    public boolean submit() throws InterruptedException {
+        Frame frame = null;
+        // ожидание с проверкой остановки: остановленный конвейер может не вернуть кадры
+        while (frame == null && !stopped)
+            frame = freeFrames.poll(SUBMIT_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (stopped) {
+            if (frame != null)
+                freeFrames.offer(frame);
+            return false;
+        }
+        long start = System.nanoTime();
+        frame.number = submitted++;
+        for (int i : sources)
+            execute(i, frame);
+        busyNanos[0].addAndGet(System.nanoTime() - start);
+        if (stageOperations.length == 0)
+            publish(frame);
+        else
+            queues[1].put(frame);
+        return true;
+    }
+
+    private void runStage(int stage) {
+        int operation = stageOperations[stage - 1];
+        boolean last = stage == stageOperations.length;
+        Frame frame = null;
+        try {
+            while (true) {
+                frame = queues[stage].take();
+                long start = System.nanoTime();
+                try {
+                    execute(operation, frame);
+                } catch (RuntimeException e) {
+                    // ошибка одной операции не должна останавливать конвейер
+                    frame.produced[operation] = false;
+                    RadarBox.logger.add(this, operations[operation].getName() + ": "
+                            + e.getLocalizedMessage());
+                }
+                busyNanos[stage].addAndGet(System.nanoTime() - start);
+                if (last)
+                    publish(frame);
+                else
+                    queues[stage + 1].put(frame);
+                frame = null;
+            }
+        } catch (InterruptedException e) {
+            // конвейер остановлен: кадр, который обрабатывала ступень, возвращается в свободные
+            if (frame != null)
+                freeFrames.offer(frame);
+        }
+    }
+
+    /** Выполнение операции для кадра, если все её входы выдали новые сигналы */
+    private void execute(int i, Frame frame) {
+        frame.produced[i] = false;
+        for (int input : inputs[i])
+            if (!frame.produced[input])
+                return;
+        OperationDSP operation = operations[i];
+        if (inputs[i].length == 1)
+            operation.setInputSignals(frame.outputs[inputs[i][0]]);
+        else if (inputs[i].length > 1) {
+            ArrayList<ComplexSignal> merged = mergedInputs[i];
+            merged.clear();
+            for (int input : inputs[i])
+                merged.addAll(frame.outputs[input]);
+            operation.setInputSignals(merged);
+        }
+        OperationProfiler.Entry entry = entries[i];
+        if (entry == null)
+            operation.doOperation();
+        else {
+            long start = entry.begin();
+            operation.doOperation();
+            entry.end(start);
+        }
+        if (!operation.hasNewOutput())
+            return;
+        if (copied[i])
+            copySignals(operation.getOutputSignals(), frame.outputs[i]);
+        frame.produced[i] = true;
+    }
+
+    /** Копирование сигналов в буферы (кадра, снимка); буферы пересоздаются только при изменении
+     * количества или длины сигналов */
+    static void copySignals(ArrayList<ComplexSignal> source,
+                                    ArrayList<ComplexSignal> destination) {
+        while (destination.size() > source.size())
+            destination.remove(destination.size() - 1);
+        for (int k = 0; k < source.size(); k++) {
+            ComplexSignal from = source.get(k);
+            if (k == destination.size())
+                destination.add(new ComplexSignal(from.getLength()));
+            else if (destination.get(k).getLength() != from.getLength())
+                destination.set(k, new ComplexSignal(from.getLength()));
+            ComplexSignal to = destination.get(k)
+                    .setName(from.getName())
+                    .setSharedX(from.getX())
+                    .setUnitsX(from.getUnitsX())
+                    .setUnitsY(from.getUnitsY())
+                    .setSamplesOrder(from.getSamplesOrder());
+            System.arraycopy(from.getData(), 0, to.getData(), 0, 2*from.getLength());
+        }
+    }
+
+    /** Публикация кадра: копирование выходов в снимок и освобождение кадра. Выходы операций,
+     * не выдавших на этом кадре новых сигналов, остаются в снимке от предыдущих кадров */
+    private void publish(Frame frame) {
+        long number = frame.number;
+        synchronized (published) {
+            for (int i : stageOperations)
+                if (frame.produced[i])
+                    copySignals(frame.outputs[i], published[i]);
+        }
+        // очередь свободных кадров рассчитана на все кадры, поэтому место всегда есть
+        freeFrames.offer(frame);
+        publishedCount = number + 1;
+        FrameListener listener = this.listener;
+        if (listener != null)
+            listener.onFrameProcessed(number);
+    }
+
+    /** Копирование опубликованных выходов операции (последнего кадра, прошедшего все ступени)
+     * в буферы вызывающего. Буферы пересоздаются только при изменении количества или длины
+     * сигналов.
+     * @param operation операция графа, выполняемая в одной из ступеней
+     * @param destination буферы для копии
+     * @return false, если операция не выполняется в ступенях конвейера или ещё не опубликовала
+     * сигналы
+     */
+    public boolean copyPublishedSignals(OperationDSP operation,
+                                        ArrayList<ComplexSignal> destination) {
+        for (int i : stageOperations) {
+            if (operations[i] != operation)
+                continue;
+            synchronized (published) {
+                if (published[i].isEmpty())
+                    return false;
+                copySignals(published[i], destination);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Остановка потоков ступеней. Кадры в обработке отбрасываются и возвращаются в свободные,
+     * ожидание в {@link #submit()} завершается. Метод ждёт завершения операций, выполняемых в
+     * момент вызова, чтобы новый конвейер по тем же операциям не выполнял их одновременно
+     * со старым */
+    public void shutdown() {
+        stopped = true;
+        for (Thread thread : threads)
+            if (thread != null)
+                thread.interrupt();
+        for (Thread thread : threads) {
+            if (thread == null || thread == Thread.currentThread())
+                continue;
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (ArrayBlockingQueue<Frame> queue : queues)
+            if (queue != null)
+                queue.drainTo(freeFrames);
+    }
+
+    /** @return true, если конвейер остановлен */
+    public boolean isShutdown() {return stopped;}
+
+    /** @return наибольшее количество кадров в обработке */
+    public int getDepth() {return depth;}
+
+    /** @return количество кадров, находящихся в обработке сейчас */
+    public int getInFlight() {return depth - freeFrames.size();}
+
+    /** @return количество опубликованных кадров */
+    public long getPublishedCount() {return publishedCount;}
+
+    /** @return количество ступеней, включая нулевую (источники в потоке {@link #submit()}) */
+    public int getStageCount() {return threads.length;}
+
+    /** @return название ступени: имя операции, для нулевой ступени - имена источников */
+    public String getStageName(int stage) {
+        if (stage > 0)
+            return operations[stageOperations[stage - 1]].getName();
+        StringBuilder name = new StringBuilder();
+        for (int i : sources)
+            name.append(name.length() == 0 ? "" : "+").append(operations[i].getName());
+        return name.toString();
+    }
+
+    /** @return доля времени с последнего сброса статистики, в течение которой ступень выполняла
+     * операцию (0..1). Ступень с наибольшей загрузкой - узкое место конвейера */
+    public float getOccupancy(int stage) {
+        long elapsed = System.nanoTime() - statisticsStart;
+        return elapsed > 0 ? (float) busyNanos[stage].get()/elapsed : 0;
+    }
+
+    /** @return количество кадров во входной очереди ступени */
+    public int getQueueLength(int stage) {
+        return stage > 0 ? queues[stage].size() : 0;
+    }
+
+    /** Сброс статистики загрузки ступеней */
+    public void resetStatistics() {
+        for (AtomicLong busy : busyNanos)
+            busy.set(0);
+        statisticsStart = System.nanoTime();
+    }
+
+    /** @return сводка по ступеням: название, загрузка в процентах и длина входной очереди */
+    public String getStatistics() {
+        StringBuilder statistics = new StringBuilder(String.format(Locale.US,
+                "depth %d, in flight %d", depth, getInFlight()));
+        for (int s = 0; s < getStageCount(); s++)
+            statistics.append(String.format(Locale.US, "\n%s: %.0f%%, queue %d",
+                    getStageName(s), 100*getOccupancy(s), getQueueLength(s)));
+        return statistics.toString();
+    }
+}
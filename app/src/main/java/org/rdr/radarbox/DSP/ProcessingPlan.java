@@ -0,0 +1,302 @@
+package org.rdr.radarbox.DSP;
+
+import android.util.Xml;
+
+import org.rdr.radarbox.DSP.Operations.OperationDSP;
+import org.rdr.radarbox.DSP.Operations.OperationFFT;
+import org.rdr.radarbox.DSP.Operations.OperationNUFFT;
+import org.rdr.radarbox.DSP.Operations.OperationRangeDoppler;
+import org.rdr.radarbox.DSP.Operations.OperationZoomFFT;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+
+/** Скомпилированный план обработки для одного устройства: граф операций
+ * {@link ProcessingGraph}, построенный по файлу {@link #FILE_NAME} из папки assets устройства. <p>
+ * Файл описывает параметры БПФ (элемент {@code fft}: параметр {@code fftN}, окно
+ * {@code window}, {@code zoom}) и, при необходимости, сам граф (элемент {@code pipeline}):
+ * <pre>
+ * &lt;pipeline&gt;
+ *     &lt;operation type="background"/&gt;
+ *     &lt;operation type="stacking"/&gt;
+ *     &lt;operation type="fft" id="spectrum"/&gt;
+ *     &lt;operation type="snr" input="signals"/&gt;
+ * &lt;/pipeline&gt;
+ * </pre>
+ * Типы операций: background, stacking, fft (Zoom FFT, если он включён в {@code zoom}),
+ * zoom_fft, nufft (атрибут points - количество точек), snr, range_doppler (карта
+ * дальность-доплер по последним кадрам: атрибуты frames - количество кадров, window - окно по
+ * медленному времени hann или none). Вход операции - атрибут input
+ * (идентификаторы через запятую, {@link #SOURCE_ID} - сигналы {@link FreqSignals}), по
+ * умолчанию - предыдущая операция. Идентификатор - атрибут id, по умолчанию тип операции.
+ * Входы должны быть объявлены раньше, поэтому граф всегда ацикличный. Если элемента
+ * {@code pipeline} нет, строится граф по умолчанию (как в примере выше).
+ * <p>
+ * Вычитание фона, накопление и оценка ОСШ - общие для всех планов операции {@link Processing}
+ * с настройками пользователя, операции БПФ создаются для каждого плана. План проверяется и
+ * компилируется при загрузке, буферы операций выделяются заранее ({@link #prepare(int, float[])}),
+ * поэтому переключение между уже загруженными планами не создаёт объектов.
+ */
+public class ProcessingPlan {
+    /** Имя файла плана в папке assets устройства */
+    public static final String FILE_NAME = "processing.xml";
+    /** Идентификатор сигналов {@link FreqSignals} - входа графа */
+    public static final String SOURCE_ID = "signals";
+    /** Количество точек БПФ, если оно не задано в файле */
+    public static final int DEFAULT_FFT_LENGTH = 512;
+
+    private final String devicePrefix;
+    private final ProcessingGraph graph = new ProcessingGraph();
+    /** Окно из файла либо null, если не задано */
+    private Window.Type windowType = null;
+    private float windowParameter = 0;
+    private int fftLength = DEFAULT_FFT_LENGTH;
+    /** Zoom FFT вместо полного БПФ, если он включён в файле, иначе null */
+    private OperationZoomFFT zoom = null;
+    /** Объявления операций элемента pipeline: атрибуты и строка файла */
+    private final ArrayList<HashMap<String, String>> declarations = new ArrayList<>();
+
+    private ProcessingPlan(String devicePrefix) {
+        this.devicePrefix = devicePrefix;
+    }
+
+    /** План по умолчанию: вычитание фона, накопление, БПФ на {@link #DEFAULT_FFT_LENGTH} точек
+     * и оценка ОСШ по сырым сигналам.
+     * @param devicePrefix префикс устройства, для которого создаётся план
+     * @param source операция-источник сигналов
+     * @param processing владелец общих операций и окна
+     */
+    public static ProcessingPlan createDefault(String devicePrefix, OperationDSP source,
+                                               Processing processing) {
+        ProcessingPlan plan = new ProcessingPlan(devicePrefix);
+        plan.build(source, processing);
+        return plan;
+    }
+
+    /** Чтение, проверка и компиляция плана.
+     * @param devicePrefix префикс устройства
+     * @param in содержимое файла {@link #FILE_NAME}
+     * @param source операция-источник сигналов
+     * @param processing владелец общих операций и окна
+     * @throws IllegalArgumentException если в файле неверная операция, вход или параметр
+     *                                  (с номером строки)
+     */
+    public static ProcessingPlan load(String devicePrefix, InputStream in, OperationDSP source,
+                                      Processing processing)
+            throws XmlPullParserException, IOException {
+        ProcessingPlan plan = new ProcessingPlan(devicePrefix);
+        plan.read(in);
+        plan.build(source, processing);
+        return plan;
+    }
+
+    private void read(InputStream in) throws XmlPullParserException, IOException {
+        XmlPullParser parser = Xml.newPullParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+        parser.setInput(in, null);
+        ArrayDeque<String> path = new ArrayDeque<>();
+        while (parser.next() != XmlPullParser.END_DOCUMENT) {
+            if (parser.getEventType() == XmlPullParser.END_TAG) {
+                path.pop();
+                continue;
+            }
+            if (parser.getEventType() != XmlPullParser.START_TAG)
+                continue;
+            String parent = path.isEmpty() ? "" : path.peek();
+            String name = parser.getName();
+            path.push(name);
+            try {
+                if (name.equals("window")) {
+                    String parameter = parser.getAttributeValue(null, "parameter");
+                    windowType = Window.parseType(parser.getAttributeValue(null, "type"));
+                    windowParameter = parameter == null ? 0 : Float.parseFloat(parameter);
+                }
+                else if (name.equals("zoom")) {
+                    readZoom(parser);
+                }
+                else if (name.equals("integer_parameter") && parent.equals("fft")
+                        && "fftN".equals(parser.getAttributeValue(null, "id"))) {
+                    fftLength = readFftLength(parser);
+                }
+                else if (name.equals("operation") && parent.equals("pipeline")) {
+                    HashMap<String, String> attributes = new HashMap<>();
+                    for (int i = 0; i < parser.getAttributeCount(); i++)
+                        attributes.put(parser.getAttributeName(i), parser.getAttributeValue(i));
+                    attributes.put("line", Integer.toString(parser.getLineNumber()));
+                    declarations.add(attributes);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("line " + parser.getLineNumber() + ": "
+                        + e.getLocalizedMessage());
+            }
+        }
+    }
+
+    /** Элемент {@code <zoom enabled="true" tMin="..." tMax="..." points="..."/>}, не заданные
+     * атрибуты остаются по умолчанию */
+    private void readZoom(XmlPullParser parser) {
+        if (!Boolean.parseBoolean(parser.getAttributeValue(null, "enabled"))) {
+            zoom = null;
+            return;
+        }
+        OperationZoomFFT operation = new OperationZoomFFT();
+        String tMin = parser.getAttributeValue(null, "tMin");
+        String tMax = parser.getAttributeValue(null, "tMax");
+        String points = parser.getAttributeValue(null, "points");
+        operation.setRange(tMin == null ? operation.getTMin() : Float.parseFloat(tMin),
+                tMax == null ? operation.getTMax() : Float.parseFloat(tMax),
+                points == null ? operation.getPointCount() : Integer.parseInt(points));
+        zoom = operation;
+    }
+
+    /** Параметр {@code fftN} в формате параметров устройства: значение value, если задано,
+     * иначе def; проверяются пределы min и max */
+    private static int readFftLength(XmlPullParser parser) {
+        String radixString = parser.getAttributeValue(null, "radix");
+        int radix = radixString == null ? 10 : Integer.parseInt(radixString);
+        String value = parser.getAttributeValue(null, "value");
+        if (value == null)
+            value = parser.getAttributeValue(null, "def");
+        if (value == null)
+            throw new IllegalArgumentException("fftN has no value");
+        int length = Integer.parseInt(value.trim(), radix);
+        String min = parser.getAttributeValue(null, "min");
+        String max = parser.getAttributeValue(null, "max");
+        if (length < 1 || (min != null && length < Integer.parseInt(min.trim(), radix))
+                || (max != null && length > Integer.parseInt(max.trim(), radix)))
+            throw new IllegalArgumentException("fftN out of range: " + value);
+        return length;
+    }
+
+    /** Построение и компиляция графа по объявлениям (либо графа по умолчанию) */
+    private void build(OperationDSP source, Processing processing) {
+        if (declarations.isEmpty()) {
+            for (String type : new String[]{"background", "stacking", "fft", "snr"}) {
+                HashMap<String, String> attributes = new HashMap<>();
+                attributes.put("type", type);
+                if (type.equals("snr"))
+                    attributes.put("input", SOURCE_ID);
+                declarations.add(attributes);
+            }
+        }
+        HashMap<String, OperationDSP> operations = new HashMap<>();
+        operations.put(SOURCE_ID, source);
+        graph.addOperation(source);
+        String previous = SOURCE_ID;
+        for (HashMap<String, String> declaration : declarations) {
+            String line = declaration.containsKey("line") ?
+                    "line " + declaration.get("line") + ": " : "";
+            String type = declaration.get("type");
+            if (type == null)
+                throw new IllegalArgumentException(line + "operation has no type");
+            String id = declaration.containsKey("id") ? declaration.get("id").trim() : type;
+            if (operations.containsKey(id))
+                throw new IllegalArgumentException(line + "duplicate operation id " + id);
+            OperationDSP operation;
+            try {
+                operation = create(type.trim().toLowerCase(Locale.US), declaration, processing);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(line + e.getLocalizedMessage());
+            }
+            if (graph.contains(operation))
+                throw new IllegalArgumentException(line + "operation " + type
+                        + " can be used only once");
+            String[] inputIds = declaration.containsKey("input") ?
+                    declaration.get("input").split(",") : new String[]{previous};
+            OperationDSP[] inputs = new OperationDSP[inputIds.length];
+            for (int i = 0; i < inputIds.length; i++) {
+                inputs[i] = operations.get(inputIds[i].trim());
+                if (inputs[i] == null)
+                    throw new IllegalArgumentException(line + "unknown input " + inputIds[i].trim()
+                            + " of operation " + id);
+            }
+            graph.addOperation(operation, inputs);
+            operations.put(id, operation);
+            previous = id;
+        }
+        declarations.clear();
+    }
+
+    private OperationDSP create(String type, HashMap<String, String> declaration,
+                                Processing processing) {
+        switch (type) {
+            case "background":
+                return processing.getBackground();
+            case "stacking":
+                return processing.getStacking();
+            case "snr":
+                return processing.getSNR();
+            case "fft":
+                if (zoom != null)
+                    return createZoom(processing);
+                OperationFFT fft = new OperationFFT();
+                fft.setParameters(fftLength);
+                fft.setFftBatch(processing.getFftBatch());
+                fft.setWindow(processing.getWindow());
+                return fft;
+            case "zoom_fft":
+                return createZoom(processing);
+            case "nufft":
+                OperationNUFFT nufft = new OperationNUFFT();
+                String points = declaration.get("points");
+                nufft.setParameters(points == null ? fftLength : Integer.parseInt(points.trim()));
+                nufft.setWindow(processing.getWindow());
+                return nufft;
+            case "range_doppler":
+                OperationRangeDoppler rangeDoppler = new OperationRangeDoppler();
+                String frames = declaration.get("frames");
+                String window = declaration.get("window");
+                String parameters = frames == null ?
+                        String.valueOf(OperationRangeDoppler.DEFAULT_FRAME_COUNT) : frames.trim();
+                if (window != null)
+                    parameters += "," + window.trim();
+                rangeDoppler.setParameters(parameters);
+                return rangeDoppler;
+            default:
+                throw new IllegalArgumentException("unknown operation type " + type);
+        }
+    }
+
+    private OperationZoomFFT createZoom(Processing processing) {
+        OperationZoomFFT operation = new OperationZoomFFT();
+        if (zoom != null)
+            operation.setRange(zoom.getTMin(), zoom.getTMax(), zoom.getPointCount());
+        operation.setWindow(processing.getWindow());
+        return operation;
+    }
+
+    /** Заранее выделить буферы всех операций плана для сигналов заданной конфигурации.
+     * Операции, у которых размеры не изменились, ничего не выделяют.
+     * @param channels количество каналов (rxN*txN)
+     * @param axisMHz ось частот сигналов {@link FreqSignals#getFrequencyAxis()}
+     */
+    public void prepare(int channels, float[] axisMHz) {
+        if (channels < 1 || axisMHz == null || axisMHz.length == 0)
+            return;
+        ArrayList<ComplexSignal> template = new ArrayList<>();
+        for (int i = 0; i < channels; i++)
+            template.add(new ComplexSignal(axisMHz.length).setSharedX(axisMHz).setUnitsX("MHz"));
+        graph.prepare(template);
+    }
+
+    /** @return префикс устройства плана */
+    public String getDevicePrefix() {return devicePrefix;}
+
+    /** @return граф обработки плана */
+    public ProcessingGraph getGraph() {return graph;}
+
+    /** @return окно из файла либо null, если оно не задано */
+    public Window.Type getWindowType() {return windowType;}
+
+    /** @return параметр окна из файла */
+    public float getWindowParameter() {return windowParameter;}
+
+    /** @return количество точек БПФ */
+    public int getFftLength() {return fftLength;}
+}
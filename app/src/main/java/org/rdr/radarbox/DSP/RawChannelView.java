@@ -0,0 +1,354 @@
+package org.rdr.radarbox.DSP;
+
+import org.rdr.radarbox.Device.DeviceRawDataAdapter;
+
+/** Представление (view) одного приёмо-передающего канала внутри кадра сырых частотных данных.
+ * <p>
+ * Вместо копирования данных канала в отдельный массив хранится только ссылка на массив кадра,
+ * смещение первого отсчёта канала и шаг между соседними частотными точками. Отсчёты канала
+ * читаются прямо из кадра: f-я частотная точка лежит по индексам
+ * {@code offset + f*stride} (re) и {@code offset + f*stride + 1} (im).
+ * <p>
+ * Таблица представлений для всех каналов строится один раз при изменении конфигурации
+ * ({@link #buildLayout(short[], int[][], int, DeviceRawDataAdapter.DimensionOrder)}),
+ * а не на каждом кадре.
+ */
+public class RawChannelView {
+    private final short[] frame;
+    private final int rx, tx;
+    private final int offset, stride, length;
+    private final boolean enabled;
+
+    RawChannelView(short[] frame, int rx, int tx, int offset, int stride, int length,
+                   boolean enabled) {
+        this.frame = frame;
+        this.rx = rx; this.tx = tx;
+        this.offset = offset; this.stride = stride; this.length = length;
+        this.enabled = enabled;
+    }
+
+    /** @return массив кадра, в котором лежат отсчёты канала */
+    public short[] getFrame() {return frame;}
+    /** @return номер приёмника, начиная с нуля */
+    public int getRx() {return rx;}
+    /** @return номер передатчика, начиная с нуля */
+    public int getTx() {return tx;}
+    /** @return индекс действительной части первого отсчёта канала в кадре */
+    public int getOffset() {return offset;}
+    /** @return шаг в отсчётах типа short между соседними частотными точками канала */
+    public int getStride() {return stride;}
+    /** @return количество частотных точек канала */
+    public int getLength() {return length;}
+    /** @return false, если канал отключён и его данных нет в кадре */
+    public boolean isEnabled() {return enabled;}
+
+    /** @return действительная часть f-й частотной точки (0, если канал отключён) */
+    public short getRe(int f) {return enabled ? frame[offset + f*stride] : 0;}
+    /** @return мнимая часть f-й частотной точки (0, если канал отключён) */
+    public short getIm(int f) {return enabled ? frame[offset + f*stride + 1] : 0;}
+
+    /** Копирует отсчёты канала в массив в формате (re, im, re, im...).
+     * Если канал отключён, массив заполняется нулями.
+     * @param dest массив размера не меньше 2*{@link #getLength()}
+     */
+    public void copyTo(short[] dest) {
+        if (!enabled) {
+            for (int i = 0; i < 2*length; i++) dest[i] = 0;
+            return;
+        }
+        if (stride == 2) {
+            System.arraycopy(frame, offset, dest, 0, 2*length);
+            return;
+        }
+        for (int f = 0, src = offset; f < length; f++, src += stride) {
+            dest[2*f] = frame[src];
+            dest[2*f+1] = frame[src+1];
+        }
+    }
+
+    /** Преобразует отсчёты канала в float за один проход по кадру.
+     * Если канал отключён, массив заполняется нулями.
+     * @param dest массив размера не меньше 2*{@link #getLength()} в формате (re, im, re, im...)
+     */
+    public void copyTo(float[] dest) {
+        if (!enabled) {
+            for (int i = 0; i < 2*length; i++) dest[i] = 0;
+            return;
+        }
+        for (int f = 0, src = offset; f < length; f++, src += stride) {
+            dest[2*f] = frame[src];
+            dest[2*f+1] = frame[src+1];
+        }
+    }
+
+    /** Преобразует отсчёты канала в float с умножением на комплексные калибровочные
+     * коэффициенты за один проход по кадру: dest[f] = x[f]*c[f].
+     * Если канал отключён, массив заполняется нулями.
+     * @param dest массив размера не меньше 2*{@link #getLength()} в формате (re, im, re, im...)
+     * @param coefficients коэффициенты в формате (re, im, re, im...) размера не меньше
+     *                     2*{@link #getLength()}; null - без умножения
+     */
+    public void copyTo(float[] dest, float[] coefficients) {
+        if (coefficients == null || !enabled) {
+            copyTo(dest);
+            return;
+        }
+        for (int f = 0, src = offset; f < length; f++, src += stride) {
+            float re = frame[src], im = frame[src+1];
+            float cr = coefficients[2*f], ci = coefficients[2*f+1];
+            dest[2*f] = re*cr - im*ci;
+            dest[2*f+1] = re*ci + im*cr;
+        }
+    }
+
+    /** Слитное чтение отсчётов канала для БПФ: перевод в float, умножение на калибровочные
+     * коэффициенты и на окно и дополнение нулями за один проход по кадру.
+     * Если канал отключён, отсчёты считаются нулевыми.
+     * @param fftBuffer буфер БПФ в формате (re, im, re, im...): первые count точек -
+     *                  взвешенные отсчёты, остальные - нули
+     * @param coefficients калибровочные коэффициенты в формате (re, im, re, im...) размера
+     *                     не меньше 2*{@link #getLength()}; null - без умножения
+     * @param window коэффициенты окна длины не меньше count; null - без взвешивания
+     * @param count количество отсчётов в буфере БПФ, не больше {@link #getLength()}
+     * @param signal массив, в который в том же проходе записываются откалиброванные отсчёты
+     *               канала без окна (все {@link #getLength()} точек); null - не записываются
+     */
+    public void copyWindowedTo(float[] fftBuffer, float[] coefficients, float[] window,
+                               int count, float[] signal) {
+        int f = 0;
+        for (int src = offset; f < count; f++, src += stride) {
+            float re = enabled ? frame[src] : 0, im = enabled ? frame[src+1] : 0;
+            if (coefficients != null) {
+                float cr = coefficients[2*f], ci = coefficients[2*f+1];
+                float t = re*cr - im*ci;
+                im = re*ci + im*cr;
+                re = t;
+            }
+            if (signal != null) {
+                signal[2*f] = re;
+                signal[2*f+1] = im;
+            }
+            float w = window != null ? window[f] : 1;
+            fftBuffer[2*f] = re*w;
+            fftBuffer[2*f+1] = im*w;
+        }
+        for (int j = 2*count; j < fftBuffer.length; j++)
+            fftBuffer[j] = 0;
+        if (signal == null || f >= length)
+            return;
+        // точки после конца буфера БПФ нужны только в сигнале канала
+        for (int src = offset + f*stride; f < length; f++, src += stride) {
+            float re = enabled ? frame[src] : 0, im = enabled ? frame[src+1] : 0;
+            if (coefficients != null) {
+                float cr = coefficients[2*f], ci = coefficients[2*f+1];
+                float t = re*cr - im*ci;
+                im = re*ci + im*cr;
+                re = t;
+            }
+            signal[2*f] = re;
+            signal[2*f+1] = im;
+        }
+    }
+
+    /** Чтение отсчётов канала для БПФ в фиксированной точке ({@link FixedFftPlan}): умножение
+     * на комплексные весовые коэффициенты в формате Q15 и дополнение нулями без перевода во
+     * float. Сдвиг произведения выбирается по наибольшему отсчёту канала: старшие разряды буфера
+     * используются и для слабого сигнала, и переполнения нет.
+     * Если канал отключён, отсчёты считаются нулевыми.
+     * @param fftBuffer буфер БПФ в формате (re, im, re, im...): первые count точек -
+     *                  (x*weight)/2^shift с округлением, остальные - нули
+     * @param weights весовые коэффициенты (калибровка и окно) в формате Q15 (re, im...),
+     *                модуль каждого не больше 2^14 (с точностью до округления компонент);
+     *                null - отсчёты копируются без умножения
+     * @param count количество отсчётов в буфере БПФ, не больше {@link #getLength()}
+     * @return сдвиг shift (0, если weights равны null)
+     */
+    public int copyWeightedTo(short[] fftBuffer, short[] weights, int count) {
+        if (!enabled)
+            count = 0;
+        int shift = 0;
+        if (weights == null) {
+            for (int f = 0, src = offset; f < count; f++, src += stride) {
+                fftBuffer[2*f] = frame[src];
+                fftBuffer[2*f+1] = frame[src+1];
+            }
+        }
+        else {
+            int max = 0;
+            for (int f = 0, src = offset; f < count; f++, src += stride)
+                max = Math.max(max, Math.max(Math.abs(frame[src]), Math.abs(frame[src+1])));
+            // модуль компоненты произведения не больше max*(|wr|+|wi|) <= max*2^14*sqrt(2)
+            // (с запасом на округление весов)
+            long bound = max * 23172L;
+            shift = Math.max(0, 64 - Long.numberOfLeadingZeros(bound) - 15);
+            // с прибавкой округления результат тоже должен помещаться в short: 32768 при
+            // приведении типа превратилось бы в -32768
+            while (((bound + ((1L << shift) >> 1)) >> shift) > Short.MAX_VALUE)
+                shift++;
+            int round = shift > 0 ? 1 << (shift - 1) : 0;
+            for (int f = 0, src = offset; f < count; f++, src += stride) {
+                int re = frame[src], im = frame[src+1];
+                int wr = weights[2*f], wi = weights[2*f+1];
+                fftBuffer[2*f] = (short) ((re*wr - im*wi + round) >> shift);
+                fftBuffer[2*f+1] = (short) ((re*wi + im*wr + round) >> shift);
+            }
+        }
+        for (int j = 2*count; j < fftBuffer.length; j++)
+            fftBuffer[j] = 0;
+        return shift;
+    }
+
+    /** Приближённые модули отсчётов канала в целых числах ({@link FixedFftPlan#magnitude(int,
+     * int)}, погрешность до 3%) - для отображения без вычисления корня.
+     * @param dest массив размера не меньше {@link #getLength()}
+     */
+    public void copyAbsApproxTo(float[] dest) {
+        if (!enabled) {
+            for (int f = 0; f < length; f++) dest[f] = 0;
+            return;
+        }
+        for (int f = 0, src = offset; f < length; f++, src += stride)
+            dest[f] = FixedFftPlan.magnitude(frame[src], frame[src+1]);
+    }
+
+    /** Копирует действительные части отсчётов канала в массив типа short.
+     * Если канал отключён, соответствующий участок заполняется нулями.
+     * @param dest массив назначения
+     * @param destOffset индекс в dest, с которого записываются {@link #getLength()} отсчётов
+     */
+    public void copyReTo(short[] dest, int destOffset) {
+        if (!enabled) {
+            for (int f = 0; f < length; f++) dest[destOffset+f] = 0;
+            return;
+        }
+        for (int f = 0, src = offset; f < length; f++, src += stride)
+            dest[destOffset+f] = frame[src];
+    }
+
+    /** Переводит действительные части отсчётов канала в float.
+     * @param dest массив размера не меньше {@link #getLength()}
+     */
+    public void copyReTo(float[] dest) {
+        if (!enabled) {
+            for (int f = 0; f < length; f++) dest[f] = 0;
+            return;
+        }
+        for (int f = 0, src = offset; f < length; f++, src += stride)
+            dest[f] = frame[src];
+    }
+
+    /** Переводит мнимые части отсчётов канала в float.
+     * @param dest массив размера не меньше {@link #getLength()}
+     */
+    public void copyImTo(float[] dest) {
+        if (!enabled) {
+            for (int f = 0; f < length; f++) dest[f] = 0;
+            return;
+        }
+        for (int f = 0, src = offset + 1; f < length; f++, src += stride)
+            dest[f] = frame[src];
+    }
+
+    /** Вычисляет модули отсчётов канала.
+     * @param dest массив размера не меньше {@link #getLength()}
+     */
+    public void copyAbsTo(float[] dest) {
+        copyAbsTo(dest, ComplexMath.Accuracy.EXACT);
+    }
+
+    /** Вычисляет модули отсчётов канала с заданной точностью ({@link ComplexMath}).
+     * @param dest массив размера не меньше {@link #getLength()}
+     * @param accuracy точность; {@link ComplexMath.Accuracy#FAST} - для графиков
+     */
+    public void copyAbsTo(float[] dest, ComplexMath.Accuracy accuracy) {
+        if (!enabled) {
+            for (int f = 0; f < length; f++) dest[f] = 0;
+            return;
+        }
+        for (int f = 0, src = offset; f < length; f++, src += stride)
+            dest[f] = ComplexMath.abs(frame[src], frame[src+1], accuracy);
+    }
+
+    /** Строит представления всех каналов для кадра с заданным порядком измерений.
+     * <p>
+     * В кадре присутствуют только включённые каналы (ненулевые элементы {@code rxtxOrder}).
+     * Каналы нумеруются как {@code tx*rxN + rx}, так же, как в
+     * {@link FreqSignals#getRawFreqOneChannelSignal(int, short[])}.
+     *
+     * @param frame массив кадра с комплексными отсчётами
+     * @param rxtxOrder матрица переключений каналов [rxN][txN], 0 - канал отключён
+     * @param FN количество частотных точек
+     * @param dimensionOrder порядок измерений в кадре
+     * @return массив представлений размера rxN*txN
+     */
+    public static RawChannelView[] buildLayout(short[] frame, int[][] rxtxOrder, int FN,
+                                               DeviceRawDataAdapter.DimensionOrder dimensionOrder) {
+        int rxN = rxtxOrder.length;
+        int txN = rxN == 0 ? 0 : rxtxOrder[0].length;
+        int chN = 0;
+        for (int r = 0; r < rxN; r++)
+            for (int t = 0; t < txN; t++)
+                if (rxtxOrder[r][t] != 0) chN++;
+
+        RawChannelView[] views = new RawChannelView[rxN*txN];
+        for (int tx = 0; tx < txN; tx++) {
+            for (int rx = 0; rx < rxN; rx++) {
+                if (rxtxOrder[rx][tx] == 0) {
+                    views[tx*rxN + rx] = new RawChannelView(frame, rx, tx, 0, 0, FN, false);
+                    continue;
+                }
+                // номер канала среди включённых: передатчик - старший индекс, приёмник - младший
+                int txMajor = 0;
+                for (int t = 0; t < txN; t++)
+                    for (int r = 0; r < rxN; r++)
+                        if (rxtxOrder[r][t] != 0 && (t < tx || (t == tx && r < rx))) txMajor++;
+                // номер канала среди включённых: приёмник - старший индекс, передатчик - младший
+                int rxMajor = 0;
+                for (int r = 0; r < rxN; r++)
+                    for (int t = 0; t < txN; t++)
+                        if (rxtxOrder[r][t] != 0 && (r < rx || (r == rx && t < tx))) rxMajor++;
+                // включённые каналы предыдущих передатчиков/приёмников и внутри текущего
+                int sumRt = 0, rt = 0, Rt = 0;
+                for (int t = 0; t < tx; t++)
+                    for (int r = 0; r < rxN; r++)
+                        if (rxtxOrder[r][t] != 0) sumRt++;
+                for (int r = 0; r < rxN; r++)
+                    if (rxtxOrder[r][tx] != 0) { Rt++; if (r < rx) rt++; }
+                int sumTr = 0, tr = 0, Tr = 0;
+                for (int r = 0; r < rx; r++)
+                    for (int t = 0; t < txN; t++)
+                        if (rxtxOrder[r][t] != 0) sumTr++;
+                for (int t = 0; t < txN; t++)
+                    if (rxtxOrder[rx][t] != 0) { Tr++; if (t < tx) tr++; }
+
+                int offset = 0, stride = 2;
+                switch (dimensionOrder) {
+                    case TF_RX_TX:
+                        offset = 2*FN*txMajor;
+                        break;
+                    case TF_TX_RX:
+                        offset = 2*FN*rxMajor;
+                        break;
+                    case RX_TF_TX:
+                        offset = 2*(FN*sumRt + rt);
+                        stride = 2*Rt;
+                        break;
+                    case TX_TF_RX:
+                        offset = 2*(FN*sumTr + tr);
+                        stride = 2*Tr;
+                        break;
+                    case RX_TX_TF:
+                        offset = 2*txMajor;
+                        stride = 2*chN;
+                        break;
+                    case TX_RX_TF:
+                        offset = 2*rxMajor;
+                        stride = 2*chN;
+                        break;
+                }
+                views[tx*rxN + rx] = new RawChannelView(frame, rx, tx, offset, stride, FN, true);
+            }
+        }
+        return views;
+    }
+}
@@ -0,0 +1,149 @@
+package org.rdr.radarbox.DSP;
+
+import androidx.annotation.NonNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** План прямого БПФ действительного сигнала чётной длины n. <p>
+ * n действительных отсчётов упаковываются в n/2 комплексных z[k] = x[2k] + i*x[2k+1]
+ * ({@link #pack(float[], int, int, int, float[])}), над ними выполняется комплексное БПФ длины
+ * n/2 планом {@link #getHalfPlan()}, после чего спектр распаковывается с поворачивающими
+ * множителями в полный комплексный спектр длины n ({@link #unpack(float[])}):
+ * <p>
+ * X[k] = (Z[k] + Z*[n/2-k])/2 - i*exp(-2*pi*i*k/n)*(Z[k] - Z*[n/2-k])/2,
+ * X[n-k] = X*[k].
+ * <p>
+ * Объём вычислений БПФ и рабочая память вдвое меньше, чем при комплексном БПФ длины n
+ * с нулевыми мнимыми частями. Все шаги выполняются на месте в одном массиве размера 2n.
+ * <p>
+ * Планы создаются только через {@link #get(int)} и хранятся в ограниченном потокобезопасном
+ * кэше. Объект плана неизменяемый и может одновременно использоваться несколькими потоками.
+ */
+public final class RealFftPlan {
+    /** Максимальное количество планов, хранящихся в кэше */
+    public static final int CACHE_CAPACITY = 8;
+
+    private static final Map<Integer, RealFftPlan> cache =
+            new LinkedHashMap<Integer, RealFftPlan>(CACHE_CAPACITY, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, RealFftPlan> eldest) {
+                    return size() > CACHE_CAPACITY;
+                }
+            };
+
+    private final int n;
+    private final FftPlan halfPlan;
+    /** Множители exp(-2*pi*i*k/n), k=0..n/2, в формате (re, im) */
+    private final float[] twiddle;
+
+    private RealFftPlan(int n) {
+        this.n = n;
+        int m = n/2;
+        halfPlan = FftPlan.get(m, false);
+        twiddle = new float[2*(m+1)];
+        for (int k = 0; k <= m; k++) {
+            double angle = -2*Math.PI*k/n;
+            twiddle[2*k] = (float) Math.cos(angle);
+            twiddle[2*k+1] = (float) Math.sin(angle);
+        }
+    }
+
+    /** Получение плана из кэша (план создаётся при первом запросе).
+     * @param n количество действительных отсчётов, чётное и не меньше 2
+     * @return план БПФ действительного сигнала
+     * @throws IllegalArgumentException если длина нечётная или меньше 2
+     */
+    public static RealFftPlan get(int n) {
+        if (n < 2 || n % 2 != 0)
+            throw new IllegalArgumentException("Real FFT length must be even and positive");
+        synchronized (cache) {
+            RealFftPlan plan = cache.get(n);
+            if (plan == null) {
+                plan = new RealFftPlan(n);
+                cache.put(n, plan);
+            }
+            return plan;
+        }
+    }
+
+    /** @return true, если для длины n есть план БПФ действительного сигнала */
+    public static boolean isSupported(int n) {
+        return n >= 2 && n % 2 == 0;
+    }
+
+    /** @return количество действительных отсчётов преобразования */
+    public int getLength() {return n;}
+
+    /** @return план комплексного БПФ длины n/2, выполняемого над упакованными отсчётами */
+    @NonNull
+    public FftPlan getHalfPlan() {return halfPlan;}
+
+    /** Полное преобразование: упаковка, БПФ длины n/2 и распаковка.
+     * @param src массив действительных отсчётов
+     * @param offset индекс первого отсчёта в src
+     * @param stride шаг между отсчётами в src (2 - действительные или мнимые части
+     *               комплексного массива в формате (re, im, re, im...))
+     * @param count количество отсчётов, берущихся из src (не больше n), остальные - нули
+     * @param dest массив спектра размера не меньше 2n в формате (re, im, re, im...).
+     *             Может совпадать с src, если offset не больше 1 и stride не меньше 2
+     */
+    public void execute(float[] src, int offset, int stride, int count, float[] dest) {
+        pack(src, offset, stride, count, dest);
+        halfPlan.execute(dest, 0);
+        unpack(dest);
+    }
+
+    /** Упаковка n действительных отсчётов в n/2 комплексных в первой половине массива dest.
+     * Параметры совпадают с {@link #execute(float[], int, int, int, float[])}.
+     */
+    public void pack(float[] src, int offset, int stride, int count, float[] dest) {
+        if (count > n) count = n;
+        // каждый отсчёт читается до записи на его место, поэтому src и dest могут совпадать
+        int i = 0;
+        for (int s = offset; i < count; i++, s += stride)
+            dest[i] = src[s];
+        for (; i < n; i++)
+            dest[i] = 0;
+    }
+
+    /** Распаковка результата БПФ длины n/2 (первые n элементов массива) в полный спектр
+     * действительного сигнала длины n (2n элементов массива).
+     * @param data массив размера не меньше 2n
+     */
+    public void unpack(float[] data) {
+        int m = n/2;
+        float[] w = twiddle;
+        // k = 0 и k = n/2: X[0] = Re(Z0) + Im(Z0), X[n/2] = Re(Z0) - Im(Z0)
+        float z0r = data[0], z0i = data[1];
+        data[0] = z0r + z0i;
+        data[1] = 0;
+        data[2*m] = z0r - z0i;
+        data[2*m+1] = 0;
+        // пары (k, n/2-k) обрабатываются вместе: оба значения Z читаются до записи
+        for (int k = 1; k <= m/2; k++) {
+            int j = m - k;
+            float ar = data[2*k], ai = data[2*k+1];
+            float cr = data[2*j], ci = data[2*j+1];
+            // X[k] из Z[k] и Z*[j]
+            float er = 0.5f*(ar + cr), ei = 0.5f*(ai - ci);
+            float dr = 0.5f*(ar - cr), di = 0.5f*(ai + ci);
+            float wr = w[2*k], wi = w[2*k+1];
+            float xkr = er + wr*di + wi*dr;
+            float xki = ei + wi*di - wr*dr;
+            // X[j] из Z[j] и Z*[k]
+            er = 0.5f*(cr + ar); ei = 0.5f*(ci - ai);
+            dr = 0.5f*(cr - ar); di = 0.5f*(ci + ai);
+            wr = w[2*j]; wi = w[2*j+1];
+            float xjr = er + wr*di + wi*dr;
+            float xji = ei + wi*di - wr*dr;
+
+            data[2*k] = xkr; data[2*k+1] = xki;
+            data[2*(n-k)] = xkr; data[2*(n-k)+1] = -xki;
+            if (j != k) {
+                data[2*j] = xjr; data[2*j+1] = xji;
+                data[2*(n-j)] = xjr; data[2*(n-j)+1] = -xji;
+            }
+        }
+    }
+}
@@ -14,20 +14,17 @@ import org.rdr.radarbox.RadarBox;
 /**
  * Класс для оценки отношения сигнал-шум. Внутри него можно получать актульную информацию об
  * актульаных средних значениях ОСШ {@link #getAvgSNR()},
- * о максимальном ОСШ {@link #getMaxSNR()}
+ * о максимальном ОСШ {@link #getMaxSNR()}. Сама оценка выполняется {@link SnrEstimator}
+ * по окну из nAccumulated последних кадров; вне интерфейса (в потоке обработки) нужно
+ * пользоваться {@link SnrEstimator} напрямую.
  * @author Козлов Роман Юрьевич
  * @version 0.1
  */
 
 public class SNR extends PreferenceFragmentCompat {
-    static int nAccumulated = 10;
+    static int nAccumulated = SnrEstimator.DEFAULT_FRAME_COUNT;
     static int nSnrAccumulated = 10;
-    float[][] accumulatedData;
-    float[] arrayAvgSNR;
-    static float maxSNR = 0;
-    static float avgSNR = 0;
-    static float[][] arraySNR;
-    private int iFrame = 0;
+    private SnrEstimator estimator;
 
     public SNR(int length){
         reinitSNR(length);
@@ -74,57 +71,35 @@ public class SNR extends PreferenceFragmentCompat {
     }
 
     public void reinitSNR(int nF){
-        accumulatedData = new float[nAccumulated][nF];
-        arrayAvgSNR = new float[nF];
+        estimator = new SnrEstimator(nAccumulated, nF);
     }
 
+    /** Добавление кадра и пересчёт ОСШ в скользящем окне из nAccumulated последних кадров,
+     * см. {@link SnrEstimator#calculateSNR(float[])}
+     * @param rawFreqFrame отсчёты кадра (например, модули) по частотам
+     */
     public void calculateSNR(float[] rawFreqFrame) {
-        int nF = rawFreqFrame.length;
-        if (nF!=arrayAvgSNR.length)
-            reinitSNR(nF);
-        // Raw Data Accumulation
-        for (int f = 0; f < nF; f++)
-            accumulatedData[iFrame][f] = rawFreqFrame[f];
-        iFrame++;
-        if (iFrame >= nAccumulated)
-            iFrame = 0;
-
-
-        // Null SNRs
-        for (int i = 0; i < nSnrAccumulated; i++)
-            arrayAvgSNR[i] = 0;
-
-        arraySNR = new float[nSnrAccumulated][nF];
-        // Variance Calculation
-        float mu;
-        for (int f = 0; f < nF; f++) {
-            // Mu
-            mu = 0;
-            for (int n = 0; n < nAccumulated; n++)
-                mu += accumulatedData[n][f];
-            mu /= nAccumulated;
-            // Variance
-//            for (int n = 0; n < nAccumulated; n++)
-//                arraySNR[iSNR][f] = (float) Math.pow((accumulatedData[n][f] - mu), 2);
-//            arraySNR[iSNR][f] /= nAccumulated - 1;
-//             Average SNR
-            for (int n=0; n<nAccumulated; n++)
-                arrayAvgSNR[f] += (float) Math.pow((accumulatedData[n][f] - mu), 2);
-            arrayAvgSNR[f] /= nAccumulated-1;
-            arrayAvgSNR[f] *= 5;
-//            iSNR++;
-//            if (iSNR >= nSnrAccumulated)
-//                iSNR = 0;
-        }
+        if (estimator.getFrameCount()!=nAccumulated)
+            reinitSNR(rawFreqFrame.length);
+        estimator.calculateSNR(rawFreqFrame);
+    }
+
+    /** @return количество кадров, по которым сейчас оценивается ОСШ */
+    public int getAccumulatedCount() {
+        return estimator.getAccumulatedCount();
     }
 
+    /** @return ОСШ средних мощностей по всем частотам, дБ */
     public float getAvgSNR() {
-        return avgSNR;
+        return estimator.getAvgSNR();
     }
+    /** @return максимальное по частотам ОСШ, дБ */
     public float getMaxSNR() {
-        return maxSNR;
+        return estimator.getMaxSNR();
     }
+    /** @return ОСШ по каждой частоте, дБ. Массив обновляется на месте при каждом вызове
+     * {@link #calculateSNR(float[])} */
     public float[] getArrayAvgSNR() {
-        return arrayAvgSNR;
+        return estimator.getArrayAvgSNR();
     }
 }
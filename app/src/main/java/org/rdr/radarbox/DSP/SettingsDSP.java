@@ -1,18 +1,27 @@
 package org.rdr.radarbox.DSP;
 
+import android.app.AlertDialog;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.graphics.Typeface;
 import android.os.Bundle;
+import android.util.TypedValue;
+import android.widget.ScrollView;
+import android.widget.TextView;
 
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.preference.CheckBoxPreference;
+import androidx.preference.EditTextPreference;
 import androidx.preference.ListPreference;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceFragmentCompat;
 import androidx.preference.PreferenceManager;
 
+import org.rdr.radarbox.DSP.Operations.OperationBackground;
+import org.rdr.radarbox.DSP.Operations.OperationFixedFFT;
 import org.rdr.radarbox.R;
+import org.rdr.radarbox.RadarBox;
 
 /** Акативность, которая вызывается при нажатии на иконку с ползунками.
  * В ней задаётся конфигурация для блока цифровой обработки сигналов. В том числе
@@ -40,10 +49,85 @@ public class SettingsDSP extends AppCompatActivity {
         Preference.OnPreferenceChangeListener listener = new Preference.OnPreferenceChangeListener() {
             @Override
             public boolean onPreferenceChange(Preference preference, Object newValue) {
-                if (preference instanceof CheckBoxPreference) {
+                if (preference instanceof CheckBoxPreference &&
+                        preference.getKey().equals(Processing.FUSED_FFT_KEY)) {
+                    // слитное БПФ применяется со следующего кадра
                     boolean checkValue = Boolean.parseBoolean(newValue.toString());
+                    RadarBox.processing.setFusedFFT(checkValue);
                     ((CheckBoxPreference) preference).setChecked(checkValue);
                 }
+                else if (preference instanceof CheckBoxPreference &&
+                        preference.getKey().equals(Processing.FIXED_POINT_KEY)) {
+                    // фиксированная точка применяется со следующего кадра
+                    boolean checkValue = Boolean.parseBoolean(newValue.toString());
+                    RadarBox.processing.setFixedPoint(checkValue);
+                    ((CheckBoxPreference) preference).setChecked(checkValue);
+                }
+                else if (preference instanceof CheckBoxPreference &&
+                        preference.getKey().equals(Processing.PROFILER_ALLOCATIONS_KEY)) {
+                    // подсчёт памяти поддерживается не всеми средами выполнения
+                    boolean checkValue = Boolean.parseBoolean(newValue.toString());
+                    if (!RadarBox.processing.getProfiler().setAllocationCounting(checkValue))
+                        checkValue = false;
+                    ((CheckBoxPreference) preference).setChecked(checkValue);
+                }
+                else if (preference instanceof CheckBoxPreference &&
+                        preference.getKey().equals(Processing.BACKGROUND_FREEZE_KEY)) {
+                    // захват фона: фон перестаёт обновляться и вычитается как есть
+                    boolean checkValue = Boolean.parseBoolean(newValue.toString());
+                    RadarBox.processing.getBackground().setFrozen(checkValue);
+                    ((CheckBoxPreference) preference).setChecked(checkValue);
+                }
+                else if (preference instanceof CheckBoxPreference) {
+                    boolean checkValue = Boolean.parseBoolean(newValue.toString());
+                    ((CheckBoxPreference) preference).setChecked(checkValue);
+                }
+                else if (preference instanceof ListPreference &&
+                        preference.getKey().equals(Processing.WINDOW_TYPE_KEY)) {
+                    // окно перед БПФ применяется сразу
+                    String stringValue = newValue.toString();
+                    try {
+                        RadarBox.processing.setWindow(Window.parseType(stringValue),
+                                RadarBox.processing.getWindow().getParameter());
+                        ((ListPreference) preference).setValue(stringValue);
+                    } catch (IllegalArgumentException e) {
+                        stringValue = RadarBox.processing.getWindow().getType().toString();
+                    }
+                    preference.setSummary(stringValue);
+                }
+                else if (preference instanceof ListPreference &&
+                        preference.getKey().equals(Processing.BACKGROUND_MODE_KEY)) {
+                    String stringValue = newValue.toString();
+                    if (stringValue.isEmpty())
+                        stringValue = "OFF";
+                    EditTextPreference parameterPref =
+                            findPreference(Processing.BACKGROUND_PARAMETER_KEY);
+                    try {
+                        RadarBox.processing.setBackground(stringValue,
+                                parameterPref!=null && parameterPref.getText()!=null ?
+                                        parameterPref.getText() : "");
+                        ((ListPreference) preference).setValue(stringValue);
+                    } catch (IllegalArgumentException e) {
+                        stringValue = ((ListPreference) preference).getValue();
+                    }
+                    preference.setSummary(stringValue);
+                }
+                else if (preference instanceof ListPreference &&
+                        preference.getKey().equals(Processing.STACKING_MODE_KEY)) {
+                    String stringValue = newValue.toString();
+                    if (stringValue.isEmpty())
+                        stringValue = "OFF";
+                    EditTextPreference framesPref = findPreference(Processing.STACKING_FRAMES_KEY);
+                    try {
+                        RadarBox.processing.setStacking(stringValue,
+                                framesPref!=null && framesPref.getText()!=null ?
+                                        framesPref.getText() : "");
+                        ((ListPreference) preference).setValue(stringValue);
+                    } catch (IllegalArgumentException e) {
+                        stringValue = ((ListPreference) preference).getValue();
+                    }
+                    preference.setSummary(stringValue);
+                }
                 else if (preference instanceof ListPreference){
                     pref = findPreference("select_signal");
                     assert pref != null;
@@ -53,6 +137,81 @@ public class SettingsDSP extends AppCompatActivity {
                     pref.setSummary(strings[select_signal]);
                     pref.setValueIndex(select_signal);
                 }
+                else if (preference instanceof EditTextPreference &&
+                        preference.getKey().equals(Processing.THREAD_COUNT_KEY)) {
+                    // количество потоков обработки применяется сразу
+                    String stringValue = newValue.toString();
+                    if (stringValue.isEmpty())
+                        stringValue = Integer.toString(RadarBox.processing.getThreadCount());
+                    try {
+                        RadarBox.processing.setThreadCount(Integer.parseInt(stringValue));
+                    } catch (IllegalArgumentException e) {
+                        stringValue = Integer.toString(RadarBox.processing.getThreadCount());
+                    }
+                    preference.setSummary(stringValue);
+                    ((EditTextPreference) preference).setText(stringValue);
+                }
+                else if (preference instanceof EditTextPreference &&
+                        preference.getKey().equals(Processing.PIPELINE_DEPTH_KEY)) {
+                    // глубина конвейера применяется со следующего кадра
+                    String stringValue = newValue.toString();
+                    if (stringValue.isEmpty())
+                        stringValue = Integer.toString(RadarBox.processing.getPipelineDepth());
+                    try {
+                        RadarBox.processing.setPipelineDepth(Integer.parseInt(stringValue));
+                    } catch (IllegalArgumentException e) {
+                        stringValue = Integer.toString(RadarBox.processing.getPipelineDepth());
+                    }
+                    preference.setSummary(stringValue);
+                    ((EditTextPreference) preference).setText(stringValue);
+                }
+                else if (preference instanceof EditTextPreference &&
+                        preference.getKey().equals(Processing.WINDOW_PARAMETER_KEY)) {
+                    String stringValue = newValue.toString();
+                    if (stringValue.isEmpty())
+                        stringValue = Float.toString(RadarBox.processing.getWindow().getParameter());
+                    try {
+                        RadarBox.processing.setWindow(RadarBox.processing.getWindow().getType(),
+                                Float.parseFloat(stringValue));
+                    } catch (IllegalArgumentException e) {
+                        stringValue = Float.toString(RadarBox.processing.getWindow().getParameter());
+                    }
+                    preference.setSummary(stringValue);
+                    ((EditTextPreference) preference).setText(stringValue);
+                }
+                else if (preference instanceof EditTextPreference &&
+                        preference.getKey().equals(Processing.BACKGROUND_PARAMETER_KEY)) {
+                    // alpha для EMA либо количество кадров для MEAN
+                    String stringValue = newValue.toString();
+                    ListPreference modePref = findPreference(Processing.BACKGROUND_MODE_KEY);
+                    String mode = modePref!=null && modePref.getValue()!=null ?
+                            modePref.getValue() : "OFF";
+                    try {
+                        RadarBox.processing.setBackground(mode,stringValue);
+                    } catch (IllegalArgumentException e) {
+                        OperationBackground background = RadarBox.processing.getBackground();
+                        stringValue = background.getMode()==OperationBackground.Mode.EMA ?
+                                Float.toString(background.getAlpha()) :
+                                Integer.toString(background.getFrameCount());
+                    }
+                    preference.setSummary(stringValue);
+                    ((EditTextPreference) preference).setText(stringValue);
+                }
+                else if (preference instanceof EditTextPreference &&
+                        preference.getKey().equals(Processing.STACKING_FRAMES_KEY)) {
+                    String stringValue = newValue.toString();
+                    ListPreference modePref = findPreference(Processing.STACKING_MODE_KEY);
+                    String mode = modePref!=null && modePref.getValue()!=null ?
+                            modePref.getValue() : "OFF";
+                    try {
+                        RadarBox.processing.setStacking(mode,stringValue);
+                    } catch (IllegalArgumentException e) {
+                        stringValue = Integer.toString(
+                                RadarBox.processing.getStacking().getFrameCount());
+                    }
+                    preference.setSummary(stringValue);
+                    ((EditTextPreference) preference).setText(stringValue);
+                }
                 return false;
             }
         };
@@ -74,6 +233,132 @@ public class SettingsDSP extends AppCompatActivity {
             pref.setValueIndex(select_signal);
             String[] array = getResources().getStringArray(R.array.select_freq_chart);
             pref.setSummary(array[select_signal]);
+
+            Preference threadCountPref = findPreference(Processing.THREAD_COUNT_KEY);
+            assert threadCountPref != null;
+            bindSummaryValue(threadCountPref);
+
+            Preference pipelineDepthPref = findPreference(Processing.PIPELINE_DEPTH_KEY);
+            assert pipelineDepthPref != null;
+            bindSummaryValue(pipelineDepthPref);
+            Preference pipelineStatisticsPref = findPreference(Processing.PIPELINE_STATISTICS_KEY);
+            assert pipelineStatisticsPref != null;
+            pipelineStatisticsPref.setOnPreferenceClickListener(preference -> {
+                // загрузка ступеней с прошлого просмотра
+                ProcessingPipeline pipeline = RadarBox.processing.getPipeline();
+                if (pipeline == null) {
+                    preference.setSummary("Конвейер выключен");
+                    return true;
+                }
+                preference.setSummary(pipeline.getStatistics());
+                pipeline.resetStatistics();
+                return true;
+            });
+
+            CheckBoxPreference fusedFftPref = findPreference(Processing.FUSED_FFT_KEY);
+            assert fusedFftPref != null;
+            fusedFftPref.setOnPreferenceChangeListener(listener);
+            fusedFftPref.setChecked(RadarBox.processing.isFusedFFT());
+
+            CheckBoxPreference fixedPointPref = findPreference(Processing.FIXED_POINT_KEY);
+            assert fixedPointPref != null;
+            fixedPointPref.setOnPreferenceChangeListener(listener);
+            fixedPointPref.setChecked(RadarBox.processing.isFixedPoint());
+            Preference fixedAccuracyPref = findPreference(Processing.FIXED_POINT_ACCURACY_KEY);
+            assert fixedAccuracyPref != null;
+            fixedAccuracyPref.setOnPreferenceClickListener(preference -> {
+                // сравнение выполняется на следующем кадре, показывается последний результат
+                OperationFixedFFT fixedFFT = RadarBox.processing.getFixedFFT();
+                if (fixedFFT == null)
+                    preference.setSummary("Fixed-point mode inactive");
+                else {
+                    fixedFFT.requestAccuracyCheck();
+                    String accuracy = fixedFFT.getAccuracy();
+                    preference.setSummary(accuracy.isEmpty() ?
+                            "Сравнение на следующем кадре, нажмите ещё раз" : accuracy);
+                }
+                return true;
+            });
+
+            Preference profilerStatisticsPref = findPreference(Processing.PROFILER_STATISTICS_KEY);
+            assert profilerStatisticsPref != null;
+            profilerStatisticsPref.setOnPreferenceClickListener(preference -> {
+                showProfile();
+                return true;
+            });
+            CheckBoxPreference profilerAllocationsPref =
+                    findPreference(Processing.PROFILER_ALLOCATIONS_KEY);
+            assert profilerAllocationsPref != null;
+            profilerAllocationsPref.setOnPreferenceChangeListener(listener);
+            profilerAllocationsPref.setChecked(
+                    RadarBox.processing.getProfiler().isAllocationCounting());
+
+            Preference windowTypePref = findPreference(Processing.WINDOW_TYPE_KEY);
+            assert windowTypePref != null;
+            windowTypePref.setOnPreferenceChangeListener(listener);
+            listener.onPreferenceChange(windowTypePref,
+                    RadarBox.processing.getWindow().getType().toString());
+            Preference windowParameterPref = findPreference(Processing.WINDOW_PARAMETER_KEY);
+            assert windowParameterPref != null;
+            bindSummaryValue(windowParameterPref);
+
+            Preference backgroundModePref = findPreference(Processing.BACKGROUND_MODE_KEY);
+            assert backgroundModePref != null;
+            bindSummaryValue(backgroundModePref);
+            Preference backgroundParameterPref = findPreference(Processing.BACKGROUND_PARAMETER_KEY);
+            assert backgroundParameterPref != null;
+            bindSummaryValue(backgroundParameterPref);
+            CheckBoxPreference backgroundFreezePref = findPreference(Processing.BACKGROUND_FREEZE_KEY);
+            assert backgroundFreezePref != null;
+            backgroundFreezePref.setOnPreferenceChangeListener(listener);
+            backgroundFreezePref.setChecked(RadarBox.processing.getBackground().isFrozen());
+            Preference stackingModePref = findPreference(Processing.STACKING_MODE_KEY);
+            assert stackingModePref != null;
+            bindSummaryValue(stackingModePref);
+            Preference stackingFramesPref = findPreference(Processing.STACKING_FRAMES_KEY);
+            assert stackingFramesPref != null;
+            bindSummaryValue(stackingFramesPref);
+            Preference calibrationCapturePref = findPreference(Processing.CALIBRATION_CAPTURE_KEY);
+            assert calibrationCapturePref != null;
+            calibrationCapturePref.setOnPreferenceClickListener(preference -> {
+                preference.setSummary(RadarBox.processing.captureCalibration() ?
+                        "Калибровка будет выполнена по следующему кадру" : "Нет данных кадра");
+                return true;
+            });
+            Preference calibrationClearPref = findPreference(Processing.CALIBRATION_CLEAR_KEY);
+            assert calibrationClearPref != null;
+            calibrationClearPref.setOnPreferenceClickListener(preference -> {
+                RadarBox.processing.setCalibration(null);
+                return true;
+            });
+            Preference backgroundResetPref = findPreference(Processing.BACKGROUND_RESET_KEY);
+            assert backgroundResetPref != null;
+            backgroundResetPref.setOnPreferenceClickListener(preference -> {
+                RadarBox.processing.getBackground().reset();
+                return true;
+            });
+        }
+
+        /** Окно со сводкой длительностей операций: запись сводки в журнал и сброс измерений */
+        private void showProfile() {
+            TextView text = new TextView(requireContext());
+            text.setTypeface(Typeface.MONOSPACE);
+            text.setTextSize(TypedValue.COMPLEX_UNIT_SP,12);
+            int padding = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP,16,
+                    getResources().getDisplayMetrics());
+            text.setPadding(padding,padding,padding,padding);
+            text.setText(RadarBox.processing.getProfiler().getStatistics());
+            ScrollView scrollView = new ScrollView(requireContext());
+            scrollView.addView(text);
+            new AlertDialog.Builder(requireContext())
+                    .setTitle("Operation latency")
+                    .setView(scrollView)
+                    .setPositiveButton("Close", (dialog, which) -> dialog.cancel())
+                    .setNeutralButton("To log", (dialog, which) ->
+                            RadarBox.processing.logProfile())
+                    .setNegativeButton("Reset", (dialog, which) ->
+                            RadarBox.processing.getProfiler().reset())
+                    .show();
         }
 
         public static void restorePreferences(Context context) {
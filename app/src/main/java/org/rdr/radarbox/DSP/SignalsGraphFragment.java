@@ -34,6 +34,8 @@ public class SignalsGraphFragment extends Fragment {
     private static final String ARG_OPERATION_DSP = "operationDSP";
     private static GraphView graphView;
     private static OperationDSP operationDSP;
+    /** Копия опубликованных выходов операции при конвейерной обработке */
+    private final ArrayList<ComplexSignal> publishedSignals = new ArrayList<>();
     GraphSettingsFragment graphSettingsFragment = null;
     private SharedPreferences pref;
 
@@ -62,7 +64,7 @@ public class SignalsGraphFragment extends Fragment {
         if (getArguments() != null) {
             operationDSP = (OperationDSP) getArguments().getSerializable(ARG_OPERATION_DSP);
         }
-        RadarBox.dataThreadService.getLiveFrameCounter().observe(getViewLifecycleOwner(),
+        RadarBox.dataThreadService.getLiveProcessedFrameCounter().observe(getViewLifecycleOwner(),
                 this::updateLines);
 
         // создание фрагмента с настройками графика, который будет выдвигаться с помощью свайпа
@@ -188,7 +190,8 @@ public class SignalsGraphFragment extends Fragment {
     }
 
     private void resetLines(){
-        ArrayList<ComplexSignal> outputSignals = (ArrayList<ComplexSignal>) operationDSP.getOutputSignals();
+        ArrayList<ComplexSignal> outputSignals =
+                RadarBox.processing.getPublishedSignals(operationDSP,publishedSignals);
         for (int line=0; line<outputSignals.size(); line++) {
             graphView.addLine(
                     new Line2D(
@@ -212,7 +215,9 @@ public class SignalsGraphFragment extends Fragment {
     }
 
     private void updateLines(long frameNumber) {
-        ArrayList<ComplexSignal> outputSignals = operationDSP.getOutputSignals();
+        // копия выходов последнего обработанного кадра
+        ArrayList<ComplexSignal> outputSignals =
+                RadarBox.processing.getPublishedSignals(operationDSP,publishedSignals);
         if(graphView.getLines().size()!=outputSignals.size()*3)
             resetLines();
 
@@ -230,17 +235,11 @@ public class SignalsGraphFragment extends Fragment {
             String name =outputSignals.get(line).getName();
             ComplexSignal complexSignal = outputSignals.get(line);
             // Re
-            for (int i = 0; i < tempSignalVector.length; i++)
-                tempSignalVector[i] = complexSignal.getY()[i].re;
-            graphView.getLine(name+"re").setY(tempSignalVector);
+            graphView.getLine(name+"re").setY(complexSignal.getRe(tempSignalVector));
             // Im
-            for (int i = 0; i < tempSignalVector.length; i++)
-                tempSignalVector[i] = complexSignal.getY()[i].im;
-            graphView.getLine(name+"im").setY(tempSignalVector);
+            graphView.getLine(name+"im").setY(complexSignal.getIm(tempSignalVector));
             // Abs
-            for (int i = 0; i < tempSignalVector.length; i++)
-                tempSignalVector[i] = complexSignal.getY()[i].abs();
-            graphView.getLine(name+"abs").setY(tempSignalVector);
+            graphView.getLine(name+"abs").setY(complexSignal.getAbs(tempSignalVector));
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,183 @@
+package org.rdr.radarbox.DSP;
+
+import java.util.Arrays;
+
+/** Оценка отношения сигнал-шум по каждой частоте в скользящем окне из последних кадров. <p>
+ * Среднее mu и дисперсия var по кадрам обновляются для каждой частоты за O(1) (алгоритм
+ * Уэлфорда с добавлением нового и исключением самого старого кадра), поэтому добавление кадра
+ * ({@link #calculateSNR(float[])}) выполняется за O(nF) без выделения памяти. ОСШ на частоте f -
+ * отношение мощности среднего к дисперсии: 10*lg(mu^2/var) дБ ({@link #getArrayAvgSNR()}).
+ * {@link #getAvgSNR()} - ОСШ средних мощностей по всем частотам, {@link #getMaxSNR()} -
+ * максимальное ОСШ по частотам.
+ * <p>
+ * Класс не связан с интерфейсом и может создаваться в любом потоке: им пользуются и операция
+ * {@link org.rdr.radarbox.DSP.Operations.OperationSNR} в потоке обработки, и фрагмент
+ * настроек {@link SNR}.
+ */
+public class SnrEstimator {
+    /** Количество кадров в окне по умолчанию */
+    public static final int DEFAULT_FRAME_COUNT = 10;
+    /** Период точного пересчёта, ограничивающий накопление ошибки округления при
+     * добавлении и исключении кадров */
+    private static final int RESYNC_PERIOD = 1024;
+
+    private final int frameCount;
+    /** Кольцевой буфер последних frameCount кадров */
+    private float[][] accumulatedData;
+    /** ОСШ по каждой частоте, дБ */
+    private float[] arrayAvgSNR;
+    private float maxSNR = 0;
+    private float avgSNR = 0;
+    /** Среднее и сумма квадратов отклонений от среднего по каждой частоте для кадров
+     * в кольцевом буфере */
+    private double[] mean, m2;
+    /** Количество кадров в кольцевом буфере (меньше frameCount, пока буфер заполняется) */
+    private int count = 0;
+    private int iFrame = 0;
+    /** Количество кадров до точного пересчёта среднего и дисперсии по кольцевому буферу */
+    private int framesToResync = RESYNC_PERIOD;
+
+    /** Оценка с окном {@link #DEFAULT_FRAME_COUNT} кадров
+     * @param length количество частот
+     */
+    public SnrEstimator(int length) {
+        this(DEFAULT_FRAME_COUNT, length);
+    }
+
+    /**
+     * @param frameCount количество кадров в окне, не меньше единицы (ОСШ отлично от нуля
+     *                   при двух кадрах и более)
+     * @param length количество частот
+     * @throws IllegalArgumentException если количество кадров меньше единицы
+     */
+    public SnrEstimator(int frameCount, int length) {
+        if (frameCount < 1)
+            throw new IllegalArgumentException("Frame count must be positive");
+        this.frameCount = frameCount;
+        reset(length);
+    }
+
+    /** Сброс накопленных кадров
+     * @param nF количество частот
+     */
+    public void reset(int nF) {
+        accumulatedData = new float[frameCount][nF];
+        arrayAvgSNR = new float[nF];
+        mean = new double[nF];
+        m2 = new double[nF];
+        count = 0;
+        iFrame = 0;
+        framesToResync = RESYNC_PERIOD;
+        avgSNR = 0;
+        maxSNR = 0;
+    }
+
+    /** Добавление кадра и пересчёт ОСШ. При изменении количества частот накопленные кадры
+     * сбрасываются.
+     * @param rawFreqFrame отсчёты кадра (например, модули) по частотам
+     */
+    public void calculateSNR(float[] rawFreqFrame) {
+        int nF = rawFreqFrame.length;
+        if (nF != arrayAvgSNR.length)
+            reset(nF);
+        float[] slot = accumulatedData[iFrame];
+        if (count < frameCount) {
+            // буфер заполняется: только добавление
+            count++;
+            for (int f = 0; f < nF; f++) {
+                double x = rawFreqFrame[f];
+                double delta = x - mean[f];
+                mean[f] += delta/count;
+                m2[f] += delta*(x - mean[f]);
+                slot[f] = rawFreqFrame[f];
+            }
+        }
+        else {
+            // замена самого старого кадра новым
+            for (int f = 0; f < nF; f++) {
+                double x = rawFreqFrame[f], old = slot[f];
+                double oldMean = mean[f];
+                mean[f] = oldMean + (x - old)/count;
+                m2[f] += (x - old)*(x - mean[f] + old - oldMean);
+                slot[f] = rawFreqFrame[f];
+            }
+        }
+        iFrame++;
+        if (iFrame >= frameCount)
+            iFrame = 0;
+        if (--framesToResync <= 0)
+            resync();
+        updateSNR();
+    }
+
+    /** Точный пересчёт среднего и суммы квадратов отклонений по кольцевому буферу */
+    private void resync() {
+        framesToResync = RESYNC_PERIOD;
+        for (int f = 0; f < mean.length; f++) {
+            double mu = 0;
+            for (int n = 0; n < count; n++)
+                mu += accumulatedData[n][f];
+            mu /= count;
+            double sum = 0;
+            for (int n = 0; n < count; n++) {
+                double d = accumulatedData[n][f] - mu;
+                sum += d*d;
+            }
+            mean[f] = mu;
+            m2[f] = sum;
+        }
+    }
+
+    private void updateSNR() {
+        if (count < 2) {
+            Arrays.fill(arrayAvgSNR, 0);
+            avgSNR = maxSNR = 0;
+            return;
+        }
+        double signalSum = 0, noiseSum = 0;
+        float max = Float.NEGATIVE_INFINITY;
+        for (int f = 0; f < arrayAvgSNR.length; f++) {
+            double signal = mean[f]*mean[f];
+            double noise = Math.max(m2[f], 0)/(count - 1);
+            arrayAvgSNR[f] = toDecibels(signal, noise);
+            if (arrayAvgSNR[f] > max)
+                max = arrayAvgSNR[f];
+            signalSum += signal;
+            noiseSum += noise;
+        }
+        maxSNR = max;
+        avgSNR = toDecibels(signalSum, noiseSum);
+    }
+
+    /** Отношение мощностей в дБ; нулевая мощность шума ограничивается, чтобы не получить
+     * бесконечность */
+    private static float toDecibels(double signal, double noise) {
+        return (float) (10*Math.log10(Math.max(signal, 1e-20)/Math.max(noise, 1e-20)));
+    }
+
+    /** @return количество кадров в окне */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /** @return количество кадров, по которым сейчас оценивается ОСШ */
+    public int getAccumulatedCount() {
+        return count;
+    }
+
+    /** @return ОСШ средних мощностей по всем частотам, дБ */
+    public float getAvgSNR() {
+        return avgSNR;
+    }
+
+    /** @return максимальное по частотам ОСШ, дБ */
+    public float getMaxSNR() {
+        return maxSNR;
+    }
+
+    /** @return ОСШ по каждой частоте, дБ. Массив обновляется на месте при каждом вызове
+     * {@link #calculateSNR(float[])} */
+    public float[] getArrayAvgSNR() {
+        return arrayAvgSNR;
+    }
+}
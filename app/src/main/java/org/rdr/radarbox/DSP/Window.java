@@ -0,0 +1,161 @@
+package org.rdr.radarbox.DSP;
+
+import androidx.annotation.NonNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Оконные функции для снижения уровня боковых лепестков спектра. <p>
+ * Коэффициенты окна вычисляются один раз для набора (тип, длина, параметр) и хранятся
+ * в ограниченном потокобезопасном кэше ({@link #getCoefficients(Type, int, float)}).
+ * Возвращаемый массив общий для всех пользователей и не должен изменяться.
+ * <p>
+ * Окна симметричные: w[n] = w[N-1-n].
+ */
+public final class Window {
+    /** Максимальное количество окон, хранящихся в кэше */
+    public static final int CACHE_CAPACITY = 16;
+
+    private static final Map<Long, float[]> cache =
+            new LinkedHashMap<Long, float[]>(CACHE_CAPACITY, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, float[]> eldest) {
+                    return size() > CACHE_CAPACITY;
+                }
+            };
+
+    /** Тип оконной функции */
+    public enum Type {
+        /** прямоугольное окно (без взвешивания) */
+        RECTANGULAR,
+        HANN,
+        HAMMING,
+        /** 4-членное окно Блэкмана-Харриса (боковые лепестки -92 дБ) */
+        BLACKMAN_HARRIS,
+        /** окно Кайзера, параметр - beta (по умолчанию 6) */
+        KAISER,
+        /** окно Тьюки (косинусоидальные скаты), параметр - доля скатов alpha от 0 до 1
+         * (по умолчанию 0.5) */
+        TUKEY;
+
+        /** @return значение параметра по умолчанию (для окон без параметра - 0) */
+        public float getDefaultParameter() {
+            switch (this) {
+                case KAISER:
+                    return 6f;
+                case TUKEY:
+                    return 0.5f;
+                default:
+                    return 0f;
+            }
+        }
+
+        /** @return true, если у окна есть параметр */
+        public boolean hasParameter() {
+            return this == KAISER || this == TUKEY;
+        }
+    }
+
+    /** Do not instantiate. */
+    private Window() {
+    }
+
+    /** Коэффициенты окна из кэша (вычисляются при первом запросе).
+     * @param type тип окна
+     * @param length количество отсчётов окна
+     * @param parameter параметр окна ({@link Type#KAISER}, {@link Type#TUKEY}); если параметр
+     *                  не положительный, берётся {@link Type#getDefaultParameter()}. Для остальных
+     *                  окон не используется
+     * @return массив коэффициентов размера length, не должен изменяться
+     * @throws IllegalArgumentException если длина меньше единицы
+     */
+    @NonNull
+    public static float[] getCoefficients(@NonNull Type type, int length, float parameter) {
+        if (length < 1)
+            throw new IllegalArgumentException("Window length must be positive");
+        if (!type.hasParameter())
+            parameter = 0;
+        else if (!(parameter > 0))
+            parameter = type.getDefaultParameter();
+        long key = ((long) Float.floatToIntBits(parameter) << 32)
+                | ((long) length << 3) | type.ordinal();
+        synchronized (cache) {
+            float[] window = cache.get(key);
+            if (window == null) {
+                window = compute(type, length, parameter);
+                cache.put(key, window);
+            }
+            return window;
+        }
+    }
+
+    /** Разбор типа окна из строки (имя {@link Type} без учёта регистра,
+     * дефис допускается вместо подчёркивания).
+     * @throws IllegalArgumentException если такого окна нет
+     */
+    @NonNull
+    public static Type parseType(@NonNull String name) {
+        return Type.valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+
+    private static float[] compute(Type type, int length, float parameter) {
+        float[] w = new float[length];
+        if (length == 1) {
+            w[0] = 1;
+            return w;
+        }
+        double m = length - 1;
+        switch (type) {
+            case HANN:
+                for (int n = 0; n < length; n++)
+                    w[n] = (float) (0.5 - 0.5*Math.cos(2*Math.PI*n/m));
+                break;
+            case HAMMING:
+                for (int n = 0; n < length; n++)
+                    w[n] = (float) (0.54 - 0.46*Math.cos(2*Math.PI*n/m));
+                break;
+            case BLACKMAN_HARRIS:
+                for (int n = 0; n < length; n++) {
+                    double phi = 2*Math.PI*n/m;
+                    w[n] = (float) (0.35875 - 0.48829*Math.cos(phi)
+                            + 0.14128*Math.cos(2*phi) - 0.01168*Math.cos(3*phi));
+                }
+                break;
+            case KAISER: {
+                double norm = besselI0(parameter);
+                for (int n = 0; n < length; n++) {
+                    double r = 2*n/m - 1;
+                    w[n] = (float) (besselI0(parameter*Math.sqrt(1 - r*r))/norm);
+                }
+                break;
+            }
+            case TUKEY: {
+                double alpha = Math.min(parameter, 1.0);
+                double edge = alpha*m/2;
+                for (int n = 0; n < length; n++) {
+                    double k = Math.min(n, m - n);
+                    w[n] = k >= edge ? 1f : (float) (0.5 - 0.5*Math.cos(Math.PI*k/edge));
+                }
+                break;
+            }
+            case RECTANGULAR:
+            default:
+                for (int n = 0; n < length; n++)
+                    w[n] = 1;
+                break;
+        }
+        return w;
+    }
+
+    /** Модифицированная функция Бесселя первого рода нулевого порядка (ряд Тейлора) */
+    static double besselI0(double x) {
+        double sum = 1, term = 1, q = x*x/4;
+        for (int k = 1; k < 100; k++) {
+            term *= q/((double) k*k);
+            sum += term;
+            if (term < sum*1e-12)
+                break;
+        }
+        return sum;
+    }
+}
@@ -12,6 +12,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
@@ -55,6 +56,17 @@ public class DataThreadService {
      * очередного кадра данных */
     public LiveData<Integer> getLiveFrameCounter() {return liveFrameCounter;}
 
+    /** Cчетчик обработанных кадров. Инкрементируется только обработчиком кадров обработки
+     * ({@link org.rdr.radarbox.DSP.Processing#setFrameListener}): при конвейерной обработке -
+     * в потоке последней ступени, иначе - в потоке обработки */
+    private final AtomicInteger processedFrameCounter = new AtomicInteger();
+
+    private final MutableLiveData<Integer> liveProcessedFrameCounter = new MutableLiveData<>();
+    /** LiveData интерфейс для обозревания событий готовности результатов обработки очередного
+     * кадра. Без конвейерной обработки совпадает по времени с {@link #getLiveFrameCounter()},
+     * при конвейерной - запаздывает на время прохождения кадра через ступени */
+    public LiveData<Integer> getLiveProcessedFrameCounter() {return liveProcessedFrameCounter;}
+
     /** Cчетчик опросов статуса. Значение этой переменной инкрементируется в {@link StatusGetter}*/
     private int statusCounter;
 
@@ -136,9 +148,18 @@ public class DataThreadService {
                     " Period: "+period);
             int periodForSchedule = period;
             if(period==0) periodForSchedule=1;
+            // план обработки устройства, данные которого будут обрабатываться
+            if(processing!=null) {
+                processing.setDevicePrefix(getSourceDevicePrefix(liveCurrentSource.getValue()));
+                // при конвейерной обработке результаты кадра готовы в потоке последней ступени
+                processing.setFrameListener(frameNumber ->
+                        liveProcessedFrameCounter.postValue(
+                                processedFrameCounter.incrementAndGet()));
+            }
             tStart=System.currentTimeMillis(); fullScanningTime=0;
             barrier = new CyclicBarrier(3, uiUpdater);
             frameCounter = 0; liveFrameCounter.setValue(frameCounter);
+            processedFrameCounter.set(0); liveProcessedFrameCounter.setValue(0);
             taskList.add(executor.scheduleAtFixedRate(
                     dataReading, 0, periodForSchedule, TimeUnit.MILLISECONDS));
             taskList.add(executor.scheduleAtFixedRate(
@@ -186,6 +207,18 @@ public class DataThreadService {
         }
     }
 
+    /** Префикс устройства, данные которого поступают из источника: для файла - префикс
+     * конфигурации, с которой он записан
+     * @return префикс либо пустая строка, если источника нет */
+    private String getSourceDevicePrefix(DataSource dataSource) {
+        if(DataSource.FILE.equals(dataSource) && RadarBox.fileRead!=null
+                && RadarBox.fileRead.config.getVirtual()!=null)
+            return RadarBox.fileRead.config.getVirtual().getDevicePrefix();
+        if(DataSource.DEVICE.equals(dataSource) && RadarBox.device!=null)
+            return RadarBox.device.getDevicePrefix();
+        return "";
+    }
+
     /** Установка текущего источника радиолокационных данных
      * @param dataSource (устройство, файл или NO_SOURCE)
      * @return true, если установка источника данных произошла успешно
@@ -207,6 +240,9 @@ public class DataThreadService {
                                     .observeForever(value->period=value));
                     // если мы переключились с устройства на файл, то останавливаем получение статуса
                     stopGettingStatusAtFixedRate();
+                    if(processing!=null)
+                        processing.setDevicePrefix(getSourceDevicePrefix(DataSource.FILE));
+                    updateCalibration(DataSource.FILE);
                     liveCurrentSource.postValue(DataSource.FILE);
                     return true;
                 }
@@ -242,6 +278,9 @@ public class DataThreadService {
                 return false;
             }
             liveCurrentSource.postValue(dataSource);
+            if(processing!=null)
+                processing.setDevicePrefix(getSourceDevicePrefix(DataSource.DEVICE));
+            updateCalibration(DataSource.DEVICE);
             startGettingStatusAtFixedRate();
             return true;
         }
@@ -249,10 +288,27 @@ public class DataThreadService {
         if(Objects.equals(liveCurrentSource.getValue(), DataSource.DEVICE)) {
             stopGettingStatusAtFixedRate();
         }
+        updateCalibration(DataSource.NO_SOURCE);
         liveCurrentSource.postValue(DataSource.NO_SOURCE);
         return true;
     }
 
+    /** Калибровочные коэффициенты относятся к источнику данных: при его выборе коэффициенты
+     * предыдущего источника сбрасываются, а для файла читаются из его папки дополнений.
+     * Для устройства калибровка выполняется заново
+     * ({@link org.rdr.radarbox.DSP.Processing#captureCalibration()})
+     * @param dataSource выбранный источник данных
+     */
+    private void updateCalibration(DataSource dataSource) {
+        if(processing==null)
+            return;
+        if(DataSource.FILE.equals(dataSource) && RadarBox.fileRead!=null
+                && RadarBox.fileRead.additional!=null)
+            processing.loadCalibration(RadarBox.fileRead.additional.getFolder());
+        else
+            processing.setCalibration(null);
+    }
+
     /** Запускает опрос состяния устройства по таймеру */
     public void startGettingStatusAtFixedRate() {
         if(statusFuture == null || statusFuture.isDone()) {
@@ -42,6 +42,7 @@ public class DeviceRawDataAdapter {
      * @return true, если переданы корректные аргументы и выполнено преобразование, либо если
      * данные уже лежат в правильном порядке.
      * Результат помещается во входной массив {@code rawData}.
+     * @see ReshufflePlan
      */
     public static boolean reshuffleRawData(short[] rawData, DimensionOrder dimensionOrder,
                             int tfCount, int rxCount, int txCount, boolean isComplex){
@@ -52,61 +53,9 @@ public class DeviceRawDataAdapter {
         if (isComplex) ps = 2;
         if(rawData.length!=txCount*rxCount*tfCount*ps)
             return false;
-        if(rxCount==1 && txCount==1)
-            return true;
-        //различный порядок взятия отсчётов в зависимости от порядка измерений
-        int txSkipStep=1;
-        int rxSkipStep=1;
-        int tfSkipStep=1;
-        switch (dimensionOrder) {
-            case TF_RX_TX:
-                // данные уже лежат в правильном пордяке
-                return true;
-            case TF_TX_RX:
-                txSkipStep = tfCount*ps;
-                rxSkipStep = txCount*tfCount*ps;
-                tfSkipStep = ps;
-                break;
-            case RX_TF_TX:
-                txSkipStep = tfCount*rxCount*ps;
-                tfSkipStep = rxCount*ps;
-                rxSkipStep = ps;
-                break;
-            case RX_TX_TF:
-                txSkipStep = rxCount*ps;
-                rxSkipStep = ps;
-                tfSkipStep = txCount*rxCount*ps;
-                break;
-            case TX_RX_TF:
-                txSkipStep = ps;
-                tfSkipStep = txCount*rxCount*ps;
-                rxSkipStep = txCount*ps;
-                break;
-            case TX_TF_RX:
-                txSkipStep = ps;
-                tfSkipStep = txCount*ps;
-                rxSkipStep = tfCount*txCount*ps;
-                break;
-        }
-        //создание временного массива для выполнения перемешивания
-        short[] reshuffledRawData = new short[rawData.length];
-
-        for(int tx=0; tx<txCount; tx++) {
-            int txReshuffledStep = tx*rxCount*tfCount*ps;
-            for (int rx=0; rx<rxCount; rx++) {
-                int rxReshuffledStep = rx*tfCount*ps;
-                for(int tf=0; tf<tfCount; tf++) {
-                    // этот цикл нужен, чтобы учесть, что данные бывают комплексные
-                    for(int p=0; p<ps; p++) {
-                        reshuffledRawData[txReshuffledStep + rxReshuffledStep + tf * ps + p] =
-                                rawData[tx * txSkipStep + rx * rxSkipStep + tf * tfSkipStep + p];
-                    }
-
-                }
-            }
-        }
-        //перемешивание завершено, копируем данные во входной массив и возвращаем true
-        System.arraycopy(reshuffledRawData,0,rawData,0,rawData.length);
+        // план с заранее вычисленными шагами и рабочим буфером берётся из кэша,
+        // перемешивание выполняется без выделения памяти
+        ReshufflePlan.get(dimensionOrder, tfCount, rxCount, txCount, isComplex).execute(rawData);
         return true;
     }
 
@@ -0,0 +1,312 @@
+package org.rdr.radarbox.Device;
+
+import androidx.annotation.NonNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** План перемешивания кадра сырых данных к порядку
+ * {@link DeviceRawDataAdapter.DimensionOrder#TF_RX_TX}. <p>
+ * План создаётся один раз для набора параметров (порядок измерений, количество точек по
+ * частоте/времени, приёмников, передатчиков, комплексность отсчётов). В нём заранее вычислены
+ * шаги по всем измерениям и выбран способ перестановки:
+ * <ul>
+ *     <li>{@link Mode#COPY_RUNS} - точки одного канала уже лежат подряд
+ *     ({@code TF_TX_RX}), меняется только порядок каналов, копируются целые участки;</li>
+ *     <li>{@link Mode#BLOCKED_TRANSPOSE} - точки канала разбросаны по кадру с большим шагом
+ *     ({@code RX_TF_TX}, {@code TX_TF_RX}, {@code RX_TX_TF}, {@code TX_RX_TF}), выполняется
+ *     транспонирование блоками {@link #TILE}x{@link #TILE} точек, чтобы чтение и запись
+ *     происходили в пределах кэша.</li>
+ * </ul>
+ * Перемешивание выполняется через рабочий буфер, который хранится в плане (свой для каждого
+ * потока), поэтому {@link #execute(short[])} не выделяет память.
+ * <p>
+ * Планы создаются только через {@link #get(DeviceRawDataAdapter.DimensionOrder, int, int, int, boolean)}
+ * и хранятся в ограниченном потокобезопасном кэше.
+ */
+public final class ReshufflePlan {
+    /** Максимальное количество планов, хранящихся в кэше */
+    public static final int CACHE_CAPACITY = 8;
+    /** Размер блока транспонирования в точках по каждому измерению */
+    public static final int TILE = 32;
+
+    private static final Map<Long, ReshufflePlan> cache =
+            new LinkedHashMap<Long, ReshufflePlan>(CACHE_CAPACITY, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, ReshufflePlan> eldest) {
+                    return size() > CACHE_CAPACITY;
+                }
+            };
+    private static long cacheHits = 0;
+    private static long cacheMisses = 0;
+    /** Последний выданный план. Устройство на каждом кадре запрашивает план с одними и теми же
+     * параметрами, поэтому он находится без обращения к кэшу и упаковки ключа */
+    private static volatile ReshufflePlan lastPlan = null;
+
+    /** Способ перестановки, выбранный планом */
+    public enum Mode {
+        /** данные уже лежат в порядке {@code TF_RX_TX} */
+        IDENTITY,
+        /** копирование непрерывных участков, по одному на канал */
+        COPY_RUNS,
+        /** транспонирование блоками */
+        BLOCKED_TRANSPOSE
+    }
+
+    private final DeviceRawDataAdapter.DimensionOrder dimensionOrder;
+    private final int tfCount, rxCount, txCount;
+    private final boolean isComplex;
+    private final int ps;
+    private final int length;
+    private final Mode mode;
+    /* Перестановка описывается тремя измерениями: внешним (c), измерением, по которому
+    в исходном кадре точки лежат ближе всего (a), и измерением частоты/времени (tf).
+    Для каждого задан шаг в исходном кадре (src) и в результате (dst). Шаг tf в результате
+    всегда равен ps */
+    private final int cCount, cSrc, cDst;
+    private final int aCount, aSrc, aDst;
+    private final int tfSrc;
+    private final ThreadLocal<short[]> scratch;
+
+    private ReshufflePlan(DeviceRawDataAdapter.DimensionOrder dimensionOrder,
+                          int tfCount, int rxCount, int txCount, boolean isComplex) {
+        this.dimensionOrder = dimensionOrder;
+        this.tfCount = tfCount;
+        this.rxCount = rxCount;
+        this.txCount = txCount;
+        this.isComplex = isComplex;
+        ps = isComplex ? 2 : 1;
+        length = tfCount*rxCount*txCount*ps;
+
+        // шаги в исходном кадре, как в DeviceRawDataAdapter.reshuffleRawData
+        int txSrc, rxSrc, tfSrcStep;
+        switch (dimensionOrder) {
+            case TF_TX_RX:
+                txSrc = tfCount*ps;
+                rxSrc = txCount*tfCount*ps;
+                tfSrcStep = ps;
+                break;
+            case RX_TF_TX:
+                txSrc = tfCount*rxCount*ps;
+                tfSrcStep = rxCount*ps;
+                rxSrc = ps;
+                break;
+            case RX_TX_TF:
+                txSrc = rxCount*ps;
+                rxSrc = ps;
+                tfSrcStep = txCount*rxCount*ps;
+                break;
+            case TX_RX_TF:
+                txSrc = ps;
+                tfSrcStep = txCount*rxCount*ps;
+                rxSrc = txCount*ps;
+                break;
+            case TX_TF_RX:
+                txSrc = ps;
+                tfSrcStep = txCount*ps;
+                rxSrc = tfCount*txCount*ps;
+                break;
+            case TF_RX_TX:
+            default:
+                txSrc = rxCount*tfCount*ps;
+                rxSrc = tfCount*ps;
+                tfSrcStep = ps;
+                break;
+        }
+        // шаги в результате (порядок TF_RX_TX)
+        int txDst = rxCount*tfCount*ps;
+        int rxDst = tfCount*ps;
+
+        // измерение a - приёмник или передатчик с меньшим шагом в исходном кадре
+        boolean rxInner = txCount == 1 || (rxCount > 1 && rxSrc <= txSrc);
+        int ac = rxInner ? rxCount : txCount, as = rxInner ? rxSrc : txSrc, ad = rxInner ? rxDst : txDst;
+        int cc = rxInner ? txCount : rxCount, cs = rxInner ? txSrc : rxSrc, cd = rxInner ? txDst : rxDst;
+        // если внешнее измерение продолжает измерение a и в исходном кадре, и в результате,
+        // они объединяются в одно (например, RX_TX_TF - транспонирование [tf][канал])
+        if (cs == ac*as && cd == ac*ad) {
+            ac *= cc;
+            cc = 1;
+            cs = 0;
+            cd = 0;
+        }
+        cCount = cc; cSrc = cs; cDst = cd;
+        aCount = ac; aSrc = as; aDst = ad;
+        tfSrc = tfSrcStep;
+
+        if (dimensionOrder == DeviceRawDataAdapter.DimensionOrder.TF_RX_TX
+                || (rxCount == 1 && txCount == 1) || length == 0)
+            mode = Mode.IDENTITY;
+        else if (tfSrc == ps)
+            mode = Mode.COPY_RUNS;
+        else
+            mode = Mode.BLOCKED_TRANSPOSE;
+
+        final int scratchLength = mode == Mode.IDENTITY ? 0 : length;
+        scratch = ThreadLocal.withInitial(() -> new short[scratchLength]);
+    }
+
+    /** Получение плана перемешивания из кэша (план создаётся при первом запросе).
+     * @param dimensionOrder порядок измерений в сырых данных
+     * @param tfCount количество точек по частоте/времени
+     * @param rxCount количество приёмников
+     * @param txCount количество передатчиков
+     * @param isComplex true, если отсчёты комплексные
+     * @return план перемешивания
+     * @throws IllegalArgumentException если количество точек, приёмников или передатчиков
+     * отрицательно
+     */
+    public static ReshufflePlan get(DeviceRawDataAdapter.DimensionOrder dimensionOrder,
+                                    int tfCount, int rxCount, int txCount, boolean isComplex) {
+        if (tfCount < 0 || rxCount < 0 || txCount < 0)
+            throw new IllegalArgumentException("Negative reshuffle dimensions");
+        ReshufflePlan plan = lastPlan;
+        if (plan != null && plan.matches(dimensionOrder, tfCount, rxCount, txCount, isComplex)) {
+            synchronized (cache) {
+                cacheHits++;
+            }
+            return plan;
+        }
+        // ключ: tf - 32 бита, rx и tx - по 12 бит, порядок - 3 бита, комплексность - 1 бит
+        boolean cacheable = rxCount < (1 << 12) && txCount < (1 << 12);
+        long key = ((long) tfCount << 28) | ((long) rxCount << 16) | ((long) txCount << 4)
+                | ((long) dimensionOrder.ordinal() << 1) | (isComplex ? 1 : 0);
+        synchronized (cache) {
+            plan = cacheable ? cache.get(key) : null;
+            if (plan != null) {
+                cacheHits++;
+            } else {
+                cacheMisses++;
+                plan = new ReshufflePlan(dimensionOrder, tfCount, rxCount, txCount, isComplex);
+                if (cacheable)
+                    cache.put(key, plan);
+            }
+        }
+        lastPlan = plan;
+        return plan;
+    }
+
+    /** @return количество запросов плана, обслуженных из кэша */
+    public static long getCacheHits() {
+        synchronized (cache) {
+            return cacheHits;
+        }
+    }
+
+    /** @return количество запросов плана, для которых план был создан */
+    public static long getCacheMisses() {
+        synchronized (cache) {
+            return cacheMisses;
+        }
+    }
+
+    /** Очистка кэша планов и счётчиков попаданий/промахов */
+    public static void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+            cacheHits = 0;
+            cacheMisses = 0;
+            lastPlan = null;
+        }
+    }
+
+    /** @return строка со статистикой кэша для вывода в лог */
+    @NonNull
+    public static String getCacheStatistics() {
+        synchronized (cache) {
+            return "ReshufflePlan cache: size " + cache.size() + "/" + CACHE_CAPACITY +
+                    ", hits " + cacheHits + ", misses " + cacheMisses;
+        }
+    }
+
+    private boolean matches(DeviceRawDataAdapter.DimensionOrder dimensionOrder,
+                            int tfCount, int rxCount, int txCount, boolean isComplex) {
+        return this.dimensionOrder == dimensionOrder && this.tfCount == tfCount
+                && this.rxCount == rxCount && this.txCount == txCount
+                && this.isComplex == isComplex;
+    }
+
+    /** @return порядок измерений исходных данных */
+    public DeviceRawDataAdapter.DimensionOrder getDimensionOrder() {return dimensionOrder;}
+
+    /** @return размер кадра в отсчётах типа short */
+    public int getLength() {return length;}
+
+    /** @return способ перестановки, выбранный для параметров плана */
+    public Mode getMode() {return mode;}
+
+    /** Перемешивание кадра на месте через рабочий буфер плана.
+     * @param rawData массив размера {@link #getLength()}
+     */
+    public void execute(short[] rawData) {
+        if (mode == Mode.IDENTITY)
+            return;
+        short[] buffer = scratch.get();
+        execute(rawData, buffer);
+        System.arraycopy(buffer, 0, rawData, 0, length);
+    }
+
+    /** Перемешивание кадра в другой массив.
+     * @param src исходный кадр размера {@link #getLength()}
+     * @param dest массив для результата размера не меньше {@link #getLength()},
+     *             не должен совпадать с {@code src}
+     */
+    public void execute(short[] src, short[] dest) {
+        switch (mode) {
+            case IDENTITY:
+                System.arraycopy(src, 0, dest, 0, length);
+                break;
+            case COPY_RUNS:
+                copyRuns(src, dest);
+                break;
+            case BLOCKED_TRANSPOSE:
+                if (ps == 2) transposeComplex(src, dest);
+                else transposeReal(src, dest);
+                break;
+        }
+    }
+
+    private void copyRuns(short[] src, short[] dest) {
+        int run = tfCount*ps;
+        for (int c = 0; c < cCount; c++)
+            for (int a = 0; a < aCount; a++)
+                System.arraycopy(src, c*cSrc + a*aSrc, dest, c*cDst + a*aDst, run);
+    }
+
+    private void transposeComplex(short[] src, short[] dest) {
+        for (int c = 0; c < cCount; c++) {
+            int srcBase = c*cSrc, destBase = c*cDst;
+            for (int tf0 = 0; tf0 < tfCount; tf0 += TILE) {
+                int tfEnd = Math.min(tf0 + TILE, tfCount);
+                for (int a0 = 0; a0 < aCount; a0 += TILE) {
+                    int aEnd = Math.min(a0 + TILE, aCount);
+                    for (int a = a0; a < aEnd; a++) {
+                        int s = srcBase + a*aSrc + tf0*tfSrc;
+                        int d = destBase + a*aDst + tf0*2;
+                        for (int tf = tf0; tf < tfEnd; tf++, s += tfSrc, d += 2) {
+                            dest[d] = src[s];
+                            dest[d+1] = src[s+1];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void transposeReal(short[] src, short[] dest) {
+        for (int c = 0; c < cCount; c++) {
+            int srcBase = c*cSrc, destBase = c*cDst;
+            for (int tf0 = 0; tf0 < tfCount; tf0 += TILE) {
+                int tfEnd = Math.min(tf0 + TILE, tfCount);
+                for (int a0 = 0; a0 < aCount; a0 += TILE) {
+                    int aEnd = Math.min(a0 + TILE, aCount);
+                    for (int a = a0; a < aEnd; a++) {
+                        int s = srcBase + a*aSrc + tf0*tfSrc;
+                        int d = destBase + a*aDst + tf0;
+                        for (int tf = tf0; tf < tfEnd; tf++, s += tfSrc, d++)
+                            dest[d] = src[s];
+                    }
+                }
+            }
+        }
+    }
+}
@@ -10,8 +10,10 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.FrameLayout;
 
+import org.rdr.radarbox.DSP.ComplexSignal;
 import org.rdr.radarbox.DSP.Operations.OperationDSP;
-import org.rdr.radarbox.DSP.SNR;
+import org.rdr.radarbox.DSP.RawChannelView;
+import org.rdr.radarbox.DSP.SnrEstimator;
 import org.rdr.radarbox.DSP.SettingsDSP;
 import org.rdr.radarbox.R;
 import org.rdr.radarbox.RadarBox;
@@ -28,7 +30,10 @@ public class TimeFreqGraphFragment extends Fragment {
     GraphView graphView;
     GraphSettingsFragment graphSettingsFragment = null;
     private SharedPreferences pref;
-    private List<SNR> listSnr;
+    private List<SnrEstimator> listSnr;
+    /** Копии опубликованных выходов спектра и ОСШ при конвейерной обработке */
+    private final ArrayList<ComplexSignal> publishedSignals = new ArrayList<>();
+    private final ArrayList<ComplexSignal> publishedSnrSignals = new ArrayList<>();
 
     private static final char
     SELECT_RAW = 0,
@@ -50,10 +55,15 @@ public class TimeFreqGraphFragment extends Fragment {
         graphView.setxMax(pref.getFloat("GraphView"+"xMax",3000));
         graphView.setyMax(pref.getFloat("GraphView"+"yMax",3000));
         graphView.setyMin(pref.getFloat("GraphView"+"yMin",-3000));
-        listSnr = new ArrayList<SNR>();
+        listSnr = new ArrayList<SnrEstimator>();
         resetAllLines();
         // обновление графика происходит при получении нового кадра, номер кадра передаётся в качестве аргумента
-        RadarBox.dataThreadService.getLiveFrameCounter().observe(getViewLifecycleOwner(),this::update);
+        RadarBox.dataThreadService.getLiveFrameCounter().observe(getViewLifecycleOwner(),
+                frameNumber -> {if(isRawSelected()) update(frameNumber);});
+        // спектр и ОСШ - по готовности результатов обработки кадра (при конвейерной обработке
+        // позже получения кадра)
+        RadarBox.dataThreadService.getLiveProcessedFrameCounter().observe(getViewLifecycleOwner(),
+                frameNumber -> {if(!isRawSelected()) update(frameNumber);});
         flag = Integer.parseInt(pref.getString("select_signal","0"));
         SettingsDSP.SettingsDspFragment.restorePreferences(getContext());// создание фрагмента с настройками графика, который будет выдвигаться с помощью свайпа
         // создание фрагмента с настройками графика, который будет выдвигаться с помощью свайпа
@@ -188,15 +198,24 @@ public class TimeFreqGraphFragment extends Fragment {
         }
     }
 
+    /** @return true для операций, результат которых - дальностный профиль (БПФ или zoom FFT) */
+    private static boolean isSpectrumOperation(OperationDSP operationDSP) {
+        return operationDSP.getName().equals("FFT") || operationDSP.getName().equals("Zoom FFT")
+                || operationDSP.getName().equals("Raw FFT")
+                || operationDSP.getName().equals("Fixed FFT");
+    }
+
     private void resetTimeLines() {
         float[] tempY = new float[1];
         if(RadarBox.processing.getProcessingSequence().stream()
-                .noneMatch(operationDSP -> operationDSP.getName().equals("FFT")))
+                .noneMatch(operationDSP -> isSpectrumOperation(operationDSP)))
             return;
         OperationDSP operationFFT =
                 RadarBox.processing.getProcessingSequence().stream()
-                        .filter(operationDSP -> operationDSP.getName().equals("FFT")).findFirst().get();
-        int signalsCount = operationFFT.getOutputSignals().size();
+                        .filter(operationDSP -> isSpectrumOperation(operationDSP)).findFirst().get();
+        ArrayList<ComplexSignal> signals =
+                RadarBox.processing.getPublishedSignals(operationFFT,publishedSignals);
+        int signalsCount = signals.size();
         if(signalsCount==0)
             return;
 
@@ -205,13 +224,13 @@ public class TimeFreqGraphFragment extends Fragment {
         for(int line=0; line<signalsCount; line++) {
             graphView.addLine(new Line2D(tempY, tempY,
                     GraphColor.values()[line % GraphColor.values().length].argb,
-                    operationFFT.getOutputSignals().get(line).getName() + "re"));
+                    signals.get(line).getName() + "re"));
             graphView.addLine(new Line2D(tempY, tempY,
                     GraphColor.values()[line % GraphColor.values().length].argb,
-                    operationFFT.getOutputSignals().get(line).getName() + "im"));
+                    signals.get(line).getName() + "im"));
             graphView.addLine(new Line2D(tempY, tempY,
                     GraphColor.values()[line % GraphColor.values().length].argb,
-                    operationFFT.getOutputSignals().get(line).getName() + "abs"));
+                    signals.get(line).getName() + "abs"));
         }
     }
 
@@ -240,11 +259,15 @@ public class TimeFreqGraphFragment extends Fragment {
         for(int rx = 0; rx<rxN; rx++) {
             for(int tx=0; tx<txN; tx++) {
                 int line = rx*txN+tx;
-                listSnr.add(new SNR(RadarBox.freqSignals.getFrequenciesMHz().length));
+                listSnr.add(new SnrEstimator(RadarBox.freqSignals.getFrequenciesMHz().length));
             }
         }
     }
 
+    private boolean isRawSelected() {
+        return Integer.parseInt(pref.getString("select_signal","0"))==SELECT_RAW;
+    }
+
     private void update(long frameNumber) {
         flag = Integer.parseInt(pref.getString("select_signal","0"));
 
@@ -276,25 +299,24 @@ public class TimeFreqGraphFragment extends Fragment {
                     graphView.getLine("r" + rx + "t" + tx + "abs").setX(tempVector);
             }
         }
-        // координата Y
-        short[] rawFreqSignal = new short[RadarBox.freqSignals.getFN()*2];
+        // координата Y: отсчёты каждого канала читаются прямо из кадра через его представление
         for(int rx = 0; rx<rxN; rx++) {
             for (int tx = 0; tx<txN; tx++) {
-                if(RadarBox.freqSignals.getRawFreqOneChannelSignal(rx,tx,rawFreqSignal)>=0) {
-                        for (int i = 0; i < tempVector.length; i++)
-                            tempVector[i] = rawFreqSignal[2 * i];
-                        graphView.getLine("r" + rx + "t" + tx + "re").setY(tempVector);
-                        for (int i = 0; i < tempVector.length; i++)
-                            tempVector[i] = rawFreqSignal[2 * i + 1];
-                        graphView.getLine("r" + rx + "t" + tx + "im").setY(tempVector);
-                        for (int i = 0; i < tempVector.length; i++)
-                            tempVector[i] = (float)Math.sqrt(rawFreqSignal[2 * i] * rawFreqSignal[2 * i]
-                                    + rawFreqSignal[2 * i + 1] * rawFreqSignal[2 * i + 1]);
-                        graphView.getLine("r" + rx + "t" + tx + "abs").setY(tempVector);
-                    }
+                RawChannelView view = RadarBox.freqSignals.getChannelView(rx,tx);
+                if(view!=null && view.getLength()==tempVector.length) {
+                    view.copyReTo(tempVector);
+                    graphView.getLine("r" + rx + "t" + tx + "re").setY(tempVector);
+                    view.copyImTo(tempVector);
+                    graphView.getLine("r" + rx + "t" + tx + "im").setY(tempVector);
+                    if(RadarBox.processing.isFixedPoint())
+                        view.copyAbsApproxTo(tempVector);
+                    else
+                        view.copyAbsTo(tempVector);
+                    graphView.getLine("r" + rx + "t" + tx + "abs").setY(tempVector);
                 }
             }
         }
+    }
 
 
     private void updateSNR(long frameNumber) {
@@ -314,15 +336,24 @@ public class TimeFreqGraphFragment extends Fragment {
 
             }
         }
-        // координата Y
-        short[] rawFreqSignal = new short[RadarBox.freqSignals.getFN()*2];
+        // координата Y: ОСШ, посчитанное в ветви графа обработки (сигналы в том же порядке,
+        // что и линии), либо, если её нет, оценка по кадрам, полученным графиком
+        ArrayList<ComplexSignal> snrSignals = RadarBox.processing.getPublishedSignals(
+                RadarBox.processing.getSNR(),publishedSnrSignals);
+        if(snrSignals.size()==chN && snrSignals.get(0).getLength()==tempVector.length) {
+            for(int line = 0; line<chN; line++) {
+                ComplexSignal snrSignal = snrSignals.get(line);
+                graphView.getLine("r" + line/txN + "t" + line%txN + "snr")
+                        .setY(snrSignal.getRe(tempVector));
+            }
+            return;
+        }
         for(int rx = 0; rx<rxN; rx++) {
             for (int tx = 0; tx<txN; tx++) {
                 int line = rx*txN+tx;
-                if(RadarBox.freqSignals.getRawFreqOneChannelSignal(rx,tx,rawFreqSignal)>=0) {
-                        for (int i = 0; i < tempVector.length; i++)
-                            tempVector[i] = (float)Math.sqrt(rawFreqSignal[2 * i] * rawFreqSignal[2 * i]
-                                    + rawFreqSignal[2 * i + 1] * rawFreqSignal[2 * i + 1]);
+                RawChannelView view = RadarBox.freqSignals.getChannelView(rx,tx);
+                if(view!=null && view.getLength()==tempVector.length) {
+                        view.copyAbsTo(tempVector);
                         listSnr.get(line).calculateSNR(tempVector);
                         graphView.getLine("r" + rx + "t" + tx + "snr").setY(listSnr.get(line).getArrayAvgSNR());
                 }
@@ -333,37 +364,41 @@ public class TimeFreqGraphFragment extends Fragment {
     private void updateFFT(long frameNumber) {
 
         if(RadarBox.processing.getProcessingSequence().stream()
-                .noneMatch(operationDSP -> operationDSP.getName().equals("FFT")))
+                .noneMatch(operationDSP -> isSpectrumOperation(operationDSP)))
             return;
         OperationDSP operationFFT =
                 RadarBox.processing.getProcessingSequence().stream()
-                .filter(operationDSP -> operationDSP.getName().equals("FFT")).findFirst().get();
-        int signalsCount = operationFFT.getOutputSignals().size();
+                .filter(operationDSP -> isSpectrumOperation(operationDSP)).findFirst().get();
+        // копия выходов последнего обработанного кадра
+        ArrayList<ComplexSignal> signals =
+                RadarBox.processing.getPublishedSignals(operationFFT,publishedSignals);
+        int signalsCount = signals.size();
         if(signalsCount==0)
             return;
 
         if(graphView.getLines().size()!=signalsCount)
             resetAllLines();
 
-        float[] tempVector = new float[operationFFT.getOutputSignals().get(0).getLength()];
+        float[] tempVector = new float[signals.get(0).getLength()];
         for(int i = 0; i<tempVector.length;i++)
-            tempVector[i]=operationFFT.getOutputSignals().get(0).getX()[i];
+            tempVector[i]=signals.get(0).getX()[i];
 
         for(int rxtx = 0; rxtx < signalsCount; rxtx++) {
             // координаты X и Y действительная часть
-            graphView.getLine(operationFFT.getOutputSignals().get(rxtx).getName()+"re")
-                    .setX(operationFFT.getOutputSignals().get(rxtx).getX());
-            for(int i =0; i<tempVector.length; i++)
-                tempVector[i]=operationFFT.getOutputSignals().get(rxtx).getY()[i].re;
-            graphView.getLine(operationFFT.getOutputSignals().get(rxtx).getName()+"re")
-                    .setY(tempVector);
+            graphView.getLine(signals.get(rxtx).getName()+"re")
+                    .setX(signals.get(rxtx).getX());
+            graphView.getLine(signals.get(rxtx).getName()+"re")
+                    .setY(signals.get(rxtx).getRe(tempVector));
             // координаты X и Y мнимая часть
-            graphView.getLine(operationFFT.getOutputSignals().get(rxtx).getName()+"im")
-                    .setX(operationFFT.getOutputSignals().get(rxtx).getX());
-            for(int i =0; i<tempVector.length; i++)
-                tempVector[i]=operationFFT.getOutputSignals().get(rxtx).getY()[i].im;
-            graphView.getLine(operationFFT.getOutputSignals().get(rxtx).getName()+"im")
-                    .setY(tempVector);
+            graphView.getLine(signals.get(rxtx).getName()+"im")
+                    .setX(signals.get(rxtx).getX());
+            graphView.getLine(signals.get(rxtx).getName()+"im")
+                    .setY(signals.get(rxtx).getIm(tempVector));
+            // координаты X и Y модуль
+            graphView.getLine(signals.get(rxtx).getName()+"abs")
+                    .setX(signals.get(rxtx).getX());
+            graphView.getLine(signals.get(rxtx).getName()+"abs")
+                    .setY(signals.get(rxtx).getAbs(tempVector));
         }
     }
 
@@ -146,6 +146,10 @@ public class RadarBox extends Application implements Application.ActivityLifecyc
         closeAoRDFile(key);
         if (key.equals(FILE_READ_KEY)) {
             fileRead = newFile;
+            // калибровочные коэффициенты из папки дополнений читаемого файла
+            if (fileRead != null && fileRead.additional != null && processing != null) {
+                processing.loadCalibration(fileRead.additional.getFolder());
+            }
         } else if (key.equals(FILE_WRITE_KEY)) {
             fileWrite = newFile;
         }
@@ -157,6 +161,9 @@ public class RadarBox extends Application implements Application.ActivityLifecyc
             if (fileRead != null) {
                 fileRead.close();
                 fileRead = null;
+                // коэффициенты закрытого файла не относятся к следующему источнику
+                if (processing != null)
+                    processing.setCalibration(null);
             }
         } else if (key.equals(FILE_WRITE_KEY)) {
             if (fileWrite != null) {
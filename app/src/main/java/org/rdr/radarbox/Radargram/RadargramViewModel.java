@@ -1,5 +1,6 @@
 package org.rdr.radarbox.Radargram;
 
+import org.rdr.radarbox.DSP.RawChannelView;
 import org.rdr.radarbox.DataThreadService;
 import org.rdr.radarbox.RadarBox;
 
@@ -51,18 +52,16 @@ public class RadargramViewModel extends ViewModel {
 
     /** метод добавляет новые радиолокацинные данные в буферы */
     private void addFrameToFreqBuffers() {
-        // временный промежуточный массив для хранения одного частотного сигнала для каждого канала
-        short[] oneChannelFreqSignal = new short[freqCount*2];
+        RawChannelView[] views = RadarBox.freqSignals.getChannelViews();
         for(int ch=0; ch<RadarBox.freqSignals.getChN(); ch++) {
             // сдвигаем содержимое массива на один кадр вперёд
             System.arraycopy(
                     freqBufferList.get(ch),0,
                     freqBufferList.get(ch),freqCount,
                     freqBufferList.get(ch).length-freqCount);
-            // забираем данные из RadarBox.FreqSignals и записываем в последние кадры каждого канала
-            RadarBox.freqSignals.getRawFreqOneChannelSignal(ch,oneChannelFreqSignal);
-            for(int f=0; f<freqCount; f++)
-                freqBufferList.get(ch)[f]=oneChannelFreqSignal[2*f]; //только действительная часть
+            // забираем данные из кадра RadarBox.FreqSignals и записываем в последние кадры каждого канала
+            if(ch<views.length && views[ch].getLength()==freqCount)
+                views[ch].copyReTo(freqBufferList.get(ch),0); //только действительная часть
         }
     }
 
@@ -0,0 +1,128 @@
+package org.rdr.radarbox.DSP;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Погрешность приближений {@link ComplexMath.Accuracy#FAST} относительно точного вычисления
+ * в пределах, указанных в описании {@link ComplexMath} */
+public class ComplexMathTest {
+    private static final ComplexMath.Accuracy FAST = ComplexMath.Accuracy.FAST;
+    private static final ComplexMath.Accuracy EXACT = ComplexMath.Accuracy.EXACT;
+    private static final int ANGLES = 100000;
+    private static final float[] MAGNITUDES = {1e-8f, 1e-3f, 0.7f, 1f, 3.3f, 32767f, 1e8f};
+
+    @Test
+    public void absWithinOnePointOnePercent() {
+        double worst = 0;
+        for (float magnitude : MAGNITUDES)
+            for (int k = 0; k < ANGLES; k++) {
+                double angle = 2 * Math.PI * k / ANGLES;
+                float re = (float) (magnitude * Math.cos(angle));
+                float im = (float) (magnitude * Math.sin(angle));
+                float exact = ComplexMath.abs(re, im, EXACT);
+                float fast = ComplexMath.abs(re, im, FAST);
+                worst = Math.max(worst, Math.abs(fast - exact) / exact);
+            }
+        assertTrue("abs error " + worst, worst <= 0.011);
+        assertEquals(0, ComplexMath.abs(0f, -0f, FAST), 0);
+    }
+
+    @Test
+    public void argWithinBound() {
+        double worst = 0;
+        for (float magnitude : MAGNITUDES)
+            for (int k = 0; k < ANGLES; k++) {
+                double angle = 2 * Math.PI * k / ANGLES;
+                float re = (float) (magnitude * Math.cos(angle));
+                float im = (float) (magnitude * Math.sin(angle));
+                double error = ComplexMath.arg(re, im, FAST) - ComplexMath.arg(re, im, EXACT);
+                // -pi и +pi - один и тот же угол
+                error = Math.IEEEremainder(error, 2 * Math.PI);
+                worst = Math.max(worst, Math.abs(error));
+            }
+        assertTrue("arg error " + worst, worst <= 1.2e-5);
+    }
+
+    /** Знаки нулей дают те же значения, что и {@link Math#atan2(double, double)}:
+     * ±0, ±pi/2 и ±pi */
+    @Test
+    public void argOfSignedZerosMatchesAtan2() {
+        float[] values = {0f, -0f, 1f, -1f};
+        for (float re : values)
+            for (float im : values) {
+                if (Math.abs(re) == 1 && Math.abs(im) == 1)
+                    continue;
+                float expected = (float) Math.atan2(im, re);
+                float fast = ComplexMath.arg(re, im, FAST);
+                String message = "arg(" + re + ", " + im + ")";
+                assertEquals(message, expected, fast, 1e-6);
+                assertEquals(message, Float.floatToIntBits(Math.copySign(1f, expected)),
+                        Float.floatToIntBits(Math.copySign(1f, fast)));
+                assertEquals(message, expected, ComplexMath.arg(re, im, EXACT), 0);
+            }
+    }
+
+    @Test
+    public void powerDbWithinBound() {
+        Random random = new Random(24);
+        double worst = 0;
+        for (int k = 0; k < 200000; k++) {
+            // мощности от MIN_POWER до 1e30 с произвольной мантиссой
+            float magnitude = (float) Math.pow(10, -10 + 25 * random.nextDouble());
+            double angle = 2 * Math.PI * random.nextDouble();
+            float re = (float) (magnitude * Math.cos(angle));
+            float im = (float) (magnitude * Math.sin(angle));
+            float exact = ComplexMath.powerDb(re, im, EXACT);
+            worst = Math.max(worst, Math.abs(ComplexMath.powerDb(re, im, FAST) - exact));
+        }
+        assertTrue("powerDb error " + worst, worst <= 1e-4);
+    }
+
+    /** Мощность не меньше {@link ComplexMath#MIN_POWER}: ноль и меньшие мощности дают -200 дБ */
+    @Test
+    public void powerDbIsLimitedByMinPower() {
+        float floor = (float) (10 * Math.log10(ComplexMath.MIN_POWER));
+        assertEquals(-200, floor, 1e-4);
+        float minAmplitude = (float) Math.sqrt(ComplexMath.MIN_POWER);
+        float[][] samples = {{0f, 0f}, {-0f, -0f}, {1e-15f, 0f}, {0f, -1e-30f},
+                {Float.MIN_VALUE, Float.MIN_VALUE}};
+        for (ComplexMath.Accuracy accuracy : ComplexMath.Accuracy.values()) {
+            for (float[] sample : samples)
+                assertEquals(accuracy + " " + sample[0] + ", " + sample[1], floor,
+                        ComplexMath.powerDb(sample[0], sample[1], accuracy), 1e-4);
+            assertEquals(accuracy.toString(), floor,
+                    ComplexMath.powerDb(minAmplitude, 0f, accuracy), 1e-3);
+        }
+    }
+
+    /** Пакетные функции совпадают с функциями отдельных отсчётов */
+    @Test
+    public void batchMatchesScalar() {
+        Random random = new Random(7);
+        int count = 64;
+        float[] data = new float[2 * count + 2];
+        for (int i = 0; i < data.length; i++)
+            data[i] = 10 * (2 * random.nextFloat() - 1);
+        data[2] = 0f;
+        data[3] = -0f;
+        float[] dest = new float[count];
+        for (ComplexMath.Accuracy accuracy : ComplexMath.Accuracy.values()) {
+            ComplexMath.abs(data, 2, dest, count, accuracy);
+            for (int i = 0; i < count; i++)
+                assertEquals(ComplexMath.abs(data[2 + 2 * i], data[3 + 2 * i], accuracy),
+                        dest[i], 0);
+            ComplexMath.arg(data, 2, dest, count, accuracy);
+            for (int i = 0; i < count; i++)
+                assertEquals(ComplexMath.arg(data[2 + 2 * i], data[3 + 2 * i], accuracy),
+                        dest[i], 0);
+            ComplexMath.powerDb(data, 2, dest, count, accuracy);
+            for (int i = 0; i < count; i++)
+                assertEquals(ComplexMath.powerDb(data[2 + 2 * i], data[3 + 2 * i], accuracy),
+                        dest[i], 0);
+        }
+    }
+}
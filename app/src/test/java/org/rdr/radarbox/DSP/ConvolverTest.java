@@ -0,0 +1,82 @@
+package org.rdr.radarbox.DSP;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/** Сравнение {@link Convolver} с прямой свёрткой и корреляцией */
+public class ConvolverTest {
+    private static final double TOLERANCE = 1e-5;
+
+    /** Прямая линейная свёртка длины xLength+hLength-1 */
+    private static double[] directConvolution(float[] x, int xLength, float[] h, int hLength) {
+        int yLength = xLength + hLength - 1;
+        double[] y = new double[2 * yLength];
+        for (int n = 0; n < xLength; n++)
+            for (int k = 0; k < hLength; k++) {
+                y[2 * (n + k)] += x[2 * n] * h[2 * k] - x[2 * n + 1] * h[2 * k + 1];
+                y[2 * (n + k) + 1] += x[2 * n] * h[2 * k + 1] + x[2 * n + 1] * h[2 * k];
+            }
+        return y;
+    }
+
+    @Test
+    public void convolveMatchesDirectConvolution() {
+        Random random = new Random(7);
+        // один блок, несколько блоков, фильтр длиннее сигнала
+        int[][] cases = {{350, 11}, {1000, 33}, {64, 1}, {20, 50}, {777, 64}};
+        for (int[] c : cases) {
+            int xLength = c[0], hLength = c[1];
+            float[] x = DftReference.randomSignal(random, xLength);
+            float[] h = DftReference.randomSignal(random, hLength);
+            Convolver convolver = new Convolver(h, hLength, xLength);
+            float[] y = new float[2 * (xLength + hLength - 1)];
+            convolver.convolve(x, xLength, y);
+            double error = DftReference.relativeError(y,
+                    directConvolution(x, xLength, h, hLength), y.length);
+            assertTrue("x " + xLength + " h " + hLength + " error " + error, error < TOLERANCE);
+        }
+    }
+
+    @Test
+    public void filterMatchesFirstSamplesOfConvolution() {
+        Random random = new Random(8);
+        int[][] cases = {{350, 11}, {1000, 33}, {300, 100}};
+        for (int[] c : cases) {
+            int xLength = c[0], hLength = c[1];
+            float[] x = DftReference.randomSignal(random, xLength);
+            float[] h = DftReference.randomSignal(random, hLength);
+            // длина БПФ выбрана по другой длине сигнала - обработка блоками
+            Convolver convolver = new Convolver(h, hLength, xLength / 3);
+            float[] y = new float[2 * xLength];
+            convolver.filter(x, xLength, y);
+            double error = DftReference.relativeError(y,
+                    directConvolution(x, xLength, h, hLength), y.length);
+            assertTrue("x " + xLength + " h " + hLength + " error " + error, error < TOLERANCE);
+        }
+    }
+
+    @Test
+    public void correlationPeakIsAtReferenceDelay() {
+        Random random = new Random(9);
+        int xLength = 500, refLength = 31, delay = 123;
+        float[] reference = DftReference.randomSignal(random, refLength);
+        float[] x = new float[2 * xLength];
+        System.arraycopy(reference, 0, x, 2 * delay, 2 * refLength);
+        Convolver convolver = Convolver.forCorrelation(reference, refLength, xLength);
+        float[] y = new float[2 * xLength];
+        convolver.filter(x, xLength, y);
+        // r[n] = sum_k x[n+k]*conj(ref[k]) находится в выходе по индексу n+refLength-1
+        double energy = 0;
+        for (int k = 0; k < 2 * refLength; k++)
+            energy += reference[k] * reference[k];
+        int peak = delay + refLength - 1;
+        assertTrue(Math.abs(y[2 * peak] - energy) < 1e-4 * energy);
+        assertTrue(Math.abs(y[2 * peak + 1]) < 1e-4 * energy);
+        for (int n = 0; n < xLength; n++)
+            if (n != peak)
+                assertTrue("n=" + n, Math.hypot(y[2 * n], y[2 * n + 1]) < energy);
+    }
+}
@@ -0,0 +1,52 @@
+package org.rdr.radarbox.DSP;
+
+/** Эталонные вычисления для тестов: прямое ДПФ в double и относительная погрешность.
+ * Отсчёты хранятся в формате (re, im, re, im...).
+ */
+public final class DftReference {
+    private DftReference() {}
+
+    /** Прямое ДПФ без нормировки: X[k] = sum x[n]*exp(-+2*pi*i*k*n/N)
+     * @param x отсчёты
+     * @param n количество комплексных отсчётов
+     * @param inverse true - знак "+" в показателе (обратное преобразование без деления на N)
+     * @return спектр
+     */
+    public static double[] dft(float[] x, int n, boolean inverse) {
+        double sign = inverse ? 1 : -1;
+        double[] result = new double[2 * n];
+        for (int k = 0; k < n; k++) {
+            double re = 0, im = 0;
+            for (int j = 0; j < n; j++) {
+                // индекс по модулю n, чтобы аргумент не терял точность на больших длинах
+                double angle = sign * 2 * Math.PI * (((long) k * j) % n) / n;
+                double c = Math.cos(angle), s = Math.sin(angle);
+                re += x[2 * j] * c - x[2 * j + 1] * s;
+                im += x[2 * j] * s + x[2 * j + 1] * c;
+            }
+            result[2 * k] = re;
+            result[2 * k + 1] = im;
+        }
+        return result;
+    }
+
+    /** Относительная среднеквадратичная погрешность ||actual - expected|| / ||expected||
+     * по первым count элементам */
+    public static double relativeError(float[] actual, double[] expected, int count) {
+        double error = 0, norm = 0;
+        for (int i = 0; i < count; i++) {
+            double d = actual[i] - expected[i];
+            error += d * d;
+            norm += expected[i] * expected[i];
+        }
+        return Math.sqrt(error / Math.max(norm, 1e-300));
+    }
+
+    /** Случайный комплексный сигнал с компонентами от -1 до 1 */
+    public static float[] randomSignal(java.util.Random random, int n) {
+        float[] x = new float[2 * n];
+        for (int i = 0; i < x.length; i++)
+            x[i] = 2 * random.nextFloat() - 1;
+        return x;
+    }
+}
@@ -0,0 +1,86 @@
+package org.rdr.radarbox.DSP;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/** Сравнение {@link FftPlan} с прямым ДПФ для длин - степеней двойки, составных (смешанное
+ * основание) и простых (алгоритм Блюстейна) */
+public class FftPlanTest {
+    private static final int[] LENGTHS = {1, 2, 3, 4, 5, 6, 7, 8, 11, 12, 13, 16, 17, 30, 49,
+            60, 64, 97, 100, 121, 127, 143, 169, 210, 256, 350, 1000, 1024, 1031};
+    private static final double TOLERANCE = 1e-5;
+
+    private static void checkLength(int n, boolean inverse, Random random) {
+        float[] x = DftReference.randomSignal(random, n);
+        double[] expected = DftReference.dft(x, n, inverse);
+        // отсчёты со смещением: план не должен выходить за свой участок массива
+        float[] data = new float[2 * n + 6];
+        data[0] = data[1] = data[2 * n + 4] = data[2 * n + 5] = 7;
+        System.arraycopy(x, 0, data, 4, 2 * n);
+        FftPlan.get(n, inverse).execute(data, 4);
+        float[] actual = new float[2 * n];
+        System.arraycopy(data, 4, actual, 0, 2 * n);
+        double error = DftReference.relativeError(actual, expected, 2 * n);
+        assertTrue("n=" + n + " inverse=" + inverse + " error " + error, error < TOLERANCE);
+        assertEquals(7f, data[0], 0);
+        assertEquals(7f, data[2 * n + 5], 0);
+    }
+
+    @Test
+    public void forwardMatchesDirectDft() {
+        Random random = new Random(1);
+        for (int n : LENGTHS)
+            checkLength(n, false, random);
+    }
+
+    @Test
+    public void inverseMatchesDirectDft() {
+        Random random = new Random(2);
+        for (int n : LENGTHS)
+            checkLength(n, true, random);
+    }
+
+    @Test
+    public void algorithmDependsOnFactorization() {
+        assertSame(FftPlan.Algorithm.RADIX_2, FftPlan.get(1024, false).getAlgorithm());
+        assertSame(FftPlan.Algorithm.MIXED_RADIX, FftPlan.get(350, false).getAlgorithm());
+        assertSame(FftPlan.Algorithm.MIXED_RADIX, FftPlan.get(143, false).getAlgorithm());
+        assertSame(FftPlan.Algorithm.BLUESTEIN, FftPlan.get(1031, false).getAlgorithm());
+        assertSame(FftPlan.Algorithm.BLUESTEIN, FftPlan.get(2 * 17, true).getAlgorithm());
+    }
+
+    @Test
+    public void forwardThenInverseRestoresSignal() {
+        Random random = new Random(3);
+        for (int n : new int[]{64, 350, 1031}) {
+            float[] x = DftReference.randomSignal(random, n);
+            float[] data = x.clone();
+            FftPlan.get(n, false).execute(data, 0);
+            FftPlan.get(n, true).execute(data, 0);
+            double error = 0;
+            for (int i = 0; i < 2 * n; i++)
+                error = Math.max(error, Math.abs(data[i] / n - x[i]));
+            assertTrue("n=" + n + " error " + error, error < 1e-5);
+        }
+    }
+
+    @Test
+    public void plansAreCached() {
+        FftPlan plan = FftPlan.get(360, false);
+        assertSame(plan, FftPlan.get(360, false));
+        assertTrue(plan != FftPlan.get(360, true));
+    }
+
+    @Test
+    public void nextFastLengthIsSmooth() {
+        assertEquals(1, FftPlan.nextFastLength(1));
+        assertEquals(360, FftPlan.nextFastLength(350 + 11 - 1));
+        assertEquals(1024, FftPlan.nextFastLength(1024));
+        assertEquals(1080, FftPlan.nextFastLength(1029));
+    }
+}
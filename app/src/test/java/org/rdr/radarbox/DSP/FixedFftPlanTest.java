@@ -0,0 +1,85 @@
+package org.rdr.radarbox.DSP;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Сравнение {@link FixedFftPlan} (Q15 с блочной плавающей точкой) с прямым ДПФ */
+public class FixedFftPlanTest {
+    /** Отношение мощности спектра к мощности ошибки, дБ */
+    private static double sqnr(short[] data, int exponent, double[] expected, int n) {
+        double scale = Math.scalb(1.0, exponent);
+        double signal = 0, noise = 0;
+        for (int i = 0; i < 2 * n; i++) {
+            double d = data[i] * scale - expected[i];
+            noise += d * d;
+            signal += expected[i] * expected[i];
+        }
+        return 10 * Math.log10(signal / Math.max(noise, 1e-300));
+    }
+
+    private static double check(int n, int amplitude, Random random) {
+        short[] data = new short[2 * n];
+        float[] x = new float[2 * n];
+        for (int i = 0; i < 2 * n; i++) {
+            data[i] = (short) (random.nextInt(2 * amplitude + 1) - amplitude);
+            x[i] = data[i];
+        }
+        int exponent = FixedFftPlan.get(n).execute(data);
+        return sqnr(data, exponent, DftReference.dft(x, n, false), n);
+    }
+
+    @Test
+    public void fullScaleInputMatchesDirectDft() {
+        Random random = new Random(13);
+        for (int n : new int[]{2, 8, 64, 256, 1024}) {
+            double snr = check(n, 32767, random);
+            assertTrue("n=" + n + " SQNR " + snr, snr > 55);
+        }
+    }
+
+    @Test
+    public void weakInputKeepsPrecision() {
+        // слабый блок сдвигается влево перед первым этапом
+        Random random = new Random(14);
+        for (int n : new int[]{64, 512}) {
+            double snr = check(n, 100, random);
+            assertTrue("n=" + n + " SQNR " + snr, snr > 55);
+        }
+    }
+
+    @Test
+    public void toneFallsIntoItsBin() {
+        int n = 256, bin = 37;
+        short[] data = new short[2 * n];
+        for (int i = 0; i < n; i++) {
+            double angle = 2 * Math.PI * bin * i / n;
+            data[2 * i] = (short) Math.round(20000 * Math.cos(angle));
+            data[2 * i + 1] = (short) Math.round(20000 * Math.sin(angle));
+        }
+        int exponent = FixedFftPlan.get(n).execute(data);
+        double peak = Math.scalb(Math.hypot(data[2 * bin], data[2 * bin + 1]), exponent);
+        assertEquals(20000.0 * n, peak, 20000.0 * n * 1e-3);
+    }
+
+    @Test
+    public void magnitudeWithinThreePercent() {
+        for (int angle = 0; angle < 360; angle++) {
+            double a = Math.toRadians(angle);
+            int re = (int) Math.round(10000 * Math.cos(a)), im = (int) Math.round(10000 * Math.sin(a));
+            double exact = Math.hypot(re, im);
+            assertEquals("angle " + angle, exact, FixedFftPlan.magnitude(re, im), 0.03 * exact);
+        }
+    }
+
+    @Test
+    public void supportsOnlyPowersOfTwo() {
+        assertTrue(FixedFftPlan.isSupported(1024));
+        assertFalse(FixedFftPlan.isSupported(350));
+        assertFalse(FixedFftPlan.isSupported(0));
+    }
+}
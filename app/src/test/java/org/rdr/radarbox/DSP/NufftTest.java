@@ -0,0 +1,83 @@
+package org.rdr.radarbox.DSP;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/** Сравнение {@link Nufft} с прямым вычислением сумм по неравномерным точкам */
+public class NufftTest {
+    private static final double TOLERANCE = 1e-4;
+
+    /** Неравномерные фазы: равномерная сетка со случайными отклонениями */
+    private static double[] jitteredPhases(Random random, int pointCount) {
+        double[] theta = new double[pointCount];
+        for (int k = 0; k < pointCount; k++)
+            theta[k] = 2 * Math.PI * (k + 0.4 * (random.nextDouble() - 0.5)) / pointCount;
+        return theta;
+    }
+
+    @Test
+    public void type1MatchesDirectSum() {
+        Random random = new Random(10);
+        int[][] cases = {{350, 256}, {100, 100}, {64, 500}, {1, 8}};
+        for (int[] c : cases) {
+            int pointCount = c[0], modeCount = c[1];
+            double[] theta = jitteredPhases(random, pointCount);
+            float[] values = DftReference.randomSignal(random, pointCount);
+            double[] expected = new double[2 * modeCount];
+            for (int j = 0; j < modeCount; j++)
+                for (int k = 0; k < pointCount; k++) {
+                    double angle = -j * theta[k];
+                    double cs = Math.cos(angle), sn = Math.sin(angle);
+                    expected[2 * j] += values[2 * k] * cs - values[2 * k + 1] * sn;
+                    expected[2 * j + 1] += values[2 * k] * sn + values[2 * k + 1] * cs;
+                }
+            float[] y = new float[2 * modeCount];
+            new Nufft(theta, pointCount, modeCount).type1(values, y);
+            double error = DftReference.relativeError(y, expected, y.length);
+            assertTrue("L=" + pointCount + " N=" + modeCount + " error " + error,
+                    error < TOLERANCE);
+        }
+    }
+
+    @Test
+    public void type2MatchesDirectSum() {
+        Random random = new Random(11);
+        int[][] cases = {{350, 256}, {100, 100}, {500, 64}};
+        for (int[] c : cases) {
+            int pointCount = c[0], modeCount = c[1];
+            double[] theta = jitteredPhases(random, pointCount);
+            float[] modes = DftReference.randomSignal(random, modeCount);
+            double[] expected = new double[2 * pointCount];
+            for (int k = 0; k < pointCount; k++)
+                for (int j = 0; j < modeCount; j++) {
+                    double angle = j * theta[k];
+                    double cs = Math.cos(angle), sn = Math.sin(angle);
+                    expected[2 * k] += modes[2 * j] * cs - modes[2 * j + 1] * sn;
+                    expected[2 * k + 1] += modes[2 * j] * sn + modes[2 * j + 1] * cs;
+                }
+            float[] values = new float[2 * pointCount];
+            new Nufft(theta, pointCount, modeCount).type2(modes, values);
+            double error = DftReference.relativeError(values, expected, values.length);
+            assertTrue("L=" + pointCount + " N=" + modeCount + " error " + error,
+                    error < TOLERANCE);
+        }
+    }
+
+    @Test
+    public void uniformPhasesGiveDft() {
+        Random random = new Random(12);
+        int n = 128;
+        double[] theta = new double[n];
+        for (int k = 0; k < n; k++)
+            theta[k] = 2 * Math.PI * k / n;
+        float[] values = DftReference.randomSignal(random, n);
+        float[] y = new float[2 * n];
+        new Nufft(theta, n, n).type1(values, y);
+        // y[j] = sum_k c[k]*exp(-2*pi*i*j*k/n) - прямое ДПФ
+        double error = DftReference.relativeError(y, DftReference.dft(values, n, false), 2 * n);
+        assertTrue("error " + error, error < TOLERANCE);
+    }
+}
@@ -0,0 +1,183 @@
+package org.rdr.radarbox.DSP.Operations;
+
+import org.junit.Test;
+import org.rdr.radarbox.DSP.ComplexSignal;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/** Сравнение {@link OperationBackground} с прямым вычислением фона по предыдущим кадрам */
+public class OperationBackgroundTest {
+    private static final int CHANNELS = 2;
+    private static final int LENGTH = 16;
+
+    private final Random random = new Random(15);
+    private final ArrayList<ComplexSignal> inputs = new ArrayList<>();
+    /** Все поданные кадры: [кадр][канал][(re, im)] */
+    private final ArrayList<float[][]> frames = new ArrayList<>();
+
+    public OperationBackgroundTest() {
+        for (int i = 0; i < CHANNELS; i++)
+            inputs.add(new ComplexSignal(LENGTH).setName("r0t" + i));
+    }
+
+    private OperationBackground create() {
+        OperationBackground operation = new OperationBackground();
+        operation.setInputSignals(inputs);
+        return operation;
+    }
+
+    /** Новый кадр - постоянная составляющая и шум - во входных сигналах и выполнение операции */
+    private float[][] step(OperationBackground operation) {
+        float[][] frame = new float[CHANNELS][2 * LENGTH];
+        for (int i = 0; i < CHANNELS; i++) {
+            for (int j = 0; j < frame[i].length; j++)
+                frame[i][j] = (j % 5) - 2 + 0.5f * (2 * random.nextFloat() - 1);
+            System.arraycopy(frame[i], 0, inputs.get(i).getData(), 0, frame[i].length);
+        }
+        frames.add(frame);
+        operation.doOperation();
+        return frame;
+    }
+
+    /** Выходы операции равны последнему кадру за вычетом фона b */
+    private void assertOutput(OperationBackground operation, double[][] b, String message) {
+        float[][] x = frames.get(frames.size() - 1);
+        ArrayList<ComplexSignal> outputs = operation.getOutputSignals();
+        assertEquals(CHANNELS, outputs.size());
+        for (int i = 0; i < CHANNELS; i++) {
+            float[] y = outputs.get(i).getData();
+            assertEquals("r0t" + i, outputs.get(i).getName());
+            for (int j = 0; j < 2 * LENGTH; j++)
+                assertEquals(message, x[i][j] - b[i][j], y[j], 1e-5);
+        }
+    }
+
+    /** Среднее кадров с номерами first..last */
+    private double[][] mean(int first, int last) {
+        double[][] b = new double[CHANNELS][2 * LENGTH];
+        for (int i = 0; i < CHANNELS; i++)
+            for (int j = 0; j < 2 * LENGTH; j++) {
+                for (int t = first; t <= last; t++)
+                    b[i][j] += frames.get(t)[i][j];
+                b[i][j] /= last - first + 1;
+            }
+        return b;
+    }
+
+    private static double[][] copy(float[][] frame) {
+        double[][] b = new double[frame.length][];
+        for (int i = 0; i < frame.length; i++) {
+            b[i] = new double[frame[i].length];
+            for (int j = 0; j < frame[i].length; j++)
+                b[i][j] = frame[i][j];
+        }
+        return b;
+    }
+
+    @Test
+    public void emaMatchesDirectRecursion() {
+        float alpha = 0.2f;
+        OperationBackground operation = create();
+        operation.setEma(alpha);
+        double[][] b = null;
+        for (int t = 0; t < 30; t++) {
+            float[][] x = step(operation);
+            if (b == null) {
+                // первый кадр - начальный фон
+                b = copy(x);
+                assertOutput(operation, b, "frame " + t);
+                continue;
+            }
+            assertOutput(operation, b, "frame " + t);
+            for (int i = 0; i < CHANNELS; i++)
+                for (int j = 0; j < b[i].length; j++)
+                    b[i][j] += alpha * (x[i][j] - b[i][j]);
+        }
+        assertEquals(30, operation.getAccumulatedCount());
+    }
+
+    @Test
+    public void meanMatchesDirectWindow() {
+        int n = 4;
+        OperationBackground operation = create();
+        operation.setMean(n);
+        step(operation);
+        assertOutput(operation, copy(frames.get(0)), "frame 0");
+        for (int t = 1; t < 20; t++) {
+            step(operation);
+            // пока окно заполняется - среднее всех предыдущих кадров
+            assertOutput(operation, mean(Math.max(0, t - n), t - 1), "frame " + t);
+        }
+    }
+
+    @Test
+    public void resetStartsFromNextFrame() {
+        OperationBackground operation = create();
+        operation.setMean(3);
+        for (int t = 0; t < 5; t++)
+            step(operation);
+        operation.reset();
+        // сброс выполняется в начале кадра: этот кадр становится фоном, выход нулевой
+        float[][] x = step(operation);
+        assertEquals(1, operation.getAccumulatedCount());
+        assertOutput(operation, copy(x), "after reset");
+        step(operation);
+        assertOutput(operation, copy(x), "second frame after reset");
+        step(operation);
+        assertOutput(operation, mean(5, 6), "third frame after reset");
+    }
+
+    @Test
+    public void frozenKeepsCapturedBackground() {
+        float alpha = 0.5f;
+        OperationBackground operation = create();
+        operation.setEma(alpha);
+        double[][] b = copy(step(operation));
+        float[][] x = step(operation);
+        for (int i = 0; i < CHANNELS; i++)
+            for (int j = 0; j < b[i].length; j++)
+                b[i][j] += alpha * (x[i][j] - b[i][j]);
+
+        operation.setFrozen(true);
+        for (int t = 0; t < 5; t++) {
+            step(operation);
+            assertOutput(operation, b, "frozen frame " + t);
+        }
+        assertEquals(2, operation.getAccumulatedCount());
+
+        // фон, сброшенный при фиксации, захватывается первым кадром и больше не меняется
+        operation.reset();
+        b = copy(step(operation));
+        for (int t = 0; t < 3; t++) {
+            step(operation);
+            assertOutput(operation, b, "frozen after reset " + t);
+        }
+
+        operation.setFrozen(false);
+        x = step(operation);
+        assertOutput(operation, b, "unfrozen");
+        for (int i = 0; i < CHANNELS; i++)
+            for (int j = 0; j < b[i].length; j++)
+                b[i][j] += alpha * (x[i][j] - b[i][j]);
+        step(operation);
+        assertOutput(operation, b, "updated after unfreeze");
+    }
+
+    @Test
+    public void disabledPassesInputsThrough() {
+        OperationBackground operation = create();
+        step(operation);
+        operation.setEnabled(false);
+        step(operation);
+        assertSame(inputs, operation.getOutputSignals());
+        operation.setEnabled(true);
+        // включение применяется в начале кадра, фон сохраняется
+        assertSame(inputs, operation.getOutputSignals());
+        step(operation);
+        assertOutput(operation, copy(frames.get(0)), "enabled again");
+    }
+}
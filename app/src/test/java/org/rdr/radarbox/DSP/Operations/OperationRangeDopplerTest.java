@@ -0,0 +1,96 @@
+package org.rdr.radarbox.DSP.Operations;
+
+import org.junit.Test;
+import org.rdr.radarbox.DSP.ComplexSignal;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Сравнение скользящего ДПФ по медленному времени {@link OperationRangeDoppler} с прямым ДПФ
+ * последних M кадров */
+public class OperationRangeDopplerTest {
+    /** Прямое ДПФ по медленному времени: S_k = sum_n x[t-M+1+n]*exp(-2*pi*i*k*n/M),
+     * кадры до начала записи - нулевые */
+    private static double[][] directSpectrum(float[][][] frames, int last, int channel, int m,
+                                             int length) {
+        double[][] s = new double[m][2 * length];
+        for (int k = 0; k < m; k++)
+            for (int n = 0; n < m; n++) {
+                int frame = last - m + 1 + n;
+                if (frame < 0)
+                    continue;
+                double angle = -2 * Math.PI * k * n / m;
+                double c = Math.cos(angle), sn = Math.sin(angle);
+                float[] x = frames[frame][channel];
+                for (int j = 0; j < length; j++) {
+                    s[k][2 * j] += x[2 * j] * c - x[2 * j + 1] * sn;
+                    s[k][2 * j + 1] += x[2 * j] * sn + x[2 * j + 1] * c;
+                }
+            }
+        return s;
+    }
+
+    private static void check(int m, boolean hann) {
+        Random random = new Random(16 + m);
+        int channels = 2, length = 40, frameCount = 3 * m + 5;
+        float[][][] frames = new float[frameCount][channels][2 * length];
+        ArrayList<ComplexSignal> inputs = new ArrayList<>();
+        for (int i = 0; i < channels; i++)
+            inputs.add(new ComplexSignal(length).setName("r0t" + i));
+        OperationRangeDoppler operation = new OperationRangeDoppler();
+        operation.setRangeDoppler(m, hann);
+        operation.setInputSignals(inputs);
+        for (int t = 0; t < frameCount; t++) {
+            for (int i = 0; i < channels; i++) {
+                float[] x = frames[t][i];
+                for (int j = 0; j < x.length; j++)
+                    x[j] = 2 * random.nextFloat() - 1;
+                System.arraycopy(x, 0, inputs.get(i).getData(), 0, x.length);
+            }
+            operation.doOperation();
+            ArrayList<ComplexSignal> outputs = operation.getOutputSignals();
+            assertEquals(channels * m, outputs.size());
+            for (int i = 0; i < channels; i++) {
+                double[][] s = directSpectrum(frames, t, i, m, length);
+                double error = 0, norm = 0;
+                for (int row = 0; row < m; row++) {
+                    int k = (operation.getDopplerIndex(row) + m) % m;
+                    float[] y = outputs.get(i * m + row).getData();
+                    for (int j = 0; j < 2 * length; j++) {
+                        double expected = hann ?
+                                0.5 * s[k][j] - 0.25 * (s[(k + m - 1) % m][j] + s[(k + 1) % m][j]) :
+                                s[k][j];
+                        error += (y[j] - expected) * (y[j] - expected);
+                        norm += expected * expected;
+                    }
+                }
+                double relative = Math.sqrt(error / norm);
+                assertTrue("M=" + m + " frame " + t + " error " + relative, relative < 1e-5);
+            }
+        }
+    }
+
+    @Test
+    public void slidingDftMatchesDirectDft() {
+        check(8, false);
+        check(32, false);
+        check(12, false);
+    }
+
+    @Test
+    public void hannWindowInFrequencyDomain() {
+        check(16, true);
+    }
+
+    @Test
+    public void zeroDopplerInTheMiddle() {
+        OperationRangeDoppler operation = new OperationRangeDoppler();
+        operation.setRangeDoppler(8, false);
+        assertEquals(-4, operation.getDopplerIndex(0));
+        assertEquals(0, operation.getDopplerIndex(4));
+        assertEquals(3, operation.getDopplerIndex(7));
+    }
+}
@@ -0,0 +1,146 @@
+package org.rdr.radarbox.DSP.Operations;
+
+import org.junit.Test;
+import org.rdr.radarbox.DSP.ComplexSignal;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/** Сравнение {@link OperationStacking} с прямым средним кадров и проверка смены режима */
+public class OperationStackingTest {
+    private static final int CHANNELS = 2;
+    private static final int LENGTH = 16;
+
+    private final Random random = new Random(16);
+    private final ArrayList<ComplexSignal> inputs = new ArrayList<>();
+    /** Все поданные кадры: [кадр][канал][(re, im)] */
+    private final ArrayList<float[][]> frames = new ArrayList<>();
+
+    public OperationStackingTest() {
+        for (int i = 0; i < CHANNELS; i++)
+            inputs.add(new ComplexSignal(LENGTH).setName("r0t" + i));
+    }
+
+    private OperationStacking create(OperationStacking.Mode mode, int frameCount) {
+        OperationStacking operation = new OperationStacking();
+        operation.setStacking(mode, frameCount);
+        operation.setInputSignals(inputs);
+        return operation;
+    }
+
+    /** Новый случайный кадр во входных сигналах и выполнение операции */
+    private void step(OperationStacking operation) {
+        float[][] frame = new float[CHANNELS][2 * LENGTH];
+        for (int i = 0; i < CHANNELS; i++) {
+            for (int j = 0; j < frame[i].length; j++)
+                frame[i][j] = 2 * random.nextFloat() - 1;
+            System.arraycopy(frame[i], 0, inputs.get(i).getData(), 0, frame[i].length);
+        }
+        frames.add(frame);
+        operation.doOperation();
+    }
+
+    /** Выходы операции равны среднему кадров с номерами first..last */
+    private void assertMean(OperationStacking operation, int first, int last) {
+        ArrayList<ComplexSignal> outputs = operation.getOutputSignals();
+        assertEquals(CHANNELS, outputs.size());
+        for (int i = 0; i < CHANNELS; i++) {
+            float[] y = outputs.get(i).getData();
+            assertEquals("r0t" + i, outputs.get(i).getName());
+            for (int j = 0; j < 2 * LENGTH; j++) {
+                double mean = 0;
+                for (int t = first; t <= last; t++)
+                    mean += frames.get(t)[i][j];
+                mean /= last - first + 1;
+                assertEquals("frames " + first + ".." + last, mean, y[j], 1e-5);
+            }
+        }
+    }
+
+    @Test
+    public void movingMatchesDirectMean() {
+        int k = 5;
+        OperationStacking operation = create(OperationStacking.Mode.MOVING, k);
+        for (int t = 0; t < 40; t++) {
+            step(operation);
+            assertTrue(operation.hasNewOutput());
+            // пока окно заполняется - среднее уже накопленных кадров
+            assertMean(operation, Math.max(0, t - k + 1), t);
+        }
+    }
+
+    @Test
+    public void decimatedOutputsEveryKthFrame() {
+        int k = 3;
+        OperationStacking operation = create(OperationStacking.Mode.DECIMATED, k);
+        for (int t = 0; t < 4 * k; t++) {
+            step(operation);
+            boolean expected = t % k == k - 1;
+            assertEquals("frame " + t, expected, operation.hasNewOutput());
+            if (expected)
+                assertMean(operation, t - k + 1, t);
+        }
+    }
+
+    @Test
+    public void settingsApplyAtNextFrame() {
+        OperationStacking operation = create(OperationStacking.Mode.MOVING, 4);
+        for (int t = 0; t < 6; t++)
+            step(operation);
+        assertMean(operation, 2, 5);
+
+        // смена режима видна сразу, но применяется в начале следующего кадра со сбросом суммы
+        operation.setStacking(OperationStacking.Mode.DECIMATED, 2);
+        assertSame(OperationStacking.Mode.DECIMATED, operation.getMode());
+        assertEquals(2, operation.getFrameCount());
+        assertMean(operation, 2, 5);
+        step(operation);
+        assertFalse(operation.hasNewOutput());
+        step(operation);
+        assertTrue(operation.hasNewOutput());
+        assertMean(operation, 6, 7);
+
+        // смена K сохраняет режим
+        assertTrue(operation.setParameters(3));
+        assertSame(OperationStacking.Mode.DECIMATED, operation.getMode());
+        step(operation);
+        step(operation);
+        assertFalse(operation.hasNewOutput());
+        step(operation);
+        assertTrue(operation.hasNewOutput());
+        assertMean(operation, 8, 10);
+
+        // строкой - обратно в скользящее среднее
+        assertTrue(operation.setParameters("moving,2"));
+        step(operation);
+        assertMean(operation, 11, 11);
+        step(operation);
+        assertMean(operation, 11, 12);
+        step(operation);
+        assertMean(operation, 12, 13);
+    }
+
+    @Test
+    public void passThroughWhenSingleFrameOrDisabled() {
+        OperationStacking operation = create(OperationStacking.Mode.MOVING, 1);
+        step(operation);
+        assertTrue(operation.isPassThrough());
+        assertTrue(operation.hasNewOutput());
+        assertSame(inputs, operation.getOutputSignals());
+
+        operation.setStacking(OperationStacking.Mode.MOVING, 2);
+        operation.setEnabled(false);
+        step(operation);
+        assertSame(inputs, operation.getOutputSignals());
+        operation.setEnabled(true);
+        // выключение и включение применяются в начале кадра
+        assertSame(inputs, operation.getOutputSignals());
+        step(operation);
+        assertMean(operation, 2, 2);
+    }
+}
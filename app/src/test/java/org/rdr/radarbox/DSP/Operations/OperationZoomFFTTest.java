@@ -0,0 +1,82 @@
+package org.rdr.radarbox.DSP.Operations;
+
+import org.junit.Test;
+import org.rdr.radarbox.DSP.ComplexSignal;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Сравнение {@link OperationZoomFFT} с прямым вычислением y(t) = sum_f x[f]*exp(-2*pi*i*f*dF*t)
+ * и выбор способа вычисления */
+public class OperationZoomFFTTest {
+    private static final int LENGTH = 350;
+    /** Шаг по частоте, МГц */
+    private static final float STEP = 4;
+    /** Шаг дальности 512-точечного БПФ, нс */
+    private static final float BIN = 1000f / (STEP * 512);
+
+    private static ComplexSignal input(Random random) {
+        float[] y = new float[2 * LENGTH];
+        for (int i = 0; i < y.length; i++)
+            y[i] = 2 * random.nextFloat() - 1;
+        float[] x = new float[LENGTH];
+        for (int f = 0; f < LENGTH; f++)
+            x[f] = 1400 + STEP * f;
+        return new ComplexSignal(y, ComplexSignal.SamplesOrder.RE_IM_RE_IM).setX(x).setUnitsX("MHz");
+    }
+
+    /** Относительная среднеквадратичная погрешность по сравнению с прямым вычислением */
+    private static double check(OperationZoomFFT.Method method, float tMin, float tMax, int count) {
+        ComplexSignal signal = input(new Random(count));
+        ArrayList<ComplexSignal> inputs = new ArrayList<>();
+        inputs.add(signal);
+        OperationZoomFFT operation = new OperationZoomFFT();
+        operation.setRange(tMin, tMax, count);
+        operation.setInputSignals(inputs);
+        operation.doOperation();
+        assertEquals(method, operation.getMethod());
+        float[] in = signal.getData(), out = operation.getOutputSignals().get(0).getData();
+        double error = 0, norm = 0;
+        for (int j = 0; j < count; j++) {
+            double t = tMin + j * ((double) tMax - tMin) / (count - 1);
+            double re = 0, im = 0;
+            for (int f = 0; f < LENGTH; f++) {
+                double angle = -2 * Math.PI * ((f * STEP * t / 1000) % 1);
+                double c = Math.cos(angle), s = Math.sin(angle);
+                re += in[2 * f] * c - in[2 * f + 1] * s;
+                im += in[2 * f] * s + in[2 * f + 1] * c;
+            }
+            error += (out[2 * j] - re) * (out[2 * j] - re) + (out[2 * j + 1] - im) * (out[2 * j + 1] - im);
+            norm += re * re + im * im;
+        }
+        return Math.sqrt(error / norm);
+    }
+
+    @Test
+    public void fewPointsUseGoertzel() {
+        double error = check(OperationZoomFFT.Method.GOERTZEL, 3.1f, 47.3f, 8);
+        assertTrue("error " + error, error < 1e-5);
+    }
+
+    @Test
+    public void arbitraryGridUsesChirpZ() {
+        double error = check(OperationZoomFFT.Method.CHIRP_Z, 3.1f, 47.3f, 300);
+        assertTrue("error " + error, error < 1e-4);
+    }
+
+    /** Точки на бинах 512-точечного БПФ: одно БПФ выгоднее двух БПФ chirp-z длины 432 или 675 */
+    @Test
+    public void pointsOnFftBinsUseFullFft() {
+        for (int count : new int[] {64, 300}) {
+            double error = check(OperationZoomFFT.Method.FULL_FFT, 5 * BIN,
+                    (5 + count - 1) * BIN, count);
+            assertTrue("M=" + count + " error " + error, error < 1e-4);
+        }
+        // шаг в два бина, интервал переходит через границу периода
+        double error = check(OperationZoomFFT.Method.FULL_FFT, 400 * BIN, 598 * BIN, 100);
+        assertTrue("error " + error, error < 1e-4);
+    }
+}
@@ -0,0 +1,155 @@
+package org.rdr.radarbox.DSP;
+
+import org.junit.Test;
+import org.rdr.radarbox.DSP.Operations.OperationDSP;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Порядок и целостность кадров конвейера {@link ProcessingPipeline} при ступенях
+ * с разной длительностью */
+public class ProcessingPipelineTest {
+    private static final int LENGTH = 8;
+    private static final int FRAMES = 40;
+    private static final int DEPTH = 3;
+
+    /** Операция: выход - сумма входных сигналов плюс константа, с задержкой.
+     * Операция без входов выдаёт номер кадра */
+    private static class Stage implements OperationDSP {
+        private final String name;
+        private final float offset;
+        private final int[] delays;
+        private final ArrayList<ComplexSignal> outputs = new ArrayList<>();
+        private ArrayList<ComplexSignal> inputs = null;
+        private int frame = 0;
+        Runnable onStart = null;
+        Runnable onFinish = null;
+
+        /** @param delays задержки в мс по кадрам (по кругу) */
+        Stage(String name, float offset, int... delays) {
+            this.name = name;
+            this.offset = offset;
+            this.delays = delays;
+            outputs.add(new ComplexSignal(LENGTH).setName(name));
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void setInputSignals(ArrayList<ComplexSignal> inputSignals) {
+            inputs = inputSignals;
+        }
+
+        @Override
+        public ArrayList<ComplexSignal> getOutputSignals() {
+            return outputs;
+        }
+
+        @Override
+        public void doOperation() {
+            if (onStart != null)
+                onStart.run();
+            float[] y = outputs.get(0).getData();
+            Arrays.fill(y, inputs == null ? frame : offset);
+            if (inputs != null)
+                for (ComplexSignal input : inputs)
+                    for (int j = 0; j < y.length; j++)
+                        y[j] += input.getData()[j];
+            int delay = delays.length > 0 ? delays[frame % delays.length] : 0;
+            frame++;
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (onFinish != null)
+                onFinish.run();
+        }
+
+        @Override
+        public boolean setParameters(Object parameters) {
+            return false;
+        }
+    }
+
+    /** Все отсчёты первого сигнала равны заданному значению */
+    private static boolean filledWith(ArrayList<ComplexSignal> signals, float value) {
+        if (signals.size() != 1)
+            return false;
+        for (float v : signals.get(0).getData())
+            if (v != value)
+                return false;
+        return true;
+    }
+
+    @Test
+    public void framesArePublishedInOrderAndWhole() throws InterruptedException {
+        // источник -> (медленная A, быстрая B) -> объединение C с переменной задержкой -> D
+        Stage source = new Stage("source", 0);
+        Stage a = new Stage("A", 1, 3);
+        Stage b = new Stage("B", 2);
+        Stage c = new Stage("C", 0, 0, 2, 1, 0, 4);
+        Stage d = new Stage("D", 10, 1);
+        ProcessingGraph graph = new ProcessingGraph();
+        graph.addOperation(source);
+        graph.addOperation(a, source);
+        graph.addOperation(b, source);
+        graph.addOperation(c, a, b);
+        graph.addOperation(d, c);
+
+        // кадры от начала выполнения источника до конца последней ступени
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        source.onStart = () -> maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+        d.onFinish = active::decrementAndGet;
+
+        ProcessingPipeline pipeline = new ProcessingPipeline(graph, DEPTH);
+        assertEquals(DEPTH, pipeline.getDepth());
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        long[] last = {-1};
+        ArrayList<ComplexSignal> buffer = new ArrayList<>();
+        pipeline.setFrameListener(frameNumber -> {
+            if (frameNumber != last[0] + 1)
+                errors.add("frame " + frameNumber + " after " + last[0]);
+            last[0] = frameNumber;
+            // опубликованы выходы именно этого кадра на всех ступенях
+            if (!pipeline.copyPublishedSignals(a, buffer) || !filledWith(buffer, frameNumber + 1))
+                errors.add("A of frame " + frameNumber);
+            if (!pipeline.copyPublishedSignals(d, buffer)
+                    || !filledWith(buffer, 2 * frameNumber + 13))
+                errors.add("D of frame " + frameNumber);
+            if (pipeline.getInFlight() > pipeline.getDepth())
+                errors.add("in flight " + pipeline.getInFlight());
+        });
+
+        for (int f = 0; f < FRAMES; f++) {
+            assertTrue(pipeline.submit());
+            assertTrue(pipeline.getInFlight() <= DEPTH);
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (pipeline.getPublishedCount() < FRAMES && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        pipeline.shutdown();
+
+        assertEquals(FRAMES, pipeline.getPublishedCount());
+        assertEquals(FRAMES - 1, last[0]);
+        assertEquals(Collections.emptyList(), errors);
+        // медленная ступень заполняет конвейер, но кадров в обработке не больше глубины
+        assertEquals(DEPTH, maxActive.get());
+        // выходы источника не публикуются: они перезаписываются следующим кадром
+        assertFalse(pipeline.copyPublishedSignals(source, buffer));
+        assertFalse(pipeline.submit());
+    }
+}
@@ -0,0 +1,58 @@
+package org.rdr.radarbox.DSP;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Чтение отсчётов канала для БПФ в фиксированной точке ({@link RawChannelView#copyWeightedTo}) */
+public class RawChannelViewTest {
+    /** Произведение отсчёта на вес в формате Q15 со сдвигом и округлением */
+    private static double product(int x, int w, int shift) {
+        return (double) x * w / (1 << shift);
+    }
+
+    /** Полная шкала отсчётов и весов не должна переполнять short ни при каком знаке.
+     * Веса с модулем 2^14, в том числе с ошибкой округления компонент (11586, 11586);
+     * отсчёт 23169 - наибольший, при котором сдвиг на единицу меньше, чем для полной шкалы */
+    @Test
+    public void fullScaleDoesNotWrap() {
+        int[] values = {Short.MAX_VALUE, Short.MIN_VALUE, -Short.MAX_VALUE, 23169, -23169};
+        int[][] pairs = {{1 << 14, 0}, {11585, 11585}, {11586, 11585}, {11586, 11586}};
+        for (int re : values)
+            for (int im : values)
+                for (int[] pair : pairs)
+                    for (int sign = 0; sign < 8; sign++) {
+                        int wr = (sign & 1) == 0 ? pair[0] : -pair[0];
+                        int wi = (sign & 2) == 0 ? pair[1] : -pair[1];
+                        if ((sign & 4) != 0) {
+                            int t = wr; wr = wi; wi = t;
+                        }
+                        short[] frame = {(short) re, (short) im};
+                        RawChannelView view = new RawChannelView(frame, 0, 0, 0, 2, 1, true);
+                        short[] buffer = new short[4];
+                        int shift = view.copyWeightedTo(buffer,
+                                new short[] {(short) wr, (short) wi}, 1);
+                        double expectedRe = product(re, wr, shift) - product(im, wi, shift);
+                        double expectedIm = product(re, wi, shift) + product(im, wr, shift);
+                        assertEquals(expectedRe, buffer[0], 1.0);
+                        assertEquals(expectedIm, buffer[1], 1.0);
+                        assertEquals(0, buffer[2]);
+                        assertEquals(0, buffer[3]);
+                    }
+    }
+
+    /** Слабый сигнал копируется без сдвига, старшие разряды используются */
+    @Test
+    public void weakSignalKeepsPrecision() {
+        short[] frame = {3, -2, 1, 0};
+        RawChannelView view = new RawChannelView(frame, 0, 0, 0, 2, 2, true);
+        short[] buffer = new short[4];
+        int shift = view.copyWeightedTo(buffer, new short[] {1 << 14, 0, 0, 1 << 14}, 2);
+        assertTrue(shift <= 2);
+        assertEquals(3 << 14 >> shift, buffer[0]);
+        assertEquals(-2 << 14 >> shift, buffer[1]);
+        assertEquals(0, buffer[2]);
+        assertEquals(1 << 14 >> shift, buffer[3]);
+    }
+}
@@ -0,0 +1,77 @@
+package org.rdr.radarbox.DSP;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Сравнение {@link RealFftPlan} с прямым ДПФ действительного сигнала */
+public class RealFftPlanTest {
+    private static final double TOLERANCE = 1e-5;
+
+    /** Спектр действительных отсчётов src[offset + i*stride], i < count, дополненных нулями */
+    private static double[] expectedSpectrum(float[] src, int offset, int stride, int count,
+                                             int n) {
+        float[] x = new float[2 * n];
+        for (int i = 0; i < count; i++)
+            x[2 * i] = src[offset + i * stride];
+        return DftReference.dft(x, n, false);
+    }
+
+    @Test
+    public void matchesDirectDft() {
+        Random random = new Random(4);
+        // половина длины: степень двойки, составная, простая (Блюстейн)
+        for (int n : new int[]{2, 4, 6, 10, 34, 64, 350, 512, 1000, 2 * 127}) {
+            float[] src = new float[n];
+            for (int i = 0; i < n; i++)
+                src[i] = 2 * random.nextFloat() - 1;
+            float[] dest = new float[2 * n];
+            RealFftPlan.get(n).execute(src, 0, 1, n, dest);
+            double error = DftReference.relativeError(dest,
+                    expectedSpectrum(src, 0, 1, n, n), 2 * n);
+            assertTrue("n=" + n + " error " + error, error < TOLERANCE);
+        }
+    }
+
+    @Test
+    public void stridedPartialInputIsZeroPadded() {
+        Random random = new Random(5);
+        int n = 128, count = 100;
+        float[] complex = DftReference.randomSignal(random, n);
+        // мнимые части комплексного массива: offset 1, stride 2
+        float[] dest = new float[2 * n];
+        RealFftPlan.get(n).execute(complex, 1, 2, count, dest);
+        double error = DftReference.relativeError(dest,
+                expectedSpectrum(complex, 1, 2, count, n), 2 * n);
+        assertTrue("error " + error, error < TOLERANCE);
+    }
+
+    @Test
+    public void inPlaceOverComplexArray() {
+        Random random = new Random(6);
+        int n = 350;
+        float[] data = DftReference.randomSignal(random, n);
+        double[] expected = expectedSpectrum(data, 0, 2, n, n);
+        RealFftPlan.get(n).execute(data, 0, 2, n, data);
+        double error = DftReference.relativeError(data, expected, 2 * n);
+        assertTrue("error " + error, error < TOLERANCE);
+    }
+
+    @Test
+    public void supportsOnlyEvenLengths() {
+        assertTrue(RealFftPlan.isSupported(2));
+        assertFalse(RealFftPlan.isSupported(1));
+        assertFalse(RealFftPlan.isSupported(35));
+        assertEquals(350, RealFftPlan.get(350).getLength());
+        assertEquals(175, RealFftPlan.get(350).getHalfPlan().getLength());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOddLength() {
+        RealFftPlan.get(35);
+    }
+}
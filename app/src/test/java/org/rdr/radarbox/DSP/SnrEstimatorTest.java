@@ -0,0 +1,82 @@
+package org.rdr.radarbox.DSP;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/** Сравнение скользящей оценки {@link SnrEstimator} (алгоритм Уэлфорда) с прямым вычислением
+ * среднего и дисперсии по последним кадрам */
+public class SnrEstimatorTest {
+    /** ОСШ по частотам и по средним мощностям, вычисленные заново по окну кадров */
+    private static double[] bruteForce(float[][] frames, int last, int count, int nF) {
+        double[] result = new double[nF + 1];
+        double signalSum = 0, noiseSum = 0;
+        for (int f = 0; f < nF; f++) {
+            double mean = 0;
+            for (int i = last - count + 1; i <= last; i++)
+                mean += frames[i][f];
+            mean /= count;
+            double variance = 0;
+            for (int i = last - count + 1; i <= last; i++)
+                variance += (frames[i][f] - mean) * (frames[i][f] - mean);
+            variance /= count - 1;
+            result[f] = toDecibels(mean * mean, variance);
+            signalSum += mean * mean;
+            noiseSum += variance;
+        }
+        result[nF] = toDecibels(signalSum, noiseSum);
+        return result;
+    }
+
+    private static double toDecibels(double signal, double noise) {
+        return 10 * Math.log10(Math.max(signal, 1e-20) / Math.max(noise, 1e-20));
+    }
+
+    @Test
+    public void matchesBruteForceOverSlidingWindow() {
+        Random random = new Random(15);
+        int nF = 64, window = 10, frameCount = 3000;
+        float[][] frames = new float[frameCount][nF];
+        SnrEstimator estimator = new SnrEstimator(window, nF);
+        for (int i = 0; i < frameCount; i++) {
+            for (int f = 0; f < nF; f++)
+                frames[i][f] = (float) (1000 + 50 * f + (f + 1) * random.nextGaussian());
+            estimator.calculateSNR(frames[i]);
+            // в том числе до заполнения окна и после точного пересчёта (каждые 1024 кадра)
+            if (i < 2 || (i % 97 != 0 && i != frameCount - 1))
+                continue;
+            int count = Math.min(i + 1, window);
+            assertEquals(count, estimator.getAccumulatedCount());
+            double[] expected = bruteForce(frames, i, count, nF);
+            float[] actual = estimator.getArrayAvgSNR();
+            double max = Double.NEGATIVE_INFINITY;
+            for (int f = 0; f < nF; f++) {
+                assertEquals("frame " + i + " f " + f, expected[f], actual[f], 1e-3);
+                max = Math.max(max, expected[f]);
+            }
+            assertEquals(expected[nF], estimator.getAvgSNR(), 1e-3);
+            assertEquals(max, estimator.getMaxSNR(), 1e-3);
+        }
+    }
+
+    @Test
+    public void singleFrameGivesZero() {
+        SnrEstimator estimator = new SnrEstimator(8);
+        estimator.calculateSNR(new float[]{1, 2, 3, 4, 5, 6, 7, 8});
+        assertEquals(0, estimator.getAvgSNR(), 0);
+        assertEquals(0, estimator.getArrayAvgSNR()[3], 0);
+    }
+
+    @Test
+    public void lengthChangeResetsWindow() {
+        SnrEstimator estimator = new SnrEstimator(4, 16);
+        for (int i = 0; i < 6; i++)
+            estimator.calculateSNR(new float[16]);
+        assertEquals(4, estimator.getAccumulatedCount());
+        estimator.calculateSNR(new float[32]);
+        assertEquals(1, estimator.getAccumulatedCount());
+        assertEquals(32, estimator.getArrayAvgSNR().length);
+    }
+}
@@ -0,0 +1,61 @@
+package org.rdr.radarbox.DSP;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/** Коэффициенты {@link Window} и уровень боковых лепестков их спектра */
+public class WindowTest {
+    private static final int LENGTH = 350;
+    /** 512-точечное БПФ с 16-кратной интерполяцией спектра дополнением нулями */
+    private static final int FFT_LENGTH = 512 * 16;
+
+    /** Наибольший боковой лепесток спектра окна относительно главного, дБ. Главный лепесток
+     * заканчивается первым минимумом модуля спектра */
+    private static double peakSidelobe(Window.Type type) {
+        float[] w = Window.getCoefficients(type, LENGTH, 0);
+        float[] data = new float[2 * FFT_LENGTH];
+        for (int n = 0; n < LENGTH; n++)
+            data[2 * n] = w[n];
+        FftPlan.get(FFT_LENGTH, false).execute(data, 0);
+        double[] power = new double[FFT_LENGTH / 2];
+        for (int k = 0; k < power.length; k++)
+            power[k] = data[2 * k] * data[2 * k] + data[2 * k + 1] * data[2 * k + 1];
+        int k = 1;
+        while (k < power.length && power[k] <= power[k - 1])
+            k++;
+        double sidelobe = 0;
+        for (; k < power.length; k++)
+            sidelobe = Math.max(sidelobe, power[k]);
+        return 10 * Math.log10(sidelobe / power[0]);
+    }
+
+    @Test
+    public void rectangularSidelobes() {
+        assertEquals(-13.3, peakSidelobe(Window.Type.RECTANGULAR), 0.1);
+    }
+
+    @Test
+    public void hannSidelobes() {
+        assertEquals(-31.5, peakSidelobe(Window.Type.HANN), 0.1);
+    }
+
+    @Test
+    public void blackmanHarrisSidelobes() {
+        assertEquals(-92.0, peakSidelobe(Window.Type.BLACKMAN_HARRIS), 0.1);
+    }
+
+    @Test
+    public void windowsAreSymmetricAndCached() {
+        for (Window.Type type : Window.Type.values()) {
+            float[] w = Window.getCoefficients(type, LENGTH, 0);
+            assertSame(w, Window.getCoefficients(type, LENGTH, 0));
+            for (int n = 0; n < LENGTH; n++) {
+                assertEquals(type + " n=" + n, w[n], w[LENGTH - 1 - n], 1e-6f);
+                assertTrue(type + " n=" + n, w[n] >= 0 && w[n] <= 1 + 1e-6f);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.rdr.radarbox.Device;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/** Сравнение {@link ReshufflePlan} с исходным циклом перемешивания
+ * {@link DeviceRawDataAdapter#reshuffleRawData} для всех порядков {@link
+ * DeviceRawDataAdapter.DimensionOrder} */
+public class ReshufflePlanTest {
+    /** Исходная реализация перемешивания: поэлементное копирование с шагами по измерениям */
+    private static short[] baseline(short[] rawData, DeviceRawDataAdapter.DimensionOrder order,
+                                    int tfCount, int rxCount, int txCount, boolean isComplex) {
+        int ps = isComplex ? 2 : 1;
+        int txSkipStep = 1, rxSkipStep = 1, tfSkipStep = 1;
+        switch (order) {
+            case TF_RX_TX:
+                return rawData.clone();
+            case TF_TX_RX:
+                txSkipStep = tfCount*ps;
+                rxSkipStep = txCount*tfCount*ps;
+                tfSkipStep = ps;
+                break;
+            case RX_TF_TX:
+                txSkipStep = tfCount*rxCount*ps;
+                tfSkipStep = rxCount*ps;
+                rxSkipStep = ps;
+                break;
+            case RX_TX_TF:
+                txSkipStep = rxCount*ps;
+                rxSkipStep = ps;
+                tfSkipStep = txCount*rxCount*ps;
+                break;
+            case TX_RX_TF:
+                txSkipStep = ps;
+                tfSkipStep = txCount*rxCount*ps;
+                rxSkipStep = txCount*ps;
+                break;
+            case TX_TF_RX:
+                txSkipStep = ps;
+                tfSkipStep = txCount*ps;
+                rxSkipStep = tfCount*txCount*ps;
+                break;
+        }
+        short[] result = new short[rawData.length];
+        for (int tx = 0; tx < txCount; tx++)
+            for (int rx = 0; rx < rxCount; rx++)
+                for (int tf = 0; tf < tfCount; tf++)
+                    for (int p = 0; p < ps; p++)
+                        result[tx*rxCount*tfCount*ps + rx*tfCount*ps + tf*ps + p] =
+                                rawData[tx*txSkipStep + rx*rxSkipStep + tf*tfSkipStep + p];
+        return result;
+    }
+
+    private static short[] randomFrame(Random random, int length) {
+        short[] frame = new short[length];
+        for (int i = 0; i < length; i++)
+            frame[i] = (short) random.nextInt();
+        return frame;
+    }
+
+    @Test
+    public void matchesBaselineForEveryOrder() {
+        Random random = new Random(17);
+        // размеры меньше и больше блока транспонирования, в том числе не кратные ему
+        int[][] sizes = {{1, 1, 1}, {5, 1, 1}, {16, 2, 3}, {70, 4, 2}, {350, 3, 5},
+                {ReshufflePlan.TILE, ReshufflePlan.TILE + 1, 2}, {1, 8, 8}};
+        for (DeviceRawDataAdapter.DimensionOrder order :
+                DeviceRawDataAdapter.DimensionOrder.values())
+            for (int[] size : sizes)
+                for (boolean isComplex : new boolean[]{false, true}) {
+                    int tf = size[0], rx = size[1], tx = size[2];
+                    short[] raw = randomFrame(random, tf*rx*tx*(isComplex ? 2 : 1));
+                    short[] expected = baseline(raw, order, tf, rx, tx, isComplex);
+                    String name = order + " tf " + tf + " rx " + rx + " tx " + tx +
+                            (isComplex ? " complex" : " real");
+                    ReshufflePlan plan = ReshufflePlan.get(order, tf, rx, tx, isComplex);
+                    short[] dest = new short[raw.length];
+                    plan.execute(raw, dest);
+                    assertArrayEquals(name, expected, dest);
+                    short[] inPlace = raw.clone();
+                    plan.execute(inPlace);
+                    assertArrayEquals(name + " in place", expected, inPlace);
+                    short[] adapter = raw.clone();
+                    assertTrue(DeviceRawDataAdapter.reshuffleRawData(adapter, order, tf, rx, tx,
+                            isComplex));
+                    assertArrayEquals(name + " adapter", expected, adapter);
+                }
+    }
+
+    @Test
+    public void repeatedRequestReturnsSamePlan() {
+        ReshufflePlan plan = ReshufflePlan.get(DeviceRawDataAdapter.DimensionOrder.RX_TF_TX,
+                350, 4, 2, true);
+        assertSame(plan, ReshufflePlan.get(DeviceRawDataAdapter.DimensionOrder.RX_TF_TX,
+                350, 4, 2, true));
+        assertSame(ReshufflePlan.Mode.IDENTITY,
+                ReshufflePlan.get(DeviceRawDataAdapter.DimensionOrder.TF_RX_TX, 350, 4, 2, true)
+                        .getMode());
+    }
+}